@@ -16,7 +16,14 @@ db.createCollection('notifications');
 db.createCollection('portfolios');
 db.createCollection('users');
 db.createCollection('admins');
+db.createCollection('candles');
 
 // Создаем индексы для быстрого поиска
 db.admins.createIndex({ "username": 1 }, { unique: true });
+db.candles.createIndex({ "cryptoCurrency": 1, "interval": 1, "openTime": 1 }, { unique: true });
+// Активные алерты по паре (криптовалюта, фиат) и EMA-алерты для проверки,
+// алерты пользователя для команд бота
+db.notifications.createIndex({ "isActive": 1, "cryptoCurrency": 1, "fiatCurrency": 1 }, { name: "notifications_active_pair" });
+db.notifications.createIndex({ "thresholdType": 1, "chatId": 1 }, { name: "notifications_type_chat" });
+db.notifications.createIndex({ "chatId": 1, "isActive": 1 }, { name: "notifications_chat_active" });
 
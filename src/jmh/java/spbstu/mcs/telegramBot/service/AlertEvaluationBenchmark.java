@@ -0,0 +1,118 @@
+package spbstu.mcs.telegramBot.service;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import spbstu.mcs.telegramBot.DB.services.AlertThresholdIndex;
+import spbstu.mcs.telegramBot.model.Currency;
+import spbstu.mcs.telegramBot.model.FixedPoint;
+import spbstu.mcs.telegramBot.model.Notification;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение проверки порогов алертов: прежняя проверка через {@link BigDecimal}
+ * с переводом порогов из {@code Double} при каждой проверке и проверка
+ * в минимальных единицах по порогам из {@link AlertThresholdIndex}.
+ * Пороги читаются так же, как в {@link AlertsHandling}: вызовом
+ * {@link AlertThresholdIndex#thresholdsOf} для каждого алерта, с его блокировкой.
+ *
+ * <p>Запуск: {@code ./gradlew jmh}. Обе проверки возвращают число сработавших алертов.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AlertEvaluationBenchmark {
+    private static final BigDecimal HUNDRED = new BigDecimal("100");
+
+    @Param({"1000", "100000"})
+    int alerts;
+
+    private List<Notification> notifications;
+    private AlertThresholdIndex alertIndex;
+    private BigDecimal price;
+    private long priceMinor;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        notifications = new ArrayList<>(alerts);
+        for (int i = 0; i < alerts; i++) {
+            double start = 40000 + random.nextInt(20000) + random.nextInt(100) / 100.0;
+            Notification notification;
+            if (i % 2 == 0) {
+                notification = new Notification(String.valueOf(i), Currency.Crypto.BTC, Currency.Fiat.USD,
+                        Notification.ThresholdType.VALUE, true, "1",
+                        start + random.nextInt(5000), start - random.nextInt(5000), start);
+            } else {
+                notification = new Notification(String.valueOf(i), Currency.Crypto.BTC, Currency.Fiat.USD,
+                        Notification.ThresholdType.PERCENT, true, "1", null, null, start);
+                notification.setUpPercent(1 + random.nextInt(1000) / 100.0);
+                notification.setDownPercent(1 + random.nextInt(1000) / 100.0);
+            }
+            notifications.add(notification);
+        }
+        alertIndex = new AlertThresholdIndex();
+        alertIndex.reload(notifications);
+        price = new BigDecimal("50123.45");
+        priceMinor = FixedPoint.toMinor(price);
+    }
+
+    @Benchmark
+    public int bigDecimal() {
+        int triggered = 0;
+        for (Notification notification : notifications) {
+            if (notification.getThresholdType() == Notification.ThresholdType.VALUE) {
+                if (price.compareTo(BigDecimal.valueOf(notification.getUpperBoundary())) >= 0
+                        || price.compareTo(BigDecimal.valueOf(notification.getLowerBoundary())) <= 0) {
+                    triggered++;
+                }
+            } else {
+                BigDecimal startPrice = BigDecimal.valueOf(notification.getStartPrice());
+                BigDecimal percentChange = price.subtract(startPrice)
+                        .divide(startPrice, 4, RoundingMode.HALF_UP)
+                        .multiply(HUNDRED);
+                if (percentChange.compareTo(BigDecimal.valueOf(notification.getUpPercent())) >= 0
+                        || percentChange.compareTo(BigDecimal.valueOf(-notification.getDownPercent())) <= 0) {
+                    triggered++;
+                }
+            }
+        }
+        return triggered;
+    }
+
+    @Benchmark
+    public int fixedPoint() {
+        int triggered = 0;
+        for (Notification notification : notifications) {
+            AlertThresholdIndex.Thresholds alert = alertIndex.thresholdsOf(notification);
+            if (notification.getThresholdType() == Notification.ThresholdType.VALUE) {
+                if (priceMinor >= alert.upper() || priceMinor <= alert.lower()) {
+                    triggered++;
+                }
+            } else if (alert.start() > 0) {
+                long percentChange = FixedPoint.percentChange(priceMinor, alert.start());
+                if (percentChange >= alert.upPercent() || percentChange <= -alert.downPercent()) {
+                    triggered++;
+                }
+            }
+        }
+        return triggered;
+    }
+}
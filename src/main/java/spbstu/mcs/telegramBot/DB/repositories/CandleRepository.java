@@ -0,0 +1,20 @@
+package spbstu.mcs.telegramBot.DB.repositories;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+import spbstu.mcs.telegramBot.model.Candle;
+import spbstu.mcs.telegramBot.model.Currency;
+
+import java.util.Optional;
+
+/**
+ * Репозиторий для работы со свечами в MongoDB.
+ * Расширяет {@link MongoRepository} для базовых CRUD операций с коллекцией свечей.
+ *
+ * @see MongoRepository
+ * @see Candle
+ */
+@Repository
+public interface CandleRepository extends MongoRepository<Candle, String> {
+    Optional<Candle> findByCryptoCurrencyAndIntervalAndOpenTime(Currency.Crypto cryptoCurrency, String interval, Long openTime);
+}
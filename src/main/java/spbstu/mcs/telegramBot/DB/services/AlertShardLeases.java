@@ -0,0 +1,309 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import spbstu.mcs.telegramBot.model.Notification;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Распределение алертов между экземплярами бота через аренду шардов в MongoDB.
+ *
+ * <p>Алерт относится к одному из {@code alerts.shards.count} шардов по хешу id.
+ * Каждый шард — документ коллекции {@value #LEASES} с владельцем и сроком аренды;
+ * экземпляр проверяет только алерты своих шардов. Захват шарда — условное обновление
+ * документа с истекшей арендой, поэтому у шарда не бывает двух владельцев.</p>
+ *
+ * <p>Экземпляры отмечаются в коллекции {@value #NODES}. При каждом продлении экземпляр
+ * держит не больше {@code ceil(шардов / живых экземпляров)} шардов: лишние отпускает,
+ * недостающие забирает из свободных и просроченных. Шарды упавшего экземпляра
+ * освобождаются по истечении аренды и разбираются остальными.</p>
+ *
+ * <p>Локально шард считается своим до половины срока аренды после последнего продления:
+ * запас покрывает расхождение часов между экземплярами.</p>
+ */
+@Component
+public class AlertShardLeases {
+    private static final Logger log = LoggerFactory.getLogger(AlertShardLeases.class);
+    static final String LEASES = "alert_shard_leases";
+    static final String NODES = "alert_nodes";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final int shardCount;
+    private final long leaseMillis;
+    private final String instanceId;
+
+    private volatile BitSet owned = new BitSet();
+    private volatile long validUntil;
+    private volatile int liveNodes = 1;
+    private final AtomicLong ownershipVersion = new AtomicLong();
+    private final AtomicLong renewals = new AtomicLong();
+    private final AtomicLong renewFailures = new AtomicLong();
+    private final AtomicLong confirmFailures = new AtomicLong();
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+
+    /**
+     * Без {@code mongoTemplate} или при {@code enabled = false} экземпляр работает
+     * без координации: все алерты принадлежат текущему узлу.
+     */
+    @Autowired
+    public AlertShardLeases(MongoTemplate mongoTemplate,
+                            @Value("${alerts.shards.enabled:true}") boolean enabled,
+                            @Value("${alerts.shards.count:64}") int shardCount,
+                            @Value("${alerts.shards.lease-ms:30000}") long leaseMillis) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled && mongoTemplate != null;
+        this.shardCount = Math.max(1, shardCount);
+        this.leaseMillis = leaseMillis;
+        this.instanceId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    /**
+     * Возвращает номер шарда алерта.
+     *
+     * @param alertId id алерта
+     * @return номер шарда от 0 до {@code alerts.shards.count - 1}
+     */
+    public int shardOf(String alertId) {
+        return Math.floorMod(alertId == null ? 0 : alertId.hashCode(), shardCount);
+    }
+
+    /**
+     * Проверяет, должен ли текущий экземпляр проверять алерт.
+     *
+     * @param notification алерт
+     * @return true, если шард алерта арендован этим экземпляром и аренда действует
+     */
+    public boolean owns(Notification notification) {
+        if (!enabled) {
+            return true;
+        }
+        return System.currentTimeMillis() < validUntil && owned.get(shardOf(notification.getId()));
+    }
+
+    /**
+     * Проверяет, закреплен ли шард алерта за текущим экземпляром, без учета срока
+     * аренды. Определяет, какие алерты загружать в локальный индекс порогов;
+     * проверять алерт можно только при {@link #owns(Notification)}.
+     *
+     * @param notification алерт
+     * @return true, если шард алерта арендован этим экземпляром
+     */
+    public boolean holds(Notification notification) {
+        return !enabled || owned.get(shardOf(notification.getId()));
+    }
+
+    /**
+     * Подтверждает по базе владение шардами перед записью результатов проверки.
+     * Экземпляр, простоявший дольше аренды (например, на паузе сборщика мусора),
+     * мог потерять шарды, которые уже проверяет другой экземпляр; результаты
+     * по таким шардам записывать и отправлять нельзя.
+     *
+     * @return предикат: шард алерта арендован этим экземпляром по базе и по локальному сроку
+     */
+    public Predicate<Notification> confirmOwnership() {
+        if (!enabled) {
+            return _ -> true;
+        }
+        long now = System.currentTimeMillis();
+        BitSet local = owned;
+        if (now >= validUntil) {
+            return _ -> false;
+        }
+        BitSet confirmed = new BitSet(shardCount);
+        try {
+            mongoTemplate.find(Query.query(Criteria.where("owner").is(instanceId).and("expiresAt").gt(now)),
+                    Document.class, LEASES)
+                    .forEach(lease -> confirmed.set(lease.getInteger("_id")));
+        } catch (Exception e) {
+            confirmFailures.incrementAndGet();
+            log.error("Failed to confirm alert shard ownership: {}", e.getMessage());
+            return _ -> false;
+        }
+        confirmed.and(local);
+        return notification -> confirmed.get(shardOf(notification.getId()));
+    }
+
+    /**
+     * Показывает, распределяются ли алерты по шардам между экземплярами.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Показывает, работают ли с алертами другие экземпляры. В этом случае
+     * локальный индекс порогов не видит алерты, созданные через них.
+     */
+    public boolean isClustered() {
+        return enabled && liveNodes > 1;
+    }
+
+    /**
+     * Версия набора арендованных шардов; увеличивается при захвате новых шардов.
+     */
+    public long ownershipVersion() {
+        return ownershipVersion.get();
+    }
+
+    /**
+     * Отмечает экземпляр живым, продлевает аренду своих шардов и выравнивает
+     * их число по числу живых экземпляров.
+     */
+    @PostConstruct
+    @Scheduled(fixedDelayString = "${alerts.shards.renew-interval-ms:10000}")
+    public void renew() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        try {
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(instanceId)),
+                    new Update().set("heartbeatAt", new Date(now)), NODES);
+            mongoTemplate.remove(Query.query(Criteria.where("heartbeatAt").lt(new Date(now - 10 * leaseMillis))), NODES);
+            liveNodes = (int) Math.max(1, mongoTemplate.count(
+                    Query.query(Criteria.where("heartbeatAt").gt(new Date(now - leaseMillis))), NODES));
+            ensureShardDocuments();
+
+            mongoTemplate.updateMulti(Query.query(Criteria.where("owner").is(instanceId)),
+                    new Update().set("expiresAt", now + leaseMillis), LEASES);
+            BitSet current = new BitSet(shardCount);
+            mongoTemplate.find(Query.query(Criteria.where("owner").is(instanceId)), Document.class, LEASES)
+                    .forEach(lease -> current.set(lease.getInteger("_id")));
+
+            int target = (shardCount + liveNodes - 1) / liveNodes;
+            if (current.cardinality() > target) {
+                releaseExtra(current, current.cardinality() - target);
+            } else if (current.cardinality() < target) {
+                acquireFree(current, target - current.cardinality(), now);
+            }
+
+            if (!current.equals(owned)) {
+                BitSet gained = (BitSet) current.clone();
+                gained.andNot(owned);
+                if (!gained.isEmpty()) {
+                    ownershipVersion.incrementAndGet();
+                }
+                log.info("Alert shards of {}: {} of {} ({} live nodes)",
+                        instanceId, current.cardinality(), shardCount, liveNodes);
+            }
+            owned = current;
+            validUntil = now + leaseMillis / 2;
+            renewals.incrementAndGet();
+        } catch (Exception e) {
+            renewFailures.incrementAndGet();
+            log.error("Failed to renew alert shard leases: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Отпускает все шарды при остановке, чтобы остальные экземпляры
+     * забрали их сразу, не дожидаясь истечения аренды.
+     */
+    @PreDestroy
+    public void releaseAll() {
+        if (!enabled) {
+            return;
+        }
+        validUntil = 0;
+        try {
+            mongoTemplate.updateMulti(Query.query(Criteria.where("owner").is(instanceId)),
+                    new Update().set("owner", null).set("expiresAt", 0L), LEASES);
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(instanceId)), NODES);
+        } catch (Exception e) {
+            log.warn("Failed to release alert shard leases: {}", e.getMessage());
+        }
+    }
+
+    private void ensureShardDocuments() {
+        if (mongoTemplate.count(new Query(), LEASES) >= shardCount) {
+            return;
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            try {
+                mongoTemplate.upsert(Query.query(Criteria.where("_id").is(shard)),
+                        new Update().setOnInsert("owner", null).setOnInsert("expiresAt", 0L), LEASES);
+            } catch (DuplicateKeyException e) {
+                // Документ шарда одновременно создал другой экземпляр
+            }
+        }
+    }
+
+    private void releaseExtra(BitSet current, int count) {
+        for (int shard = current.previousSetBit(shardCount - 1); shard >= 0 && count > 0;
+             shard = current.previousSetBit(shard - 1)) {
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(shard).and("owner").is(instanceId)),
+                    new Update().set("owner", null).set("expiresAt", 0L), LEASES);
+            current.clear(shard);
+            released.incrementAndGet();
+            count--;
+        }
+    }
+
+    private void acquireFree(BitSet current, int count, long now) {
+        List<Integer> free = new ArrayList<>();
+        mongoTemplate.find(Query.query(Criteria.where("expiresAt").lt(now)), Document.class, LEASES)
+                .forEach(lease -> free.add(lease.getInteger("_id")));
+        // Случайный порядок уменьшает конфликты экземпляров, стартующих одновременно
+        Collections.shuffle(free);
+        for (Integer shard : free) {
+            if (count == 0) {
+                break;
+            }
+            long modified = mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(shard).and("expiresAt").lt(now)),
+                    new Update().set("owner", instanceId).set("expiresAt", now + leaseMillis),
+                    LEASES).getModifiedCount();
+            if (modified == 1) {
+                current.set(shard);
+                acquired.incrementAndGet();
+                count--;
+            }
+        }
+    }
+
+    /**
+     * Возвращает состояние аренды шардов.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("instanceId", enabled ? instanceId : null);
+        stats.put("shards", shardCount);
+        stats.put("ownedShards", enabled ? owned.cardinality() : shardCount);
+        stats.put("liveNodes", liveNodes);
+        stats.put("leaseValid", !enabled || System.currentTimeMillis() < validUntil);
+        stats.put("renewals", renewals.get());
+        stats.put("renewFailures", renewFailures.get());
+        stats.put("confirmFailures", confirmFailures.get());
+        stats.put("acquired", acquired.get());
+        stats.put("released", released.get());
+        return stats;
+    }
+}
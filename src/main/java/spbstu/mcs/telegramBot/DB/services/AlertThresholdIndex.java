@@ -0,0 +1,568 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import org.springframework.stereotype.Component;
+import spbstu.mcs.telegramBot.model.Currency;
+import spbstu.mcs.telegramBot.model.FixedPoint;
+import spbstu.mcs.telegramBot.model.Notification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Индекс активных алертов в памяти, сгруппированный по паре (криптовалюта, фиат).
+ *
+ * <p>Границы алертов VALUE и PERCENT хранятся в отсортированных массивах
+ * {@code long} в сотых долях валюты ({@link FixedPoint}): для новой цены двоичный поиск находит ровно те алерты, чья
+ * верхняя граница не выше цены или нижняя не ниже, за O(log n + k). Алерты,
+ * далекие от своих порогов, при проверке не просматриваются. PERCENT-алерты
+ * хранят абсолютные границы, рассчитанные при создании, и индексируются так же.
+ * Пороги каждого алерта переводятся в фиксированную точку один раз при вставке
+ * и доступны проверке через {@link #thresholdsOf(Notification)}.</p>
+ *
+ * <p>EMA-алерты пересчитываются на каждой цене, поэтому хранятся отдельным списком группы.</p>
+ *
+ * <p>Индекс обновляется {@link NotificationService} при сохранении и удалении
+ * уведомлений; первоначально заполняется потоком из базы через {@link #beginReload()}.</p>
+ */
+@Component
+public class AlertThresholdIndex {
+
+    /**
+     * Пара (криптовалюта, фиат), алерты которой проверяются по одной цене.
+     */
+    public record Key(Currency.Crypto crypto, Currency.Fiat fiat) {}
+
+    /**
+     * Пороги алерта в фиксированной точке.
+     *
+     * @param upper верхняя граница в сотых долях валюты
+     * @param lower нижняя граница в сотых долях валюты
+     * @param start начальная цена в сотых долях валюты
+     * @param upPercent рост для PERCENT-алерта в сотых долях процента
+     * @param downPercent падение для PERCENT-алерта в сотых долях процента
+     */
+    public record Thresholds(long upper, long lower, long start, long upPercent, long downPercent) {
+        /**
+         * Переводит пороги уведомления; отсутствующие значения становятся нулем.
+         */
+        public static Thresholds of(Notification notification) {
+            return new Thresholds(
+                    minor(notification.getUpperBoundary()),
+                    minor(notification.getLowerBoundary()),
+                    minor(notification.getStartPrice()),
+                    minor(notification.getUpPercent()),
+                    minor(notification.getDownPercent()));
+        }
+
+        private static long minor(Double value) {
+            return value == null ? 0 : FixedPoint.toMinor(value);
+        }
+    }
+
+    /**
+     * Положение уведомления в индексе; границы запоминаются на момент вставки,
+     * чтобы удаление не зависело от последующих изменений объекта.
+     */
+    private record Entry(Notification notification, Key key, Thresholds thresholds, boolean ema) {}
+
+    private State live = new State();
+    private Reload pending;
+    private volatile boolean loaded;
+
+    /**
+     * Начинает перезагрузку индекса. Уведомления добавляются в отдельное состояние
+     * по мере чтения из базы и заменяют текущее только в {@link Reload#commit()};
+     * изменения, сделанные во время загрузки, применяются поверх загруженных данных.
+     *
+     * @return загрузка, в которую добавляются уведомления
+     */
+    public synchronized Reload beginReload() {
+        pending = new Reload();
+        return pending;
+    }
+
+    /**
+     * Полностью заменяет содержимое индекса.
+     *
+     * @param notifications активные уведомления
+     */
+    public void reload(Collection<Notification> notifications) {
+        Reload reload = beginReload();
+        notifications.forEach(reload::add);
+        reload.commit();
+    }
+
+    /**
+     * @return true, если индекс был заполнен хотя бы одной загрузкой
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Добавляет или обновляет уведомление. Неактивные алерты и алерты без
+     * границ удаляются из индекса.
+     *
+     * @param notification сохраненное уведомление
+     */
+    public synchronized void put(Notification notification) {
+        if (notification.getId() == null) {
+            return;
+        }
+        live.put(notification, false);
+        if (pending != null) {
+            pending.touched.put(notification.getId(), notification);
+        }
+    }
+
+    /**
+     * Обновляет уведомление, только если оно уже есть в индексе: запись результатов
+     * проверки не должна возвращать в индекс алерт, удаленный во время цикла.
+     *
+     * @param notification сохраненное уведомление
+     */
+    public synchronized void refresh(Notification notification) {
+        if (notification.getId() != null && live.entries.containsKey(notification.getId())) {
+            put(notification);
+        }
+    }
+
+    /**
+     * Удаляет уведомление из индекса.
+     *
+     * @param id идентификатор уведомления
+     */
+    public synchronized void remove(String id) {
+        if (id == null) {
+            return;
+        }
+        live.remove(id);
+        if (pending != null) {
+            pending.touched.put(id, null);
+        }
+    }
+
+    /**
+     * Удаляет все уведомления, удовлетворяющие условию.
+     *
+     * @param filter условие удаления
+     */
+    public synchronized void removeIf(Predicate<Notification> filter) {
+        if (pending != null) {
+            // Незавершенная загрузка не отсортирована, поэтому удаления записываются
+            // только отметками и применяются в commit() после сортировки
+            List<String> ids = new ArrayList<>(live.matching(filter));
+            ids.addAll(pending.state.matching(filter));
+            pending.touched.forEach((id, notification) -> {
+                if (notification != null && filter.test(notification)) {
+                    ids.add(id);
+                }
+            });
+            ids.forEach(id -> pending.touched.put(id, null));
+        }
+        live.removeIf(filter);
+    }
+
+    /**
+     * Очищает индекс.
+     */
+    public synchronized void clear() {
+        live = new State();
+        if (pending != null) {
+            pending.state = new State();
+            pending.touched.clear();
+        }
+    }
+
+    /**
+     * @return пары (криптовалюта, фиат), для которых есть алерты
+     */
+    public synchronized Set<Key> keys() {
+        return Set.copyOf(live.books.keySet());
+    }
+
+    /**
+     * Проверяет, есть ли в группе алерт, удовлетворяющий условию.
+     *
+     * @param key группа
+     * @param filter условие
+     * @return true, если такой алерт есть
+     */
+    public synchronized boolean anyMatch(Key key, Predicate<Notification> filter) {
+        Book book = live.books.get(key);
+        if (book == null) {
+            return false;
+        }
+        for (int index = 0; index < book.uppers.size; index++) {
+            if (filter.test(book.uppers.notifications[index])) {
+                return true;
+            }
+        }
+        return book.ema.values().stream().anyMatch(filter);
+    }
+
+    /**
+     * Возвращает пороги алерта, переведенные при вставке в индекс. Для уведомления,
+     * которого нет в индексе или которое изменилось после вставки, пороги переводятся заново.
+     *
+     * @param notification уведомление
+     * @return пороги в фиксированной точке
+     */
+    public synchronized Thresholds thresholdsOf(Notification notification) {
+        Entry entry = live.entries.get(notification.getId());
+        if (entry != null && entry.notification() == notification && entry.thresholds() != null) {
+            return entry.thresholds();
+        }
+        return Thresholds.of(notification);
+    }
+
+    /**
+     * Возвращает алерты группы, которые нужно проверить при данной цене:
+     * VALUE и PERCENT с пересеченной границей и все EMA-алерты.
+     *
+     * @param key группа
+     * @param price цена в фиатной валюте группы, в сотых долях
+     * @return список алертов-кандидатов
+     */
+    public synchronized List<Notification> candidates(Key key, long price) {
+        Book book = live.books.get(key);
+        if (book == null) {
+            return List.of();
+        }
+        List<Notification> result = crossed(key, price);
+        result.addAll(book.ema.values());
+        return result;
+    }
+
+    /**
+     * Возвращает алерты VALUE и PERCENT группы, границы которых пересечены данной ценой.
+     * EMA-алерты не возвращаются.
+     *
+     * @param key группа
+     * @param price цена в фиатной валюте группы, в сотых долях
+     * @return список сработавших по границам алертов
+     */
+    public synchronized List<Notification> crossed(Key key, long price) {
+        Book book = live.books.get(key);
+        if (book == null) {
+            return List.of();
+        }
+        // Одно уведомление может оказаться в обеих выборках только при lower >= upper
+        Map<String, Notification> result = new LinkedHashMap<>();
+        book.uppers.collectAtMost(price, result);
+        book.lowers.collectAtLeast(price, result);
+        return new ArrayList<>(result.values());
+    }
+
+    /**
+     * Возвращает расстояние от цены до ближайшей еще не пересеченной границы группы:
+     * верхней выше цены или нижней ниже цены.
+     *
+     * @param key группа
+     * @param price цена в фиатной валюте группы, в сотых долях
+     * @return расстояние в сотых долях или {@link Long#MAX_VALUE}, если таких границ нет
+     */
+    public synchronized long distanceToNearest(Key key, long price) {
+        Book book = live.books.get(key);
+        if (book == null) {
+            return Long.MAX_VALUE;
+        }
+        long distance = Long.MAX_VALUE;
+        int above = book.uppers.upperBound(price);
+        if (above < book.uppers.size) {
+            distance = book.uppers.thresholds[above] - price;
+        }
+        int below = book.lowers.lowerBound(price) - 1;
+        if (below >= 0) {
+            distance = Math.min(distance, price - book.lowers.thresholds[below]);
+        }
+        return distance;
+    }
+
+    /**
+     * @return число алертов в индексе
+     */
+    public synchronized int size() {
+        return live.entries.size();
+    }
+
+    /**
+     * Возвращает размер индекса.
+     *
+     * @return Map со статистикой
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loaded", loaded);
+        stats.put("reloading", pending != null);
+        stats.put("groups", live.books.size());
+        stats.put("alerts", live.entries.size());
+        stats.put("emaAlerts", live.books.values().stream().mapToInt(book -> book.ema.size()).sum());
+        return stats;
+    }
+
+    /**
+     * Загрузка индекса из базы. Уведомления добавляются без сортировки,
+     * массивы границ сортируются один раз при {@link #commit()}.
+     */
+    public final class Reload {
+        private State state = new State();
+        // Изменения индекса во время загрузки; null означает удаление
+        private final Map<String, Notification> touched = new LinkedHashMap<>();
+
+        /**
+         * Добавляет уведомление, прочитанное из базы.
+         *
+         * @param notification активное уведомление
+         */
+        public void add(Notification notification) {
+            synchronized (AlertThresholdIndex.this) {
+                if (notification.getId() != null && !touched.containsKey(notification.getId())) {
+                    state.put(notification, true);
+                }
+            }
+        }
+
+        /**
+         * Заменяет текущее содержимое индекса загруженным.
+         */
+        public void commit() {
+            synchronized (AlertThresholdIndex.this) {
+                state.sort();
+                touched.forEach((id, notification) -> {
+                    if (notification == null) {
+                        state.remove(id);
+                    } else {
+                        state.put(notification, false);
+                    }
+                });
+                if (pending == this) {
+                    pending = null;
+                }
+                live = state;
+                loaded = true;
+            }
+        }
+
+        /**
+         * Отменяет загрузку, сохраняя текущее содержимое индекса.
+         */
+        public void abort() {
+            synchronized (AlertThresholdIndex.this) {
+                if (pending == this) {
+                    pending = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Содержимое индекса: группы алертов и положение каждого уведомления.
+     */
+    private static final class State {
+        private final Map<Key, Book> books = new HashMap<>();
+        private final Map<String, Entry> entries = new HashMap<>();
+
+        void put(Notification notification, boolean unsorted) {
+            remove(notification.getId());
+            if (notification.getCryptoCurrency() == null || notification.getFiatCurrency() == null
+                    || notification.getThresholdType() == null) {
+                return;
+            }
+            Key key = new Key(notification.getCryptoCurrency(), notification.getFiatCurrency());
+            if (notification.getThresholdType() == Notification.ThresholdType.EMA) {
+                books.computeIfAbsent(key, k -> new Book()).ema.put(notification.getId(), notification);
+                entries.put(notification.getId(), new Entry(notification, key, null, true));
+                return;
+            }
+            if (!notification.isActive()
+                    || notification.getUpperBoundary() == null || notification.getLowerBoundary() == null) {
+                return;
+            }
+            Entry entry = new Entry(notification, key, Thresholds.of(notification), false);
+            Book book = books.computeIfAbsent(key, k -> new Book());
+            if (unsorted) {
+                book.uppers.append(entry.thresholds().upper(), notification);
+                book.lowers.append(entry.thresholds().lower(), notification);
+            } else {
+                book.uppers.insert(entry.thresholds().upper(), notification);
+                book.lowers.insert(entry.thresholds().lower(), notification);
+            }
+            entries.put(notification.getId(), entry);
+        }
+
+        void remove(String id) {
+            Entry entry = entries.remove(id);
+            if (entry == null) {
+                return;
+            }
+            Book book = books.get(entry.key());
+            if (entry.ema()) {
+                book.ema.remove(id);
+            } else {
+                book.uppers.remove(entry.thresholds().upper(), id);
+                book.lowers.remove(entry.thresholds().lower(), id);
+            }
+            if (book.isEmpty()) {
+                books.remove(entry.key());
+            }
+        }
+
+        List<String> matching(Predicate<Notification> filter) {
+            return entries.values().stream()
+                    .map(Entry::notification)
+                    .filter(filter)
+                    .map(Notification::getId)
+                    .toList();
+        }
+
+        void removeIf(Predicate<Notification> filter) {
+            matching(filter).forEach(this::remove);
+        }
+
+        void sort() {
+            books.values().forEach(book -> {
+                book.uppers.sort();
+                book.lowers.sort();
+            });
+        }
+    }
+
+    /**
+     * Алерты одной пары (криптовалюта, фиат).
+     */
+    private static final class Book {
+        private final SortedThresholds uppers = new SortedThresholds();
+        private final SortedThresholds lowers = new SortedThresholds();
+        private final Map<String, Notification> ema = new LinkedHashMap<>();
+
+        boolean isEmpty() {
+            return uppers.size == 0 && lowers.size == 0 && ema.isEmpty();
+        }
+    }
+
+    /**
+     * Границы, упорядоченные по возрастанию, и соответствующие им уведомления.
+     */
+    private static final class SortedThresholds {
+        private long[] thresholds = new long[16];
+        private Notification[] notifications = new Notification[16];
+        private int size;
+
+        void insert(long threshold, Notification notification) {
+            ensureCapacity();
+            int index = upperBound(threshold);
+            System.arraycopy(thresholds, index, thresholds, index + 1, size - index);
+            System.arraycopy(notifications, index, notifications, index + 1, size - index);
+            thresholds[index] = threshold;
+            notifications[index] = notification;
+            size++;
+        }
+
+        /**
+         * Добавляет границу в конец без сохранения порядка; до {@link #sort()}
+         * массив нельзя использовать для поиска.
+         */
+        void append(long threshold, Notification notification) {
+            ensureCapacity();
+            thresholds[size] = threshold;
+            notifications[size] = notification;
+            size++;
+        }
+
+        void sort() {
+            Integer[] order = new Integer[size];
+            for (int index = 0; index < size; index++) {
+                order[index] = index;
+            }
+            Arrays.sort(order, Comparator.comparingLong(index -> thresholds[index]));
+            long[] sortedThresholds = new long[thresholds.length];
+            Notification[] sortedNotifications = new Notification[notifications.length];
+            for (int index = 0; index < size; index++) {
+                sortedThresholds[index] = thresholds[order[index]];
+                sortedNotifications[index] = notifications[order[index]];
+            }
+            thresholds = sortedThresholds;
+            notifications = sortedNotifications;
+        }
+
+        void remove(long threshold, String id) {
+            for (int index = lowerBound(threshold); index < size && thresholds[index] == threshold; index++) {
+                if (id.equals(notifications[index].getId())) {
+                    System.arraycopy(thresholds, index + 1, thresholds, index, size - index - 1);
+                    System.arraycopy(notifications, index + 1, notifications, index, size - index - 1);
+                    notifications[--size] = null;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Добавляет уведомления с границей не выше цены.
+         */
+        void collectAtMost(long price, Map<String, Notification> result) {
+            int end = upperBound(price);
+            for (int index = 0; index < end; index++) {
+                result.put(notifications[index].getId(), notifications[index]);
+            }
+        }
+
+        /**
+         * Добавляет уведомления с границей не ниже цены.
+         */
+        void collectAtLeast(long price, Map<String, Notification> result) {
+            for (int index = lowerBound(price); index < size; index++) {
+                result.put(notifications[index].getId(), notifications[index]);
+            }
+        }
+
+        private void ensureCapacity() {
+            if (size == thresholds.length) {
+                thresholds = Arrays.copyOf(thresholds, size * 2);
+                notifications = Arrays.copyOf(notifications, size * 2);
+            }
+        }
+
+        /**
+         * @return индекс первой границы, не меньшей {@code value}
+         */
+        private int lowerBound(long value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (thresholds[mid] < value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        /**
+         * @return индекс первой границы, большей {@code value}
+         */
+        private int upperBound(long value) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (thresholds[mid] <= value) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
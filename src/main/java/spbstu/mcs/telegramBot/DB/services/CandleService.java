@@ -0,0 +1,115 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import spbstu.mcs.telegramBot.DB.repositories.CandleRepository;
+import spbstu.mcs.telegramBot.model.Candle;
+import spbstu.mcs.telegramBot.model.Currency;
+
+import java.util.List;
+
+/**
+ * Сервис локального хранилища свечей.
+ * Исторические свечи не изменяются, поэтому после первой загрузки с биржи
+ * они читаются из коллекции "candles" вместо повторных запросов.
+ *
+ * <p>Сохраняются только закрытые свечи: текущая, еще формирующаяся свеча
+ * всегда запрашивается у биржи.</p>
+ *
+ * <p>Обращения к MongoDB блокирующие, поэтому выполняются на
+ * {@link Schedulers#boundedElastic()}, а не в потоке подписчика.</p>
+ */
+@Service
+public class CandleService {
+    private static final Logger log = LoggerFactory.getLogger(CandleService.class);
+
+    private final CandleRepository candleRepository;
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public CandleService(CandleRepository candleRepository, MongoTemplate mongoTemplate) {
+        this.candleRepository = candleRepository;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Находит сохраненную свечу.
+     *
+     * @param crypto криптовалюта
+     * @param interval интервал свечи
+     * @param openTime время открытия в миллисекундах
+     * @return Mono со свечой или пустой Mono, если свеча еще не загружалась
+     */
+    public Mono<Candle> findCandle(Currency.Crypto crypto, String interval, long openTime) {
+        return Mono.fromCallable(() -> candleRepository.findByCryptoCurrencyAndIntervalAndOpenTime(crypto, interval, openTime))
+            .flatMap(Mono::justOrEmpty)
+            .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Возвращает сохраненные свечи в диапазоне времени открытия, упорядоченные по времени.
+     *
+     * @param crypto криптовалюта
+     * @param interval интервал свечи
+     * @param fromOpenTime начало диапазона (включительно), мс
+     * @param toOpenTime конец диапазона (не включительно), мс
+     * @return Flux со свечами
+     */
+    public Flux<Candle> findCandles(Currency.Crypto crypto, String interval, long fromOpenTime, long toOpenTime) {
+        return Flux.defer(() -> {
+            Query query = new Query(Criteria.where("cryptoCurrency").is(crypto)
+                    .and("interval").is(interval)
+                    .and("openTime").gte(fromOpenTime).lt(toOpenTime))
+                .with(Sort.by(Sort.Direction.ASC, "openTime"));
+            return Flux.fromIterable(mongoTemplate.find(query, Candle.class));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Сохраняет закрытые свечи одной пакетной операцией.
+     * Свечи, которые уже есть в хранилище, перезаписываются теми же значениями,
+     * незакрытые свечи пропускаются.
+     *
+     * @param candles свечи для сохранения
+     * @return Mono с количеством сохраненных свечей
+     */
+    public Mono<Integer> saveCandles(List<Candle> candles) {
+        return Mono.fromCallable(() -> {
+            long now = System.currentTimeMillis();
+            List<Candle> closed = candles.stream()
+                .filter(candle -> candle.isClosedAt(now))
+                .toList();
+            if (closed.isEmpty()) {
+                return 0;
+            }
+
+            BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Candle.class);
+            for (Candle candle : closed) {
+                Query key = new Query(Criteria.where("cryptoCurrency").is(candle.getCryptoCurrency())
+                        .and("interval").is(candle.getInterval())
+                        .and("openTime").is(candle.getOpenTime()));
+                Update update = new Update()
+                    .set("open", candle.getOpen())
+                    .set("high", candle.getHigh())
+                    .set("low", candle.getLow())
+                    .set("close", candle.getClose())
+                    .set("volume", candle.getVolume());
+                bulk.upsert(key, update);
+            }
+            bulk.execute();
+            log.debug("Stored {} closed candles", closed.size());
+            return closed.size();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+}
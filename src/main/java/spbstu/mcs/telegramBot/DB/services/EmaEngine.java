@@ -0,0 +1,265 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+import spbstu.mcs.telegramBot.model.Currency.Fiat;
+import spbstu.mcs.telegramBot.model.Notification;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общие ряды EMA по паре (криптовалюта, фиат) и коэффициенту сглаживания.
+ *
+ * <p>Обновление EMA линейно: {@code e' = (1 - a) * e + a * p}. Поэтому EMA любого
+ * алерта пары отличается от общего ряда на величину, которая только затухает:
+ * {@code ema(n) = s(n) + offset * (1 - a)^(n - step)}, где {@code offset} и
+ * {@code step} запоминаются при привязке алерта к ряду. За проверку обновляется
+ * один ряд на пару, а не EMA каждого алерта, и в базу записываются только ряды
+ * (коллекция {@value #COLLECTION}) и алерты, у которых сменилось положение цены
+ * относительно EMA.</p>
+ */
+@Component
+public class EmaEngine {
+    private static final Logger log = LoggerFactory.getLogger(EmaEngine.class);
+    static final String COLLECTION = "ema_series";
+
+    /** Коэффициент сглаживания EMA-алертов */
+    public static final double DEFAULT_ALPHA = 0.05;
+
+    /**
+     * Ключ ряда.
+     *
+     * @param crypto криптовалюта
+     * @param fiat фиатная валюта
+     * @param alpha коэффициент сглаживания
+     */
+    public record SeriesKey(Crypto crypto, Fiat fiat, double alpha) {
+        String id() {
+            return crypto.name() + ":" + fiat.name() + ":" + alpha;
+        }
+    }
+
+    private static final class Series {
+        double value;
+        long step;
+        boolean dirty;
+
+        Series(double value, long step) {
+            this.value = value;
+            this.step = step;
+        }
+    }
+
+    private final MongoTemplate mongoTemplate;
+    private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    private final AtomicLong joins = new AtomicLong();
+    private final AtomicLong advances = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+
+    /**
+     * Ряды только в памяти, без записи в базу.
+     */
+    public EmaEngine() {
+        this(null);
+    }
+
+    @Autowired
+    public EmaEngine(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Возвращает ключ ряда EMA-алерта.
+     */
+    public static SeriesKey keyOf(Notification alert) {
+        return new SeriesKey(alert.getCryptoCurrency(), alert.getFiatCurrency(), DEFAULT_ALPHA);
+    }
+
+    /**
+     * Привязывает алерт к ряду его пары, если он еще не привязан: запоминает
+     * разницу между EMA алерта и текущим значением ряда. Если ряда нет,
+     * он создается со значением EMA алерта.
+     *
+     * @param alert EMA-алерт с заполненным {@code currentEMA}
+     * @return true, если состояние алерта изменилось и его нужно сохранить
+     */
+    public boolean join(Notification alert) {
+        SeriesKey key = keyOf(alert);
+        Series current = series.get(key);
+        if (current != null && alert.getEmaStep() != null && alert.getEmaStep() <= current.step) {
+            return false;
+        }
+        if (current == null) {
+            current = series.computeIfAbsent(key, k -> create(k, alert.getCurrentEMA()));
+        }
+        synchronized (current) {
+            alert.setEmaOffset(alert.getCurrentEMA() - current.value);
+            alert.setEmaStep(current.step);
+        }
+        joins.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Сдвигает ряд пары на одну котировку. Ряды, к которым не привязан
+     * ни один алерт, не создаются.
+     *
+     * @param crypto криптовалюта
+     * @param fiat фиатная валюта
+     * @param price цена в фиатной валюте
+     */
+    public void advance(Crypto crypto, Fiat fiat, double price) {
+        SeriesKey key = new SeriesKey(crypto, fiat, DEFAULT_ALPHA);
+        Series current = series.get(key);
+        if (current == null) {
+            return;
+        }
+        synchronized (current) {
+            current.value = (1 - key.alpha()) * current.value + key.alpha() * price;
+            current.step++;
+            current.dirty = true;
+        }
+        advances.incrementAndGet();
+    }
+
+    /**
+     * Вычисляет текущее EMA алерта по ряду его пары.
+     *
+     * @param alert EMA-алерт
+     * @return EMA алерта или сохраненное {@code currentEMA}, если алерт не привязан к ряду
+     */
+    public Double emaOf(Notification alert) {
+        SeriesKey key = keyOf(alert);
+        Series current = series.get(key);
+        if (current == null || alert.getEmaStep() == null || alert.getEmaOffset() == null) {
+            return alert.getCurrentEMA();
+        }
+        synchronized (current) {
+            // Ряд мог быть восстановлен из базы с меньшим шагом, чем у алерта
+            long elapsed = Math.max(0, current.step - alert.getEmaStep());
+            return current.value + alert.getEmaOffset() * Math.pow(1 - key.alpha(), elapsed);
+        }
+    }
+
+    /**
+     * @return ключи рядов, известных экземпляру
+     */
+    public Set<SeriesKey> keys() {
+        return Set.copyOf(series.keySet());
+    }
+
+    /**
+     * Читает ряды из базы.
+     *
+     * @param replace заменить ряды в памяти; иначе добавляются только отсутствующие
+     */
+    public void load(boolean replace) {
+        if (mongoTemplate == null) {
+            return;
+        }
+        for (Document document : mongoTemplate.findAll(Document.class, COLLECTION)) {
+            SeriesKey key = new SeriesKey(
+                    Crypto.valueOf(document.getString("crypto")),
+                    Fiat.valueOf(document.getString("fiat")),
+                    document.get("alpha", Number.class).doubleValue());
+            Series loaded = new Series(document.get("value", Number.class).doubleValue(),
+                    document.get("step", Number.class).longValue());
+            if (replace) {
+                series.put(key, loaded);
+            } else {
+                series.putIfAbsent(key, loaded);
+            }
+        }
+    }
+
+    /**
+     * Записывает в базу ряды, изменившиеся после прошлой записи.
+     *
+     * @return число записанных рядов
+     */
+    public int persist() {
+        int written = 0;
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            Series current = entry.getValue();
+            double value;
+            long step;
+            synchronized (current) {
+                if (!current.dirty) {
+                    continue;
+                }
+                current.dirty = false;
+                value = current.value;
+                step = current.step;
+            }
+            if (mongoTemplate != null) {
+                try {
+                    mongoTemplate.upsert(Query.query(Criteria.where("_id").is(entry.getKey().id())),
+                            new Update().set("value", value).set("step", step)
+                                    .set("updatedAt", System.currentTimeMillis())
+                                    .setOnInsert("crypto", entry.getKey().crypto().name())
+                                    .setOnInsert("fiat", entry.getKey().fiat().name())
+                                    .setOnInsert("alpha", entry.getKey().alpha()),
+                            COLLECTION);
+                } catch (RuntimeException e) {
+                    synchronized (current) {
+                        current.dirty = true;
+                    }
+                    log.error("Failed to persist EMA series {}: {}", entry.getKey().id(), e.getMessage());
+                    continue;
+                }
+            }
+            written++;
+        }
+        persisted.addAndGet(written);
+        return written;
+    }
+
+    /**
+     * Создает ряд или, если его уже создал другой экземпляр, берет существующий.
+     */
+    private Series create(SeriesKey key, double initialValue) {
+        if (mongoTemplate == null) {
+            return new Series(initialValue, 0);
+        }
+        Document document = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(key.id())),
+                new Update()
+                        .setOnInsert("crypto", key.crypto().name())
+                        .setOnInsert("fiat", key.fiat().name())
+                        .setOnInsert("alpha", key.alpha())
+                        .setOnInsert("value", initialValue)
+                        .setOnInsert("step", 0L)
+                        .setOnInsert("updatedAt", System.currentTimeMillis()),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class, COLLECTION);
+        return new Series(document.get("value", Number.class).doubleValue(),
+                document.get("step", Number.class).longValue());
+    }
+
+    /**
+     * Возвращает число рядов, привязок алертов, обновлений и записей рядов.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("series", series.size());
+        stats.put("joins", joins.get());
+        stats.put("advances", advances.get());
+        stats.put("persisted", persisted.get());
+        return stats;
+    }
+}
@@ -0,0 +1,189 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import jakarta.annotation.PostConstruct;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Сверка индексов MongoDB с запросами репозиториев.
+ *
+ * <p>Для каждой коллекции объявлены индексы, которые нужны методам репозиториев
+ * и сервисов. При запуске приложения, до приема запросов, недостающие индексы
+ * создаются. Существующий индекс считается подходящим, если совпадают его поля,
+ * независимо от имени (индексы из {@code mongo-init.js} не создаются повторно).</p>
+ *
+ * <p>Сверка выполняется на каждом экземпляре без выбора лидера: создание индекса
+ * идемпотентно, и одновременно стартующие экземпляры получают тот же результат.</p>
+ *
+ * <p>{@link #report()} возвращает состояние объявленных индексов и индексы,
+ * которые не использовались с момента запуска MongoDB (по {@code $indexStats}).</p>
+ */
+@Service
+public class MongoIndexReconciler {
+    private static final Logger log = LoggerFactory.getLogger(MongoIndexReconciler.class);
+
+    /**
+     * Индекс, необходимый запросам приложения.
+     *
+     * @param collection коллекция
+     * @param name имя индекса при создании
+     * @param fields поля индекса по возрастанию, в порядке следования
+     * @param unique уникальный ли индекс
+     * @param usedBy запросы, которым нужен индекс
+     */
+    public record IndexSpec(String collection, String name, List<String> fields, boolean unique, String usedBy) {}
+
+    static final List<IndexSpec> DECLARED = List.of(
+        new IndexSpec("users", "users_chat", List.of("chatId"), false,
+            "UserRepository.findByChatId, findOptionalByChatId, existsByChatId, findAllByChatIdIn, deleteByChatId"),
+        new IndexSpec("admins", "admins_username", List.of("username"), true,
+            "AdminRepository.findByUsername"),
+        new IndexSpec("portfolios", "portfolios_chat", List.of("chatId"), false,
+            "PortfolioRepository.findByChatId"),
+        new IndexSpec("portfolios", "portfolios_name", List.of("name"), false,
+            "PortfolioRepository.findByName"),
+        new IndexSpec("notifications", "notifications_chat_active", List.of("chatId", "isActive"), false,
+            "NotificationRepository.findByChatId, findByChatIdAndIsActiveTrue, deleteByChatId"),
+        new IndexSpec("notifications", "notifications_type_chat", List.of("thresholdType", "chatId"), false,
+            "NotificationRepository.findByChatIdAndThresholdType, findByChatIdAndThresholdTypeAndIsActiveTrue, "
+                + "findByChatIdAndCryptoCurrencyAndThresholdType, NotificationService.getAllActiveAlerts (EMA)"),
+        new IndexSpec("notifications", "notifications_active_pair", List.of("isActive", "cryptoCurrency", "fiatCurrency"), false,
+            "NotificationRepository.findByIsActiveTrue, findByCryptoCurrencyAndIsActiveTrue, NotificationService.getAllActiveAlerts"),
+        new IndexSpec("candles", "candles_pair_interval_open", List.of("cryptoCurrency", "interval", "openTime"), true,
+            "CandleRepository.findByCryptoCurrencyAndIntervalAndOpenTime, CandleService.findCandles, saveCandles")
+    );
+
+    private final MongoTemplate mongoTemplate;
+    // Результат последней сверки по имени объявленного индекса
+    private final Map<String, String> outcomes = new ConcurrentHashMap<>();
+    private volatile long reconciledAt;
+
+    @Autowired
+    public MongoIndexReconciler(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    /**
+     * Создает недостающие объявленные индексы. Ошибка создания одного индекса
+     * (например, уникального при дубликатах в данных) не мешает остальным
+     * и отражается в отчете.
+     */
+    @PostConstruct
+    public void reconcile() {
+        int created = 0;
+        for (IndexSpec spec : DECLARED) {
+            try {
+                IndexOperations indexOps = mongoTemplate.indexOps(spec.collection());
+                if (findMatching(indexOps.getIndexInfo(), spec) != null) {
+                    outcomes.put(spec.name(), "present");
+                    continue;
+                }
+                Index index = new Index().named(spec.name());
+                spec.fields().forEach(field -> index.on(field, Sort.Direction.ASC));
+                if (spec.unique()) {
+                    index.unique();
+                }
+                indexOps.ensureIndex(index);
+                outcomes.put(spec.name(), "created");
+                created++;
+                log.info("Created missing index {} on {} {}", spec.name(), spec.collection(), spec.fields());
+            } catch (Exception e) {
+                outcomes.put(spec.name(), "failed: " + e.getMessage());
+                log.error("Failed to reconcile index {} on {}: {}", spec.name(), spec.collection(), e.getMessage());
+            }
+        }
+        reconciledAt = System.currentTimeMillis();
+        log.info("Index reconciliation finished: {} declared, {} created", DECLARED.size(), created);
+    }
+
+    /**
+     * Возвращает отчет по индексам: состояние объявленных индексов, отсутствующие
+     * и неиспользуемые индексы по коллекциям.
+     *
+     * @return Map с отчетом
+     */
+    public Map<String, Object> report() {
+        Map<String, Object> collections = new LinkedHashMap<>();
+        for (String collection : DECLARED.stream().map(IndexSpec::collection).distinct().toList()) {
+            Map<String, Object> collectionReport = new LinkedHashMap<>();
+            List<Map<String, Object>> declared = new ArrayList<>();
+            List<String> missing = new ArrayList<>();
+            List<String> matched = new ArrayList<>();
+            try {
+                List<IndexInfo> existing = mongoTemplate.indexOps(collection).getIndexInfo();
+                for (IndexSpec spec : DECLARED.stream().filter(spec -> spec.collection().equals(collection)).toList()) {
+                    IndexInfo match = findMatching(existing, spec);
+                    Map<String, Object> specReport = new LinkedHashMap<>();
+                    specReport.put("name", spec.name());
+                    specReport.put("fields", spec.fields());
+                    specReport.put("usedBy", spec.usedBy());
+                    specReport.put("existingName", match == null ? null : match.getName());
+                    specReport.put("lastReconcile", outcomes.get(spec.name()));
+                    declared.add(specReport);
+                    if (match == null) {
+                        missing.add(spec.name());
+                    } else {
+                        matched.add(match.getName());
+                    }
+                }
+                collectionReport.put("declared", declared);
+                collectionReport.put("missing", missing);
+                collectionReport.put("undeclared", existing.stream()
+                    .map(IndexInfo::getName)
+                    .filter(name -> !"_id_".equals(name) && !matched.contains(name))
+                    .toList());
+                collectionReport.put("unused", unusedIndexes(collection));
+            } catch (Exception e) {
+                collectionReport.put("error", e.getMessage());
+            }
+            collections.put(collection, collectionReport);
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("reconciledAt", reconciledAt == 0 ? null : reconciledAt);
+        report.put("collections", collections);
+        return report;
+    }
+
+    /**
+     * Возвращает индексы коллекции без обращений с момента запуска MongoDB.
+     */
+    private List<String> unusedIndexes(String collection) {
+        List<String> unused = new ArrayList<>();
+        for (Document stats : mongoTemplate.getCollection(collection)
+                .aggregate(List.of(new Document("$indexStats", new Document())))) {
+            Document accesses = stats.get("accesses", Document.class);
+            Number ops = accesses == null ? null : accesses.get("ops", Number.class);
+            String name = stats.getString("name");
+            if (!"_id_".equals(name) && ops != null && ops.longValue() == 0) {
+                unused.add(name);
+            }
+        }
+        return unused;
+    }
+
+    private static IndexInfo findMatching(List<IndexInfo> existing, IndexSpec spec) {
+        for (IndexInfo info : existing) {
+            List<String> fields = info.getIndexFields().stream().map(IndexField::getKey).toList();
+            if (fields.equals(spec.fields()) && (!spec.unique() || info.isUnique())) {
+                return info;
+            }
+        }
+        return null;
+    }
+}
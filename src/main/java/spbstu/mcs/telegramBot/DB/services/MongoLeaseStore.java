@@ -0,0 +1,70 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Хранилище аренд заданий в коллекции {@value #COLLECTION}:
+ * документ {@code {_id: задание, owner, token, expiresAt}}.
+ *
+ * <p>Захват — {@code findAndModify} с условием на истекший срок и upsert:
+ * если документ занят, вставка нарушает уникальность {@code _id}
+ * и захват не происходит. Возвращается прежний документ, чтобы знать
+ * предыдущего владельца; {@code null} означает, что аренда создана впервые.</p>
+ */
+@Component
+public class MongoLeaseStore implements SchedulerLeases.LeaseStore {
+    static final String COLLECTION = "scheduler_leases";
+
+    private final MongoTemplate mongoTemplate;
+
+    @Autowired
+    public MongoLeaseStore(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    @Override
+    public SchedulerLeases.Lease tryAcquire(String job, String owner, long now, long expiresAt) {
+        try {
+            Document lease = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(job).and("expiresAt").lt(now)),
+                    new Update().set("owner", owner).set("expiresAt", expiresAt).inc("token", 1L),
+                    FindAndModifyOptions.options().upsert(true).returnNew(false),
+                    Document.class, COLLECTION);
+            if (lease == null) {
+                return new SchedulerLeases.Lease(job, owner, 1L, expiresAt);
+            }
+            return new SchedulerLeases.Lease(job, owner, lease.get("token", Number.class).longValue() + 1, expiresAt,
+                    lease.getString("owner"));
+        } catch (DuplicateKeyException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean renew(String job, String owner, long token, long expiresAt) {
+        return mongoTemplate.updateFirst(owned(job, owner, token),
+                new Update().set("expiresAt", expiresAt), COLLECTION).getMatchedCount() == 1;
+    }
+
+    @Override
+    public boolean holds(String job, String owner, long token, long now) {
+        return mongoTemplate.exists(owned(job, owner, token).addCriteria(Criteria.where("expiresAt").gt(now)), COLLECTION);
+    }
+
+    @Override
+    public void release(String job, String owner, long token) {
+        mongoTemplate.updateFirst(owned(job, owner, token), new Update().set("expiresAt", 0L), COLLECTION);
+    }
+
+    private static Query owned(String job, String owner, long token) {
+        return Query.query(Criteria.where("_id").is(job).and("owner").is(owner).and("token").is(token));
+    }
+}
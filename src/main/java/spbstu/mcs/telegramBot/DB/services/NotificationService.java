@@ -1,10 +1,16 @@
 package spbstu.mcs.telegramBot.DB.services;
 
+import com.mongodb.bulk.BulkWriteError;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -16,9 +22,14 @@ import spbstu.mcs.telegramBot.model.User;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
 
 /**
  * Сервис для работы с уведомлениями пользователей.
@@ -39,16 +50,30 @@ public class NotificationService {
   //  private final PriceFetcher priceFetcher;
     private final UserRepository userRepository;
     private static final Logger log = LoggerFactory.getLogger(NotificationService.class);
+    private static final int BULK_BATCH_SIZE = 500;
+    private static final int ACTIVE_ALERTS_BATCH_SIZE = 500;
+    // Общий индекс порогов, поддерживается в актуальном состоянии при сохранении и удалении
+    private final AlertThresholdIndex alertIndex;
+
+    /**
+     * Результат пакетной записи состояния алертов.
+     *
+     * @param saved успешно записанные уведомления
+     * @param failed ошибки записи по идентификатору уведомления
+     */
+    public record BulkSaveResult(List<Notification> saved, Map<String, String> failed) {}
 
     @Autowired
     public NotificationService(NotificationRepository notificationRepository, 
                              MongoTemplate mongoTemplate,
                              //PriceFetcher priceFetcher,
-                             @Lazy UserRepository userRepository) {
+                             @Lazy UserRepository userRepository,
+                             AlertThresholdIndex alertIndex) {
         this.notificationRepository = notificationRepository;
         this.mongoTemplate = mongoTemplate;
        // this.priceFetcher = priceFetcher;
         this.userRepository = userRepository;
+        this.alertIndex = alertIndex;
     }
 
     public Flux<Notification> getActiveAlerts(String chatId) {
@@ -59,12 +84,31 @@ public class NotificationService {
         return Flux.fromIterable(notificationRepository.findByCryptoCurrencyAndIsActiveTrue(cryptoCurrency));
     }
 
+    /**
+     * Возвращает все активные алерты (EMA-алерты активны всегда).
+     * Фильтр выполняется на сервере по индексам {@code isActive} и {@code thresholdType},
+     * читаются только поля, нужные для проверки, а документы передаются из курсора
+     * по мере запроса подписчиком, без загрузки всей коллекции в память.
+     * Документы содержат не все поля, поэтому их нельзя сохранять через {@link #save(Notification)};
+     * для записи результатов проверки используется {@link #saveAlertStates(List)}.
+     *
+     * @return Flux активных алертов
+     */
     public Flux<Notification> getAllActiveAlerts() {
-        return Flux.fromIterable(notificationRepository.findAll())
-            .filter(notification -> 
-                notification.getThresholdType() == Notification.ThresholdType.EMA || 
-                Boolean.TRUE.equals(notification.isActive())
-            );
+        return Flux.using(
+            () -> mongoTemplate.stream(activeAlertsQuery(), Notification.class),
+            Flux::fromStream,
+            Stream::close);
+    }
+
+    private static Query activeAlertsQuery() {
+        Query query = new Query(new Criteria().orOperator(
+            Criteria.where("isActive").is(true),
+            Criteria.where("thresholdType").is(Notification.ThresholdType.EMA)));
+        query.fields().include("cryptoCurrency", "fiatCurrency", "thresholdType", "isActive", "chatId",
+            "upperBoundary", "lowerBoundary", "startPrice", "startTimestamp", "upPercent", "downPercent",
+            "currentEMA", "isAbove", "emaOffset", "emaStep");
+        return query.cursorBatchSize(ACTIVE_ALERTS_BATCH_SIZE);
     }
 
     public Flux<Notification> getAllActiveAlerts(String chatId) {
@@ -79,15 +123,83 @@ public class NotificationService {
         log.info("Saving notification: {}", notification);
         Notification saved = notificationRepository.save(notification);
         log.info("Saved notification: {}", saved);
+        alertIndex.put(saved);
         return Mono.just(saved);
     }
 
+    /**
+     * Записывает состояние алертов после цикла проверки (активность, время
+     * срабатывания, EMA) неупорядоченными пакетными операциями по
+     * {@value #BULK_BATCH_SIZE} документов. Ошибка одного документа не мешает
+     * записи остальных и возвращается в результате.
+     *
+     * @param notifications измененные уведомления
+     * @return Mono с результатом записи
+     */
+    public Mono<BulkSaveResult> saveAlertStates(List<Notification> notifications) {
+        return Mono.fromCallable(() -> {
+            List<Notification> saved = new ArrayList<>();
+            Map<String, String> failed = new LinkedHashMap<>();
+            for (int from = 0; from < notifications.size(); from += BULK_BATCH_SIZE) {
+                List<Notification> batch = notifications.subList(from, Math.min(from + BULK_BATCH_SIZE, notifications.size()));
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Notification.class);
+                for (Notification notification : batch) {
+                    bulk.updateOne(new Query(Criteria.where("_id").is(notification.getId())), alertStateUpdate(notification));
+                }
+
+                Set<Integer> failedIndexes = new HashSet<>();
+                try {
+                    bulk.execute();
+                } catch (BulkOperationException e) {
+                    for (BulkWriteError error : e.getErrors()) {
+                        failedIndexes.add(error.getIndex());
+                        failed.put(batch.get(error.getIndex()).getId(), error.getMessage());
+                    }
+                } catch (RuntimeException e) {
+                    log.error("Bulk alert state write failed for {} notifications: {}", batch.size(), e.getMessage());
+                    batch.forEach(notification -> failed.put(notification.getId(), e.getMessage()));
+                    continue;
+                }
+
+                for (int index = 0; index < batch.size(); index++) {
+                    if (!failedIndexes.contains(index)) {
+                        saved.add(batch.get(index));
+                        alertIndex.refresh(batch.get(index));
+                    }
+                }
+            }
+            failed.forEach((id, error) -> log.warn("Failed to save alert state for notification {}: {}", id, error));
+            log.debug("Saved alert states: {} written, {} failed", saved.size(), failed.size());
+            return new BulkSaveResult(saved, failed);
+        });
+    }
+
+    private static Update alertStateUpdate(Notification notification) {
+        Update update = new Update()
+            .set("triggerTimestamp", notification.getTriggerTimestamp())
+            .set("currentEMA", notification.getCurrentEMA())
+            .set("isAbove", notification.getIsAbove())
+            .set("emaOffset", notification.getEmaOffset())
+            .set("emaStep", notification.getEmaStep());
+        // EMA-алерты не хранят флаг активности
+        if (notification.getThresholdType() != Notification.ThresholdType.EMA) {
+            update.set("isActive", notification.isActive());
+        }
+        return update;
+    }
+
     public Mono<Void> delete(Notification notification) {
-        return Mono.fromRunnable(() -> notificationRepository.delete(notification));
+        return Mono.fromRunnable(() -> {
+            notificationRepository.delete(notification);
+            alertIndex.remove(notification.getId());
+        });
     }
 
     public Mono<Void> deleteAll() {
-        return Mono.fromRunnable(() -> notificationRepository.deleteAll());
+        return Mono.fromRunnable(() -> {
+            notificationRepository.deleteAll();
+            alertIndex.clear();
+        });
     }
 
     public Mono<Void> deleteAllAlerts() {
@@ -95,7 +207,10 @@ public class NotificationService {
     }
 
     public Mono<Void> deleteAllAlerts(String chatId) {
-        return Mono.fromRunnable(() -> notificationRepository.deleteByChatId(chatId));
+        return Mono.fromRunnable(() -> {
+            notificationRepository.deleteByChatId(chatId);
+            alertIndex.removeIf(notification -> chatId.equals(notification.getChatId()));
+        });
     }
 
     public Mono<Notification> getNotification(String id) {
@@ -168,6 +283,8 @@ public class NotificationService {
     public Mono<Void> deleteAllNotificationsByType(String chatId, Notification.ThresholdType type) {
         return Mono.fromRunnable(() -> {
             notificationRepository.deleteByChatIdAndThresholdType(chatId, type);
+            alertIndex.removeIf(notification -> chatId.equals(notification.getChatId())
+                && notification.getThresholdType() == type);
         });
     }
 
@@ -0,0 +1,283 @@
+package spbstu.mcs.telegramBot.DB.services;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Выбор лидера для заданий, которые должны выполняться один раз на кластер,
+ * а не на каждом экземпляре бота.
+ *
+ * <p>Задание {@code @Scheduled} подключается вызовом {@link #runIfLeader}: тело
+ * выполняется, только если экземпляр держит аренду задания. Аренда хранится
+ * в {@link LeaseStore} (в работе — {@link MongoLeaseStore}) и продлевается
+ * в фоне, пока экземпляр жив; после ее истечения задание забирает другой экземпляр.</p>
+ *
+ * <p>Каждая смена владельца увеличивает токен ограждения (fencing token). Задание
+ * получает токен и перед записью проверяет его через {@link #isCurrent}: экземпляр,
+ * потерявший аренду (например, после долгой паузы), не запишет устаревший результат.</p>
+ */
+@Component
+public class SchedulerLeases {
+    private static final Logger log = LoggerFactory.getLogger(SchedulerLeases.class);
+
+    /**
+     * Аренда задания.
+     *
+     * @param job имя задания
+     * @param owner экземпляр-владелец
+     * @param token токен ограждения, растет при каждой смене владельца
+     * @param expiresAt время окончания аренды, мс
+     * @param previousOwner предыдущий владелец при захвате; null, если аренды еще не было
+     */
+    public record Lease(String job, String owner, long token, long expiresAt, String previousOwner) {
+        public Lease(String job, String owner, long token, long expiresAt) {
+            this(job, owner, token, expiresAt, null);
+        }
+    }
+
+    /**
+     * Хранилище аренд. Операции атомарны относительно других экземпляров.
+     */
+    public interface LeaseStore {
+        /**
+         * Забирает аренду, если она свободна или истекла, увеличивая токен.
+         *
+         * @return новая аренда или null, если задание держит другой экземпляр
+         */
+        Lease tryAcquire(String job, String owner, long now, long expiresAt);
+
+        /**
+         * Продлевает аренду, если ее токен не сменился.
+         *
+         * @return true, если аренда продлена
+         */
+        boolean renew(String job, String owner, long token, long expiresAt);
+
+        /**
+         * Проверяет, что аренда с данным токеном действует.
+         */
+        boolean holds(String job, String owner, long token, long now);
+
+        /**
+         * Освобождает аренду, если ее токен не сменился.
+         */
+        void release(String job, String owner, long token);
+    }
+
+    private record Held(long token, long validUntil) {}
+
+    private final LeaseStore store;
+    private final long leaseMillis;
+    private final String instanceId;
+    private final Map<String, Held> held = new ConcurrentHashMap<>();
+
+    private final AtomicLong acquisitions = new AtomicLong();
+    private final AtomicLong handoffs = new AtomicLong();
+    private final AtomicLong renewals = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final AtomicLong skippedRuns = new AtomicLong();
+    private final AtomicLong fencedWrites = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Без хранилища или при {@code enabled = false} экземпляр работает без координации:
+     * текущий узел всегда лидер, токен равен 0.
+     */
+    @Autowired
+    public SchedulerLeases(LeaseStore store,
+                           @Value("${scheduler.leases.enabled:true}") boolean enabled,
+                           @Value("${scheduler.leases.lease-ms:30000}") long leaseMillis) {
+        this.store = enabled ? store : null;
+        this.leaseMillis = leaseMillis;
+        this.instanceId = ManagementFactory.getRuntimeMXBean().getName() + "/" + UUID.randomUUID();
+    }
+
+    /**
+     * Выполняет задание, если текущий экземпляр — его лидер.
+     *
+     * @param job имя задания
+     * @param task тело задания, получает токен ограждения
+     * @return true, если задание выполнено на этом экземпляре
+     */
+    public boolean runIfLeader(String job, LongConsumer task) {
+        OptionalLong token = acquire(job);
+        if (token.isEmpty()) {
+            skippedRuns.incrementAndGet();
+            log.debug("Skipping {}: leased by another instance", job);
+            return false;
+        }
+        task.accept(token.getAsLong());
+        return true;
+    }
+
+    /**
+     * Получает или продлевает аренду задания.
+     *
+     * @param job имя задания
+     * @return токен ограждения или пустое значение, если лидер — другой экземпляр
+     */
+    public OptionalLong acquire(String job) {
+        if (store == null) {
+            return OptionalLong.of(0);
+        }
+        long now = System.currentTimeMillis();
+        try {
+            Held current = held.get(job);
+            if (current != null) {
+                if (store.renew(job, instanceId, current.token(), now + leaseMillis)) {
+                    renewals.incrementAndGet();
+                    held.put(job, new Held(current.token(), now + leaseMillis / 2));
+                    return OptionalLong.of(current.token());
+                }
+                loseLease(job, current.token());
+            }
+            Lease lease = store.tryAcquire(job, instanceId, now, now + leaseMillis);
+            if (lease == null) {
+                return OptionalLong.empty();
+            }
+            acquisitions.incrementAndGet();
+            if (lease.previousOwner() != null && !lease.previousOwner().equals(instanceId)) {
+                // Задание переходит от другого экземпляра, а не возвращается к этому же
+                handoffs.incrementAndGet();
+            }
+            held.put(job, new Held(lease.token(), now + leaseMillis / 2));
+            log.info("Instance {} became leader of {} with token {}", instanceId, job, lease.token());
+            return OptionalLong.of(lease.token());
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("Failed to acquire lease for {}: {}", job, e.getMessage());
+            return OptionalLong.empty();
+        }
+    }
+
+    /**
+     * Проверяет по локальному состоянию, держит ли экземпляр аренду задания,
+     * без обращения к хранилищу.
+     *
+     * @param job имя задания
+     * @return true, если аренда удерживается и не истекла
+     */
+    public boolean isLeader(String job) {
+        if (store == null) {
+            return true;
+        }
+        Held current = held.get(job);
+        return current != null && System.currentTimeMillis() < current.validUntil();
+    }
+
+    /**
+     * Проверяет токен ограждения перед записью результата задания.
+     * Локальный срок аренды — половина полного, запас покрывает расхождение часов.
+     *
+     * @param job имя задания
+     * @param token токен, полученный заданием
+     * @return true, если экземпляр все еще лидер с этим токеном
+     */
+    public boolean isCurrent(String job, long token) {
+        if (store == null) {
+            return true;
+        }
+        Held current = held.get(job);
+        long now = System.currentTimeMillis();
+        boolean valid = current != null && current.token() == token && now < current.validUntil();
+        try {
+            valid = valid && store.holds(job, instanceId, token, now);
+        } catch (Exception e) {
+            failures.incrementAndGet();
+            log.error("Failed to check lease for {}: {}", job, e.getMessage());
+            valid = false;
+        }
+        if (!valid) {
+            fencedWrites.incrementAndGet();
+        }
+        return valid;
+    }
+
+    /**
+     * Продлевает все удерживаемые аренды, чтобы лидер сохранял задание
+     * между запусками, даже если интервал задания длиннее аренды.
+     */
+    @Scheduled(fixedDelayString = "${scheduler.leases.renew-interval-ms:10000}")
+    public void renewHeld() {
+        if (store == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        held.forEach((job, current) -> {
+            try {
+                if (store.renew(job, instanceId, current.token(), now + leaseMillis)) {
+                    renewals.incrementAndGet();
+                    held.put(job, new Held(current.token(), now + leaseMillis / 2));
+                } else {
+                    loseLease(job, current.token());
+                }
+            } catch (Exception e) {
+                failures.incrementAndGet();
+                log.error("Failed to renew lease for {}: {}", job, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Освобождает аренды при остановке, чтобы другой экземпляр
+     * забрал задания без ожидания истечения срока.
+     */
+    @PreDestroy
+    public void releaseAll() {
+        if (store == null) {
+            return;
+        }
+        held.forEach((job, current) -> {
+            try {
+                store.release(job, instanceId, current.token());
+            } catch (Exception e) {
+                log.warn("Failed to release lease for {}: {}", job, e.getMessage());
+            }
+        });
+        held.clear();
+    }
+
+    private void loseLease(String job, long token) {
+        if (held.remove(job) != null) {
+            lost.incrementAndGet();
+            log.warn("Instance {} lost leadership of {} (token {})", instanceId, job, token);
+        }
+    }
+
+    /**
+     * Возвращает удерживаемые задания и счетчики смены лидеров.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> jobs = new LinkedHashMap<>();
+        held.forEach((job, current) -> jobs.put(job, current.token()));
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", store != null);
+        stats.put("instanceId", store != null ? instanceId : null);
+        stats.put("leading", jobs);
+        stats.put("acquisitions", acquisitions.get());
+        stats.put("handoffs", handoffs.get());
+        stats.put("renewals", renewals.get());
+        stats.put("lost", lost.get());
+        stats.put("skippedRuns", skippedRuns.get());
+        stats.put("fencedWrites", fencedWrites.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
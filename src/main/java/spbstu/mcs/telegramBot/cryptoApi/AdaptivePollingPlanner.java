@@ -0,0 +1,216 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * План опроса биржи по каждой криптовалюте: как часто запрашивать цену.
+ *
+ * <p>Интервал опроса выбирается так, чтобы за интервал цена с заметной вероятностью
+ * не успела дойти до ближайшей границы активного алерта: при дисперсии
+ * логарифмической доходности {@code σ²} в мс и относительном расстоянии до границы
+ * {@code d} интервал равен {@code (d / z)² / σ²}, где {@code z} — запас в стандартных
+ * отклонениях. Криптовалюты с близкими границами и высокой волатильностью опрашиваются
+ * раз в несколько секунд, спокойные и без алертов — раз в несколько минут.</p>
+ *
+ * <p>Суммарная частота опроса не превышает частоту равномерного опроса всех
+ * криптовалют раз в {@code market.snapshot.interval-ms}: если желаемые интервалы
+ * требуют больше запросов, все они пропорционально увеличиваются.</p>
+ *
+ * <p>Расстояние до границ сообщает проверка алертов через {@link #reportThresholdGap};
+ * волатильность оценивается по котировкам, поступающим в {@link #onQuote}.</p>
+ */
+@Component
+public class AdaptivePollingPlanner {
+    // Запас в стандартных отклонениях цены за интервал опроса
+    private static final double SAFETY_SIGMAS = 3.0;
+    // Сглаживание оценки дисперсии по новым котировкам
+    private static final double VARIANCE_SMOOTHING = 0.2;
+
+    private static final class SymbolState {
+        double lastPrice = Double.NaN;
+        long lastQuoteAt;
+        double varianceRate = Double.NaN;
+        double gap = Double.POSITIVE_INFINITY;
+        long lastPolledAt;
+        long intervalMillis;
+        final AtomicLong polls = new AtomicLong();
+    }
+
+    private final boolean adaptive;
+    private final long baseIntervalMillis;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private final Map<Crypto, SymbolState> states = new EnumMap<>(Crypto.class);
+    private final AtomicLong budgetThrottles = new AtomicLong();
+
+    /**
+     * Равномерный опрос всех криптовалют раз в 10 секунд.
+     */
+    public AdaptivePollingPlanner() {
+        this(false, 10000, 2000, 300000);
+    }
+
+    @Autowired
+    public AdaptivePollingPlanner(@Value("${market.polling.adaptive:true}") boolean adaptive,
+                                  @Value("${market.snapshot.interval-ms:10000}") long baseIntervalMillis,
+                                  @Value("${market.polling.min-interval-ms:2000}") long minIntervalMillis,
+                                  @Value("${market.polling.max-interval-ms:300000}") long maxIntervalMillis) {
+        this.adaptive = adaptive;
+        this.baseIntervalMillis = baseIntervalMillis;
+        this.minIntervalMillis = Math.min(minIntervalMillis, baseIntervalMillis);
+        this.maxIntervalMillis = Math.max(maxIntervalMillis, baseIntervalMillis);
+        for (Crypto crypto : Crypto.values()) {
+            SymbolState state = new SymbolState();
+            state.intervalMillis = baseIntervalMillis;
+            states.put(crypto, state);
+        }
+    }
+
+    /**
+     * Выбирает криптовалюты, которые пора опросить, и отмечает их опрошенными.
+     *
+     * @param candidates криптовалюты, которые нужно опрашивать по REST
+     * @param now текущее время, мс
+     * @return криптовалюты для опроса
+     */
+    public synchronized List<Crypto> due(Collection<Crypto> candidates, long now) {
+        plan(candidates);
+        List<Crypto> due = new ArrayList<>();
+        for (Crypto crypto : candidates) {
+            SymbolState state = states.get(crypto);
+            // Первый опрос сразу: снимок должен содержать все криптовалюты
+            if (state.polls.get() == 0 || now - state.lastPolledAt >= state.intervalMillis) {
+                state.lastPolledAt = now;
+                state.polls.incrementAndGet();
+                due.add(crypto);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Учитывает новую котировку в оценке волатильности.
+     *
+     * @param crypto криптовалюта
+     * @param price цена в USD
+     * @param now время получения, мс
+     */
+    public synchronized void onQuote(Crypto crypto, BigDecimal price, long now) {
+        SymbolState state = states.get(crypto);
+        double current = price.doubleValue();
+        if (current <= 0) {
+            return;
+        }
+        long elapsed = now - state.lastQuoteAt;
+        if (!Double.isNaN(state.lastPrice) && elapsed > 0) {
+            double logReturn = Math.log(current / state.lastPrice);
+            double sample = logReturn * logReturn / elapsed;
+            state.varianceRate = Double.isNaN(state.varianceRate)
+                    ? sample
+                    : state.varianceRate + VARIANCE_SMOOTHING * (sample - state.varianceRate);
+        }
+        state.lastPrice = current;
+        state.lastQuoteAt = now;
+    }
+
+    /**
+     * Запоминает относительное расстояние от цены до ближайшей границы активного алерта.
+     *
+     * @param crypto криптовалюта
+     * @param relativeGap расстояние в долях цены; {@link Double#POSITIVE_INFINITY}, если алертов нет
+     */
+    public synchronized void reportThresholdGap(Crypto crypto, double relativeGap) {
+        states.get(crypto).gap = relativeGap;
+    }
+
+    /**
+     * Уменьшает расстояние до ближайшей границы, если новая граница ближе
+     * известной, например при создании алерта между проверками.
+     *
+     * @param crypto криптовалюта
+     * @param relativeGap расстояние в долях цены до новой границы
+     */
+    public synchronized void narrowThresholdGap(Crypto crypto, double relativeGap) {
+        SymbolState state = states.get(crypto);
+        state.gap = Math.min(state.gap, relativeGap);
+    }
+
+    /**
+     * Пересчитывает интервалы и, если нужно, растягивает их до бюджета запросов.
+     */
+    private void plan(Collection<Crypto> candidates) {
+        if (!adaptive || candidates.isEmpty()) {
+            states.values().forEach(state -> state.intervalMillis = baseIntervalMillis);
+            return;
+        }
+        double rate = 0;
+        for (Crypto crypto : candidates) {
+            SymbolState state = states.get(crypto);
+            state.intervalMillis = desiredInterval(state);
+            rate += 1.0 / state.intervalMillis;
+        }
+        double budget = (double) candidates.size() / baseIntervalMillis;
+        if (rate > budget) {
+            budgetThrottles.incrementAndGet();
+            double stretch = rate / budget;
+            for (Crypto crypto : candidates) {
+                SymbolState state = states.get(crypto);
+                state.intervalMillis = Math.min(maxIntervalMillis, (long) Math.ceil(state.intervalMillis * stretch));
+            }
+        }
+    }
+
+    private long desiredInterval(SymbolState state) {
+        if (Double.isInfinite(state.gap)) {
+            return maxIntervalMillis;
+        }
+        if (Double.isNaN(state.varianceRate)) {
+            // Волатильность еще не оценена
+            return baseIntervalMillis;
+        }
+        if (state.varianceRate == 0) {
+            return maxIntervalMillis;
+        }
+        double sigmas = state.gap / SAFETY_SIGMAS;
+        double interval = sigmas * sigmas / state.varianceRate;
+        return Math.max(minIntervalMillis, (long) Math.min(maxIntervalMillis, interval));
+    }
+
+    /**
+     * Возвращает текущий интервал опроса каждой криптовалюты и число опросов.
+     *
+     * @return Map со статистикой
+     */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> symbols = new LinkedHashMap<>();
+        double pollsPerMinute = 0;
+        for (Map.Entry<Crypto, SymbolState> entry : states.entrySet()) {
+            SymbolState state = entry.getValue();
+            Map<String, Object> symbol = new LinkedHashMap<>();
+            symbol.put("intervalMs", state.intervalMillis);
+            symbol.put("polls", state.polls.get());
+            symbol.put("thresholdGap", Double.isInfinite(state.gap) ? null : state.gap);
+            symbols.put(entry.getKey().getCode(), symbol);
+            pollsPerMinute += 60000.0 / state.intervalMillis;
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("adaptive", adaptive);
+        stats.put("pollsPerMinute", Math.round(pollsPerMinute * 10) / 10.0);
+        stats.put("budgetPerMinute", Math.round(states.size() * 600000.0 / baseIntervalMillis) / 10.0);
+        stats.put("budgetThrottles", budgetThrottles.get());
+        stats.put("symbols", symbols);
+        return stats;
+    }
+}
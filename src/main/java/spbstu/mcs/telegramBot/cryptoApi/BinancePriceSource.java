@@ -0,0 +1,87 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+
+/**
+ * Дополнительный источник котировок: публичный API Binance
+ * ({@code /api/v3/ticker/price}, ключ не требуется).
+ *
+ * <p>Используется только как резервный для хеджирования запросов к BingX,
+ * поэтому в устойчивом режиме почти не получает трафика.</p>
+ */
+@Component
+@Slf4j
+public class BinancePriceSource implements PriceSource {
+    private static final String ENDPOINT_TICKER = "binance.ticker";
+
+    private final WebClient webClient;
+    private final JsonFactory jsonFactory;
+    private final ExchangeCallGuard callGuard;
+
+    @Autowired
+    public BinancePriceSource(WebClient.Builder webClientBuilder,
+                              ObjectMapper objectMapper,
+                              @Value("${binance.api.url:https://api.binance.com}") String apiUrl,
+                              ExchangeCallGuard callGuard) {
+        this.webClient = webClientBuilder.baseUrl(apiUrl).build();
+        this.jsonFactory = objectMapper.getFactory();
+        this.callGuard = callGuard;
+    }
+
+    @Override
+    public String getName() {
+        return "binance";
+    }
+
+    @Override
+    public Mono<PriceQuote> fetchCurrentQuote(Crypto crypto) {
+        String symbol = crypto.getCode() + "-USDT";
+        return webClient.get()
+                .uri("/api/v3/ticker/price?symbol={symbol}", crypto.getCode() + "USDT")
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(json -> {
+                    try {
+                        return new PriceQuote(symbol, decodePrice(json), System.currentTimeMillis() / 1000);
+                    } catch (Exception e) {
+                        log.error("Error processing Binance ticker: {}", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                })
+                .transform(call -> callGuard.call(ENDPOINT_TICKER, call))
+                .doOnError(error -> log.warn("Error fetching Binance price for {}: {}", symbol, error.getMessage()));
+    }
+
+    /**
+     * Декодирует ответ {@code {"symbol":"BTCUSDT","price":"..."}}.
+     */
+    private BigDecimal decodePrice(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("Invalid Binance ticker response: " + json);
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("price".equals(field)) {
+                    return new BigDecimal(parser.getText());
+                }
+                parser.skipChildren();
+            }
+            throw new IllegalStateException("No price in Binance ticker response: " + json);
+        }
+    }
+}
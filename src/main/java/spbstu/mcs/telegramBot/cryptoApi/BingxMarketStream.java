@@ -0,0 +1,363 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Потоковое получение котировок через WebSocket BingX.
+ *
+ * <p>Подписывается на потоки сделок {@code <symbol>@trade} по всем {@link Crypto}
+ * и передает каждую котировку в {@link MarketDataService}, так что снимок цен
+ * обновляется сразу, а не раз в интервал опроса. Биржа присылает сообщения
+ * в GZIP и периодически отправляет {@code Ping}, на который нужно ответить {@code Pong}.</p>
+ *
+ * <p>При разрыве соединения переподключается с экспоненциальной задержкой
+ * ({@code market.stream.reconnect-min-ms} .. {@code market.stream.reconnect-max-ms}).
+ * Пока поток недоступен, снимок продолжает обновляться опросом по REST.
+ * Режим включается свойством {@code market.stream.enabled}.</p>
+ *
+ * <p>Соединение может зависнуть без закрытия со стороны сети, тогда ни одно
+ * событие закрытия не придет. Поэтому, если от биржи не было ни одного сообщения
+ * (включая {@code Ping}) дольше {@code market.stream.idle-timeout-ms},
+ * соединение разрывается и устанавливается заново.</p>
+ */
+@Service
+@Slf4j
+public class BingxMarketStream {
+    private static final String DEFAULT_URL = "wss://open-api-ws.bingx.com/market";
+    private static final long DEFAULT_RECONNECT_MIN_MS = 1000;
+    private static final long DEFAULT_RECONNECT_MAX_MS = 60000;
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 20000;
+
+    private final MarketDataService marketDataService;
+    private final BingxResponseDecoder decoder;
+    private final URI streamUri;
+    private final boolean enabled;
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+    private final long idleTimeoutMillis;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final ScheduledExecutorService reconnectScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bingx-stream-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicReference<WebSocket> webSocket = new AtomicReference<>();
+    private final AtomicInteger reconnectAttempt = new AtomicInteger();
+    private volatile boolean running;
+    private CompletableFuture<WebSocket> lastSend = CompletableFuture.completedFuture(null);
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong disconnects = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong quotes = new AtomicLong();
+    private final AtomicLong decodeErrors = new AtomicLong();
+    private final AtomicLong idleReconnects = new AtomicLong();
+    private final AtomicLong lastMessageAtMillis = new AtomicLong();
+    private final AtomicLong connectedAtMillis = new AtomicLong();
+
+    public BingxMarketStream(MarketDataService marketDataService, ObjectMapper objectMapper, String streamUrl) {
+        this(marketDataService, objectMapper, true, streamUrl, DEFAULT_RECONNECT_MIN_MS, DEFAULT_RECONNECT_MAX_MS);
+    }
+
+    public BingxMarketStream(MarketDataService marketDataService, ObjectMapper objectMapper, boolean enabled,
+                             String streamUrl, long reconnectMinMillis, long reconnectMaxMillis) {
+        this(marketDataService, objectMapper, enabled, streamUrl, reconnectMinMillis, reconnectMaxMillis,
+                DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    @Autowired
+    public BingxMarketStream(MarketDataService marketDataService,
+                             ObjectMapper objectMapper,
+                             @Value("${market.stream.enabled:false}") boolean enabled,
+                             @Value("${market.stream.url:" + DEFAULT_URL + "}") String streamUrl,
+                             @Value("${market.stream.reconnect-min-ms:1000}") long reconnectMinMillis,
+                             @Value("${market.stream.reconnect-max-ms:60000}") long reconnectMaxMillis,
+                             @Value("${market.stream.idle-timeout-ms:20000}") long idleTimeoutMillis) {
+        this.marketDataService = marketDataService;
+        this.decoder = new BingxResponseDecoder(objectMapper.getFactory());
+        this.enabled = enabled;
+        this.streamUri = URI.create(streamUrl);
+        this.reconnectMinMillis = reconnectMinMillis;
+        this.reconnectMaxMillis = reconnectMaxMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * Запускает поток, если он включен в конфигурации.
+     */
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            log.info("BingX market stream is disabled, prices are served by REST polling");
+            return;
+        }
+        running = true;
+        connect();
+        if (idleTimeoutMillis > 0) {
+            long period = Math.max(10, idleTimeoutMillis / 4);
+            reconnectScheduler.scheduleAtFixedRate(this::checkIdle, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Закрывает соединение и останавливает переподключения.
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        reconnectScheduler.shutdownNow();
+        WebSocket current = webSocket.getAndSet(null);
+        if (current != null) {
+            current.sendClose(WebSocket.NORMAL_CLOSURE, "shutdown");
+        }
+    }
+
+    /**
+     * Проверяет, подключен ли поток.
+     *
+     * @return true, если соединение установлено
+     */
+    public boolean isConnected() {
+        return webSocket.get() != null;
+    }
+
+    private void connect() {
+        if (!running) {
+            return;
+        }
+        log.info("Connecting to BingX market stream {}", streamUri);
+        httpClient.newWebSocketBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .buildAsync(streamUri, new Listener())
+                .whenComplete((socket, error) -> {
+                    // Открытое соединение публикуется в Listener.onOpen
+                    if (error != null) {
+                        log.warn("BingX market stream connection failed: {}", error.getMessage());
+                        scheduleReconnect();
+                    }
+                });
+    }
+
+    /**
+     * Публикует открытое соединение. Вызывается до любых событий закрытия и ошибок
+     * этого соединения, поэтому {@link #onDisconnected(WebSocket)} всегда его увидит.
+     */
+    private void onConnected(WebSocket socket) {
+        if (!running) {
+            socket.abort();
+            return;
+        }
+        connectedAtMillis.set(System.currentTimeMillis());
+        webSocket.set(socket);
+        connects.incrementAndGet();
+        reconnectAttempt.set(0);
+        subscribe(socket);
+    }
+
+    private void subscribe(WebSocket socket) {
+        CompletableFuture<WebSocket> subscribed = null;
+        for (Crypto crypto : Crypto.values()) {
+            subscribed = send(socket, "{\"id\":\"" + UUID.randomUUID() + "\",\"reqType\":\"sub\",\"dataType\":\""
+                    + crypto.getCode() + "-USDT@trade\"}");
+        }
+        subscribed.whenComplete((ws, error) -> {
+            if (error != null) {
+                log.warn("BingX market stream subscription failed: {}", error.getMessage());
+                socket.abort();
+                onDisconnected(socket);
+            } else {
+                log.info("Subscribed to BingX trade streams for {} symbols", Crypto.values().length);
+            }
+        });
+    }
+
+    /**
+     * Отправляет текстовое сообщение после завершения предыдущей отправки:
+     * {@link WebSocket} не допускает одновременных незавершенных отправок.
+     */
+    private synchronized CompletableFuture<WebSocket> send(WebSocket socket, String message) {
+        lastSend = lastSend.handle((ws, error) -> socket)
+                .thenCompose(ws -> ws.sendText(message, true));
+        return lastSend;
+    }
+
+    private void scheduleReconnect() {
+        if (!running) {
+            return;
+        }
+        int attempt = reconnectAttempt.getAndIncrement();
+        long backoff = Math.min(reconnectMaxMillis, reconnectMinMillis << Math.min(attempt, 16));
+        long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        log.info("Reconnecting to BingX market stream in {} ms (attempt {})", delay, attempt + 1);
+        try {
+            reconnectScheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            log.debug("Reconnect not scheduled: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Разрывает соединение, по которому дольше {@code market.stream.idle-timeout-ms}
+     * не приходило сообщений: биржа присылает {@code Ping} каждые несколько секунд,
+     * так что тишина означает зависшее соединение.
+     */
+    private void checkIdle() {
+        WebSocket socket = webSocket.get();
+        if (socket == null) {
+            return;
+        }
+        long lastActivity = Math.max(lastMessageAtMillis.get(), connectedAtMillis.get());
+        long idleMillis = System.currentTimeMillis() - lastActivity;
+        if (idleMillis <= idleTimeoutMillis) {
+            return;
+        }
+        log.warn("No messages from BingX market stream for {} ms, reconnecting", idleMillis);
+        idleReconnects.incrementAndGet();
+        socket.abort();
+        onDisconnected(socket);
+    }
+
+    private void onDisconnected(WebSocket socket) {
+        if (webSocket.compareAndSet(socket, null)) {
+            disconnects.incrementAndGet();
+            scheduleReconnect();
+        }
+    }
+
+    private void onMessage(WebSocket socket, String message) {
+        messages.incrementAndGet();
+        lastMessageAtMillis.set(System.currentTimeMillis());
+        if ("Ping".equals(message)) {
+            send(socket, "Pong");
+            return;
+        }
+        try {
+            PriceQuote quote = decoder.decodeTradeEvent(message);
+            if (quote != null) {
+                marketDataService.applyStreamQuote(Crypto.fromSymbol(quote.symbol()), quote);
+                quotes.incrementAndGet();
+            }
+        } catch (Exception e) {
+            decodeErrors.incrementAndGet();
+            log.warn("Failed to decode BingX stream message: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Возвращает состояние потока и счетчики сообщений.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        long lastMessageAt = lastMessageAtMillis.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("connected", isConnected());
+        stats.put("connects", connects.get());
+        stats.put("disconnects", disconnects.get());
+        stats.put("idleReconnects", idleReconnects.get());
+        stats.put("messages", messages.get());
+        stats.put("quotes", quotes.get());
+        stats.put("decodeErrors", decodeErrors.get());
+        stats.put("lastMessageAgeMs", lastMessageAt == 0 ? null : System.currentTimeMillis() - lastMessageAt);
+        return stats;
+    }
+
+    private static String gunzip(byte[] data) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Слушатель соединения: собирает фрагментированные сообщения
+     * и распаковывает бинарные (GZIP) кадры.
+     */
+    private class Listener implements WebSocket.Listener {
+        private final StringBuilder text = new StringBuilder();
+        private final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+
+        @Override
+        public void onOpen(WebSocket socket) {
+            onConnected(socket);
+            socket.request(1);
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket socket, CharSequence data, boolean last) {
+            text.append(data);
+            if (last) {
+                String message = text.toString();
+                text.setLength(0);
+                onMessage(socket, message);
+            }
+            socket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onBinary(WebSocket socket, ByteBuffer data, boolean last) {
+            byte[] chunk = new byte[data.remaining()];
+            data.get(chunk);
+            binary.writeBytes(chunk);
+            if (last) {
+                byte[] message = binary.toByteArray();
+                binary.reset();
+                try {
+                    onMessage(socket, gunzip(message));
+                } catch (IOException e) {
+                    decodeErrors.incrementAndGet();
+                    log.warn("Failed to inflate BingX stream message: {}", e.getMessage());
+                }
+            }
+            socket.request(1);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket socket, int statusCode, String reason) {
+            log.warn("BingX market stream closed: {} {}", statusCode, reason);
+            onDisconnected(socket);
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket socket, Throwable error) {
+            log.warn("BingX market stream error: {}", error.getMessage());
+            onDisconnected(socket);
+        }
+    }
+}
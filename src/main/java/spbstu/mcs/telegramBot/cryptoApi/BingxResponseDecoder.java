@@ -0,0 +1,181 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import spbstu.mcs.telegramBot.model.Candle;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый декодер ответов BingX на основе {@link JsonParser}.
+ *
+ * <p>Читает из ответа только нужные поля и останавливается, как только они найдены,
+ * не строя дерево {@code JsonNode} для всего документа.</p>
+ */
+final class BingxResponseDecoder {
+    private final JsonFactory jsonFactory;
+
+    BingxResponseDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    /**
+     * Декодирует последнюю сделку из ответа {@code /openApi/spot/v1/ticker/price}:
+     * {@code {"data":[{"trades":[{"price", "timestamp"}]}]}}.
+     *
+     * @param json ответ биржи
+     * @param symbol торговая пара
+     * @return котировка с временем в секундах
+     */
+    PriceQuote decodeLastTrade(String json, String symbol) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            enterFirstDataObject(parser, json);
+            if (!seekField(parser, "trades") || parser.currentToken() != JsonToken.START_ARRAY
+                    || parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalStateException("No trades data available");
+            }
+
+            String price = null;
+            long timestamp = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "price" -> price = parser.getText();
+                    case "timestamp" -> timestamp = parser.getValueAsLong(-1);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (price == null || timestamp < 0) {
+                throw new IllegalStateException("Incomplete trade in response: " + json);
+            }
+            return new PriceQuote(symbol, new BigDecimal(price), timestamp / 1000);
+        }
+    }
+
+    /**
+     * Декодирует поле {@code price} первого элемента {@code data}.
+     *
+     * @param json ответ биржи
+     * @return цена
+     */
+    BigDecimal decodePrice(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            enterFirstDataObject(parser, json);
+            if (!seekField(parser, "price")) {
+                throw new IllegalStateException("No price in response: " + json);
+            }
+            return new BigDecimal(parser.getText());
+        }
+    }
+
+    /**
+     * Декодирует свечи из ответа {@code /openApi/market/his/v1/kline}:
+     * {@code {"data":[[openTime, open, high, low, close, volume, ...], ...]}}.
+     *
+     * @param json ответ биржи
+     * @param crypto криптовалюта
+     * @param interval интервал свечей
+     * @return свечи в порядке следования в ответе
+     */
+    List<Candle> decodeKlines(String json, Crypto crypto, String interval) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !seekField(parser, "data")
+                    || parser.currentToken() != JsonToken.START_ARRAY) {
+                throw new IllegalStateException("No candlestick data available: " + json);
+            }
+
+            List<Candle> candles = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                parser.nextToken();
+                long openTime = parser.getValueAsLong();
+                BigDecimal open = nextDecimal(parser);
+                BigDecimal high = nextDecimal(parser);
+                BigDecimal low = nextDecimal(parser);
+                BigDecimal close = nextDecimal(parser);
+                BigDecimal volume = null;
+                if (parser.nextToken() != JsonToken.END_ARRAY) {
+                    volume = new BigDecimal(parser.getText());
+                    // Остальные поля свечи (closeTime, quoteVolume, ...) не используются
+                    while (parser.nextToken() != JsonToken.END_ARRAY) {
+                        parser.skipChildren();
+                    }
+                }
+                candles.add(new Candle(crypto, interval, openTime, open, high, low, close, volume));
+            }
+            return candles;
+        }
+    }
+
+    /**
+     * Декодирует событие сделки из WebSocket-потока {@code <symbol>@trade}:
+     * {@code {"dataType":"BTC-USDT@trade","data":{"s","p","T",...}}}.
+     * Служебные сообщения (подтверждение подписки и т.п.) не содержат {@code data}.
+     *
+     * @param json сообщение потока
+     * @return котировка с временем в секундах или {@code null}, если сообщение не является сделкой
+     */
+    PriceQuote decodeTradeEvent(String json) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT || !seekField(parser, "data")
+                    || parser.currentToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            String symbol = null;
+            String price = null;
+            long tradeTime = -1;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "s" -> symbol = parser.getText();
+                    case "p" -> price = parser.getText();
+                    case "T" -> tradeTime = parser.getValueAsLong(-1);
+                    default -> parser.skipChildren();
+                }
+            }
+            if (symbol == null || price == null || tradeTime < 0) {
+                throw new IllegalStateException("Incomplete trade event: " + json);
+            }
+            return new PriceQuote(symbol, new BigDecimal(price), tradeTime / 1000);
+        }
+    }
+
+    private void enterFirstDataObject(JsonParser parser, String json) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT || !seekField(parser, "data")
+                || parser.currentToken() != JsonToken.START_ARRAY
+                || parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalStateException("Invalid data structure in response: " + json);
+        }
+    }
+
+    /**
+     * Перемещает парсер на значение поля {@code name} текущего объекта,
+     * пропуская остальные поля вместе с вложенными структурами.
+     */
+    private boolean seekField(JsonParser parser, String name) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    private BigDecimal nextDecimal(JsonParser parser) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY || token == null) {
+            throw new IllegalStateException("Incomplete candle in response");
+        }
+        return new BigDecimal(parser.getText());
+    }
+}
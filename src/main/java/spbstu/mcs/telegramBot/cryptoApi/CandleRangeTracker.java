@@ -0,0 +1,187 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import spbstu.mcs.telegramBot.model.Candle;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Диапазон цен между плановыми проверками алертов по минутным свечам.
+ *
+ * <p>Плановая проверка видит только одну цену на момент проверки, и всплеск между
+ * проверками остается незамеченным. Трекер для каждой криптовалюты помнит, до какого
+ * времени свечи уже просмотрены, и при следующей проверке отдает закрытые минутные
+ * свечи после этого момента. Свечи берутся через {@link PriceFetcher#getKlines},
+ * то есть в основном из локального хранилища свечей: у биржи запрашиваются только
+ * минуты, закрывшиеся после прошлой проверки.</p>
+ *
+ * <p>Окно отмечается просмотренным через {@link #markCovered(Window)} только после того,
+ * как по нему проверены алерты: если цикл проверки прерван (например, по бюджету
+ * времени), то же окно будет отдано следующей проверке.</p>
+ *
+ * <p>При первой проверке после запуска окно пустое: свечи до запуска не просматриваются.
+ * Окно ограничено {@code alerts.range.max-window-ms}, чтобы после долгого простоя
+ * не загружать и не проверять всю историю.</p>
+ */
+@Component
+@Slf4j
+public class CandleRangeTracker {
+    private static final long MINUTE_MILLIS = Candle.intervalMillis(Candle.INTERVAL_1M);
+
+    /**
+     * Максимум и минимум цены в окне.
+     *
+     * @param high максимальная цена в USD
+     * @param highTime время открытия свечи с максимумом, в секундах
+     * @param low минимальная цена в USD
+     * @param lowTime время открытия свечи с минимумом, в секундах
+     */
+    public record PriceRange(BigDecimal high, long highTime, BigDecimal low, long lowTime) {}
+
+    /**
+     * Закрытые минутные свечи криптовалюты, еще не просмотренные проверкой алертов.
+     *
+     * @param crypto криптовалюта
+     * @param candles свечи по возрастанию времени открытия
+     * @param untilMillis конец окна; 0, если окно не нужно отмечать просмотренным
+     */
+    public record Window(Crypto crypto, List<Candle> candles, long untilMillis) {
+        static Window empty(Crypto crypto) {
+            return new Window(crypto, List.of(), 0L);
+        }
+    }
+
+    private final PriceFetcher priceFetcher;
+    private final boolean enabled;
+    private final long maxWindowMillis;
+    private final Map<Crypto, Long> coveredUntil = new ConcurrentHashMap<>();
+
+    private final AtomicLong windows = new AtomicLong();
+    private final AtomicLong candles = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * Без источника свечей или при {@code enabled = false} трекер выключен:
+     * проверка алертов идет только по текущей цене.
+     */
+    @Autowired
+    public CandleRangeTracker(PriceFetcher priceFetcher,
+                              @Value("${alerts.range.enabled:true}") boolean enabled,
+                              @Value("${alerts.range.max-window-ms:3600000}") long maxWindowMillis) {
+        this.priceFetcher = priceFetcher;
+        this.enabled = enabled && priceFetcher != null;
+        this.maxWindowMillis = maxWindowMillis;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Возвращает закрытые минутные свечи, еще не просмотренные для криптовалюты.
+     * Окно не сдвигается, пока не будет вызван {@link #markCovered(Window)};
+     * при ошибке загрузки возвращается пустое окно, и оно будет запрошено
+     * при следующей проверке.
+     *
+     * @param crypto криптовалюта
+     * @return Mono с окном, возможно пустым
+     */
+    public Mono<Window> nextWindow(Crypto crypto) {
+        if (!enabled) {
+            return Mono.just(Window.empty(crypto));
+        }
+        long closedUntil = System.currentTimeMillis() / MINUTE_MILLIS * MINUTE_MILLIS;
+        Long covered = coveredUntil.putIfAbsent(crypto, closedUntil);
+        if (covered == null) {
+            return Mono.just(Window.empty(crypto));
+        }
+        long from = Math.max(covered, closedUntil - maxWindowMillis);
+        if (from >= closedUntil) {
+            return Mono.just(Window.empty(crypto));
+        }
+        return priceFetcher.getKlines(crypto, Candle.INTERVAL_1M, from, closedUntil)
+                .collectList()
+                .map(window -> {
+                    windows.incrementAndGet();
+                    candles.addAndGet(window.size());
+                    return new Window(crypto, window, closedUntil);
+                })
+                .onErrorResume(e -> {
+                    failures.incrementAndGet();
+                    log.warn("Failed to load candle window for {}: {}", crypto, e.getMessage());
+                    return Mono.just(Window.empty(crypto));
+                });
+    }
+
+    /**
+     * Отмечает окно просмотренным: следующая проверка получит свечи после его конца.
+     *
+     * @param window окно, по которому проверены все алерты криптовалюты
+     */
+    public void markCovered(Window window) {
+        if (window.untilMillis() > 0) {
+            coveredUntil.merge(window.crypto(), window.untilMillis(), Math::max);
+        }
+    }
+
+    /**
+     * Отмечает свечи криптовалюты просмотренными до данного момента.
+     */
+    void coverUntil(Crypto crypto, long untilMillis) {
+        coveredUntil.put(crypto, untilMillis);
+    }
+
+    /**
+     * Находит максимум и минимум цены по свечам, открытым не раньше данного момента.
+     *
+     * @param window свечи окна
+     * @param fromMillis начало диапазона в миллисекундах
+     * @return диапазон или пустое значение, если подходящих свечей нет
+     */
+    public static Optional<PriceRange> rangeOf(List<Candle> window, long fromMillis) {
+        Candle highest = null;
+        Candle lowest = null;
+        for (Candle candle : window) {
+            if (candle.getOpenTime() < fromMillis) {
+                continue;
+            }
+            if (highest == null || candle.getHigh().compareTo(highest.getHigh()) > 0) {
+                highest = candle;
+            }
+            if (lowest == null || candle.getLow().compareTo(lowest.getLow()) < 0) {
+                lowest = candle;
+            }
+        }
+        if (highest == null) {
+            return Optional.empty();
+        }
+        return Optional.of(new PriceRange(highest.getHigh(), highest.getOpenTime() / 1000,
+                lowest.getLow(), lowest.getOpenTime() / 1000));
+    }
+
+    /**
+     * Возвращает число загруженных окон и просмотренных свечей.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("symbols", coveredUntil.size());
+        stats.put("windows", windows.get());
+        stats.put("candles", candles.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+}
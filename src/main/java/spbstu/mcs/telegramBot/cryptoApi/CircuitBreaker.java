@@ -0,0 +1,129 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Автоматический выключатель для одной конечной точки внешнего API.
+ *
+ * <p>После {@code failureThreshold} ошибок подряд переходит в состояние {@link State#OPEN}
+ * и на {@code openMillis} отклоняет вызовы без обращения к сети. Затем пропускает
+ * один пробный вызов ({@link State#HALF_OPEN}): успех закрывает выключатель,
+ * ошибка снова открывает его.</p>
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Ошибка, возвращаемая вместо вызова, пока выключатель открыт.
+     */
+    public static class OpenException extends RuntimeException {
+        public OpenException(String name) {
+            super("Circuit breaker '" + name + "' is open");
+        }
+    }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openedAtMillis = new AtomicLong();
+
+    private final AtomicLong successes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Выполняет вызов под защитой выключателя. Пока выключатель открыт,
+     * {@code call} не подписывается и возвращается {@link OpenException}.
+     *
+     * @param call вызов внешнего API
+     * @return Mono с результатом вызова
+     */
+    public <T> Mono<T> protect(Mono<T> call) {
+        return Mono.defer(() -> {
+            if (!tryAcquire()) {
+                rejected.incrementAndGet();
+                return Mono.error(new OpenException(name));
+            }
+            return call
+                    .doOnSuccess(_ -> onSuccess())
+                    .doOnError(_ -> onFailure())
+                    .doOnCancel(this::onCancel);
+        });
+    }
+
+    private boolean tryAcquire() {
+        State current = state.get();
+        if (current == State.CLOSED) {
+            return true;
+        }
+        if (current == State.OPEN && System.currentTimeMillis() - openedAtMillis.get() >= openMillis) {
+            // Пробный вызов получает только тот, кто первым перевел выключатель в HALF_OPEN
+            return state.compareAndSet(State.OPEN, State.HALF_OPEN);
+        }
+        return false;
+    }
+
+    private void onSuccess() {
+        successes.incrementAndGet();
+        consecutiveFailures.set(0);
+        state.set(State.CLOSED);
+    }
+
+    private void onFailure() {
+        failures.incrementAndGet();
+        if (state.get() == State.HALF_OPEN || consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    private void onCancel() {
+        // Отмененная проба не дала результата: возвращаем выключатель в OPEN,
+        // чтобы следующий вызов после паузы снова мог стать пробным
+        if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+            openedAtMillis.set(System.currentTimeMillis() - openMillis);
+        }
+    }
+
+    private void open() {
+        openedAtMillis.set(System.currentTimeMillis());
+        if (state.getAndSet(State.OPEN) != State.OPEN) {
+            opens.incrementAndGet();
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * Возвращает состояние выключателя и счетчики вызовов.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("state", state.get().name());
+        stats.put("consecutiveFailures", consecutiveFailures.get());
+        stats.put("successes", successes.get());
+        stats.put("failures", failures.get());
+        stats.put("rejected", rejected.get());
+        stats.put("opens", opens.get());
+        return stats;
+    }
+}
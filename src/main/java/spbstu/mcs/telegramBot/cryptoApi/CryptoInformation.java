@@ -3,8 +3,6 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
-import reactor.core.publisher.Flux;
-import reactor.util.retry.Retry;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -12,8 +10,8 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.time.Duration;
 
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
 import spbstu.mcs.telegramBot.model.Currency.Fiat;
 import spbstu.mcs.telegramBot.DB.services.UserService;
@@ -33,16 +31,19 @@ public class CryptoInformation {
     private final ObjectMapper objectMapper;
     private final CurrencyConverter currencyConverter;
     private final PriceFetcher priceFetcher;
+    private final MarketDataService marketDataService;
     private final UserService userService;
 
     @Autowired
     public CryptoInformation(ObjectMapper objectMapper,
                            CurrencyConverter currencyConverter,
                            PriceFetcher priceFetcher,
+                           MarketDataService marketDataService,
                            UserService userService) {
         this.objectMapper = objectMapper;
         this.currencyConverter = currencyConverter;
         this.priceFetcher = priceFetcher;
+        this.marketDataService = marketDataService;
         this.userService = userService;
     }
     
@@ -157,48 +158,35 @@ public class CryptoInformation {
                 
                 return currencyConverter.getUsdToFiatRate(currentFiat)
                     .flatMap(exchangeRate -> 
-                        priceFetcher.getCurrentPrice(currentCrypto)
-                            .flatMap(currentJson -> Mono.fromCallable(() -> objectMapper.readTree(currentJson))
-                            .flatMap(currentNode -> {
-                                BigDecimal currentPrice = new BigDecimal(currentNode.get("price").asText());
-                                long currentTimestamp = currentNode.get("timestamp").asLong() * 1000;
+                        marketDataService.getCurrentQuote(currentCrypto)
+                            .flatMap(currentQuote -> {
+                                BigDecimal currentPrice = currentQuote.price();
+                                long currentTimestamp = currentQuote.timestamp() * 1000;
                                 
                                 // Конвертируем текущую цену
                                 BigDecimal currentPriceInFiat = currentPrice
                                         .multiply(exchangeRate)
                                         .setScale(2, RoundingMode.HALF_UP);
                                 
-                                // Генерируем все точки, включая текущую и самую старую
-                                Flux<Long> timestamps = Flux.range(0, points + 1)
-                                        .map(i -> currentTimestamp - (i * intervalMillis))
-                                .map(ts -> ts / 1000);
-                        
-                                // Получаем исторические цены с повторными попытками
-                                return timestamps.flatMap(ts -> 
-                                    priceFetcher.getSymbolPriceByTime(currentCrypto, ts)
-                                        .retryWhen(Retry.backoff(3, Duration.ofMillis(500))
-                                            .doBeforeRetry(signal -> 
-                                                log.warn("Retrying after error: {}", signal.failure().getMessage())
-                                            )
-                                        )
-                                        .flatMap(json -> Mono.fromCallable(() -> {
-                                            JsonNode node = objectMapper.readTree(json);
-                                            BigDecimal price = new BigDecimal(node.get("price").asText());
-                                            long timestamp = node.get("timestamp").asLong() * 1000;
-                                            
-                                            // Конвертируем историческую цену
-                                            BigDecimal priceInFiat = price
-                                                    .multiply(exchangeRate)
-                                                    .setScale(2, RoundingMode.HALF_UP);
-                                            
-                                            // Создаем JSON-узел
-                                            ObjectNode priceNode = objectMapper.createObjectNode();
-                                            priceNode.put("price", priceInFiat.toString());
-                                            priceNode.put("timestamp", timestamp / 1000);
-                                            return priceNode;
-                                        }))
-                                )
+                                // Получаем всю историю одним запросом диапазона свечей
+                                long rangeStart = currentTimestamp - points * intervalMillis;
+                                return priceFetcher.getKlines(currentCrypto, candleInterval(intervalMillis),
+                                        rangeStart, currentTimestamp + 1)
+                                .map(candle -> {
+                                    // Конвертируем историческую цену
+                                    BigDecimal priceInFiat = candle.getOpen()
+                                            .multiply(exchangeRate)
+                                            .setScale(2, RoundingMode.HALF_UP);
+                                    
+                                    // Создаем JSON-узел
+                                    ObjectNode priceNode = objectMapper.createObjectNode();
+                                    priceNode.put("price", priceInFiat.toString());
+                                    priceNode.put("timestamp", candle.getOpenTime() / 1000);
+                                    return priceNode;
+                                })
                                 .collectList()
+                                .filter(historyNodes -> !historyNodes.isEmpty())
+                                .switchIfEmpty(Mono.error(new IllegalStateException("Нет исторических данных для " + currentCrypto.getCode())))
                                 .map(historyNodes -> {
                                     try {
                                         // Сортируем точки по времени (от старых к новым)
@@ -209,6 +197,13 @@ public class CryptoInformation {
                                             )
                                         );
                                         
+                                        // Последняя свеча еще не закрыта, поэтому последней точкой
+                                        // ряда служит текущая цена
+                                        ObjectNode currentNode = objectMapper.createObjectNode();
+                                        currentNode.put("price", currentPriceInFiat.toString());
+                                        currentNode.put("timestamp", currentTimestamp / 1000);
+                                        historyNodes.add(currentNode);
+                                        
                                         // Формируем результат
                                         ObjectNode result = objectMapper.createObjectNode();
                                         result.put("symbol", currentCrypto.getCode() + "-" + currentFiat.getCode());
@@ -257,7 +252,7 @@ public class CryptoInformation {
                                         throw new RuntimeException("Error creating price history", e);
                                     }
                                 });
-                            }))
+                            })
                     );
             });
     }
@@ -277,13 +272,11 @@ public class CryptoInformation {
                 
                 return currencyConverter.getUsdToFiatRate(currentFiat)
                     .flatMap(exchangeRate -> 
-                        priceFetcher.getCurrentPrice(currentCrypto)
-                            .flatMap(currentJson -> {
+                        marketDataService.getCurrentQuote(currentCrypto)
+                            .flatMap(currentQuote -> {
                                 try {
-                                    JsonNode originalNode = objectMapper.readTree(currentJson);
-                                    String symbol = originalNode.get("symbol").asText();
-                                    BigDecimal priceUSD = new BigDecimal(originalNode.get("price").asText());
-                                    long timestamp = originalNode.get("timestamp").asLong();
+                                    BigDecimal priceUSD = currentQuote.price();
+                                    long timestamp = currentQuote.timestamp();
                                     
                                     // Конвертируем цену в текущую фиатную валюту
                                     BigDecimal priceInFiat = priceUSD
@@ -295,6 +288,9 @@ public class CryptoInformation {
                                     result.put("symbol", currentCrypto.getCode() + "-" + currentFiat.getCode());
                                     result.put("price", priceInFiat.toString());
                                     result.put("timestamp", timestamp);
+                                    if (currentQuote.stale()) {
+                                        result.put("stale", true);
+                                    }
                                     
                                     String resultJson = objectMapper.writeValueAsString(result);
                                     log.info("Current price: {}", resultJson);
@@ -309,22 +305,19 @@ public class CryptoInformation {
     }
     
     private Mono<JsonNode> getPriceData(Crypto crypto, String period) {
-        return priceFetcher.getCurrentPrice(crypto)
-                .flatMap(currentJson -> {
+        return marketDataService.getCurrentQuote(crypto)
+                .flatMap(currentQuote -> {
                     try {
-                        JsonNode currentNode = objectMapper.readTree(currentJson);
-                        long currentTimestamp = currentNode.get("timestamp").asLong() * 1000;
+                        long currentTimestamp = currentQuote.timestamp() * 1000;
                         long historicTimestamp = currentTimestamp - periodToMillis(period);
                         
-                        return priceFetcher.getSymbolPriceByTime(crypto, historicTimestamp)
-                                .flatMap(historicJson -> {
+                        return priceFetcher.getQuoteByTime(crypto, historicTimestamp)
+                                .flatMap(historicQuote -> {
                                     try {
-                                        JsonNode historicNode = objectMapper.readTree(historicJson);
-                                        
                                         ObjectNode result = objectMapper.createObjectNode();
-                                        result.put("currentPrice", currentNode.get("price").asText());
+                                        result.put("currentPrice", currentQuote.price().toPlainString());
                                         result.put("currentTimestamp", currentTimestamp);
-                                        result.put("historicPrice", historicNode.get("price").asText());
+                                        result.put("historicPrice", historicQuote.price().toPlainString());
                                         result.put("historicTimestamp", historicTimestamp);
                                         
                                         return Mono.just(result);
@@ -390,6 +383,10 @@ public class CryptoInformation {
         };
     }
     
+    private String candleInterval(long intervalMillis) {
+        return intervalMillis == 3600000 ? Candle.INTERVAL_1H : Candle.INTERVAL_1D;
+    }
+
     private long[] calculateIntervalAndPoints(String period) {
         String unit = period.substring(period.length() - 1);
         int value = Integer.parseInt(period.substring(0, period.length() - 1));
@@ -5,7 +5,6 @@ import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 import reactor.core.publisher.Flux;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.math.BigDecimal;
@@ -35,7 +34,7 @@ import spbstu.mcs.telegramBot.DB.services.UserService;
 public class CryptoPortfolioManager {
     private final ObjectMapper objectMapper;
     private final CurrencyConverter currencyConverter;
-    private final PriceFetcher priceFetcher;
+    private final MarketDataService marketDataService;
     private final PortfolioService portfolioService;
     private final UserService userService;
     private Portfolio currentPortfolio;
@@ -43,12 +42,12 @@ public class CryptoPortfolioManager {
     @Autowired
     public CryptoPortfolioManager(ObjectMapper objectMapper,
                              CurrencyConverter currencyConverter,
-                             PriceFetcher priceFetcher,
+                             MarketDataService marketDataService,
                              PortfolioService portfolioService,
                              UserService userService) {
         this.objectMapper = objectMapper;
         this.currencyConverter = currencyConverter;
-        this.priceFetcher = priceFetcher;
+        this.marketDataService = marketDataService;
         this.portfolioService = portfolioService;
         this.userService = userService;
     }
@@ -75,12 +74,11 @@ public class CryptoPortfolioManager {
                 Fiat userFiat = Fiat.valueOf(user.getCurrentFiat());
                 return currencyConverter.getUsdToFiatRate(userFiat)
                     .flatMap(exchangeRate -> 
-                        priceFetcher.getCurrentPrice(crypto)
-                            .flatMap(priceJson -> {
+                        marketDataService.getCurrentQuote(crypto)
+                            .flatMap(quote -> {
                                 try {
-                                    JsonNode jsonNode = objectMapper.readTree(priceJson);
-                                    BigDecimal priceInUSDT = new BigDecimal(jsonNode.get("price").asText());
-                                    long timestamp = jsonNode.get("timestamp").asLong();
+                                    BigDecimal priceInUSDT = quote.price();
+                                    long timestamp = quote.timestamp();
                                     
                                     String displaySymbol = crypto.getCode() + "-" + userFiat.getCode();
                                     
@@ -156,12 +154,11 @@ public class CryptoPortfolioManager {
                 Fiat userFiat = Fiat.valueOf(user.getCurrentFiat());
                 return currencyConverter.getUsdToFiatRate(userFiat)
                     .flatMap(exchangeRate -> 
-                        priceFetcher.getCurrentPrice(crypto)
-                            .flatMap(priceJson -> Mono.fromCallable(() -> {
+                        marketDataService.getCurrentQuote(crypto)
+                            .flatMap(quote -> Mono.fromCallable(() -> {
                                 try {
-                                    JsonNode jsonNode = objectMapper.readTree(priceJson);
-                                    BigDecimal priceInUSDT = new BigDecimal(jsonNode.get("price").asText());
-                                    long timestamp = jsonNode.get("timestamp").asLong();
+                                    BigDecimal priceInUSDT = quote.price();
+                                    long timestamp = quote.timestamp();
                                     
                                     currentPortfolio = portfolioService.removeCryptoFromPortfolio(
                                         currentPortfolio.getId(), crypto, count);
@@ -232,12 +229,11 @@ public class CryptoPortfolioManager {
                             BigDecimal amount = portfolio.getCount().setScale(6, RoundingMode.FLOOR);
                             
                             return Mono.zip(
-                                priceFetcher.getCurrentPrice(portfolio.getCryptoCurrency()),
+                                marketDataService.getCurrentQuote(portfolio.getCryptoCurrency()),
                                 currencyConverter.getUsdToFiatRate(userFiat)
                             ).map(tuple -> {
                                 try {
-                                    JsonNode priceNode = objectMapper.readTree(tuple.getT1());
-                                    BigDecimal priceUSD = new BigDecimal(priceNode.get("price").asText());
+                                    BigDecimal priceUSD = tuple.getT1().price();
                                     BigDecimal conversionRate = tuple.getT2();
                                     
                                     BigDecimal priceInFiat = priceUSD.multiply(conversionRate).setScale(2, RoundingMode.HALF_UP);
@@ -312,12 +308,11 @@ public class CryptoPortfolioManager {
 
                         return Mono.zip(
                             Flux.fromIterable(portfolios)
-                                .flatMap(portfolio -> priceFetcher.getCurrentPrice(portfolio.getCryptoCurrency())
-                                    .<Map.Entry<Portfolio, PortfolioPriceInfo>>map(priceJson -> {
+                                .flatMap(portfolio -> marketDataService.getCurrentQuote(portfolio.getCryptoCurrency())
+                                    .<Map.Entry<Portfolio, PortfolioPriceInfo>>map(quote -> {
                                         try {
-                                            JsonNode node = objectMapper.readTree(priceJson);
-                                            BigDecimal currentPrice = new BigDecimal(node.get("price").asText());
-                                            long timestamp = node.get("timestamp").asLong();
+                                            BigDecimal currentPrice = quote.price();
+                                            long timestamp = quote.timestamp();
                                             
                                             return Map.entry(portfolio, new PortfolioPriceInfo(
                                                 portfolio.getCryptoCurrency(),
@@ -406,12 +401,11 @@ public class CryptoPortfolioManager {
 
                         return Mono.zip(
                             Flux.fromIterable(portfolios)
-                                .flatMap(portfolio -> priceFetcher.getCurrentPrice(portfolio.getCryptoCurrency())
-                                    .<Map.Entry<Portfolio, PortfolioPriceInfo>>map(priceJson -> {
+                                .flatMap(portfolio -> marketDataService.getCurrentQuote(portfolio.getCryptoCurrency())
+                                    .<Map.Entry<Portfolio, PortfolioPriceInfo>>map(quote -> {
                                         try {
-                                            JsonNode node = objectMapper.readTree(priceJson);
-                                            BigDecimal currentPrice = new BigDecimal(node.get("price").asText());
-                                            long timestamp = node.get("timestamp").asLong();
+                                            BigDecimal currentPrice = quote.price();
+                                            long timestamp = quote.timestamp();
                                             
                                             return Map.entry(portfolio, new PortfolioPriceInfo(
                                                 portfolio.getCryptoCurrency(),
@@ -500,12 +494,11 @@ public class CryptoPortfolioManager {
         return Mono.just(portfolioService.getPortfoliosByChatId(chatId))
             .flatMap(portfolios -> Flux.fromIterable(portfolios)
                 .filter(portfolio -> portfolio.getCryptoCurrency() != null)
-                .flatMap(portfolio -> priceFetcher.getCurrentPrice(portfolio.getCryptoCurrency())
-                    .map(priceJson -> {
+                .flatMap(portfolio -> marketDataService.getCurrentQuote(portfolio.getCryptoCurrency())
+                    .map(quote -> {
                         try {
-                            JsonNode node = objectMapper.readTree(priceJson);
-                            BigDecimal currentPrice = new BigDecimal(node.get("price").asText());
-                            long timestamp = node.get("timestamp").asLong();
+                            BigDecimal currentPrice = quote.price();
+                            long timestamp = quote.timestamp();
                             
                             portfolio.setLastCryptoPrice(currentPrice);
                             portfolio.setLastCryptoPriceTimestamp(timestamp);
@@ -2,6 +2,7 @@ package spbstu.mcs.telegramBot.cryptoApi;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
@@ -10,57 +11,187 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import spbstu.mcs.telegramBot.model.Currency.Fiat;
 
 import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Сервис для получения курсов валют.
+ *
+ * <p>Курсы USD ко всем валютам {@link Fiat} хранятся в памяти одной таблицей,
+ * которая периодически обновляется из {@code /usd.json}. Чтения обслуживаются
+ * из таблицы; если она старше {@code currency.rates.max-age-ms}, возвращается
+ * прежний курс и в фоне запускается обновление (stale-while-revalidate).
+ * Сетевой запрос на пути чтения выполняется только до первой загрузки таблицы.</p>
  */
 @Service
 @Slf4j
 public class CurrencyConverter {
+    private static final String ENDPOINT_RATES = "currency.rates";
+
     private final WebClient webClient;
     private final ObjectMapper objectMapper;
     private final String apiUrl;
+    private final long maxAgeMillis;
+
+    private final AtomicReference<RateTable> rateTable = new AtomicReference<>();
+    private final AtomicReference<Mono<RateTable>> inFlight = new AtomicReference<>();
+    private final ExchangeCallGuard callGuard;
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+    private final AtomicLong staleReads = new AtomicLong();
+
+    private record RateTable(Map<Fiat, BigDecimal> rates, long refreshedAtMillis) {
+        long ageMillis() {
+            return System.currentTimeMillis() - refreshedAtMillis;
+        }
+    }
 
     @Autowired
     public CurrencyConverter(WebClient.Builder webClientBuilder,
                            ObjectMapper objectMapper,
-                           @Value("${currency.api.url}") String apiUrl) {
+                           @Value("${currency.api.url}") String apiUrl,
+                           @Value("${currency.rates.max-age-ms:600000}") long maxAgeMillis,
+                           ExchangeCallGuard callGuard) {
         this.webClient = webClientBuilder.baseUrl(apiUrl).build();
         this.objectMapper = objectMapper;
         this.apiUrl = apiUrl;
+        this.maxAgeMillis = maxAgeMillis;
+        this.callGuard = callGuard;
     }
 
     /**
      * Получает курс USD к указанной фиатной валюте.
+     * Курс берется из таблицы в памяти; устаревшая таблица обновляется в фоне.
      *
      * @param fiat Фиатная валюта
      * @return Mono с курсом обмена
      */
     public Mono<BigDecimal> getUsdToFiatRate(Fiat fiat) {
+        return Mono.defer(() -> {
+            RateTable current = rateTable.get();
+            if (current == null) {
+                return refresh().flatMap(table -> lookup(table, fiat));
+            }
+            if (current.ageMillis() > maxAgeMillis) {
+                staleReads.incrementAndGet();
+                refreshInBackground();
+            }
+            return lookup(current, fiat);
+        })
+        .doOnError(e -> log.error("Error getting USD to {} rate: {}",
+                fiat.getCode(), e.getMessage()));
+    }
+
+    /**
+     * Плановое обновление таблицы курсов.
+     */
+    @Scheduled(fixedDelayString = "${currency.rates.refresh-interval-ms:300000}")
+    public void refreshRates() {
+        refreshInBackground();
+    }
+
+    /**
+     * Загружает {@code /usd.json} и публикует новую таблицу курсов.
+     * Одновременные обновления объединяются в один запрос.
+     *
+     * @return Mono с опубликованной таблицей
+     */
+    private Mono<RateTable> refresh() {
+        return Mono.defer(() -> {
+            Mono<RateTable> running = inFlight.get();
+            if (running != null) {
+                return running;
+            }
+            AtomicReference<Mono<RateTable>> created = new AtomicReference<>();
+            Mono<RateTable> load = fetchRateTable()
+                    .doOnNext(table -> {
+                        rateTable.set(table);
+                        refreshes.incrementAndGet();
+                    })
+                    .doOnError(e -> failedRefreshes.incrementAndGet())
+                    .doFinally(signal -> inFlight.compareAndSet(created.get(), null))
+                    .cache();
+            created.set(load);
+            return inFlight.compareAndSet(null, load) ? load : refresh();
+        });
+    }
+
+    private void refreshInBackground() {
+        refresh().subscribe(
+                table -> log.debug("Refreshed FX rate table with {} currencies", table.rates().size()),
+                error -> log.warn("FX rate refresh failed, serving previous rates: {}", error.getMessage())
+        );
+    }
+
+    private Mono<BigDecimal> lookup(RateTable table, Fiat fiat) {
+        BigDecimal rate = table.rates().get(fiat);
+        if (rate == null) {
+            return Mono.error(new RuntimeException(
+                    "Валюта " + fiat.getCode() + " не найдена в ответе"));
+        }
+        return Mono.just(rate);
+    }
+
+    private Mono<RateTable> fetchRateTable() {
         return webClient.get()
                 .uri("/usd.json")
                 .retrieve()
                 .bodyToMono(String.class)
+                .transform(call -> callGuard.call(ENDPOINT_RATES, call))
                 .flatMap(response -> {
                     try {
                         JsonNode rootNode = objectMapper.readTree(response);
                         JsonNode usdNode = rootNode.path("usd");
-                        
-                        if (!usdNode.has(fiat.getCode().toLowerCase())) {
-                            return Mono.error(new RuntimeException(
-                                    "Валюта " + fiat.getCode() + " не найдена в ответе"));
+
+                        Map<Fiat, BigDecimal> rates = new EnumMap<>(Fiat.class);
+                        for (Fiat fiat : Fiat.values()) {
+                            String code = fiat.getCode().toLowerCase();
+                            if (usdNode.has(code)) {
+                                BigDecimal rate = new BigDecimal(usdNode.path(code).asText());
+                                // Округляем до 4 знаков после запятой
+                                rates.put(fiat, rate.setScale(4, java.math.RoundingMode.HALF_UP));
+                            }
+                        }
+                        if (rates.isEmpty()) {
+                            return Mono.error(new RuntimeException("Курсы валют не найдены в ответе"));
                         }
-                        
-                        BigDecimal rate = new BigDecimal(usdNode.path(fiat.getCode().toLowerCase()).asText());
-                        // Округляем до 4 знаков после запятой
-                        rate = rate.setScale(4, java.math.RoundingMode.HALF_UP);
-                        return Mono.just(rate);
+                        return Mono.just(new RateTable(Collections.unmodifiableMap(rates), System.currentTimeMillis()));
                     } catch (Exception e) {
                         log.error("Error processing API response: {}", e.getMessage());
                         return Mono.error(e);
                     }
-                })
-                .doOnError(e -> log.error("Error getting USD to {} rate: {}", 
-                        fiat.getCode(), e.getMessage()));
+                });
+    }
+
+    /**
+     * Возвращает возраст таблицы курсов в миллисекундах.
+     *
+     * @return возраст последнего успешного обновления или -1, если таблица еще не загружена
+     */
+    public long getRatesAgeMillis() {
+        RateTable current = rateTable.get();
+        return current == null ? -1 : current.ageMillis();
+    }
+
+    /**
+     * Возвращает состояние таблицы курсов и счетчики обновлений.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        RateTable current = rateTable.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("currencies", current == null ? 0 : current.rates().size());
+        stats.put("ageMs", current == null ? null : current.ageMillis());
+        stats.put("maxAgeMs", maxAgeMillis);
+        stats.put("refreshes", refreshes.get());
+        stats.put("failedRefreshes", failedRefreshes.get());
+        stats.put("staleReads", staleReads.get());
+        return stats;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общая защита вызовов внешних API: выключатель на каждую конечную точку
+ * и единый бюджет повторов для всех вызовов.
+ *
+ * <p>Бюджет повторов пополняется на {@code exchange.retry.budget-ratio} токена
+ * за каждый вызов и расходует один токен на повтор, так что при массовых ошибках
+ * доля повторов ограничена долей от основного трафика, а не умножает его.
+ * Повторы не выполняются, пока выключатель открыт.</p>
+ */
+@Component
+@Slf4j
+public class ExchangeCallGuard {
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MS = 30000;
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final double DEFAULT_BUDGET_RATIO = 0.1;
+    private static final int DEFAULT_BUDGET_MAX = 10;
+    private static final long MILLI_TOKENS = 1000;
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final int maxRetries;
+    private final Duration retryBackoff;
+    private final long depositMilliTokens;
+    private final long maxMilliTokens;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicLong budgetMilliTokens;
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong retriesDenied = new AtomicLong();
+
+    public ExchangeCallGuard() {
+        this(DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_MS, DEFAULT_MAX_RETRIES, 1000,
+                DEFAULT_BUDGET_RATIO, DEFAULT_BUDGET_MAX);
+    }
+
+    @Autowired
+    public ExchangeCallGuard(@Value("${exchange.breaker.failure-threshold:5}") int failureThreshold,
+                             @Value("${exchange.breaker.open-ms:30000}") long openMillis,
+                             @Value("${exchange.retry.max-attempts:3}") int maxRetries,
+                             @Value("${exchange.retry.backoff-ms:1000}") long retryBackoffMillis,
+                             @Value("${exchange.retry.budget-ratio:0.1}") double budgetRatio,
+                             @Value("${exchange.retry.budget-max:10}") int budgetMax) {
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+        this.maxRetries = maxRetries;
+        this.retryBackoff = Duration.ofMillis(retryBackoffMillis);
+        this.depositMilliTokens = Math.round(budgetRatio * MILLI_TOKENS);
+        this.maxMilliTokens = budgetMax * MILLI_TOKENS;
+        this.budgetMilliTokens = new AtomicLong(maxMilliTokens);
+    }
+
+    /**
+     * Выполняет вызов через выключатель конечной точки {@code endpoint}
+     * с повторами в пределах общего бюджета.
+     *
+     * @param endpoint имя конечной точки (например, "bingx.ticker")
+     * @param call вызов внешнего API; подписывается заново на каждую попытку
+     * @return Mono с результатом вызова или исходной ошибкой последней попытки
+     */
+    public <T> Mono<T> call(String endpoint, Mono<T> call) {
+        CircuitBreaker breaker = breaker(endpoint);
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            deposit();
+            return breaker.protect(call)
+                    .retryWhen(Retry.backoff(maxRetries, retryBackoff)
+                            .filter(error -> !(error instanceof CircuitBreaker.OpenException) && tryWithdraw())
+                            .doBeforeRetry(signal -> log.warn("Retrying {} after error: {}",
+                                    endpoint, signal.failure().getMessage()))
+                            .onRetryExhaustedThrow((spec, signal) -> signal.failure()));
+        });
+    }
+
+    /**
+     * Возвращает выключатель конечной точки, создавая его при первом обращении.
+     */
+    public CircuitBreaker breaker(String endpoint) {
+        return breakers.computeIfAbsent(endpoint, name -> new CircuitBreaker(name, failureThreshold, openMillis));
+    }
+
+    private void deposit() {
+        budgetMilliTokens.accumulateAndGet(depositMilliTokens, (current, add) -> Math.min(maxMilliTokens, current + add));
+    }
+
+    private boolean tryWithdraw() {
+        long current;
+        do {
+            current = budgetMilliTokens.get();
+            if (current < MILLI_TOKENS) {
+                retriesDenied.incrementAndGet();
+                return false;
+            }
+        } while (!budgetMilliTokens.compareAndSet(current, current - MILLI_TOKENS));
+        retries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Возвращает состояние выключателей и бюджета повторов.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> breakerStats = new LinkedHashMap<>();
+        breakers.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .forEach(entry -> breakerStats.put(entry.getKey(), entry.getValue().getStats()));
+
+        Map<String, Object> budget = new LinkedHashMap<>();
+        budget.put("tokens", budgetMilliTokens.get() / (double) MILLI_TOKENS);
+        budget.put("calls", calls.get());
+        budget.put("retries", retries.get());
+        budget.put("retriesDenied", retriesDenied.get());
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("breakers", breakerStats);
+        stats.put("retryBudget", budget);
+        return stats;
+    }
+}
@@ -0,0 +1,268 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Клиентский ограничитель частоты запросов к бирже (token bucket)
+ * с отдельными очередями приоритетов.
+ *
+ * <p>Ведро вмещает {@code exchange.rate-limit.burst} токенов и пополняется
+ * со скоростью {@code exchange.rate-limit.per-second}. Каждая попытка запроса
+ * расходует один токен. Когда токенов нет, запросы ждут в очереди своей полосы
+ * ({@link Lane}); освободившиеся токены распределяются между непустыми очередями
+ * взвешенным циклическим перебором, поэтому ни одна полоса не может полностью
+ * вытеснить другие.</p>
+ *
+ * <p>Полоса запроса задается в контексте Reactor через {@link #lane(Lane)};
+ * без нее запрос считается интерактивным.</p>
+ */
+@Component
+@Slf4j
+public class ExchangeRateLimiter {
+    private static final String LANE_KEY = ExchangeRateLimiter.class.getName() + ".lane";
+
+    /**
+     * Полосы приоритета и их веса при распределении токенов.
+     */
+    public enum Lane {
+        INTERACTIVE(5),
+        ALERTS(3),
+        BACKGROUND(1);
+
+        private final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Ошибка при переполнении очереди полосы.
+     */
+    public static class QueueFullException extends RuntimeException {
+        public QueueFullException(Lane lane) {
+            super("Exchange rate limiter queue is full for lane " + lane);
+        }
+    }
+
+    private record Waiter(MonoSink<Void> sink, long enqueuedAtNanos) {}
+
+    private final double permitsPerSecond;
+    private final double burst;
+    private final int maxQueue;
+    private final Scheduler scheduler;
+
+    private final Map<Lane, ArrayDeque<Waiter>> queues = new EnumMap<>(Lane.class);
+    private final Map<Lane, Integer> currentWeights = new EnumMap<>(Lane.class);
+    private double tokens;
+    private long refilledAtNanos;
+    private boolean drainScheduled;
+
+    private final Map<Lane, AtomicLong> granted = new EnumMap<>(Lane.class);
+    private final Map<Lane, AtomicLong> rejected = new EnumMap<>(Lane.class);
+    private final Map<Lane, AtomicLong> waitNanos = new EnumMap<>(Lane.class);
+    private final Map<Lane, AtomicLong> maxWaitNanos = new EnumMap<>(Lane.class);
+
+    public ExchangeRateLimiter() {
+        this(10, 20, 500);
+    }
+
+    @Autowired
+    public ExchangeRateLimiter(@Value("${exchange.rate-limit.per-second:10}") double permitsPerSecond,
+                               @Value("${exchange.rate-limit.burst:20}") int burst,
+                               @Value("${exchange.rate-limit.max-queue:500}") int maxQueue) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxQueue = maxQueue;
+        this.scheduler = Schedulers.parallel();
+        this.tokens = burst;
+        this.refilledAtNanos = System.nanoTime();
+        for (Lane lane : Lane.values()) {
+            queues.put(lane, new ArrayDeque<>());
+            currentWeights.put(lane, 0);
+            granted.put(lane, new AtomicLong());
+            rejected.put(lane, new AtomicLong());
+            waitNanos.put(lane, new AtomicLong());
+            maxWaitNanos.put(lane, new AtomicLong());
+        }
+    }
+
+    /**
+     * Возвращает модификатор контекста, задающий полосу для запросов к бирже
+     * внутри цепочки: {@code .contextWrite(ExchangeRateLimiter.lane(Lane.ALERTS))}.
+     *
+     * @param lane полоса приоритета
+     * @return функция модификации контекста Reactor
+     */
+    public static Function<Context, Context> lane(Lane lane) {
+        return context -> context.put(LANE_KEY, lane);
+    }
+
+    /**
+     * Подписывается на {@code call} только после получения токена в полосе,
+     * указанной в контексте подписчика. Каждая повторная подписка (повтор запроса)
+     * получает отдельный токен.
+     *
+     * @param call запрос к бирже
+     * @return Mono с результатом запроса
+     */
+    public <T> Mono<T> limit(Mono<T> call) {
+        return Mono.deferContextual(context -> acquire(context.getOrDefault(LANE_KEY, Lane.INTERACTIVE)))
+                .then(call);
+    }
+
+    /**
+     * Получает один токен в указанной полосе.
+     *
+     * @param lane полоса приоритета
+     * @return Mono, завершающийся после выдачи токена
+     */
+    public Mono<Void> acquire(Lane lane) {
+        return Mono.create(sink -> {
+            boolean immediate;
+            synchronized (this) {
+                refill();
+                immediate = tokens >= 1 && queuesEmpty();
+                if (immediate) {
+                    tokens -= 1;
+                    granted.get(lane).incrementAndGet();
+                } else {
+                    ArrayDeque<Waiter> queue = queues.get(lane);
+                    if (queue.size() >= maxQueue) {
+                        rejected.get(lane).incrementAndGet();
+                        log.warn("Exchange rate limiter queue is full for lane {}, rejecting request", lane);
+                        sink.error(new QueueFullException(lane));
+                        return;
+                    }
+                    Waiter waiter = new Waiter(sink, System.nanoTime());
+                    queue.addLast(waiter);
+                    sink.onCancel(() -> {
+                        synchronized (this) {
+                            queue.remove(waiter);
+                        }
+                    });
+                    scheduleDrain();
+                }
+            }
+            if (immediate) {
+                sink.success();
+            }
+        });
+    }
+
+    private void drain() {
+        List<Waiter> released = new ArrayList<>();
+        synchronized (this) {
+            drainScheduled = false;
+            refill();
+            while (tokens >= 1) {
+                Lane lane = nextLane();
+                if (lane == null) {
+                    break;
+                }
+                Waiter waiter = queues.get(lane).pollFirst();
+                tokens -= 1;
+                long waited = System.nanoTime() - waiter.enqueuedAtNanos();
+                granted.get(lane).incrementAndGet();
+                waitNanos.get(lane).addAndGet(waited);
+                maxWaitNanos.get(lane).accumulateAndGet(waited, Math::max);
+                released.add(waiter);
+            }
+            scheduleDrain();
+        }
+        // Подписчики продолжают работу вне блокировки
+        released.forEach(waiter -> waiter.sink().success());
+    }
+
+    /**
+     * Выбирает полосу для следующего токена (smooth weighted round-robin
+     * среди непустых очередей).
+     */
+    private Lane nextLane() {
+        Lane best = null;
+        int totalWeight = 0;
+        for (Lane lane : Lane.values()) {
+            if (queues.get(lane).isEmpty()) {
+                continue;
+            }
+            int weight = currentWeights.get(lane) + lane.weight;
+            currentWeights.put(lane, weight);
+            totalWeight += lane.weight;
+            if (best == null || weight > currentWeights.get(best)) {
+                best = lane;
+            }
+        }
+        if (best != null) {
+            currentWeights.put(best, currentWeights.get(best) - totalWeight);
+        }
+        return best;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled || queuesEmpty()) {
+            return;
+        }
+        drainScheduled = true;
+        long delayNanos = tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerSecond * 1_000_000_000L);
+        scheduler.schedule(this::drain, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAtNanos) / 1_000_000_000.0 * permitsPerSecond);
+        refilledAtNanos = now;
+    }
+
+    private boolean queuesEmpty() {
+        for (ArrayDeque<Waiter> queue : queues.values()) {
+            if (!queue.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Возвращает глубину очередей и время ожидания по полосам.
+     *
+     * @return Map со статистикой
+     */
+    public synchronized Map<String, Object> getStats() {
+        refill();
+        Map<String, Object> lanes = new LinkedHashMap<>();
+        for (Lane lane : Lane.values()) {
+            long grantedCount = granted.get(lane).get();
+            Map<String, Object> laneStats = new LinkedHashMap<>();
+            laneStats.put("queued", queues.get(lane).size());
+            laneStats.put("granted", grantedCount);
+            laneStats.put("rejected", rejected.get(lane).get());
+            laneStats.put("avgWaitMs", grantedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanos.get(lane).get() / grantedCount));
+            laneStats.put("maxWaitMs", TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get(lane).get()));
+            lanes.put(lane.name().toLowerCase(), laneStats);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("permitsPerSecond", permitsPerSecond);
+        stats.put("tokens", Math.floor(tokens * 100) / 100);
+        stats.put("lanes", lanes);
+        return stats;
+    }
+}
@@ -0,0 +1,277 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.function.Tuples;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Сервис рыночных данных, периодически опрашивающий биржу по всем криптовалютам.
+ * Публикует неизменяемый {@link PriceSnapshot}, который читают обработчики команд и алертов,
+ * так что на пути обработки запроса пользователя нет обращения к бирже.
+ *
+ * <p>Если котировки еще нет в снимке или она получена дольше {@code market.snapshot.max-staleness-ms} назад,
+ * цена запрашивается напрямую через {@link PriceFetcher}.</p>
+ *
+ * <p>Когда включен поток {@link BingxMarketStream}, котировки применяются к снимку
+ * сразу по приходу, а опрос по REST выполняется только для криптовалют,
+ * по которым поток не присылал данных дольше {@code market.snapshot.max-staleness-ms}.</p>
+ *
+ * <p>Каждая новая котировка, из опроса или из потока, публикуется в {@link #ticks()},
+ * чтобы подписчики (например, проверка алертов) реагировали на нее сразу.</p>
+ *
+ * <p>Частоту опроса каждой криптовалюты задает {@link AdaptivePollingPlanner}: задание
+ * запускается раз в {@code market.polling.tick-ms} и опрашивает только криптовалюты,
+ * для которых истек их интервал. Устаревание котировки поэтому проверяется
+ * по времени ее получения, а не по возрасту всего снимка.</p>
+ */
+@Service
+@Slf4j
+public class MarketDataService {
+
+    /**
+     * Новая котировка криптовалюты.
+     */
+    public record PriceTick(Crypto crypto, PriceQuote quote) {}
+
+    private final PriceFetcher priceFetcher;
+    private final long maxStalenessMillis;
+    private final int concurrency;
+    private final AtomicReference<PriceSnapshot> snapshot = new AtomicReference<>(PriceSnapshot.empty());
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final Map<Crypto, Long> pushedAtMillis = new ConcurrentHashMap<>();
+    private final AdaptivePollingPlanner pollingPlanner;
+    private final Sinks.Many<PriceTick> ticks = Sinks.many().multicast().directBestEffort();
+
+    private final AtomicLong snapshotReads = new AtomicLong();
+    private final AtomicLong fallbackReads = new AtomicLong();
+    private final AtomicLong failedRefreshes = new AtomicLong();
+    private final AtomicLong pushedQuotes = new AtomicLong();
+    private final AtomicLong streamCoveredSkips = new AtomicLong();
+    private final AtomicLong publishedTicks = new AtomicLong();
+
+    @Autowired
+    public MarketDataService(PriceFetcher priceFetcher,
+                             @Value("${market.snapshot.max-staleness-ms:30000}") long maxStalenessMillis,
+                             @Value("${market.snapshot.concurrency:3}") int concurrency,
+                             AdaptivePollingPlanner pollingPlanner) {
+        this.priceFetcher = priceFetcher;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.concurrency = concurrency;
+        this.pollingPlanner = pollingPlanner;
+    }
+
+    /**
+     * Опрашивает биржу по криптовалютам, которым пора обновиться по плану
+     * {@link AdaptivePollingPlanner}, ограниченной параллельной пачкой
+     * и публикует новый снимок. Котировки, которые не удалось получить,
+     * переносятся из предыдущего снимка.
+     */
+    @Scheduled(fixedDelayString = "${market.polling.tick-ms:1000}")
+    public void refreshSnapshot() {
+        if (!refreshing.compareAndSet(false, true)) {
+            log.debug("Snapshot refresh is already running, skipping");
+            return;
+        }
+        List<Crypto> polled = Arrays.stream(Crypto.values())
+                .filter(crypto -> !isStreamCovered(crypto))
+                .toList();
+        List<Crypto> due = pollingPlanner.due(polled, System.currentTimeMillis());
+        if (due.isEmpty()) {
+            refreshing.set(false);
+            return;
+        }
+        refresh(due)
+                .contextWrite(ExchangeRateLimiter.lane(ExchangeRateLimiter.Lane.BACKGROUND))
+                .doFinally(signal -> refreshing.set(false))
+                .subscribe(
+                        published -> log.debug("Published price snapshot with {} quotes", published.size()),
+                        error -> {
+                            failedRefreshes.incrementAndGet();
+                            log.error("Error refreshing price snapshot: {}", error.getMessage());
+                        }
+                );
+    }
+
+    /**
+     * Строит и публикует новый снимок цен.
+     * Криптовалюты, котировки которых недавно пришли из потока, не опрашиваются.
+     *
+     * @return Mono с опубликованным снимком
+     */
+    public Mono<PriceSnapshot> refresh() {
+        return refresh(Arrays.asList(Crypto.values()));
+    }
+
+    /**
+     * Строит и публикует новый снимок, опрашивая только указанные криптовалюты.
+     *
+     * @param cryptos криптовалюты для опроса
+     * @return Mono с опубликованным снимком
+     */
+    public Mono<PriceSnapshot> refresh(Collection<Crypto> cryptos) {
+        return Flux.fromIterable(cryptos)
+                .filter(crypto -> {
+                    if (isStreamCovered(crypto)) {
+                        streamCoveredSkips.incrementAndGet();
+                        return false;
+                    }
+                    return true;
+                })
+                .flatMap(crypto -> priceFetcher.getCurrentQuote(crypto)
+                        // Последняя известная цена не должна продлевать жизнь снимка
+                        .filter(quote -> !quote.stale())
+                        .map(quote -> Tuples.of(crypto, quote))
+                        .onErrorResume(e -> {
+                            log.warn("Snapshot refresh failed for {}: {}", crypto, e.getMessage());
+                            return Mono.empty();
+                        }), concurrency)
+                .collectMap(tuple -> tuple.getT1(), tuple -> tuple.getT2(), () -> new EnumMap<>(Crypto.class))
+                .map(fresh -> {
+                    long now = System.currentTimeMillis();
+                    PriceSnapshot published = snapshot.updateAndGet(current -> current.with(fresh, now));
+                    fresh.forEach((crypto, quote) -> {
+                        received(crypto, quote, now);
+                        publishTick(new PriceTick(crypto, quote));
+                    });
+                    return published;
+                });
+    }
+
+    /**
+     * Применяет котировку, полученную из потока биржи, к текущему снимку.
+     *
+     * @param crypto криптовалюта
+     * @param quote котировка
+     */
+    public void applyStreamQuote(Crypto crypto, PriceQuote quote) {
+        long now = System.currentTimeMillis();
+        snapshot.updateAndGet(current -> current.with(Map.of(crypto, quote), now));
+        pushedAtMillis.put(crypto, now);
+        received(crypto, quote, now);
+        pushedQuotes.incrementAndGet();
+        publishTick(new PriceTick(crypto, quote));
+    }
+
+    /**
+     * Возвращает поток новых котировок. Подписчик, не успевающий обрабатывать
+     * котировки, пропускает их, не задерживая остальных.
+     *
+     * @return Flux с котировками по мере их поступления
+     */
+    public Flux<PriceTick> ticks() {
+        return ticks.asFlux();
+    }
+
+    // Котировки приходят из потока биржи и из опроса одновременно
+    private synchronized void publishTick(PriceTick tick) {
+        if (ticks.tryEmitNext(tick).isSuccess()) {
+            publishedTicks.incrementAndGet();
+        }
+    }
+
+    private void received(Crypto crypto, PriceQuote quote, long now) {
+        pollingPlanner.onQuote(crypto, quote.price(), now);
+    }
+
+    /**
+     * Передает в план опроса относительное расстояние от цены криптовалюты
+     * до ближайшей границы активного алерта.
+     *
+     * @param crypto криптовалюта
+     * @param relativeGap расстояние в долях цены; {@link Double#POSITIVE_INFINITY}, если алертов нет
+     */
+    public void reportThresholdGap(Crypto crypto, double relativeGap) {
+        pollingPlanner.reportThresholdGap(crypto, relativeGap);
+    }
+
+    /**
+     * Учитывает в плане опроса новую границу алерта, не дожидаясь следующей
+     * котировки: криптовалюта начинает опрашиваться чаще сразу после создания алерта.
+     *
+     * @param crypto криптовалюта
+     * @param relativeGap расстояние в долях цены до новой границы
+     */
+    public void narrowThresholdGap(Crypto crypto, double relativeGap) {
+        pollingPlanner.narrowThresholdGap(crypto, relativeGap);
+    }
+
+    private boolean isStreamCovered(Crypto crypto) {
+        Long pushedAt = pushedAtMillis.get(crypto);
+        return pushedAt != null && System.currentTimeMillis() - pushedAt <= maxStalenessMillis;
+    }
+
+    /**
+     * Возвращает последний опубликованный снимок.
+     */
+    public PriceSnapshot getSnapshot() {
+        return snapshot.get();
+    }
+
+    /**
+     * Возвращает текущую котировку криптовалюты из последнего снимка.
+     * При отсутствии котировки или если она получена дольше
+     * {@code market.snapshot.max-staleness-ms} назад обращается к {@link PriceFetcher}.
+     *
+     * @param crypto криптовалюта
+     * @return Mono с котировкой
+     */
+    public Mono<PriceQuote> getCurrentQuote(Crypto crypto) {
+        PriceQuote quote = snapshot.get().getFreshQuote(crypto, maxStalenessMillis).orElse(null);
+        if (quote != null) {
+            snapshotReads.incrementAndGet();
+            return Mono.just(quote);
+        }
+        fallbackReads.incrementAndGet();
+        return priceFetcher.getCurrentQuote(crypto);
+    }
+
+    /**
+     * Возвращает текущую цену криптовалюты в виде JSON-строки.
+     *
+     * @param crypto криптовалюта
+     * @return Mono с JSON-строкой, содержащей цену и timestamp
+     * @see #getCurrentQuote(Crypto)
+     */
+    public Mono<String> getCurrentPrice(Crypto crypto) {
+        return getCurrentQuote(crypto).map(PriceQuote::toJson);
+    }
+
+    /**
+     * Возвращает состояние снимка и счетчики чтений.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        PriceSnapshot current = snapshot.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("symbols", current.size());
+        stats.put("ageMs", current.getCreatedAtMillis() == 0 ? null : current.getAgeMillis());
+        stats.put("oldestQuoteAgeMs", current.getCreatedAtMillis() == 0 ? null : current.getOldestQuoteAgeMillis());
+        stats.put("snapshotReads", snapshotReads.get());
+        stats.put("fallbackReads", fallbackReads.get());
+        stats.put("failedRefreshes", failedRefreshes.get());
+        stats.put("pushedQuotes", pushedQuotes.get());
+        stats.put("streamCoveredSkips", streamCoveredSkips.get());
+        stats.put("publishedTicks", publishedTicks.get());
+        stats.put("polling", pollingPlanner.getStats());
+        return stats;
+    }
+}
@@ -4,105 +4,223 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import spbstu.mcs.telegramBot.DB.services.CandleService;
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
 import spbstu.mcs.telegramBot.model.Currency.Fiat;
 import java.math.BigDecimal;
 import java.time.Duration;
-import reactor.util.retry.Retry;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Сервис для получения цен с биржи BingX
+ *
+ * <p>Текущие котировки запрашиваются у BingX как у основного {@link PriceSource};
+ * медленные запросы хеджируются во вторичный источник через {@link PriceSourceHedger}.</p>
  */
 @Service
 @Slf4j
 public class PriceFetcher {
     private static final int PRICE_SCALE = 8;
     private static final int PERCENT_SCALE = 2;
+    private static final int KLINE_LIMIT = 500;
+    private static final int KLINE_CHUNK_CONCURRENCY = 4;
+    private static final String ENDPOINT_TICKER = "bingx.ticker";
+    private static final String ENDPOINT_KLINE = "bingx.kline";
+    private static final String ENDPOINT_FIAT_RATE = "bingx.fiat-rate";
+    private static final String ENDPOINT_CRYPTO_PRICE = "bingx.crypto-price";
     
     private final WebClient webClient;
-    private final ObjectMapper objectMapper;
     private final String apiKey;
     private final String apiSecret;
+    private final BingxResponseDecoder decoder;
+    private final QuoteCache<Crypto, PriceQuote> quoteCache;
+    private final Map<Crypto, PriceQuote> lastKnownQuotes = new ConcurrentHashMap<>();
+    private final CandleService candleService;
+    private final ExchangeCallGuard callGuard;
+    private final ExchangeRateLimiter rateLimiter;
+    private final PriceSourceHedger hedger;
+    private final PriceSource bingxSource = new BingxPriceSource();
 
+    private final AtomicLong candleStoreHits = new AtomicLong();
+    private final AtomicLong candleStoreMisses = new AtomicLong();
+    private final AtomicLong staleQuotesServed = new AtomicLong();
+
+    /**
+     * @param candleService локальное хранилище свечей; {@code null} — исторические
+     *                      цены всегда запрашиваются у биржи
+     */
     @Autowired
     public PriceFetcher(WebClient.Builder webClientBuilder, 
                        ObjectMapper objectMapper,
                        @Value("${bingx.api.key}") String apiKey,
                        @Value("${bingx.api.secret}") String apiSecret,
-                       @Value("${bingx.api.url}") String apiUrl) {
+                       @Value("${bingx.api.url}") String apiUrl,
+                       @Value("${bingx.quote-cache.max-age-ms:5000}") long quoteMaxAgeMillis,
+                       CandleService candleService,
+                       ExchangeCallGuard callGuard,
+                       ExchangeRateLimiter rateLimiter,
+                       PriceSourceHedger hedger) {
         this.webClient = webClientBuilder.baseUrl(apiUrl).build();
-        this.objectMapper = objectMapper;
+        this.decoder = new BingxResponseDecoder(objectMapper.getFactory());
         this.apiKey = apiKey;
         this.apiSecret = apiSecret;
+        this.quoteCache = new QuoteCache<>(Duration.ofMillis(quoteMaxAgeMillis));
+        this.candleService = candleService;
+        this.callGuard = callGuard;
+        this.rateLimiter = rateLimiter;
+        this.hedger = hedger;
+    }
+
+    /**
+     * Возвращает состояние ограничителя частоты запросов: токены, очереди и ожидание по полосам.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getRateLimiterStats() {
+        return rateLimiter.getStats();
+    }
+
+    /**
+     * Получает текущую котировку для указанной криптовалюты.
+     * Ответ кэшируется на {@code bingx.quote-cache.max-age-ms}, одновременные
+     * запросы по одной криптовалюте объединяются в один запрос к бирже.
+     *
+     * <p>Если биржа недоступна (в том числе при открытом выключателе), возвращается
+     * последняя известная котировка с признаком {@link PriceQuote#stale()}.</p>
+     *
+     * @param crypto Криптовалюта
+     * @return Mono с котировкой
+     */
+    public Mono<PriceQuote> getCurrentQuote(Crypto crypto) {
+        return quoteCache.get(crypto, this::fetchCurrentQuote)
+                .onErrorResume(e -> {
+                    PriceQuote lastKnown = lastKnownQuotes.get(crypto);
+                    if (lastKnown == null) {
+                        return Mono.error(e);
+                    }
+                    staleQuotesServed.incrementAndGet();
+                    log.warn("Serving last known quote for {} from {}: {}", crypto, lastKnown.timestamp(), e.getMessage());
+                    return Mono.just(lastKnown.asStale());
+                });
     }
 
     /**
-     * Получает текущую цену для указанного символа
+     * Получает текущую цену для указанного символа.
      * 
      * @param crypto Символ торговой пары (например, "BTC-USDT")
      * @return Mono с JSON-строкой, содержащей цену и timestamp
+     * @see #getCurrentQuote(Crypto)
      */
     public Mono<String> getCurrentPrice(Crypto crypto) {
-        String symbol = crypto.getCode() + "-USDT";
-        return webClient.get()
-                .uri("/openApi/spot/v1/ticker/price?symbol={symbol}", symbol)
-                .header("X-BX-APIKEY", apiKey)
-                .retrieve()
-                .bodyToMono(String.class)
-                .map(json -> {
-                    try {
-                        JsonNode root = objectMapper.readTree(json);
-                        
-                        if (!root.has("data") || !root.get("data").isArray() || root.get("data").size() == 0) {
-                            throw new RuntimeException("Invalid data structure in response");
-                        }
-                        
-                        JsonNode data = root.get("data").get(0);
-                        if (!data.has("trades") || !data.get("trades").isArray() || data.get("trades").size() == 0) {
-                            throw new RuntimeException("No trades data available");
+        return getCurrentQuote(crypto).map(PriceQuote::toJson);
+    }
+
+    /**
+     * Возвращает статистику кэша котировок: попадания, промахи и объединенные запросы.
+     *
+     * @return Map со статистикой кэша
+     */
+    public Map<String, Object> getQuoteCacheStats() {
+        return quoteCache.getStats();
+    }
+
+    private Mono<PriceQuote> fetchCurrentQuote(Crypto crypto) {
+        return hedger.fetch(bingxSource, crypto)
+                .doOnNext(quote -> lastKnownQuotes.put(crypto, quote));
+    }
+
+    /**
+     * Основной источник котировок: тикер BingX.
+     */
+    private class BingxPriceSource implements PriceSource {
+        @Override
+        public String getName() {
+            return "bingx";
+        }
+
+        @Override
+        public Mono<PriceQuote> fetchCurrentQuote(Crypto crypto) {
+            String symbol = crypto.getCode() + "-USDT";
+            return webClient.get()
+                    .uri("/openApi/spot/v1/ticker/price?symbol={symbol}", symbol)
+                    .header("X-BX-APIKEY", apiKey)
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .map(json -> {
+                        try {
+                            PriceQuote quote = decoder.decodeLastTrade(json, symbol);
+                            log.debug("Fetched quote {}", quote);
+                            return quote;
+                        } catch (Exception e) {
+                            log.error("Error processing JSON: {}", e.getMessage());
+                            throw new RuntimeException(e);
                         }
-                        
-                        JsonNode lastTrade = data.get("trades").get(0);
-                        
-                        ObjectNode result = objectMapper.createObjectNode();
-                        result.put("symbol", symbol);
-                        result.put("price", lastTrade.get("price").asText());
-                        
-                        long timestamp = lastTrade.get("timestamp").asLong();
-                        result.put("timestamp", timestamp / 1000);
-                        
-                        String resultJson = objectMapper.writeValueAsString(result);
-                        log.info(resultJson);
-                        return resultJson;
-                    } catch (Exception e) {
-                        log.error("Error processing JSON: {}", e.getMessage());
-                        throw new RuntimeException(e);
-                    }
-                })
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
-                    .doBeforeRetry(signal -> 
-                        log.warn("Retrying price fetch for {} after error: {}", symbol, signal.failure().getMessage())
-                    )
-                )
-                .doOnError(error -> log.error("Error fetching price for {}: {}", symbol, error.getMessage()));
+                    })
+                    .transform(rateLimiter::limit)
+                    .transform(call -> callGuard.call(ENDPOINT_TICKER, call))
+                    .doOnError(error -> log.error("Error fetching price for {}: {}", symbol, error.getMessage()));
+        }
     }
 
     /**
-     * Получает цену символа по времени
-     * 
+     * Возвращает задержки источников котировок и статистику хеджирования.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getPriceSourceStats() {
+        return hedger.getStats();
+    }
+
+    /**
+     * Возвращает состояние выключателей, бюджета повторов и число
+     * котировок, выданных в деградированном режиме.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getResilienceStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(callGuard.getStats());
+        stats.put("staleQuotesServed", staleQuotesServed.get());
+        return stats;
+    }
+
+    /**
+     * Возвращает статистику обращений к локальному хранилищу свечей.
+     *
+     * @return Map со статистикой хранилища
+     */
+    public Map<String, Object> getCandleStoreStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", candleService != null);
+        stats.put("hits", candleStoreHits.get());
+        stats.put("misses", candleStoreMisses.get());
+        return stats;
+    }
+
+    /**
+     * Получает котировку символа по времени: цену открытия минутной свечи.
+     * Закрытая минутная свеча сначала ищется в локальном хранилище,
+     * к бирже выполняется запрос только при ее отсутствии.
+     *
      * @param crypto Криптовалюта
-     * @param timestamp Временная метка
-     * @return Mono с JSON-строкой, содержащей цену и timestamp
+     * @param timestamp Временная метка в секундах или миллисекундах
+     * @return Mono с котировкой на начало минуты
      */
-    public Mono<String> getSymbolPriceByTime(Crypto crypto, long timestamp) {
+    public Mono<PriceQuote> getQuoteByTime(Crypto crypto, long timestamp) {
         String symbol = crypto.getCode() + "-USDT";
         
         // Проверяем, нужно ли конвертировать timestamp в миллисекунды
@@ -115,6 +233,38 @@ public class PriceFetcher {
         long startTime = (timestampInMillis / 60000) * 60000;
         long endTime = startTime + 60000;
 
+        if (candleService == null) {
+            return fetchQuoteByTime(crypto, startTime, endTime);
+        }
+        return candleService.findCandle(crypto, Candle.INTERVAL_1M, startTime)
+                .onErrorResume(e -> {
+                    log.warn("Candle store lookup failed for {}: {}", symbol, e.getMessage());
+                    return Mono.empty();
+                })
+                .map(candle -> {
+                    candleStoreHits.incrementAndGet();
+                    return new PriceQuote(symbol, candle.getOpen(), startTime / 1000);
+                })
+                .switchIfEmpty(Mono.defer(() -> {
+                    candleStoreMisses.incrementAndGet();
+                    return fetchQuoteByTime(crypto, startTime, endTime);
+                }));
+    }
+
+    /**
+     * Получает цену символа по времени
+     * 
+     * @param crypto Криптовалюта
+     * @param timestamp Временная метка
+     * @return Mono с JSON-строкой, содержащей цену и timestamp
+     * @see #getQuoteByTime(Crypto, long)
+     */
+    public Mono<String> getSymbolPriceByTime(Crypto crypto, long timestamp) {
+        return getQuoteByTime(crypto, timestamp).map(PriceQuote::toJson);
+    }
+
+    private Mono<PriceQuote> fetchQuoteByTime(Crypto crypto, long startTime, long endTime) {
+        String symbol = crypto.getCode() + "-USDT";
         return webClient.get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/openApi/market/his/v1/kline")
@@ -129,35 +279,156 @@ public class PriceFetcher {
                 .bodyToMono(String.class)
                 .map(json -> {
                     try {
-                        JsonNode root = objectMapper.readTree(json);
-                        
-                        if (!root.has("data") || !root.get("data").isArray() || root.get("data").size() == 0) {
+                        List<Candle> candles = decoder.decodeKlines(json, crypto, Candle.INTERVAL_1M);
+                        if (candles.isEmpty()) {
                             throw new RuntimeException("No candlestick data available: " + json);
                         }
                         
-                        JsonNode candle = root.get("data").get(0);
-                        
-                        ObjectNode result = objectMapper.createObjectNode();
-                        result.put("symbol", symbol);
-                        result.put("price", candle.get(1).asText());
-                        result.put("timestamp", startTime / 1000); // Используем начало минуты
-                        
-                        String resultJson = objectMapper.writeValueAsString(result);
-                        log.info(resultJson);
-                        return resultJson;
+                        Candle candle = candles.get(0);
+                        // В хранилище попадает только свеча запрошенной минуты; соседняя
+                        // свеча, возвращенная биржей, под этим временем не сохраняется
+                        if (candle.getOpenTime() != null && candle.getOpenTime() == startTime) {
+                            storeCandles(crypto, List.of(candle));
+                        }
+                        // Используем начало минуты
+                        return new PriceQuote(symbol, candle.getOpen(), startTime / 1000);
                     } catch (Exception e) {
                         log.error("Error processing candlestick data: {}", e.getMessage());
                         throw new RuntimeException(e);
                     }
                 })
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
-                    .doBeforeRetry(signal -> 
-                        log.warn("Retrying candlestick data fetch for {} after error: {}", symbol, signal.failure().getMessage())
-                    )
-                )
+                .transform(rateLimiter::limit)
+                .transform(call -> callGuard.call(ENDPOINT_KLINE, call))
                 .doOnError(error -> log.error("Error fetching candlestick data for {}: {}", symbol, error.getMessage()));
     }
 
+    private void storeCandles(Crypto crypto, List<Candle> candles) {
+        if (candleService == null || candles.isEmpty()) {
+            return;
+        }
+        candleService.saveCandles(candles)
+                .subscribe(
+                        saved -> log.debug("Stored {} candles for {}", saved, crypto),
+                        error -> log.warn("Failed to store candles for {}: {}", crypto, error.getMessage())
+                );
+    }
+
+    /**
+     * Получает непрерывный ряд свечей за диапазон времени.
+     * Свечи, уже лежащие в локальном хранилище, берутся из него; недостающие
+     * участки запрашиваются у биржи частями по {@value #KLINE_LIMIT} свечей,
+     * части загружаются параллельно.
+     *
+     * @param crypto Криптовалюта
+     * @param interval Интервал свечи ("1m", "1h", "1d")
+     * @param startTime Начало диапазона в миллисекундах (округляется вниз до границы интервала)
+     * @param endTime Конец диапазона в миллисекундах (не включительно)
+     * @return Flux со свечами, упорядоченными по времени открытия
+     */
+    public Flux<Candle> getKlines(Crypto crypto, String interval, long startTime, long endTime) {
+        long intervalMillis = Candle.intervalMillis(interval);
+        long alignedStart = (startTime / intervalMillis) * intervalMillis;
+        if (alignedStart >= endTime) {
+            return Flux.empty();
+        }
+
+        Mono<List<Candle>> stored = candleService == null
+                ? Mono.just(List.of())
+                : candleService.findCandles(crypto, interval, alignedStart, endTime)
+                        .collectList()
+                        .onErrorResume(e -> {
+                            log.warn("Candle store range lookup failed for {}: {}", crypto, e.getMessage());
+                            return Mono.just(List.of());
+                        });
+
+        return stored.flatMapMany(storedCandles -> {
+            List<long[]> gaps = findGaps(storedCandles, alignedStart, endTime, intervalMillis);
+            candleStoreHits.addAndGet(storedCandles.size());
+            if (gaps.isEmpty()) {
+                return Flux.fromIterable(storedCandles);
+            }
+            candleStoreMisses.addAndGet(gaps.stream().mapToLong(gap -> (gap[1] - gap[0]) / intervalMillis).sum());
+
+            List<long[]> chunks = new ArrayList<>();
+            long chunkMillis = KLINE_LIMIT * intervalMillis;
+            for (long[] gap : gaps) {
+                for (long from = gap[0]; from < gap[1]; from += chunkMillis) {
+                    chunks.add(new long[] { from, Math.min(from + chunkMillis, gap[1]) });
+                }
+            }
+
+            return Flux.fromIterable(chunks)
+                    .flatMap(chunk -> fetchKlines(crypto, interval, chunk[0], chunk[1]), KLINE_CHUNK_CONCURRENCY)
+                    .collectList()
+                    .flatMapMany(fetched -> {
+                        storeCandles(crypto, fetched);
+                        List<Candle> series = new ArrayList<>(storedCandles);
+                        series.addAll(fetched);
+                        series.sort(Comparator.comparing(Candle::getOpenTime));
+                        return Flux.fromIterable(series);
+                    });
+        });
+    }
+
+    /**
+     * Возвращает участки [from, to) диапазона, для которых в хранилище нет свечей.
+     */
+    private List<long[]> findGaps(List<Candle> storedCandles, long startTime, long endTime, long intervalMillis) {
+        Set<Long> present = new HashSet<>();
+        storedCandles.forEach(candle -> present.add(candle.getOpenTime()));
+
+        List<long[]> gaps = new ArrayList<>();
+        long gapStart = -1;
+        for (long openTime = startTime; openTime < endTime; openTime += intervalMillis) {
+            if (!present.contains(openTime)) {
+                if (gapStart < 0) {
+                    gapStart = openTime;
+                }
+            } else if (gapStart >= 0) {
+                gaps.add(new long[] { gapStart, openTime });
+                gapStart = -1;
+            }
+        }
+        if (gapStart >= 0) {
+            gaps.add(new long[] { gapStart, endTime });
+        }
+        return gaps;
+    }
+
+    private Flux<Candle> fetchKlines(Crypto crypto, String interval, long startTime, long endTime) {
+        String symbol = crypto.getCode() + "-USDT";
+        return webClient.get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/openApi/market/his/v1/kline")
+                        .queryParam("symbol", symbol)
+                        .queryParam("interval", interval)
+                        .queryParam("startTime", startTime)
+                        .queryParam("endTime", endTime - 1)
+                        .queryParam("limit", KLINE_LIMIT)
+                        .build())
+                .header("X-BX-APIKEY", apiKey)
+                .retrieve()
+                .bodyToMono(String.class)
+                .map(json -> {
+                    try {
+                        List<Candle> candles = new ArrayList<>();
+                        for (Candle candle : decoder.decodeKlines(json, crypto, interval)) {
+                            if (candle.getOpenTime() >= startTime && candle.getOpenTime() < endTime) {
+                                candles.add(candle);
+                            }
+                        }
+                        return candles;
+                    } catch (Exception e) {
+                        log.error("Error processing candlestick range: {}", e.getMessage());
+                        throw new RuntimeException(e);
+                    }
+                })
+                .transform(rateLimiter::limit)
+                .transform(call -> callGuard.call(ENDPOINT_KLINE, call))
+                .doOnError(error -> log.error("Error fetching candlestick range for {}: {}", symbol, error.getMessage()))
+                .flatMapMany(Flux::fromIterable);
+    }
+
     /**
      * Получает курс фиатной валюты относительно USD.
      * 
@@ -176,22 +447,14 @@ public class PriceFetcher {
                 .bodyToMono(String.class)
                 .map(json -> {
                     try {
-                        JsonNode root = objectMapper.readTree(json);
-                        if (!root.has("data") || !root.get("data").isArray() || root.get("data").size() == 0) {
-                            throw new RuntimeException("Invalid data structure in response");
-                        }
-                        JsonNode data = root.get("data").get(0);
-                        return new BigDecimal(data.get("price").asText());
+                        return decoder.decodePrice(json);
                     } catch (Exception e) {
                         log.error("Error processing fiat rate: {}", e.getMessage());
                         throw new RuntimeException(e);
                     }
                 })
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
-                    .doBeforeRetry(signal -> 
-                        log.warn("Retrying fiat rate fetch for {} after error: {}", fiat.getCode(), signal.failure().getMessage())
-                    )
-                )
+                .transform(rateLimiter::limit)
+                .transform(call -> callGuard.call(ENDPOINT_FIAT_RATE, call))
                 .doOnError(error -> log.error("Error fetching fiat rate for {}: {}", fiat, error.getMessage()));
     }
 
@@ -210,22 +473,14 @@ public class PriceFetcher {
                 .bodyToMono(String.class)
                 .map(json -> {
                     try {
-                        JsonNode root = objectMapper.readTree(json);
-                        if (!root.has("data") || !root.get("data").isArray() || root.get("data").size() == 0) {
-                            throw new RuntimeException("Invalid data structure in response");
-                        }
-                        JsonNode data = root.get("data").get(0);
-                        return new BigDecimal(data.get("price").asText());
+                        return decoder.decodePrice(json);
                     } catch (Exception e) {
                         log.error("Error processing crypto price: {}", e.getMessage());
                         throw new RuntimeException(e);
                     }
                 })
-                .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
-                    .doBeforeRetry(signal -> 
-                        log.warn("Retrying crypto price fetch for {} after error: {}", symbol, signal.failure().getMessage())
-                    )
-                )
+                .transform(rateLimiter::limit)
+                .transform(call -> callGuard.call(ENDPOINT_CRYPTO_PRICE, call))
                 .doOnError(error -> log.error("Error fetching price for {}: {}", crypto, error.getMessage()));
     }
 }
@@ -0,0 +1,61 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+
+/**
+ * Котировка криптовалюты: торговая пара, цена в USDT и время в секундах.
+ *
+ * <p>Основной тип, которым обмениваются {@link PriceFetcher}, {@link MarketDataService}
+ * и обработчики команд. Строковые методы ({@code getCurrentPrice},
+ * {@code getSymbolPriceByTime}) сериализуют котировку через {@link #toJson()}
+ * в прежний формат {@code {"symbol", "price", "timestamp"}}.</p>
+ *
+ * <p>Котировка с признаком {@code stale} — последняя известная цена, выданная
+ * в деградированном режиме, когда биржа недоступна.</p>
+ *
+ * @param symbol торговая пара, например "BTC-USDT"
+ * @param price цена в USDT
+ * @param timestamp время котировки в секундах
+ * @param stale true, если котировка взята из последней известной цены, а не получена сейчас
+ */
+public record PriceQuote(String symbol, BigDecimal price, long timestamp, boolean stale) {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    public PriceQuote(String symbol, BigDecimal price, long timestamp) {
+        this(symbol, price, timestamp, false);
+    }
+
+    /**
+     * Возвращает ту же котировку с признаком устаревания.
+     */
+    public PriceQuote asStale() {
+        return stale ? this : new PriceQuote(symbol, price, timestamp, true);
+    }
+
+    /**
+     * Сериализует котировку в JSON-строку {@code {"symbol", "price", "timestamp"}}.
+     * Для устаревшей котировки добавляется поле {@code "stale": true}.
+     */
+    public String toJson() {
+        StringWriter writer = new StringWriter(64);
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+            generator.writeStartObject();
+            generator.writeStringField("symbol", symbol);
+            generator.writeStringField("price", price.toPlainString());
+            generator.writeNumberField("timestamp", timestamp);
+            if (stale) {
+                generator.writeBooleanField("stale", true);
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Неизменяемый снимок текущих цен по всем криптовалютам.
+ * Публикуется {@link MarketDataService} после каждого цикла опроса биржи
+ * и при каждой котировке из потока {@link BingxMarketStream}.
+ *
+ * <p>Каждая запись хранит котировку {@link PriceQuote}, полученную
+ * через {@link PriceFetcher#getCurrentQuote(Crypto)}, и время ее получения:
+ * снимок обновляется частями, поэтому устаревание проверяется по каждой
+ * котировке, а не по времени создания снимка.</p>
+ */
+public final class PriceSnapshot {
+    private static final PriceSnapshot EMPTY = new PriceSnapshot(new EnumMap<>(Crypto.class), 0L);
+
+    private final Map<Crypto, PriceQuote> quotes;
+    private final Map<Crypto, Long> receivedAtMillis;
+    private final long createdAtMillis;
+
+    /**
+     * Создает снимок, все котировки которого получены в момент его создания.
+     */
+    public PriceSnapshot(Map<Crypto, PriceQuote> quotes, long createdAtMillis) {
+        this(quotes, receivedAt(quotes, createdAtMillis), createdAtMillis);
+    }
+
+    private PriceSnapshot(Map<Crypto, PriceQuote> quotes, Map<Crypto, Long> receivedAtMillis, long createdAtMillis) {
+        EnumMap<Crypto, PriceQuote> copy = new EnumMap<>(Crypto.class);
+        copy.putAll(quotes);
+        this.quotes = Collections.unmodifiableMap(copy);
+        EnumMap<Crypto, Long> receivedCopy = new EnumMap<>(Crypto.class);
+        receivedCopy.putAll(receivedAtMillis);
+        this.receivedAtMillis = Collections.unmodifiableMap(receivedCopy);
+        this.createdAtMillis = createdAtMillis;
+    }
+
+    private static Map<Crypto, Long> receivedAt(Map<Crypto, PriceQuote> quotes, long receivedAtMillis) {
+        EnumMap<Crypto, Long> received = new EnumMap<>(Crypto.class);
+        quotes.keySet().forEach(crypto -> received.put(crypto, receivedAtMillis));
+        return received;
+    }
+
+    /**
+     * Возвращает пустой снимок, используемый до первого успешного опроса.
+     */
+    public static PriceSnapshot empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Возвращает новый снимок, в котором котировки из {@code updates}
+     * заменяют соответствующие котировки текущего снимка. Время получения
+     * остальных котировок сохраняется.
+     *
+     * @param updates новые котировки
+     * @param createdAtMillis время создания нового снимка и получения новых котировок
+     * @return новый снимок
+     */
+    public PriceSnapshot with(Map<Crypto, PriceQuote> updates, long createdAtMillis) {
+        EnumMap<Crypto, PriceQuote> merged = new EnumMap<>(Crypto.class);
+        merged.putAll(quotes);
+        merged.putAll(updates);
+        EnumMap<Crypto, Long> received = new EnumMap<>(Crypto.class);
+        received.putAll(receivedAtMillis);
+        received.putAll(receivedAt(updates, createdAtMillis));
+        return new PriceSnapshot(merged, received, createdAtMillis);
+    }
+
+    /**
+     * Возвращает котировку криптовалюты из снимка.
+     *
+     * @param crypto криптовалюта
+     * @return Optional с котировкой
+     */
+    public Optional<PriceQuote> getQuote(Crypto crypto) {
+        return Optional.ofNullable(quotes.get(crypto));
+    }
+
+    /**
+     * Возвращает котировку криптовалюты, если она получена не раньше
+     * {@code maxAgeMillis} миллисекунд назад.
+     *
+     * @param crypto криптовалюта
+     * @param maxAgeMillis допустимый возраст котировки
+     * @return Optional со свежей котировкой
+     */
+    public Optional<PriceQuote> getFreshQuote(Crypto crypto, long maxAgeMillis) {
+        Long receivedAt = receivedAtMillis.get(crypto);
+        if (receivedAt == null || System.currentTimeMillis() - receivedAt > maxAgeMillis) {
+            return Optional.empty();
+        }
+        return getQuote(crypto);
+    }
+
+    /**
+     * Возвращает время получения котировки криптовалюты, 0 если котировки нет.
+     */
+    public long getReceivedAtMillis(Crypto crypto) {
+        return receivedAtMillis.getOrDefault(crypto, 0L);
+    }
+
+    /**
+     * Возвращает возраст самой старой котировки снимка в миллисекундах.
+     */
+    public long getOldestQuoteAgeMillis() {
+        return receivedAtMillis.values().stream()
+                .mapToLong(receivedAt -> System.currentTimeMillis() - receivedAt)
+                .max()
+                .orElse(0L);
+    }
+
+    public Map<Crypto, PriceQuote> getQuotes() {
+        return quotes;
+    }
+
+    public long getCreatedAtMillis() {
+        return createdAtMillis;
+    }
+
+    /**
+     * Возвращает возраст снимка в миллисекундах.
+     */
+    public long getAgeMillis() {
+        return System.currentTimeMillis() - createdAtMillis;
+    }
+
+    public int size() {
+        return quotes.size();
+    }
+}
@@ -0,0 +1,27 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import reactor.core.publisher.Mono;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+/**
+ * Источник текущих котировок криптовалют.
+ *
+ * <p>Основной источник — биржа BingX ({@link PriceFetcher}); дополнительные
+ * источники регистрируются как бины и используются {@link PriceSourceHedger}
+ * для хеджирования медленных запросов к основному.</p>
+ */
+public interface PriceSource {
+
+    /**
+     * Возвращает имя источника для метрик и логов.
+     */
+    String getName();
+
+    /**
+     * Запрашивает текущую котировку криптовалюты к USDT.
+     *
+     * @param crypto криптовалюта
+     * @return Mono с котировкой; символ в формате "BTC-USDT"
+     */
+    Mono<PriceQuote> fetchCurrentQuote(Crypto crypto);
+}
@@ -0,0 +1,173 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хеджирование запросов котировок между источниками.
+ *
+ * <p>Если основной источник не ответил за наблюдаемый 95-й перцентиль своей
+ * задержки, тот же запрос отправляется во вторичный источник, и используется
+ * первый полученный ответ; второй запрос отменяется. Так хвост задержек ограничен
+ * примерно p95 основного источника, а дополнительная нагрузка — около 5% запросов.</p>
+ *
+ * <p>Пока у основного источника меньше {@value #MIN_SAMPLES} замеров,
+ * используется задержка {@code price.hedge.default-delay-ms}.</p>
+ */
+@Component
+@Slf4j
+public class PriceSourceHedger {
+    private static final int MIN_SAMPLES = 20;
+    private static final int WINDOW = 256;
+
+    private final boolean enabled;
+    private final long defaultDelayMillis;
+    private final long minDelayMillis;
+    private final PriceSource secondary;
+
+    private final Map<String, LatencyWindow> latencies = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> wins = new ConcurrentHashMap<>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesFired = new AtomicLong();
+
+    /**
+     * @param secondary вторичный источник котировок; {@code null} — запросы идут только в основной
+     */
+    @Autowired
+    public PriceSourceHedger(@Value("${price.hedge.enabled:true}") boolean enabled,
+                             @Value("${price.hedge.default-delay-ms:1000}") long defaultDelayMillis,
+                             @Value("${price.hedge.min-delay-ms:50}") long minDelayMillis,
+                             PriceSource secondary) {
+        this.enabled = enabled;
+        this.defaultDelayMillis = defaultDelayMillis;
+        this.minDelayMillis = minDelayMillis;
+        this.secondary = secondary;
+    }
+
+    /**
+     * Запрашивает котировку у основного источника, при задержке дольше p95
+     * дублируя запрос во вторичный.
+     *
+     * @param primary основной источник
+     * @param crypto криптовалюта
+     * @return Mono с первой полученной котировкой
+     */
+    public Mono<PriceQuote> fetch(PriceSource primary, Crypto crypto) {
+        return Mono.defer(() -> {
+            requests.incrementAndGet();
+            Mono<PriceQuote> primaryCall = timed(primary, crypto);
+            if (!enabled || secondary == null) {
+                return primaryCall;
+            }
+            Duration delay = hedgeDelay(primary);
+            AtomicBoolean hedged = new AtomicBoolean();
+            Mono<PriceQuote> hedgeOnce = Mono.defer(() -> {
+                if (!hedged.compareAndSet(false, true)) {
+                    return Mono.empty();
+                }
+                hedgesFired.incrementAndGet();
+                log.debug("{} did not answer within {} ms for {}, hedging to {}",
+                        primary.getName(), delay.toMillis(), crypto, secondary.getName());
+                return timed(secondary, crypto);
+            });
+            // Ошибка основного источника запускает хедж сразу, не дожидаясь задержки
+            return Mono.firstWithValue(
+                    primaryCall.onErrorResume(_ -> hedgeOnce),
+                    Mono.delay(delay).then(hedgeOnce));
+        });
+    }
+
+    private Mono<PriceQuote> timed(PriceSource source, Crypto crypto) {
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            return source.fetchCurrentQuote(crypto)
+                    .doOnNext(_ -> {
+                        latency(source.getName()).record(System.nanoTime() - startedAt);
+                        wins.computeIfAbsent(source.getName(), name -> new AtomicLong()).incrementAndGet();
+                    })
+                    // Проигравший запрос отменяется; его время ожидания учитывается,
+                    // иначе окно содержало бы только быстрые ответы
+                    .doOnCancel(() -> latency(source.getName()).record(System.nanoTime() - startedAt));
+        });
+    }
+
+    private Duration hedgeDelay(PriceSource primary) {
+        long p95 = latency(primary.getName()).percentileMillis(0.95, MIN_SAMPLES);
+        return Duration.ofMillis(p95 < 0 ? defaultDelayMillis : Math.max(minDelayMillis, p95));
+    }
+
+    private LatencyWindow latency(String source) {
+        return latencies.computeIfAbsent(source, name -> new LatencyWindow());
+    }
+
+    /**
+     * Возвращает задержки источников, число отправленных хеджей и победы источников.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> sources = new LinkedHashMap<>();
+        latencies.forEach((name, window) -> {
+            Map<String, Object> sourceStats = new LinkedHashMap<>();
+            sourceStats.put("samples", window.size());
+            sourceStats.put("p50Ms", window.percentileMillis(0.5, 1));
+            sourceStats.put("p95Ms", window.percentileMillis(0.95, 1));
+            AtomicLong sourceWins = wins.get(name);
+            sourceStats.put("wins", sourceWins == null ? 0 : sourceWins.get());
+            sources.put(name, sourceStats);
+        });
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("secondary", secondary == null ? null : secondary.getName());
+        stats.put("requests", requests.get());
+        stats.put("hedgesFired", hedgesFired.get());
+        stats.put("sources", sources);
+        return stats;
+    }
+
+    /**
+     * Скользящее окно последних {@value #WINDOW} задержек источника:
+     * полученных ответов и отмененных проигравших запросов.
+     */
+    private static final class LatencyWindow {
+        private final long[] samples = new long[WINDOW];
+        private int next;
+        private int size;
+
+        synchronized void record(long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % WINDOW;
+            size = Math.min(size + 1, WINDOW);
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        /**
+         * @return перцентиль в миллисекундах или -1, если замеров меньше {@code minSamples}
+         */
+        synchronized long percentileMillis(double percentile, int minSamples) {
+            if (size < minSamples || size == 0) {
+                return -1;
+            }
+            long[] sorted = Arrays.copyOf(samples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile * size) - 1;
+            return Duration.ofNanos(sorted[Math.max(0, index)]).toMillis();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Внутрипроцессный кэш котировок с ограниченным временем жизни записи
+ * и объединением одновременных запросов (single-flight).
+ *
+ * <p>Пока запрос к бирже по ключу выполняется, все остальные вызовы
+ * получают тот же самый {@link Mono}, а не порождают новый HTTP-запрос.</p>
+ *
+ * @param <K> тип ключа (например, {@code Currency.Crypto})
+ * @param <V> тип кэшируемого значения
+ */
+public class QuoteCache<K, V> {
+    private final Duration maxAge;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, Mono<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private record Entry<V>(V value, long storedAtMillis) {}
+
+    public QuoteCache(Duration maxAge) {
+        this.maxAge = maxAge;
+    }
+
+    /**
+     * Возвращает значение из кэша, если оно не старше {@code maxAge},
+     * иначе загружает его через {@code loader}. Одновременные промахи по одному
+     * ключу разделяют один загрузочный {@link Mono}.
+     *
+     * @param key ключ
+     * @param loader функция загрузки значения при промахе
+     * @return Mono со значением
+     */
+    public Mono<V> get(K key, Function<K, Mono<V>> loader) {
+        return Mono.defer(() -> {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && isFresh(entry)) {
+                hits.incrementAndGet();
+                return Mono.just(entry.value());
+            }
+
+            AtomicReference<Mono<V>> created = new AtomicReference<>();
+            Mono<V> shared = inFlight.computeIfAbsent(key, k -> {
+                Mono<V> load = loader.apply(k)
+                        .doOnNext(value -> entries.put(k, new Entry<>(value, System.currentTimeMillis())))
+                        .doFinally(signal -> inFlight.remove(k, created.get()))
+                        .cache();
+                created.set(load);
+                return load;
+            });
+
+            if (shared == created.get()) {
+                misses.incrementAndGet();
+            } else {
+                coalesced.incrementAndGet();
+            }
+            return shared;
+        });
+    }
+
+    /**
+     * Кладет значение в кэш напрямую, минуя загрузку.
+     */
+    public void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.currentTimeMillis()));
+    }
+
+    /**
+     * Удаляет все закэшированные значения.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    private boolean isFresh(Entry<V> entry) {
+        return System.currentTimeMillis() - entry.storedAtMillis() < maxAge.toMillis();
+    }
+
+    /**
+     * Возвращает счетчики попаданий, промахов и объединенных запросов.
+     *
+     * @return Map со статистикой кэша
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxAgeMs", maxAge.toMillis());
+        stats.put("size", entries.size());
+        stats.put("inFlight", inFlight.size());
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("coalesced", coalesced.get());
+        return stats;
+    }
+}
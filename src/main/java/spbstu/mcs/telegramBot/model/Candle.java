@@ -0,0 +1,169 @@
+package spbstu.mcs.telegramBot.model;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.math.BigDecimal;
+
+/**
+ * Класс, представляющий закрытую свечу (kline) биржи.
+ * Хранится в коллекции MongoDB "candles".
+ *
+ * <p>Свеча однозначно определяется криптовалютой, интервалом и временем открытия.
+ * Закрытые свечи не изменяются, поэтому однажды сохраненная свеча
+ * больше не запрашивается у биржи.</p>
+ *
+ * @see Document
+ * @see Currency.Crypto
+ */
+@Document(collection = "candles")
+@CompoundIndex(name = "crypto_interval_openTime", def = "{'cryptoCurrency': 1, 'interval': 1, 'openTime': 1}", unique = true)
+public class Candle {
+    public static final String INTERVAL_1M = "1m";
+    public static final String INTERVAL_1H = "1h";
+    public static final String INTERVAL_1D = "1d";
+
+    @Id
+    private String id;
+    private Currency.Crypto cryptoCurrency;
+    private String interval;
+    private Long openTime;
+    private BigDecimal open;
+    private BigDecimal high;
+    private BigDecimal low;
+    private BigDecimal close;
+    private BigDecimal volume;
+
+    /**
+     * No-args constructor required by Spring Data MongoDB
+     */
+    public Candle() {
+    }
+
+    /**
+     * Создает свечу.
+     *
+     * @param cryptoCurrency криптовалюта
+     * @param interval интервал свечи ("1m", "1h", "1d")
+     * @param openTime время открытия в миллисекундах
+     */
+    public Candle(Currency.Crypto cryptoCurrency, String interval, Long openTime,
+                  BigDecimal open, BigDecimal high, BigDecimal low, BigDecimal close, BigDecimal volume) {
+        this.cryptoCurrency = cryptoCurrency;
+        this.interval = interval;
+        this.openTime = openTime;
+        this.open = open;
+        this.high = high;
+        this.low = low;
+        this.close = close;
+        this.volume = volume;
+    }
+
+    /**
+     * Возвращает длительность интервала в миллисекундах.
+     *
+     * @param interval интервал свечи ("1m", "1h", "1d")
+     * @return длительность интервала
+     * @throws IllegalArgumentException для неподдерживаемого интервала
+     */
+    public static long intervalMillis(String interval) {
+        return switch (interval) {
+            case INTERVAL_1M -> 60_000L;
+            case INTERVAL_1H -> 3_600_000L;
+            case INTERVAL_1D -> 86_400_000L;
+            default -> throw new IllegalArgumentException("Unsupported candle interval: " + interval);
+        };
+    }
+
+    /**
+     * Проверяет, закрыта ли свеча к указанному моменту.
+     *
+     * @param nowMillis текущее время в миллисекундах
+     * @return true, если интервал свечи уже завершился
+     */
+    public boolean isClosedAt(long nowMillis) {
+        return openTime + intervalMillis(interval) <= nowMillis;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Currency.Crypto getCryptoCurrency() {
+        return cryptoCurrency;
+    }
+
+    public void setCryptoCurrency(Currency.Crypto cryptoCurrency) {
+        this.cryptoCurrency = cryptoCurrency;
+    }
+
+    public String getInterval() {
+        return interval;
+    }
+
+    public void setInterval(String interval) {
+        this.interval = interval;
+    }
+
+    public Long getOpenTime() {
+        return openTime;
+    }
+
+    public void setOpenTime(Long openTime) {
+        this.openTime = openTime;
+    }
+
+    public BigDecimal getOpen() {
+        return open;
+    }
+
+    public void setOpen(BigDecimal open) {
+        this.open = open;
+    }
+
+    public BigDecimal getHigh() {
+        return high;
+    }
+
+    public void setHigh(BigDecimal high) {
+        this.high = high;
+    }
+
+    public BigDecimal getLow() {
+        return low;
+    }
+
+    public void setLow(BigDecimal low) {
+        this.low = low;
+    }
+
+    public BigDecimal getClose() {
+        return close;
+    }
+
+    public void setClose(BigDecimal close) {
+        this.close = close;
+    }
+
+    public BigDecimal getVolume() {
+        return volume;
+    }
+
+    public void setVolume(BigDecimal volume) {
+        this.volume = volume;
+    }
+
+    @Override
+    public String toString() {
+        return "Candle{" +
+                "cryptoCurrency=" + cryptoCurrency +
+                ", interval='" + interval + '\'' +
+                ", openTime=" + openTime +
+                ", open=" + open +
+                ", high=" + high +
+                ", low=" + low +
+                ", close=" + close +
+                '}';
+    }
+}
@@ -0,0 +1,86 @@
+package spbstu.mcs.telegramBot.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Цены и пороги алертов в фиксированной точке: {@code long} в минимальных
+ * единицах валюты (сотых долях), проценты — в сотых долях процента.
+ *
+ * <p>Пороги алертов вводятся с точностью до 2 знаков, цены в фиате округляются
+ * до 2 знаков, поэтому перевод на границе ({@link #toMinor}) точен, а сравнения
+ * при проверке алертов выполняются над {@code long} без создания {@link BigDecimal}.</p>
+ */
+public final class FixedPoint {
+    /** Число знаков после запятой */
+    public static final int SCALE = 2;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Переводит сумму в минимальные единицы с округлением HALF_UP.
+     *
+     * @param value сумма
+     * @return сумма в сотых долях
+     * @throws ArithmeticException если сумма не помещается в {@code long}
+     */
+    public static long toMinor(BigDecimal value) {
+        return value.setScale(SCALE, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Переводит сумму, хранящуюся в документе как {@code Double}, в минимальные единицы.
+     * Используется десятичное представление числа, поэтому 0.1 переводится в 10, а не в 9.
+     *
+     * @param value сумма
+     * @return сумма в сотых долях
+     */
+    public static long toMinor(double value) {
+        return toMinor(BigDecimal.valueOf(value));
+    }
+
+    /**
+     * @param minor сумма в сотых долях
+     * @return сумма с 2 знаками после запятой
+     */
+    public static BigDecimal toDecimal(long minor) {
+        return BigDecimal.valueOf(minor, SCALE);
+    }
+
+    /**
+     * @param minor сумма в сотых долях
+     * @return ближайшее {@code double}
+     */
+    public static double toDouble(long minor) {
+        return minor / 100.0;
+    }
+
+    /**
+     * Изменение цены относительно начальной в сотых долях процента. Округление
+     * совпадает с {@code diff.divide(start, 4, HALF_UP).multiply(100)}.
+     *
+     * @param priceMinor цена в сотых долях
+     * @param startMinor начальная цена в сотых долях, больше нуля
+     * @return изменение в сотых долях процента
+     */
+    public static long percentChange(long priceMinor, long startMinor) {
+        return divideHalfUp(Math.multiplyExact(priceMinor - startMinor, 10_000L), startMinor);
+    }
+
+    /**
+     * Деление с округлением HALF_UP (половина округляется от нуля).
+     *
+     * @param dividend делимое
+     * @param divisor делитель, больше нуля
+     * @return частное
+     */
+    static long divideHalfUp(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        long remainder = dividend % divisor;
+        if (2 * Math.abs(remainder) >= divisor) {
+            quotient += Long.signum(dividend);
+        }
+        return quotient;
+    }
+}
@@ -132,6 +132,22 @@ public class Notification {
         this.currentEMA = currentEMA;
     }
 
+    public Double getEmaOffset() {
+        return emaOffset;
+    }
+
+    public void setEmaOffset(Double emaOffset) {
+        this.emaOffset = emaOffset;
+    }
+
+    public Long getEmaStep() {
+        return emaStep;
+    }
+
+    public void setEmaStep(Long emaStep) {
+        this.emaStep = emaStep;
+    }
+
     // Для PERCENT алертов
     @Field("upPercent")
     private Double upPercent;
@@ -146,6 +162,13 @@ public class Notification {
     @Field("currentEMA")
     private Double currentEMA;
 
+    // Привязка к общему ряду EMA пары: разница с рядом и шаг ряда на момент привязки
+    @Field("emaOffset")
+    private Double emaOffset;
+
+    @Field("emaStep")
+    private Long emaStep;
+
     @Field("isAbove")
     private Boolean isAbove; // Для EMA алертов: true если EMA выше цены, false если ниже
 
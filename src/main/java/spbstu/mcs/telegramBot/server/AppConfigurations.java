@@ -38,6 +38,7 @@ import spbstu.mcs.telegramBot.config.VaultConfig;
 import spbstu.mcs.telegramBot.service.TelegramBotService;
 import spbstu.mcs.telegramBot.DB.services.NotificationService;
 import spbstu.mcs.telegramBot.service.AlertsHandling;
+import spbstu.mcs.telegramBot.service.TelegramDeliveryScheduler;
 import spbstu.mcs.telegramBot.security.EncryptionService;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RequestPredicates;
@@ -46,9 +47,21 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import spbstu.mcs.telegramBot.DB.services.AdminService;
 import spbstu.mcs.telegramBot.DB.services.UserService;
 import spbstu.mcs.telegramBot.DB.services.ApiKeyService;
+import spbstu.mcs.telegramBot.DB.services.MongoIndexReconciler;
+import spbstu.mcs.telegramBot.DB.services.AlertThresholdIndex;
+import spbstu.mcs.telegramBot.DB.services.AlertShardLeases;
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
+import spbstu.mcs.telegramBot.DB.services.CandleService;
+import spbstu.mcs.telegramBot.DB.services.EmaEngine;
 import spbstu.mcs.telegramBot.cryptoApi.PriceFetcher;
+import spbstu.mcs.telegramBot.cryptoApi.BingxMarketStream;
 import spbstu.mcs.telegramBot.cryptoApi.CurrencyConverter;
 import spbstu.mcs.telegramBot.cryptoApi.CryptoInformation;
+import spbstu.mcs.telegramBot.cryptoApi.MarketDataService;
+import spbstu.mcs.telegramBot.cryptoApi.CandleRangeTracker;
+import spbstu.mcs.telegramBot.cryptoApi.ExchangeCallGuard;
+import spbstu.mcs.telegramBot.cryptoApi.ExchangeRateLimiter;
+import spbstu.mcs.telegramBot.cryptoApi.PriceSourceHedger;
 
 /**
  * Unified configuration file that organizes multiple configurations into logical sections.
@@ -169,14 +182,21 @@ public class AppConfigurations {
                 EncryptionService encryptionService,
                 ApiKeyService apiKeyService,
                 PriceFetcher priceFetcher,
+                MarketDataService marketDataService,
+                CurrencyConverter currencyConverter,
+                BingxMarketStream marketStream,
+                AlertsHandling alertsHandling,
+                MongoIndexReconciler indexReconciler,
+                SchedulerLeases schedulerLeases,
+                TelegramDeliveryScheduler deliveryScheduler,
                 @Value("${logging.file.name}") String logFilePath,
                 @Value("${spring.kafka.bootstrap-servers}") String kafkaBootstrapServers,
                 @Value("${spring.kafka.topics.incoming}") String kafkaIncomingTopic,
                 @Value("${spring.kafka.topics.outgoing}") String kafkaOutgoingTopic) {
             return new ServerApp(
                 serverProperties, routes, adminService, userService,
-                encryptionService, apiKeyService, priceFetcher,
-                logFilePath, kafkaBootstrapServers, kafkaIncomingTopic, kafkaOutgoingTopic
+                encryptionService, apiKeyService, priceFetcher, marketDataService, currencyConverter,
+                marketStream, alertsHandling, indexReconciler, schedulerLeases, deliveryScheduler, logFilePath, kafkaBootstrapServers, kafkaIncomingTopic, kafkaOutgoingTopic
             );
         }
     }
@@ -306,33 +326,52 @@ public class AppConfigurations {
         private EncryptionService encryptionService;
         
         @Bean
-        public PriceFetcher priceFetcher(WebClient.Builder webClientBuilder, ObjectMapper objectMapper) {
+        public PriceFetcher priceFetcher(WebClient.Builder webClientBuilder, ObjectMapper objectMapper,
+                                         @Value("${bingx.quote-cache.max-age-ms:5000}") long quoteMaxAgeMillis,
+                                         CandleService candleService,
+                                         ExchangeCallGuard callGuard,
+                                         ExchangeRateLimiter rateLimiter,
+                                         PriceSourceHedger hedger) {
             String apiKey = vaultConfig.getSecret("secret/data/crypto-bot", "bingx.api.key");
             String apiSecret = vaultConfig.getSecret("secret/data/crypto-bot", "bingx.api.secret");
             String bingxApiUrl = vaultConfig.getSecret("secret/data/crypto-bot", "bingx.api.url");
-            return new PriceFetcher(webClientBuilder, objectMapper, apiKey, apiSecret, bingxApiUrl);
+            return new PriceFetcher(webClientBuilder, objectMapper, apiKey, apiSecret, bingxApiUrl, quoteMaxAgeMillis,
+                                    candleService, callGuard, rateLimiter, hedger);
         }
         
         @Bean
-        public CurrencyConverter currencyConverter(WebClient.Builder webClientBuilder, ObjectMapper objectMapper) {
+        public CurrencyConverter currencyConverter(WebClient.Builder webClientBuilder, ObjectMapper objectMapper,
+                                                   @Value("${currency.rates.max-age-ms:600000}") long ratesMaxAgeMillis,
+                                                   ExchangeCallGuard callGuard) {
             String currencyApiUrl = vaultConfig.getSecret("secret/data/crypto-bot", "currency.api.url");
-            return new CurrencyConverter(webClientBuilder, objectMapper, currencyApiUrl);
+            return new CurrencyConverter(webClientBuilder, objectMapper, currencyApiUrl, ratesMaxAgeMillis, callGuard);
         }
         
         @Bean
-        public CryptoInformation cryptoInformation(ObjectMapper objectMapper, CurrencyConverter currencyConverter, PriceFetcher priceFetcher, UserService userService) {
-            return new CryptoInformation(objectMapper, currencyConverter, priceFetcher, userService);
+        public CryptoInformation cryptoInformation(ObjectMapper objectMapper, CurrencyConverter currencyConverter, PriceFetcher priceFetcher,
+                                                   MarketDataService marketDataService, UserService userService) {
+            return new CryptoInformation(objectMapper, currencyConverter, priceFetcher, marketDataService, userService);
         }
         
         @Bean
         public AlertsHandling alertsHandling(ObjectMapper objectMapper, 
                                             CurrencyConverter currencyConverter,
                                             PriceFetcher priceFetcher,
+                                            MarketDataService marketDataService,
                                             TelegramBotService telegramBotService,
                                             NotificationService notificationService,
-                                            UserService userService) {
-            return new AlertsHandling(objectMapper, currencyConverter, priceFetcher, 
-                                    telegramBotService, notificationService, userService);
+                                            UserService userService,
+                                            AlertThresholdIndex alertIndex,
+                                            AlertShardLeases shardLeases,
+                                            SchedulerLeases schedulerLeases,
+                                            EmaEngine emaEngine,
+                                            CandleRangeTracker rangeTracker,
+                                            @Value("${alerts.sweep.budget-ms:240000}") long sweepBudgetMillis,
+                                            @Value("${alerts.sweep.interval-ms:300000}") long sweepIntervalMillis) {
+            return new AlertsHandling(objectMapper, currencyConverter, priceFetcher, marketDataService,
+                                    telegramBotService, notificationService, userService, alertIndex, shardLeases,
+                                    schedulerLeases, emaEngine, rangeTracker, sweepBudgetMillis,
+                                    sweepIntervalMillis);
         }
     }
 } 
\ No newline at end of file
@@ -11,11 +11,18 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Mono;
 import spbstu.mcs.telegramBot.DB.services.AdminService;
 import spbstu.mcs.telegramBot.DB.services.ApiKeyService;
+import spbstu.mcs.telegramBot.DB.services.MongoIndexReconciler;
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
 import spbstu.mcs.telegramBot.DB.services.UserService;
+import spbstu.mcs.telegramBot.cryptoApi.BingxMarketStream;
+import spbstu.mcs.telegramBot.cryptoApi.CurrencyConverter;
+import spbstu.mcs.telegramBot.cryptoApi.MarketDataService;
 import spbstu.mcs.telegramBot.cryptoApi.PriceFetcher;
 import spbstu.mcs.telegramBot.model.Admin;
 import spbstu.mcs.telegramBot.model.Currency;
 import spbstu.mcs.telegramBot.security.EncryptionService;
+import spbstu.mcs.telegramBot.service.AlertsHandling;
+import spbstu.mcs.telegramBot.service.TelegramDeliveryScheduler;
 
 import java.io.*;
 import java.net.InetSocketAddress;
@@ -33,6 +40,13 @@ public class ServerApp {
     private final UserService userService;
     private final EncryptionService encryptionService;
     private final PriceFetcher priceFetcher;
+    private final MarketDataService marketDataService;
+    private final CurrencyConverter currencyConverter;
+    private final BingxMarketStream marketStream;
+    private final AlertsHandling alertsHandling;
+    private final MongoIndexReconciler indexReconciler;
+    private final SchedulerLeases schedulerLeases;
+    private final TelegramDeliveryScheduler deliveryScheduler;
     private final String logFilePath;
     
     // Инжектируем строковые бины из Config
@@ -48,6 +62,13 @@ public class ServerApp {
                     EncryptionService encryptionService,
                     ApiKeyService apiKeyService,
                     PriceFetcher priceFetcher,
+                    MarketDataService marketDataService,
+                    CurrencyConverter currencyConverter,
+                    BingxMarketStream marketStream,
+                    AlertsHandling alertsHandling,
+                    MongoIndexReconciler indexReconciler,
+                    SchedulerLeases schedulerLeases,
+                    TelegramDeliveryScheduler deliveryScheduler,
                     String logFilePath,
                     String kafkaBootstrapServers,
                     String kafkaIncomingTopic,
@@ -57,6 +78,13 @@ public class ServerApp {
         this.userService = userService;
         this.encryptionService = encryptionService;
         this.priceFetcher = priceFetcher;
+        this.marketDataService = marketDataService;
+        this.currencyConverter = currencyConverter;
+        this.marketStream = marketStream;
+        this.alertsHandling = alertsHandling;
+        this.indexReconciler = indexReconciler;
+        this.schedulerLeases = schedulerLeases;
+        this.deliveryScheduler = deliveryScheduler;
         this.logFilePath = logFilePath;
         this.kafkaBootstrapServers = kafkaBootstrapServers;
         this.kafkaIncomingTopic = kafkaIncomingTopic;
@@ -122,17 +150,30 @@ public class ServerApp {
                         // Проверяем доступность priceFetcher
                         String priceResult = "N/A";
                         try {
-                            priceResult = priceFetcher.getCurrentPrice(Currency.Crypto.BTC).block();
+                            priceResult = marketDataService.getCurrentPrice(Currency.Crypto.BTC).block();
                         } catch (Exception e) {
                             priceResult = "Ошибка: " + e.getMessage();
                         }
                         cryptoApiStatus.put("status", "UP");
                         cryptoApiStatus.put("priceFetcherResult", priceResult);
+                        cryptoApiStatus.put("quoteCache", priceFetcher.getQuoteCacheStats());
+                        cryptoApiStatus.put("exchangeGuard", priceFetcher.getResilienceStats());
+                        cryptoApiStatus.put("rateLimiter", priceFetcher.getRateLimiterStats());
+                        cryptoApiStatus.put("priceSources", priceFetcher.getPriceSourceStats());
+                        cryptoApiStatus.put("candleStore", priceFetcher.getCandleStoreStats());
+                        cryptoApiStatus.put("priceSnapshot", marketDataService.getStats());
+                        cryptoApiStatus.put("marketStream", marketStream.getStats());
+                        cryptoApiStatus.put("fxRates", currencyConverter.getStats());
                     } catch (Exception e) {
                         cryptoApiStatus.put("status", "DOWN");
                         cryptoApiStatus.put("error", e.getMessage());
                     }
                     healthStatus.put("cryptoApi", cryptoApiStatus);
+
+                    // Метрики циклов проверки алертов
+                    healthStatus.put("alerts", alertsHandling.getStats());
+                    healthStatus.put("scheduler", schedulerLeases.getStats());
+                    healthStatus.put("delivery", deliveryScheduler.getStats());
                     
                     long endTime = System.currentTimeMillis();
                     healthStatus.put("executionTimeMs", endTime - startTime);
@@ -500,6 +541,64 @@ public class ServerApp {
                 }
             });
             
+            // Mongo indexes report endpoint
+            server.createContext("/admin/indexes", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    if (!"GET".equals(exchange.getRequestMethod())) {
+                        sendResponse(exchange, 405, errorResponse(405, "Method Not Allowed"));
+                        return;
+                    }
+
+                    String authHeader = exchange.getRequestHeaders().getFirst("Authorization");
+                    if (authHeader == null || authHeader.isEmpty()) {
+                        sendResponse(exchange, 401, errorResponse(401, "Unauthorized - Missing Authorization header"));
+                        return;
+                    }
+                    if (!authHeader.startsWith("Bearer ")) {
+                        sendResponse(exchange, 401, errorResponse(401, "Unauthorized - Invalid Authorization format"));
+                        return;
+                    }
+                    String token = authHeader.substring(7);
+
+                    try {
+                        validateApiToken(token)
+                            .flatMap(adminInfo -> {
+                                if (adminInfo.getT2()) {
+                                    return refreshExpiredKey(adminInfo.getT1(), null)
+                                        .map(responseMap -> reactor.util.function.Tuples.of(401, responseMap));
+                                }
+                                // Отчет читает индексы и $indexStats синхронно через MongoTemplate
+                                return Mono.fromCallable(() -> reactor.util.function.Tuples.of(200, indexReconciler.report()))
+                                    .subscribeOn(reactor.core.scheduler.Schedulers.boundedElastic());
+                            })
+                            .subscribe(
+                                result -> {
+                                    try {
+                                        String response = result.getT1() == 200
+                                            ? successResponse(result.getT2())
+                                            : objectMapper.writeValueAsString(result.getT2());
+                                        sendResponse(exchange, result.getT1(), response);
+                                    } catch (IOException e) {
+                                        logger.error("Error sending indexes report: {}", e.getMessage(), e);
+                                    }
+                                },
+                                error -> {
+                                    try {
+                                        int statusCode = error instanceof SecurityException ? 401 : 500;
+                                        sendResponse(exchange, statusCode, errorResponse(statusCode, error.getMessage()));
+                                    } catch (IOException e) {
+                                        logger.error("Error sending error response: {}", e.getMessage(), e);
+                                    }
+                                }
+                            );
+                    } catch (Exception e) {
+                        logger.error("Error getting indexes report: {}", e.getMessage(), e);
+                        sendResponse(exchange, 500, errorResponse(500, "Internal Server Error: " + e.getMessage()));
+                    }
+                }
+            });
+            
             // HTML form for /admin/users
             server.createContext("/admin/users/form", exchange -> {
                 if (!"GET".equals(exchange.getRequestMethod())) {
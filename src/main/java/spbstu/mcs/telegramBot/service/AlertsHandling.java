@@ -1,62 +1,156 @@
 package spbstu.mcs.telegramBot.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
+import reactor.core.scheduler.Schedulers;
+import spbstu.mcs.telegramBot.DB.services.AlertShardLeases;
+import spbstu.mcs.telegramBot.DB.services.AlertThresholdIndex;
+import spbstu.mcs.telegramBot.DB.services.EmaEngine;
 import spbstu.mcs.telegramBot.DB.services.NotificationService;
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
 import spbstu.mcs.telegramBot.DB.services.UserService;
+import spbstu.mcs.telegramBot.cryptoApi.CandleRangeTracker;
 import spbstu.mcs.telegramBot.cryptoApi.CurrencyConverter;
+import spbstu.mcs.telegramBot.cryptoApi.ExchangeRateLimiter;
+import spbstu.mcs.telegramBot.cryptoApi.MarketDataService;
 import spbstu.mcs.telegramBot.cryptoApi.PriceFetcher;
+import spbstu.mcs.telegramBot.cryptoApi.PriceQuote;
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
+import spbstu.mcs.telegramBot.model.Currency.Fiat;
+import spbstu.mcs.telegramBot.model.FixedPoint;
 import spbstu.mcs.telegramBot.model.Notification;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 /**
  * Сервис для управления ценовыми алертами.
  * Предоставляет функциональность для:
  * - Установки алертов
  * - Мониторинга цен и проверки срабатывания алертов
+ *
+ * <p>Алерты VALUE и PERCENT проверяются по каждой новой котировке из
+ * {@link MarketDataService#ticks()}; плановая проверка раз в
+ * {@code alerts.sweep.interval-ms} обновляет EMA и подхватывает пропущенные котировки.</p>
+ *
+ * <p>При нескольких экземплярах бота каждый проверяет только алерты арендованных
+ * им шардов ({@link AlertShardLeases}), поэтому уведомление отправляет один узел.
+ * Если шардирование выключено, алерты проверяет только лидер задания
+ * {@value #SWEEP_JOB} ({@link SchedulerLeases}).</p>
  */
 @Service
 public class AlertsHandling {
     private static final Logger log = LoggerFactory.getLogger(AlertsHandling.class);
+    static final String SWEEP_JOB = "alerts.sweep";
+    static final String EMA_JOB = "alerts.ema";
+    // Проверка без аренды задания: алерты распределены по шардам
+    private static final long UNFENCED = -1;
 
     private final ObjectMapper objectMapper;
     private final CurrencyConverter currencyConverter;
     private final PriceFetcher priceFetcher;
+    private final MarketDataService marketDataService;
     private final TelegramBotService telegramBotService;
     private final NotificationService notificationService;
    // private final NotificationRepository notificationRepository;
     private final UserService userService;
 
+    private final AtomicLong cycles = new AtomicLong();
+    private final AtomicLong lastCycleMillis = new AtomicLong();
+    private final AtomicLong maxCycleMillis = new AtomicLong();
+    private final AtomicLong lastCycleAlerts = new AtomicLong();
+    private final AtomicLong lastCycleGroups = new AtomicLong();
+    private final AtomicLong lastCycleCandidates = new AtomicLong();
+    private final AtomicLong lastCycleExternalCalls = new AtomicLong();
+    private final AtomicLong totalExternalCalls = new AtomicLong();
+    private final AtomicLong alertsTriggered = new AtomicLong();
+    private final AtomicLong ticksEvaluated = new AtomicLong();
+    private final AtomicLong tickCandidates = new AtomicLong();
+    private final AtomicLong tickTriggered = new AtomicLong();
+    private final AtomicLong stateWrites = new AtomicLong();
+    private final AtomicLong stateWriteFailures = new AtomicLong();
+    private final AtomicLong fencedShardChanges = new AtomicLong();
+    private final AtomicLong rangeCandidates = new AtomicLong();
+    private final AtomicLong skippedCycles = new AtomicLong();
+    private final AtomicLong overrunCycles = new AtomicLong();
+    private final AtomicLong truncatedCycles = new AtomicLong();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile List<AlertThresholdIndex.Key> carriedOver = List.of();
+    private final long sweepBudgetMillis;
+    private final long sweepIntervalMillis;
+    private final AtomicLong rangeTriggered = new AtomicLong();
+    private Disposable tickSubscription;
+    // Общий индекс порогов алертов, который поддерживает NotificationService
+    private final AlertThresholdIndex alertIndex;
+    private final AlertShardLeases shardLeases;
+    private final SchedulerLeases schedulerLeases;
+    private volatile long indexOwnershipVersion;
+    private volatile long indexSweepToken = UNFENCED;
+    private volatile boolean indexStale;
+    private final EmaEngine emaEngine;
+    private volatile long emaToken = UNFENCED;
+    private final CandleRangeTracker rangeTracker;
+
     @Autowired
     public AlertsHandling(ObjectMapper objectMapper,
                           CurrencyConverter currencyConverter,
                           PriceFetcher priceFetcher,
+                          MarketDataService marketDataService,
                           TelegramBotService telegramBotService,
                           NotificationService notificationService,
-                          UserService userService) {
+                          UserService userService,
+                          AlertThresholdIndex alertIndex,
+                          AlertShardLeases shardLeases,
+                          SchedulerLeases schedulerLeases,
+                          EmaEngine emaEngine,
+                          CandleRangeTracker rangeTracker,
+                          @Value("${alerts.sweep.budget-ms:240000}") long sweepBudgetMillis,
+                          @Value("${alerts.sweep.interval-ms:300000}") long sweepIntervalMillis) {
         log.info("Инициализация сервиса AlertsHandling...");
         this.objectMapper = objectMapper;
         this.currencyConverter = currencyConverter;
         this.priceFetcher = priceFetcher;
+        this.marketDataService = marketDataService;
         this.telegramBotService = telegramBotService;
         this.notificationService = notificationService;
         this.userService = userService;
+        this.alertIndex = alertIndex;
+        this.shardLeases = shardLeases;
+        this.schedulerLeases = schedulerLeases;
+        this.emaEngine = emaEngine;
+        this.rangeTracker = rangeTracker;
+        this.sweepBudgetMillis = sweepBudgetMillis;
+        this.sweepIntervalMillis = sweepIntervalMillis;
         log.info("Сервис AlertsHandling успешно инициализирован");
     }
 
@@ -95,16 +189,15 @@ public class AlertsHandling {
                 .flatMap(existingAlert -> notificationService.delete(existingAlert))
                 .then(userService.getUserByChatId(chatId))
                 .flatMap(user -> Mono.zip(
-                        priceFetcher.getCurrentPrice(cryptoCurrency),
+                        marketDataService.getCurrentQuote(cryptoCurrency),
                         currencyConverter.getUsdToFiatRate(user.getFiatCurrency())
                 ).flatMap(tuple -> {
                     try {
-                        String priceJson = tuple.getT1();
+                        PriceQuote quote = tuple.getT1();
                         BigDecimal conversionRate = tuple.getT2();
 
-                        JsonNode jsonNode = objectMapper.readTree(priceJson);
-                        BigDecimal currentPriceUSD = new BigDecimal(jsonNode.get("price").asText());
-                        long timestamp = jsonNode.get("timestamp").asLong();
+                        BigDecimal currentPriceUSD = quote.price();
+                        long timestamp = quote.timestamp();
 
                         // Конвертируем текущую цену в целевую валюту
                         BigDecimal currentPrice = currentPriceUSD.multiply(conversionRate)
@@ -132,6 +225,7 @@ public class AlertsHandling {
                         notification.setStartTimestamp(timestamp);
 
                         return notificationService.createUserNotification(notification)
+                                .doOnNext(saved -> reportNewThreshold(saved, currentPrice))
                                 .then(Mono.just(String.format("✅ Алерт установлен для %s\n" +
                                                 "💰 Текущая цена: %.2f %s\n" +
                                                 "📈 Верхняя граница: %.2f %s\n" +
@@ -182,16 +276,15 @@ public class AlertsHandling {
                 .flatMap(existingAlert -> notificationService.delete(existingAlert))
                 .then(userService.getUserByChatId(chatId))
                 .flatMap(user -> Mono.zip(
-                        priceFetcher.getCurrentPrice(cryptoCurrency),
+                        marketDataService.getCurrentQuote(cryptoCurrency),
                         currencyConverter.getUsdToFiatRate(user.getFiatCurrency())
                 ).flatMap(tuple -> {
                     try {
-                        String priceJson = tuple.getT1();
+                        PriceQuote quote = tuple.getT1();
                         BigDecimal conversionRate = tuple.getT2();
 
-                        JsonNode jsonNode = objectMapper.readTree(priceJson);
-                        BigDecimal currentPriceUSD = new BigDecimal(jsonNode.get("price").asText());
-                        long timestamp = jsonNode.get("timestamp").asLong();
+                        BigDecimal currentPriceUSD = quote.price();
+                        long timestamp = quote.timestamp();
 
                         // Конвертируем текущую цену в целевую валюту
                         BigDecimal currentPrice = currentPriceUSD.multiply(conversionRate)
@@ -224,6 +317,7 @@ public class AlertsHandling {
                         notification.setStartTimestamp(timestamp);
 
                         return notificationService.createUserNotification(notification)
+                                .doOnNext(saved -> reportNewThreshold(saved, currentPrice))
                                 .then(Mono.just(String.format("✅ Алерт установлен для %s\n" +
                                                 "💰 Текущая цена: %.2f %s\n" +
                                                 "📈 Рост: +%.2f%%\n" +
@@ -242,11 +336,27 @@ public class AlertsHandling {
                 }));
     }
 
+    /**
+     * Передает в план опроса расстояние от текущей цены до границ группы нового алерта,
+     * чтобы близкая к цене граница сразу ускорила опрос криптовалюты.
+     *
+     * @param notification сохраненный алерт
+     * @param currentPrice текущая цена в фиатной валюте алерта
+     */
+    private void reportNewThreshold(Notification notification, BigDecimal currentPrice) {
+        long priceMinor = FixedPoint.toMinor(currentPrice);
+        long distance = alertIndex.distanceToNearest(
+                new AlertThresholdIndex.Key(notification.getCryptoCurrency(), notification.getFiatCurrency()), priceMinor);
+        if (distance != Long.MAX_VALUE && priceMinor > 0) {
+            marketDataService.narrowThresholdGap(notification.getCryptoCurrency(), (double) distance / priceMinor);
+        }
+    }
+
     /**
      * Устанавливает алерт на основе EMA (Exponential Moving Average).
      * При установке вычисляет начальное SMA за 3 недели и сохраняет его как EMA.
-     * Затем каждые 5 минут обновляет EMA по формуле.
-     * Использует параллельные запросы для ускорения получения исторических данных.
+     * Затем при каждой плановой проверке EMA обновляется в общем ряду пары ({@link EmaEngine}).
+     * Историю дневных цен получает одним запросом диапазона свечей.
      *
      * @param cryptoCurrency Символ криптовалюты
      * @param chatId ID чата пользователя в Telegram
@@ -261,34 +371,27 @@ public class AlertsHandling {
                 .flatMap(existingAlert -> notificationService.delete(existingAlert))
                 .then(userService.getUserByChatId(chatId))
                 .flatMap(user -> Mono.zip(
-                        priceFetcher.getCurrentPrice(cryptoCurrency),
+                        marketDataService.getCurrentQuote(cryptoCurrency),
                         currencyConverter.getUsdToFiatRate(user.getFiatCurrency())
                 ).flatMap(tuple -> {
                     try {
-                        String priceJson = tuple.getT1();
+                        PriceQuote quote = tuple.getT1();
                         BigDecimal conversionRate = tuple.getT2();
 
-                        JsonNode jsonNode = objectMapper.readTree(priceJson);
-                        BigDecimal currentPriceUSD = new BigDecimal(jsonNode.get("price").asText());
-                        long startTimestamp = jsonNode.get("timestamp").asLong();
+                        BigDecimal currentPriceUSD = quote.price();
+                        long startTimestamp = quote.timestamp();
 
-                        // Получаем 20 исторических цен (одна на каждый из последних 20 дней)
+                        // Получаем дневные свечи за последние 20 дней одним запросом диапазона
                         int EMA_PERIOD = 20;
-                        List<Mono<BigDecimal>> priceRequests = new ArrayList<>();
-                        for (int i = 0; i < EMA_PERIOD; i++) {
-                            long ts = startTimestamp - (i * 24 * 60 * 60);
-                            Mono<BigDecimal> priceMono = priceFetcher.getSymbolPriceByTime(cryptoCurrency, ts)
-                                    .flatMap(this::parsePrice)
-                                    .retryWhen(Retry.fixedDelay(2, Duration.ofSeconds(1))
-                                        .doBeforeRetry(signal -> 
-                                            log.warn("Retrying database operation after error: {}", signal.failure().getMessage())
-                                        ))
-                                    .onErrorResume(e -> Mono.just(BigDecimal.ZERO));
-                            priceRequests.add(priceMono);
-                        }
+                        long endMillis = startTimestamp * 1000;
+                        long rangeStart = endMillis - EMA_PERIOD * Candle.intervalMillis(Candle.INTERVAL_1D);
 
-                        return Flux.merge(priceRequests)
+                        return priceFetcher.getKlines(cryptoCurrency, Candle.INTERVAL_1D, rangeStart, endMillis + 1)
+                                .map(Candle::getClose)
+                                .takeLast(EMA_PERIOD)
                                 .collectList()
+                                .filter(prices -> !prices.isEmpty())
+                                .switchIfEmpty(Mono.error(new IllegalStateException("Нет исторических данных для " + cryptoCurrency.getCode())))
                                 .flatMap(prices -> {
                                     // Рассчитываем SMA
                                     BigDecimal sum = prices.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
@@ -322,6 +425,10 @@ public class AlertsHandling {
                                                     cryptoCurrency.getCode(),
                                                     currentPriceFiat, notification.getFiatCurrency().getCode(),
                                                     smaFiat, notification.getFiatCurrency().getCode())));
+                                })
+                                .onErrorResume(e -> {
+                                    log.error("Ошибка при установке EMA алерта: {}", e.getMessage());
+                                    return Mono.just("❌ Ошибка при установке алерта: " + e.getMessage());
                                 });
                     } catch (Exception e) {
                         log.error("Ошибка при установке EMA алерта: {}", e.getMessage());
@@ -331,108 +438,674 @@ public class AlertsHandling {
     }
 
     /**
-     * Проверяет все установленные алерты каждые 5 минут.
-     * Для каждого алерта получает текущую цену и проверяет условия срабатывания.
+     * Запускает проверку алертов по каждой новой котировке.
+     * Котировки одной криптовалюты обрабатываются последовательно; если проверка
+     * не успевает за котировками, промежуточные пропускаются и проверяется последняя.
      */
-    @Scheduled(fixedRate = 300000) // Проверка каждые 5 минут
+    @PostConstruct
+    public void startTickEvaluation() {
+        tickSubscription = loadAlertIndex(false, indexSweepToken)
+                .onErrorResume(e -> {
+                    log.error("Ошибка при загрузке индекса порогов: {}", e.getMessage());
+                    return Mono.empty();
+                })
+                .thenMany(marketDataService.ticks())
+                .groupBy(MarketDataService.PriceTick::crypto)
+                .flatMap(symbolTicks -> symbolTicks
+                        .onBackpressureLatest()
+                        .concatMap(tick -> evaluateTick(tick).subscribeOn(Schedulers.boundedElastic()), 1),
+                        Crypto.values().length)
+                .contextWrite(ExchangeRateLimiter.lane(ExchangeRateLimiter.Lane.ALERTS))
+                .subscribe(
+                        null,
+                        error -> log.error("Проверка алертов по котировкам остановлена: {}", error.getMessage())
+                );
+    }
+
+    @PreDestroy
+    public void stopTickEvaluation() {
+        if (tickSubscription != null) {
+            tickSubscription.dispose();
+        }
+    }
+
+    /**
+     * Проверяет алерты VALUE и PERCENT по новой котировке: для каждой фиатной
+     * валюты, в которой есть алерты на эту криптовалюту, выбирает из индекса
+     * только алерты с пересеченными границами. Расстояние до ближайшей
+     * непересеченной границы передается в план опроса {@link MarketDataService}.
+     */
+    private Mono<Void> evaluateTick(MarketDataService.PriceTick tick) {
+        if (!alertIndex.isLoaded()) {
+            return Mono.empty();
+        }
+        ticksEvaluated.incrementAndGet();
+        CycleChanges changes = new CycleChanges();
+        double[] nearestGap = { Double.POSITIVE_INFINITY };
+        return Flux.fromIterable(alertIndex.keys())
+                .filter(key -> key.crypto() == tick.crypto())
+                .concatMap(key -> currencyConverter.getUsdToFiatRate(key.fiat())
+                        .doOnNext(conversionRate -> {
+                            long priceMinor = FixedPoint.toMinor(tick.quote().price().multiply(conversionRate));
+                            List<Notification> crossed = alertIndex.crossed(key, priceMinor).stream()
+                                    .filter(this::owns)
+                                    .toList();
+                            tickCandidates.addAndGet(crossed.size());
+                            crossed.forEach(notification ->
+                                    evaluateAlert(notification, priceMinor, tick.quote().timestamp(), changes));
+                            long distance = alertIndex.distanceToNearest(key, priceMinor);
+                            if (distance != Long.MAX_VALUE && priceMinor > 0) {
+                                nearestGap[0] = Math.min(nearestGap[0], (double) distance / priceMinor);
+                            }
+                        }))
+                .doOnComplete(() -> marketDataService.reportThresholdGap(tick.crypto(), nearestGap[0]))
+                .then(fenced(UNFENCED, changes))
+                .doOnNext(triggered -> {
+                    tickTriggered.addAndGet(triggered);
+                    alertsTriggered.addAndGet(triggered);
+                })
+                .onErrorResume(e -> {
+                    log.error("Ошибка при проверке алертов по котировке {}: {}", tick.crypto(), e.getMessage());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    /**
+     * Плановая проверка всех установленных алертов, по умолчанию раз в 5 минут.
+     * Обновляет EMA и подхватывает пересечения, котировки которых были пропущены.
+     *
+     * <p>Алерты берутся из {@link AlertThresholdIndex}, сгруппированные по паре
+     * (криптовалюта, фиат). Котировка каждой криптовалюты и курс каждой фиатной
+     * валюты запрашиваются один раз за цикл; для группы проверяются только алерты,
+     * чьи границы пересечены текущей ценой, и EMA-алерты. Изменения состояния
+     * за цикл записываются в базу одной пакетной операцией.</p>
+     *
+     * <p>EMA обновляется один раз на пару в общем ряду {@link EmaEngine}; ряды
+     * сдвигает и записывает лидер задания {@value #EMA_JOB}, остальные экземпляры
+     * перечитывают их из базы в начале проверки.</p>
+     *
+     * <p>Кроме текущей цены, алерты VALUE и PERCENT проверяются по максимуму и минимуму
+     * минутных свечей, закрывшихся после прошлой проверки ({@link CandleRangeTracker}):
+     * всплеск между проверками не теряется, даже если котировка в этот момент не пришла.</p>
+     *
+     * <p>Если с алертами работают другие экземпляры или этот экземпляр получил новые
+     * шарды, индекс перечитывается из базы: алерты, созданные через другие узлы,
+     * попадают в локальный индекс не позже следующей плановой проверки.</p>
+     *
+     * <p>Циклы не перекрываются: пока идет предыдущий, новый пропускается. Цикл
+     * ограничен бюджетом {@code alerts.sweep.budget-ms}: по его истечении незавершенные
+     * запросы отменяются, уже накопленные изменения записываются, а непроверенные
+     * группы переносятся в начало следующего цикла вместе с их окнами свечей.</p>
+     */
+    @Scheduled(fixedRateString = "${alerts.sweep.interval-ms:300000}")
     public void checkAlerts() {
+        if (!sweeping.compareAndSet(false, true)) {
+            skippedCycles.incrementAndGet();
+            log.warn("Предыдущая проверка алертов еще выполняется, цикл пропущен");
+            return;
+        }
+        boolean started = false;
+        try {
+            if (shardLeases.isEnabled()) {
+                sweep(UNFENCED);
+                started = true;
+            } else {
+                started = schedulerLeases.runIfLeader(SWEEP_JOB, this::sweep);
+            }
+        } finally {
+            if (!started) {
+                sweeping.set(false);
+            }
+        }
+    }
+
+    /**
+     * Проверяет, должен ли этот экземпляр проверять алерт: алерт в арендованном
+     * шарде, а без шардирования — экземпляр лидер плановой проверки.
+     */
+    private boolean owns(Notification notification) {
+        return shardLeases.owns(notification)
+                && (shardLeases.isEnabled() || schedulerLeases.isLeader(SWEEP_JOB));
+    }
+
+    /**
+     * Один цикл плановой проверки.
+     *
+     * @param fencingToken токен аренды задания {@value #SWEEP_JOB} или {@link #UNFENCED}
+     */
+    private void sweep(long fencingToken) {
         log.info("Начало проверки алертов...");
-        notificationService.getAllActiveAlerts()
-                .flatMap(notification -> {
-                    log.info("Проверка алерта для {} (тип: {})",
-                            notification.getCryptoCurrency(), notification.getThresholdType());
-
-                    return priceFetcher.getCurrentPrice(notification.getCryptoCurrency())
-                            .flatMap(priceJson -> {
-                                try {
-                                    JsonNode node = objectMapper.readTree(priceJson);
-                                    BigDecimal currentPrice = new BigDecimal(node.get("price").asText());
-                                    long timestamp = node.get("timestamp").asLong();
-
-                                    // Конвертируем цену в целевую валюту из уведомления
-                                    return currencyConverter.getUsdToFiatRate(notification.getFiatCurrency())
-                                            .flatMap(conversionRate -> {
-                                                BigDecimal priceInTargetCurrency = currentPrice.multiply(conversionRate)
-                                                        .setScale(2, RoundingMode.HALF_UP);
-
-                                                // Проверяем условия срабатывания алерта
-                                                boolean isTriggered = false;
-                                                String message = "";
-
-                                                switch (notification.getThresholdType()) {
-                                                    case VALUE -> {
-                                                        if (priceInTargetCurrency.compareTo(BigDecimal.valueOf(notification.getUpperBoundary())) >= 0) {
-                                                            isTriggered = true;
-                                                            message = String.format("🚨 Цена %s превысила верхнюю границу, сейчас она составляет: %.2f %s",
-                                                                    notification.getCryptoCurrency().getCode(),
-                                                                    priceInTargetCurrency, notification.getFiatCurrency().getCode());
-                                                        } else if (priceInTargetCurrency.compareTo(BigDecimal.valueOf(notification.getLowerBoundary())) <= 0) {
-                                                            isTriggered = true;
-                                                            message = String.format("🚨 Цена %s опустилась ниже нижней границы, сейчас она составляет: %.2f %s",
-                                                                    notification.getCryptoCurrency().getCode(),
-                                                                    priceInTargetCurrency, notification.getFiatCurrency().getCode());
-                                                        }
-                                                    }
-                                                    case PERCENT -> {
-                                                        BigDecimal startPrice = BigDecimal.valueOf(notification.getStartPrice());
-                                                        BigDecimal percentChange = priceInTargetCurrency.subtract(startPrice)
-                                                                .divide(startPrice, 4, RoundingMode.HALF_UP)
-                                                                .multiply(new BigDecimal("100"));
-
-                                                        if (percentChange.compareTo(BigDecimal.valueOf(notification.getUpPercent())) >= 0) {
-                                                            isTriggered = true;
-                                                            message = String.format("🚨 Цена %s выросла на %.2f%% (до %.2f %s)",
-                                                                    notification.getCryptoCurrency().getCode(),
-                                                                    percentChange, priceInTargetCurrency, notification.getFiatCurrency().getCode());
-                                                        } else if (percentChange.compareTo(BigDecimal.valueOf(-notification.getDownPercent())) <= 0) {
-                                                            isTriggered = true;
-                                                            message = String.format("🚨 Цена %s упала на %.2f%% (до %.2f %s)",
-                                                                    notification.getCryptoCurrency().getCode(),
-                                                                    percentChange.abs(), priceInTargetCurrency, notification.getFiatCurrency().getCode());
-                                                        }
-                                                    }
-                                                    case EMA -> {
-                                                        // Обновляем EMA
-                                                        updateEMA(notification, priceInTargetCurrency);
-                                                    }
-                                                }
-
-                                                if (isTriggered) {
-                                                    notification.setIsActive(false);
-                                                    notification.setTriggerTimestamp(timestamp);
-                                                    return notificationService.save(notification)
-                                                            .then(telegramBotService.sendResponseAsync(notification.getChatId(), message))
-                                                            .doOnSuccess(v -> log.info("Уведомление успешно отправлено для алерта {} (тип: {})",
-                                                                    notification.getCryptoCurrency(), notification.getThresholdType()))
-                                                            .doOnError(e -> log.error("Ошибка при отправке уведомления для алерта {} (тип: {}): {}",
-                                                                    notification.getCryptoCurrency(), notification.getThresholdType(), e.getMessage()));
-                                                }
-
-                                                return Mono.empty();
-                                            });
-                                } catch (Exception e) {
-                                    log.error("Ошибка при проверке алерта: {}", e.getMessage());
-                                    return Mono.empty();
+        long startedAt = System.nanoTime();
+        AtomicLong externalCalls = new AtomicLong();
+        AtomicLong candidates = new AtomicLong();
+        AtomicLong triggered = new AtomicLong();
+        Map<Crypto, Mono<PriceQuote>> quotes = new ConcurrentHashMap<>();
+        Map<Fiat, Mono<BigDecimal>> rates = new ConcurrentHashMap<>();
+        Map<Crypto, Mono<CandleRangeTracker.Window>> windows = new ConcurrentHashMap<>();
+        Map<Crypto, CandleRangeTracker.Window> loadedWindows = new ConcurrentHashMap<>();
+        CycleChanges changes = new CycleChanges();
+        OptionalLong emaLease = schedulerLeases.acquire(EMA_JOB);
+        prepareEmaSeries(emaLease);
+
+        // Новый лидер перечитывает индекс: алерты могли создаваться через другие экземпляры
+        boolean reloadIndex = indexStale
+                || shardLeases.isClustered()
+                || shardLeases.ownershipVersion() != indexOwnershipVersion
+                || fencingToken != indexSweepToken;
+        List<AlertThresholdIndex.Key> groups = new ArrayList<>();
+        Set<AlertThresholdIndex.Key> completed = ConcurrentHashMap.newKeySet();
+        AtomicBoolean timedOut = new AtomicBoolean();
+        loadAlertIndex(reloadIndex, fencingToken)
+                .thenMany(Flux.defer(() -> {
+                    // Цены, курсы и свечи запрашиваются только для групп со своими алертами
+                    Set<AlertThresholdIndex.Key> current = new LinkedHashSet<>();
+                    alertIndex.keys().stream()
+                            .filter(key -> alertIndex.anyMatch(key, this::owns))
+                            .forEach(current::add);
+                    if (emaLease.isPresent()) {
+                        // Лидер EMA сдвигает ряды всех групп, в том числе без своих алертов
+                        emaEngine.keys().forEach(series ->
+                                current.add(new AlertThresholdIndex.Key(series.crypto(), series.fiat())));
+                    }
+                    // Группы, не проверенные прошлым циклом, проверяются первыми
+                    carriedOver.stream().filter(current::contains).forEach(groups::add);
+                    current.stream().filter(key -> !groups.contains(key)).forEach(groups::add);
+                    lastCycleGroups.set(groups.size());
+                    lastCycleAlerts.set(alertIndex.size());
+                    return Flux.fromIterable(groups);
+                }))
+                .flatMap(key -> {
+                    Mono<PriceQuote> quote = quotes.computeIfAbsent(key.crypto(), crypto -> Mono.defer(() -> {
+                        externalCalls.incrementAndGet();
+                        return marketDataService.getCurrentQuote(crypto);
+                    }).cache());
+                    Mono<BigDecimal> rate = rates.computeIfAbsent(key.fiat(), fiat -> Mono.defer(() -> {
+                        externalCalls.incrementAndGet();
+                        return currencyConverter.getUsdToFiatRate(fiat);
+                    }).cache());
+                    Mono<CandleRangeTracker.Window> window = windows.computeIfAbsent(key.crypto(),
+                            crypto -> Mono.defer(() -> rangeTracker.nextWindow(crypto))
+                                    .doOnNext(loaded -> loadedWindows.put(crypto, loaded))
+                                    .cache());
+
+                    // Конвертируем цену в целевую валюту группы
+                    return Mono.zip(quote, rate, window)
+                            .doOnNext(tuple -> {
+                                // После истечения бюджета цикл уже записывает изменения
+                                synchronized (changes) {
+                                    if (changes.isClosed()) {
+                                        return;
+                                    }
+                                    candidates.addAndGet(evaluateGroup(key, tuple.getT1(), tuple.getT2(),
+                                            tuple.getT3().candles(), emaLease, changes));
+                                    completed.add(key);
                                 }
+                            })
+                            .then()
+                            .onErrorResume(e -> {
+                                log.error("Ошибка при проверке алертов {}/{}: {}",
+                                        key.crypto(), key.fiat().getCode(), e.getMessage());
+                                return Mono.empty();
                             });
                 })
+                .then()
+                .timeout(Duration.ofMillis(sweepBudgetMillis), Mono.fromRunnable(() -> timedOut.set(true)))
+                .then(Mono.fromRunnable(() -> closeCycle(groups, completed, timedOut.get(), changes)))
+                .then(Mono.fromRunnable(() -> markWindowsCovered(loadedWindows, groups, completed)))
+                .then(fenced(fencingToken, changes))
+                .flatMap(count -> persistEmaSeries(emaLease).thenReturn(count))
+                .doOnNext(triggered::set)
+                .contextWrite(ExchangeRateLimiter.lane(ExchangeRateLimiter.Lane.ALERTS))
+                .doFinally(_ -> {
+                    recordCycle(startedAt, externalCalls.get(), candidates.get(), triggered.get());
+                    sweeping.set(false);
+                })
                 .subscribe(
                         null,
                         error -> log.error("Ошибка при проверке алертов: {}", error.getMessage()),
-                        () -> log.info("Проверка алертов завершена")
+                        () -> log.info("Проверка алертов завершена: {} кандидатов, {} внешних запросов",
+                                candidates.get(), externalCalls.get())
                 );
     }
 
-    private Mono<BigDecimal> parsePrice(String priceJson) {
-        return Mono.fromCallable(() -> {
-            JsonNode jsonNode = objectMapper.readTree(priceJson);
-            String priceStr = jsonNode.get("price").asText();
-            // Удаляем все нечисловые символы, кроме точки
-            priceStr = priceStr.replaceAll("[^0-9.]", "");
-            return new BigDecimal(priceStr);
+    /**
+     * Проверяет алерты одной группы по котировке криптовалюты и окну свечей.
+     *
+     * @return число проверенных алертов-кандидатов
+     */
+    private int evaluateGroup(AlertThresholdIndex.Key key, PriceQuote currentQuote, BigDecimal conversionRate,
+                              List<Candle> window, OptionalLong emaLease, CycleChanges changes) {
+        // Пересечения внутри окна проверяются раньше текущей цены
+        evaluateRange(key, window, conversionRate, changes);
+
+        PriceQuote groupQuote = new PriceQuote(currentQuote.symbol(),
+                currentQuote.price().multiply(conversionRate).setScale(2, RoundingMode.HALF_UP),
+                currentQuote.timestamp());
+        long priceMinor = FixedPoint.toMinor(groupQuote.price());
+        List<Notification> groupCandidates = alertIndex.candidates(key, priceMinor).stream()
+                .filter(this::owns)
+                .toList();
+        // Алерты привязываются к ряду до его сдвига текущей ценой
+        joinEmaSeries(groupCandidates, changes);
+        if (emaLease.isPresent()) {
+            emaEngine.advance(key.crypto(), key.fiat(), FixedPoint.toDouble(priceMinor));
+        }
+        groupCandidates.forEach(notification ->
+                evaluateAlert(notification, priceMinor, groupQuote.timestamp(), changes));
+        return groupCandidates.size();
+    }
+
+    /**
+     * Завершает цикл: запрещает новые изменения и, если бюджет времени истек,
+     * запоминает непроверенные группы, чтобы следующий цикл начал с них.
+     */
+    private void closeCycle(List<AlertThresholdIndex.Key> groups, Set<AlertThresholdIndex.Key> completed,
+                            boolean timedOut, CycleChanges changes) {
+        changes.close();
+        if (!timedOut) {
+            carriedOver = List.of();
+            return;
+        }
+        List<AlertThresholdIndex.Key> remaining = groups.stream()
+                .filter(key -> !completed.contains(key))
+                .toList();
+        carriedOver = remaining;
+        if (!remaining.isEmpty()) {
+            truncatedCycles.incrementAndGet();
+            log.warn("Бюджет проверки алертов {} мс исчерпан: {} из {} групп перенесено на следующий цикл",
+                    sweepBudgetMillis, remaining.size(), groups.size());
+        }
+    }
+
+    /**
+     * Отмечает просмотренными окна свечей криптовалют, все группы которых проверены
+     * в этом цикле. Окно криптовалюты с непроверенной группой будет отдано
+     * следующему циклу, чтобы всплеск внутри него не остался непроверенным.
+     */
+    private void markWindowsCovered(Map<Crypto, CandleRangeTracker.Window> windows,
+                                    List<AlertThresholdIndex.Key> groups,
+                                    Set<AlertThresholdIndex.Key> completed) {
+        Set<Crypto> pending = EnumSet.noneOf(Crypto.class);
+        groups.stream()
+                .filter(key -> !completed.contains(key))
+                .forEach(key -> pending.add(key.crypto()));
+        windows.forEach((crypto, window) -> {
+            if (!pending.contains(crypto)) {
+                rangeTracker.markCovered(window);
+            }
+        });
+    }
+
+    /**
+     * Заполняет индекс порогов активными алертами из базы, если он еще не загружен
+     * или требуется перечитать его. Алерты читаются из курсора по мере добавления
+     * в индекс, без промежуточного списка.
+     *
+     * @param force перечитать уже загруженный индекс
+     * @param fencingToken токен аренды задания, с которым загружается индекс
+     */
+    private Mono<Void> loadAlertIndex(boolean force, long fencingToken) {
+        return Mono.defer(() -> {
+            if (alertIndex.isLoaded() && !force) {
+                return Mono.empty();
+            }
+            long ownershipVersion = shardLeases.ownershipVersion();
+            long sweepToken = fencingToken;
+            AlertThresholdIndex.Reload reload = alertIndex.beginReload();
+            // В индекс попадают только алерты шардов этого экземпляра
+            return notificationService.getAllActiveAlerts()
+                    .filter(shardLeases::holds)
+                    .doOnNext(reload::add)
+                    .count()
+                    .doOnNext(loaded -> {
+                        reload.commit();
+                        indexOwnershipVersion = ownershipVersion;
+                        indexSweepToken = sweepToken;
+                        indexStale = false;
+                        log.info("Индекс порогов загружен: {} алертов", loaded);
+                    })
+                    .doOnError(_ -> reload.abort())
+                    .doOnCancel(reload::abort)
+                    .then();
+        });
+    }
+
+    /**
+     * Проверяет алерты VALUE и PERCENT группы по максимуму и минимуму цены в окне свечей.
+     * Из индекса берутся только алерты, границы которых пересечены максимумом или минимумом;
+     * для алерта, созданного внутри окна, учитываются только свечи после его создания.
+     *
+     * @param key группа
+     * @param window закрытые свечи после прошлой проверки
+     * @param conversionRate курс USD к фиатной валюте группы
+     * @param changes изменения текущего цикла
+     */
+    private void evaluateRange(AlertThresholdIndex.Key key, List<Candle> window, BigDecimal conversionRate,
+                               CycleChanges changes) {
+        Optional<CandleRangeTracker.PriceRange> groupRange = CandleRangeTracker.rangeOf(window, 0);
+        if (groupRange.isEmpty()) {
+            return;
+        }
+        Map<String, Notification> crossed = new LinkedHashMap<>();
+        for (Notification notification : alertIndex.crossed(key, toMinor(groupRange.get().high(), conversionRate))) {
+            crossed.put(notification.getId(), notification);
+        }
+        for (Notification notification : alertIndex.crossed(key, toMinor(groupRange.get().low(), conversionRate))) {
+            crossed.put(notification.getId(), notification);
+        }
+        long windowStart = window.get(0).getOpenTime();
+        for (Notification notification : crossed.values()) {
+            if (!notification.isActive() || !owns(notification)) {
+                continue;
+            }
+            rangeCandidates.incrementAndGet();
+            long createdAt = notification.getStartTimestamp() == null ? 0 : notification.getStartTimestamp() * 1000;
+            Optional<CandleRangeTracker.PriceRange> range = createdAt > windowStart
+                    ? CandleRangeTracker.rangeOf(window, createdAt)
+                    : groupRange;
+            if (range.isEmpty()) {
+                continue;
+            }
+            evaluateAlert(notification, toMinor(range.get().high(), conversionRate), range.get().highTime(), true, changes);
+            if (notification.isActive()) {
+                evaluateAlert(notification, toMinor(range.get().low(), conversionRate), range.get().lowTime(), true, changes);
+            }
+            if (!notification.isActive()) {
+                rangeTriggered.incrementAndGet();
+            }
+        }
+    }
+
+    private static long toMinor(BigDecimal usdPrice, BigDecimal conversionRate) {
+        return FixedPoint.toMinor(usdPrice.multiply(conversionRate));
+    }
+
+    private void evaluateAlert(Notification notification, long priceMinor, long timestamp, CycleChanges changes) {
+        evaluateAlert(notification, priceMinor, timestamp, false, changes);
+    }
+
+    /**
+     * Проверяет условия срабатывания одного алерта по уже полученной цене.
+     * Пороги сравниваются в минимальных единицах из индекса, без {@link BigDecimal}.
+     * Изменения состояния и уведомления только накапливаются в {@code changes}.
+     *
+     * @param notification алерт
+     * @param priceMinor цена в валюте алерта в сотых долях
+     * @param timestamp время котировки
+     * @param intraInterval цена — экстремум свечей между проверками, а не текущая цена
+     * @param changes изменения текущего цикла
+     */
+    private void evaluateAlert(Notification notification, long priceMinor, long timestamp, boolean intraInterval,
+                               CycleChanges changes) {
+        try {
+            // Проверяем условия срабатывания алерта
+            boolean isTriggered = false;
+            String message = "";
+
+            switch (notification.getThresholdType()) {
+                case VALUE -> {
+                    String priceNote = intraInterval ? "между проверками она достигала" : "сейчас она составляет";
+                    AlertThresholdIndex.Thresholds thresholds = alertIndex.thresholdsOf(notification);
+                    if (priceMinor >= thresholds.upper()) {
+                        isTriggered = true;
+                        message = String.format("🚨 Цена %s превысила верхнюю границу, %s: %.2f %s",
+                                notification.getCryptoCurrency().getCode(), priceNote,
+                                FixedPoint.toDecimal(priceMinor), notification.getFiatCurrency().getCode());
+                    } else if (priceMinor <= thresholds.lower()) {
+                        isTriggered = true;
+                        message = String.format("🚨 Цена %s опустилась ниже нижней границы, %s: %.2f %s",
+                                notification.getCryptoCurrency().getCode(), priceNote,
+                                FixedPoint.toDecimal(priceMinor), notification.getFiatCurrency().getCode());
+                    }
+                }
+                case PERCENT -> {
+                    AlertThresholdIndex.Thresholds thresholds = alertIndex.thresholdsOf(notification);
+                    if (thresholds.start() <= 0) {
+                        return;
+                    }
+                    long percentChange = FixedPoint.percentChange(priceMinor, thresholds.start());
+
+                    if (percentChange >= thresholds.upPercent()) {
+                        isTriggered = true;
+                        message = String.format("🚨 Цена %s выросла на %.2f%% (до %.2f %s)",
+                                notification.getCryptoCurrency().getCode(),
+                                FixedPoint.toDecimal(percentChange), FixedPoint.toDecimal(priceMinor),
+                                notification.getFiatCurrency().getCode());
+                    } else if (percentChange <= -thresholds.downPercent()) {
+                        isTriggered = true;
+                        message = String.format("🚨 Цена %s упала на %.2f%% (до %.2f %s)",
+                                notification.getCryptoCurrency().getCode(),
+                                FixedPoint.toDecimal(Math.abs(percentChange)), FixedPoint.toDecimal(priceMinor),
+                                notification.getFiatCurrency().getCode());
+                    }
+                }
+                case EMA -> checkEMACrossing(notification, priceMinor, changes);
+            }
+
+            if (isTriggered) {
+                // Котировка и плановая проверка могут одновременно увидеть одно пересечение
+                synchronized (notification) {
+                    if (!notification.isActive()) {
+                        return;
+                    }
+                    notification.setIsActive(false);
+                    notification.setTriggerTimestamp(timestamp);
+                }
+                changes.trigger(notification, message);
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при проверке алерта: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Готовит ряды EMA к циклу: лидер задания {@value #EMA_JOB} дочитывает ряды,
+     * созданные другими экземплярами (а получив аренду, перечитывает все),
+     * остальные экземпляры заменяют ряды значениями из базы.
+     */
+    private void prepareEmaSeries(OptionalLong emaLease) {
+        try {
+            if (emaLease.isPresent()) {
+                emaEngine.load(emaLease.getAsLong() != emaToken);
+                emaToken = emaLease.getAsLong();
+            } else {
+                emaEngine.load(true);
+                emaToken = UNFENCED;
+            }
+        } catch (Exception e) {
+            log.error("Ошибка при загрузке рядов EMA: {}", e.getMessage());
+        }
+    }
+
+    private void joinEmaSeries(List<Notification> candidates, CycleChanges changes) {
+        for (Notification notification : candidates) {
+            if (notification.getThresholdType() != Notification.ThresholdType.EMA
+                    || notification.getCurrentEMA() == null) {
+                continue;
+            }
+            try {
+                if (emaEngine.join(notification)) {
+                    changes.update(notification);
+                }
+            } catch (Exception e) {
+                log.error("Ошибка при привязке алерта {} к ряду EMA: {}", notification.getId(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Записывает сдвинутые ряды EMA, если экземпляр все еще лидер задания {@value #EMA_JOB}.
+     */
+    private Mono<Void> persistEmaSeries(OptionalLong emaLease) {
+        if (emaLease.isEmpty()) {
+            return Mono.empty();
+        }
+        return Mono.fromRunnable(() -> {
+            if (schedulerLeases.isCurrent(EMA_JOB, emaLease.getAsLong())) {
+                emaEngine.persist();
+            } else {
+                log.warn("Аренда {} потеряна, ряды EMA не записаны", EMA_JOB);
+            }
         });
     }
 
+    /**
+     * Записывает изменения плановой проверки, если экземпляр все еще лидер с тем же
+     * токеном. Иначе изменения отбрасываются: их запишет и отправит новый лидер.
+     * При шардировании перед записью владение шардами подтверждается по базе,
+     * изменения алертов из потерянных шардов отбрасываются.
+     */
+    private Mono<Long> fenced(long fencingToken, CycleChanges changes) {
+        if (fencingToken == UNFENCED && shardLeases.isEnabled()) {
+            return Mono.fromCallable(shardLeases::confirmOwnership)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(owned -> {
+                        discardUnowned(changes, owned);
+                        return persistChanges(changes);
+                    });
+        }
+        if (fencingToken == UNFENCED) {
+            return Mono.defer(() -> persistChanges(changes));
+        }
+        return Mono.fromCallable(() -> schedulerLeases.isCurrent(SWEEP_JOB, fencingToken))
+                .flatMap(current -> {
+                    if (current) {
+                        return persistChanges(changes);
+                    }
+                    log.warn("Аренда {} с токеном {} потеряна, изменения цикла отброшены", SWEEP_JOB, fencingToken);
+                    changes.updated().forEach(notification -> {
+                        if (changes.isTriggered(notification.getId())) {
+                            reactivate(notification);
+                        }
+                    });
+                    indexStale = true;
+                    return Mono.just(0L);
+                });
+    }
+
+    /**
+     * Отбрасывает изменения алертов, шарды которых экземпляр больше не держит.
+     * Сработавшие алерты снова становятся активными в локальном индексе.
+     */
+    private void discardUnowned(CycleChanges changes, Predicate<Notification> owned) {
+        int discarded = 0;
+        for (Notification notification : changes.updated()) {
+            if (owned.test(notification)) {
+                continue;
+            }
+            if (changes.isTriggered(notification.getId())) {
+                reactivate(notification);
+            }
+            changes.discard(notification.getId());
+            discarded++;
+        }
+        if (discarded > 0) {
+            fencedShardChanges.addAndGet(discarded);
+            indexStale = true;
+            log.warn("Шарды алертов потеряны до записи, отброшено изменений: {}", discarded);
+        }
+    }
+
+    /**
+     * Записывает изменения цикла пакетной операцией и отправляет уведомления
+     * по успешно сохраненным алертам. Сработавшие алерты, которые не удалось
+     * сохранить, снова становятся активными и будут проверены повторно.
+     *
+     * @param changes изменения цикла
+     * @return Mono с числом сработавших и сохраненных алертов
+     */
+    private Mono<Long> persistChanges(CycleChanges changes) {
+        List<Notification> updated = changes.updated();
+        if (updated.isEmpty()) {
+            return Mono.just(0L);
+        }
+        return notificationService.saveAlertStates(updated)
+                .flatMapMany(result -> {
+                    stateWrites.addAndGet(result.saved().size());
+                    result.failed().forEach((id, error) -> {
+                        stateWriteFailures.incrementAndGet();
+                        Notification failed = changes.get(id);
+                        if (failed != null && changes.isTriggered(id)) {
+                            reactivate(failed);
+                        }
+                    });
+                    return Flux.fromIterable(result.saved());
+                })
+                .filter(notification -> changes.message(notification.getId()) != null)
+                .concatMap(notification -> telegramBotService.sendResponseAsync(notification.getChatId(), changes.message(notification.getId()))
+                        .doOnSuccess(v -> log.info("Уведомление успешно отправлено для алерта {} (тип: {})",
+                                notification.getCryptoCurrency(), notification.getThresholdType()))
+                        .doOnError(e -> log.error("Ошибка при отправке уведомления для алерта {} (тип: {}): {}",
+                                notification.getCryptoCurrency(), notification.getThresholdType(), e.getMessage()))
+                        .onErrorResume(_ -> Mono.empty())
+                        .contextWrite(TelegramDeliveryScheduler.priority(TelegramDeliveryScheduler.Priority.ALERT))
+                        .then(Mono.just(notification)))
+                .filter(notification -> changes.isTriggered(notification.getId()))
+                .count();
+    }
+
+    private static void reactivate(Notification notification) {
+        synchronized (notification) {
+            notification.setIsActive(true);
+            notification.setTriggerTimestamp(null);
+        }
+    }
+
+    private void recordCycle(long startedAtNanos, long externalCalls, long candidates, long triggered) {
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAtNanos);
+        cycles.incrementAndGet();
+        lastCycleMillis.set(durationMillis);
+        maxCycleMillis.accumulateAndGet(durationMillis, Math::max);
+        // Цикл, не уложившийся в интервал, вытесняет следующий плановый запуск
+        if (durationMillis > sweepIntervalMillis) {
+            overrunCycles.incrementAndGet();
+        }
+        lastCycleExternalCalls.set(externalCalls);
+        totalExternalCalls.addAndGet(externalCalls);
+        lastCycleCandidates.set(candidates);
+        alertsTriggered.addAndGet(triggered);
+    }
+
+    /**
+     * Возвращает метрики циклов проверки алертов: длительность, число циклов,
+     * не уложившихся в интервал {@code alerts.sweep.interval-ms}, число внешних запросов цен и курсов, число алертов, кандидатов на проверку
+     * и сработавших алертов, проверки по котировкам, а также размер индекса порогов.
+     *
+     * @return Map со статистикой
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("cycles", cycles.get());
+        stats.put("lastCycleMs", lastCycleMillis.get());
+        stats.put("maxCycleMs", maxCycleMillis.get());
+        stats.put("cycleBudgetMs", sweepBudgetMillis);
+        stats.put("cycleIntervalMs", sweepIntervalMillis);
+        stats.put("skippedCycles", skippedCycles.get());
+        stats.put("overrunCycles", overrunCycles.get());
+        stats.put("truncatedCycles", truncatedCycles.get());
+        stats.put("carriedOverGroups", carriedOver.size());
+        stats.put("lastCycleAlerts", lastCycleAlerts.get());
+        stats.put("lastCycleGroups", lastCycleGroups.get());
+        stats.put("lastCycleCandidates", lastCycleCandidates.get());
+        stats.put("lastCycleExternalCalls", lastCycleExternalCalls.get());
+        stats.put("totalExternalCalls", totalExternalCalls.get());
+        stats.put("alertsTriggered", alertsTriggered.get());
+        stats.put("ticks", ticksEvaluated.get());
+        stats.put("tickCandidates", tickCandidates.get());
+        stats.put("tickTriggered", tickTriggered.get());
+        stats.put("stateWrites", stateWrites.get());
+        stats.put("stateWriteFailures", stateWriteFailures.get());
+        stats.put("fencedShardChanges", fencedShardChanges.get());
+        stats.put("index", alertIndex.getStats());
+        stats.put("shards", shardLeases.getStats());
+        stats.put("ema", emaEngine.getStats());
+        stats.put("rangeCandidates", rangeCandidates.get());
+        stats.put("rangeTriggered", rangeTriggered.get());
+        stats.put("ranges", rangeTracker.getStats());
+        return stats;
+    }
+
     /**
      * Возвращает список всех установленных алертов.
      *
@@ -503,34 +1176,38 @@ public class AlertsHandling {
                 .then();
     }
 
-    // Обновляем EMA
-    private void updateEMA(Notification alert, BigDecimal currentPrice) {
-        BigDecimal currentEMA = BigDecimal.valueOf(alert.getCurrentEMA());
-        BigDecimal newEMA = currentEMA.multiply(new BigDecimal("0.95"))
-                .add(currentPrice.multiply(new BigDecimal("0.05")));
-
-        // Сохраняем обновленное значение EMA
-        alert.setCurrentEMA(newEMA.doubleValue());
-
-        // Проверяем пересечение EMA
-        checkEMACrossing(alert, currentPrice);
+    /**
+     * Возвращает текущее EMA алерта по общему ряду его пары.
+     *
+     * @param alert EMA-алерт
+     * @return текущее EMA или сохраненное значение, если ряд недоступен
+     */
+    public Double currentEma(Notification alert) {
+        return emaEngine.emaOf(alert);
     }
 
-    // Проверяем пересечение EMA
-    private void checkEMACrossing(Notification alert, BigDecimal currentPrice) {
-        BigDecimal ema = BigDecimal.valueOf(alert.getCurrentEMA());
-        boolean isCurrentlyAbove = currentPrice.compareTo(ema) > 0;
+    // Проверяем пересечение EMA; алерт записывается только при смене положения цены
+    private void checkEMACrossing(Notification alert, long priceMinor, CycleChanges changes) {
+        Double emaValue = emaEngine.emaOf(alert);
+        if (emaValue == null) {
+            return;
+        }
+        boolean isCurrentlyAbove = FixedPoint.toDouble(priceMinor) > emaValue;
+        BigDecimal currentPrice = FixedPoint.toDecimal(priceMinor);
+        BigDecimal ema = BigDecimal.valueOf(emaValue);
         
         // Если isAbove еще не установлен (первая проверка), устанавливаем его
         if (alert.getIsAbove() == null) {
             alert.setIsAbove(isCurrentlyAbove);
-            notificationService.save(alert);
+            alert.setCurrentEMA(emaValue);
+            changes.update(alert);
             return;
         }
 
         // Проверяем, произошло ли пересечение
         if (alert.getIsAbove() != isCurrentlyAbove) {
             alert.setIsAbove(isCurrentlyAbove);
+            alert.setCurrentEMA(emaValue);
             String trendMessage = isCurrentlyAbove ?
                     String.format("🚨 Обнаружен восходящий тренд для %s\n" +
                                     "💰 Текущая цена: %.2f %s\n" +
@@ -545,15 +1222,64 @@ public class AlertsHandling {
                             currentPrice, alert.getFiatCurrency().getCode(),
                             ema, alert.getFiatCurrency().getCode());
 
-            // Отправляем уведомление только при пересечении
-            telegramBotService.sendResponseAsync(alert.getChatId(), trendMessage)
-                    .subscribe(
-                            null,
-                            error -> log.error("Ошибка при отправке уведомления о тренде: {}", error.getMessage())
-                    );
+            // Уведомление отправляется только при пересечении, после сохранения состояния
+            changes.message(alert, trendMessage);
         }
+    }
 
-        notificationService.save(alert);
+    /**
+     * Изменения состояния алертов за один цикл проверки: записываются в базу
+     * одной пакетной операцией, после чего отправляются накопленные уведомления.
+     */
+    private static final class CycleChanges {
+        private final Map<String, Notification> updated = new LinkedHashMap<>();
+        private final Map<String, String> messages = new HashMap<>();
+        private final Set<String> triggered = new HashSet<>();
+        private boolean closed;
+
+        synchronized void update(Notification notification) {
+            updated.put(notification.getId(), notification);
+        }
+
+        synchronized void message(Notification notification, String message) {
+            updated.put(notification.getId(), notification);
+            messages.put(notification.getId(), message);
+        }
+
+        synchronized void trigger(Notification notification, String message) {
+            message(notification, message);
+            triggered.add(notification.getId());
+        }
+
+        synchronized List<Notification> updated() {
+            return new ArrayList<>(updated.values());
+        }
+
+        synchronized Notification get(String id) {
+            return updated.get(id);
+        }
+
+        synchronized String message(String id) {
+            return messages.get(id);
+        }
+
+        synchronized boolean isTriggered(String id) {
+            return triggered.contains(id);
+        }
+
+        synchronized void discard(String id) {
+            updated.remove(id);
+            messages.remove(id);
+            triggered.remove(id);
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
     }
 
     // Текущее время в секундах
@@ -18,7 +18,7 @@ import java.util.ArrayList;
 import reactor.core.publisher.Flux;
 import java.math.RoundingMode;
 import spbstu.mcs.telegramBot.cryptoApi.CurrencyConverter;
-import spbstu.mcs.telegramBot.cryptoApi.PriceFetcher;
+import spbstu.mcs.telegramBot.cryptoApi.MarketDataService;
 import spbstu.mcs.telegramBot.DB.services.PortfolioService;
 import spbstu.mcs.telegramBot.model.Portfolio;
 import lombok.extern.slf4j.Slf4j;
@@ -44,7 +44,7 @@ public class BotCommand {
     private final UserService userService;
     private final NotificationService notificationService;
     private final CurrencyConverter currencyConverter;
-    private final PriceFetcher priceFetcher;
+    private final MarketDataService marketDataService;
     private final PortfolioService portfolioService;
     private final CryptoPortfolioManager cryptoPortfolioManager;
 
@@ -56,7 +56,7 @@ public class BotCommand {
                      UserService userService,
                      NotificationService notificationService,
                      CurrencyConverter currencyConverter,
-                     PriceFetcher priceFetcher,
+                     MarketDataService marketDataService,
                      PortfolioService portfolioService,
                      CryptoPortfolioManager cryptoPortfolioManager) {
         this.cryptoInformation = cryptoInformation;
@@ -66,7 +66,7 @@ public class BotCommand {
         this.userService = userService;
         this.notificationService = notificationService;
         this.currencyConverter = currencyConverter;
-        this.priceFetcher = priceFetcher;
+        this.marketDataService = marketDataService;
         this.portfolioService = portfolioService;
         this.cryptoPortfolioManager = cryptoPortfolioManager;
     }
@@ -312,6 +312,9 @@ public class BotCommand {
                                        "🔄 Обновлено: Сегодня, %s (UTC+3)",
                                        symbol.split("-")[0], cryptoName, price, 
                                        symbol.split("-")[1], formattedDate);
+                    if (node.path("stale").asBoolean(false)) {
+                        response += "\n⚠️ Биржа временно недоступна, показана последняя известная цена";
+                    }
                     
                     log.info("Formatted response: {}", response);
                     return response;
@@ -723,13 +726,11 @@ public class BotCommand {
                     
                     // Получаем текущую цену в USD и конвертируем в валюту из БД
                     alertPriceMonos.add(Mono.zip(
-                        priceFetcher.getCurrentPrice(notification.getCryptoCurrency()),
+                        marketDataService.getCurrentQuote(notification.getCryptoCurrency()),
                         currencyConverter.getUsdToFiatRate(notification.getFiatCurrency())
                     ).flatMap(tuple -> {
                         try {
-                            JsonNode node = objectMapper.readTree(tuple.getT1());
-                            String priceStr = node.get("price").asText();
-                            BigDecimal currentPriceUSD = new BigDecimal(priceStr);
+                            BigDecimal currentPriceUSD = tuple.getT1().price();
                             BigDecimal conversionRate = tuple.getT2();
                             
                             // Конвертируем цену в выбранную пользователем валюту
@@ -771,7 +772,7 @@ public class BotCommand {
                             message.append(String.format("   Начальное EMA: %.2f %s\n", 
                                 notification.getStartEMA(), fiat));
                             message.append(String.format("   Текущее EMA: %.2f %s\n", 
-                                notification.getCurrentEMA(), fiat));
+                                alertsHandling.currentEma(notification), fiat));
                         }
                     }
                     
@@ -1086,12 +1087,11 @@ public class BotCommand {
                 .flatMap(user -> {
                     Currency.Fiat userFiat = Currency.Fiat.valueOf(user.getCurrentFiat());
                     return Mono.zip(
-                        priceFetcher.getCurrentPrice(crypto),
+                        marketDataService.getCurrentQuote(crypto),
                         currencyConverter.getUsdToFiatRate(userFiat)
                     ).flatMap(tuple -> {
                         try {
-                            JsonNode node = objectMapper.readTree(tuple.getT1());
-                            BigDecimal currentPriceUSD = new BigDecimal(node.get("price").asText());
+                            BigDecimal currentPriceUSD = tuple.getT1().price();
                             BigDecimal conversionRate = tuple.getT2();
                             
                             // Конвертируем цену в выбранную пользователем валюту
@@ -1252,12 +1252,11 @@ public class BotCommand {
                 .flatMap(user -> {
                     Currency.Fiat userFiat = Currency.Fiat.valueOf(user.getCurrentFiat());
                     return Mono.zip(
-                        priceFetcher.getCurrentPrice(crypto),
+                        marketDataService.getCurrentQuote(crypto),
                         currencyConverter.getUsdToFiatRate(userFiat)
                     ).flatMap(tuple -> {
                         try {
-                            JsonNode node = objectMapper.readTree(tuple.getT1());
-                            BigDecimal currentPriceUSD = new BigDecimal(node.get("price").asText());
+                            BigDecimal currentPriceUSD = tuple.getT1().price();
                             BigDecimal conversionRate = tuple.getT2();
                             
                             // Конвертируем цену в выбранную пользователем валюту
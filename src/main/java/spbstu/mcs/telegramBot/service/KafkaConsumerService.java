@@ -1,16 +1,20 @@
 package spbstu.mcs.telegramBot.service;
 
 import org.apache.kafka.clients.consumer.*;
+import org.apache.kafka.common.TopicPartition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 
 import java.time.Duration;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -21,50 +25,59 @@ public class KafkaConsumerService implements Runnable {
     private static final Logger logger = LoggerFactory.getLogger(KafkaConsumerService.class);
     private final String incomingTopic;
     private final String outgoingTopic;
-    private final KafkaConsumer<String, String> incomingConsumer;
-    private final KafkaConsumer<String, String> outgoingConsumer;
+    private final Consumer<String, String> incomingConsumer;
+    private final Consumer<String, String> outgoingConsumer;
     private final TelegramBotService botService;
+    private final TelegramDeliveryScheduler deliveryScheduler;
     private final ExecutorService processorPool = Executors.newFixedThreadPool(4);
+    // Партиции исходящих сообщений, приостановленные до освобождения очереди отправки
+    private final Set<TopicPartition> pausedOutgoing = new HashSet<>();
     private volatile boolean running = true;
 
     @Autowired
     public KafkaConsumerService(
             TelegramBotService botService,
+            TelegramDeliveryScheduler deliveryScheduler,
             @Value("${kafka.bootstrap-servers}") String bootstrapServers,
             @Value("${kafka.consumer.group-id}") String groupId,
             @Value("${kafka.topics.incoming}") String incomingTopic,
             @Value("${kafka.topics.outgoing}") String outgoingTopic) {
+        this(botService, deliveryScheduler, incomingTopic, outgoingTopic,
+                createConsumer(bootstrapServers, groupId + "-incoming", incomingTopic),
+                createConsumer(bootstrapServers, groupId + "-outgoing", outgoingTopic));
+    }
+
+    /**
+     * Сервис с заранее созданными consumer'ами, подписанными на топики.
+     */
+    public KafkaConsumerService(TelegramBotService botService,
+                                TelegramDeliveryScheduler deliveryScheduler,
+                                String incomingTopic,
+                                String outgoingTopic,
+                                Consumer<String, String> incomingConsumer,
+                                Consumer<String, String> outgoingConsumer) {
         this.botService = botService;
+        this.deliveryScheduler = deliveryScheduler;
         this.incomingTopic = incomingTopic;
         this.outgoingTopic = outgoingTopic;
-        
-        // Создаем consumer для входящих сообщений
-        Properties incomingProps = new Properties();
-        incomingProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        incomingProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
-        incomingProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
-        incomingProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        incomingProps.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
-        incomingProps.put(ConsumerConfig.GROUP_ID_CONFIG, groupId + "-incoming");
+        this.incomingConsumer = incomingConsumer;
+        this.outgoingConsumer = outgoingConsumer;
+    }
 
-        logger.info("Creating Kafka consumer for incoming messages with bootstrap servers: {}", bootstrapServers);
-        this.incomingConsumer = new KafkaConsumer<>(incomingProps);
-        this.incomingConsumer.subscribe(Collections.singletonList(incomingTopic));
-        logger.info("Subscribed to incoming messages topic: {}", incomingTopic);
-        
-        // Создаем consumer для исходящих сообщений
-        Properties outgoingProps = new Properties();
-        outgoingProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
-        outgoingProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
-        outgoingProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
-        outgoingProps.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
-        outgoingProps.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
-        outgoingProps.put(ConsumerConfig.GROUP_ID_CONFIG, groupId + "-outgoing");
+    private static Consumer<String, String> createConsumer(String bootstrapServers, String groupId, String topic) {
+        Properties props = new Properties();
+        props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, "org.apache.kafka.common.serialization.StringDeserializer");
+        props.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
+        props.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
 
-        logger.info("Creating Kafka consumer for outgoing messages with bootstrap servers: {}", bootstrapServers);
-        this.outgoingConsumer = new KafkaConsumer<>(outgoingProps);
-        this.outgoingConsumer.subscribe(Collections.singletonList(outgoingTopic));
-        logger.info("Subscribed to outgoing messages topic: {}", outgoingTopic);
+        logger.info("Creating Kafka consumer for topic {} with bootstrap servers: {}", topic, bootstrapServers);
+        KafkaConsumer<String, String> consumer = new KafkaConsumer<>(props);
+        consumer.subscribe(Collections.singletonList(topic));
+        logger.info("Subscribed to topic: {}", topic);
+        return consumer;
     }
 
     @Override
@@ -134,55 +147,7 @@ public class KafkaConsumerService implements Runnable {
         try {
             while (running) {
                 try {
-                    ConsumerRecords<String, String> records = outgoingConsumer.poll(Duration.ofMillis(1000));
-
-                    if (records.isEmpty()) {
-                        continue;
-                    }
-
-                    logger.info("Received {} messages from topic {}", records.count(), outgoingTopic);
-
-                    for (ConsumerRecord<String, String> record : records) {
-                        logger.info("Processing outgoing message from partition {}, offset {}: {}",
-                                record.partition(), record.offset(), ChatIdMasker.maskChatIdInJson(record.value()));
-
-                        processorPool.execute(() -> {
-                            try {
-                                // Извлекаем chatId и сообщение из JSON
-                                String chatId = extractChatIdFromJson(record.value());
-                                String message = extractMessageFromJson(record.value());
-                                
-                                if (chatId != null && message != null) {
-                                    // Декодируем сообщение
-                                    String decodedMessage = message.replace("\\n", "\n")
-                                                                 .replace("\\r", "\r")
-                                                                 .replace("\\t", "\t")
-                                                                 .replace("\\\"", "\"")
-                                                                 .replace("\\\\", "\\");
-                                    
-                                    String maskedChatId = ChatIdMasker.maskChatId(chatId);
-                                    logger.info("Sending outgoing message to Telegram for chatId: {}", maskedChatId);
-                                    SendMessage sendMessage = new SendMessage();
-                                    sendMessage.setChatId(chatId);
-                                    sendMessage.setText(decodedMessage);
-                                    botService.execute(sendMessage);
-                                } else {
-                                    logger.warn("Invalid outgoing message format: {}", record.value());
-                                }
-                            } catch (Exception e) {
-                                logger.error("Error processing outgoing message: {}", record.value(), e);
-                            }
-                        });
-                    }
-
-                    // Вручную подтверждаем обработку
-                    outgoingConsumer.commitAsync((offsets, exception) -> {
-                        if (exception != null) {
-                            logger.error("Commit failed for offsets: {}", offsets, exception);
-                        } else {
-                            logger.debug("Committed outgoing message offsets: {}", offsets);
-                        }
-                    });
+                    pollOutgoing();
                 } catch (Exception e) {
                     logger.error("Error in outgoing consumer loop", e);
                     try {
@@ -200,6 +165,93 @@ public class KafkaConsumerService implements Runnable {
         }
     }
 
+    /**
+     * Выполняет одно чтение исходящих сообщений и передает их планировщику отправки.
+     *
+     * <p>Если очередь планировщика переполнена, партиция перематывается на
+     * непринятое сообщение и приостанавливается, а смещение подтверждается только
+     * до него: сообщение будет прочитано снова, когда очередь освободится.</p>
+     */
+    public void pollOutgoing() {
+        // После перебалансировки приостановленная партиция может принадлежать другому consumer'у
+        pausedOutgoing.retainAll(outgoingConsumer.assignment());
+        if (!pausedOutgoing.isEmpty() && deliveryScheduler.hasCapacity()) {
+            logger.info("Delivery queue has room, resuming outgoing partitions: {}", pausedOutgoing);
+            outgoingConsumer.resume(pausedOutgoing);
+            pausedOutgoing.clear();
+        }
+
+        ConsumerRecords<String, String> records = outgoingConsumer.poll(Duration.ofMillis(1000));
+
+        if (records.isEmpty()) {
+            return;
+        }
+
+        logger.info("Received {} messages from topic {}", records.count(), outgoingTopic);
+
+        Map<TopicPartition, OffsetAndMetadata> processed = new HashMap<>();
+        for (TopicPartition partition : records.partitions()) {
+            for (ConsumerRecord<String, String> record : records.records(partition)) {
+                logger.info("Processing outgoing message from partition {}, offset {}: {}",
+                        record.partition(), record.offset(), ChatIdMasker.maskChatIdInJson(record.value()));
+
+                if (!processOutgoingRecord(record)) {
+                    // Остальные сообщения партиции будут прочитаны повторно после возобновления
+                    logger.warn("Delivery queue is full, pausing partition {} at offset {}", partition, record.offset());
+                    outgoingConsumer.seek(partition, record.offset());
+                    outgoingConsumer.pause(Set.of(partition));
+                    pausedOutgoing.add(partition);
+                    break;
+                }
+                processed.put(partition, new OffsetAndMetadata(record.offset() + 1));
+            }
+        }
+
+        if (processed.isEmpty()) {
+            return;
+        }
+
+        // Вручную подтверждаем обработку
+        outgoingConsumer.commitAsync(processed, (offsets, exception) -> {
+            if (exception != null) {
+                logger.error("Commit failed for offsets: {}", offsets, exception);
+            } else {
+                logger.debug("Committed outgoing message offsets: {}", offsets);
+            }
+        });
+    }
+
+    /**
+     * @return false, если сообщение не принято из-за переполненной очереди отправки
+     */
+    private boolean processOutgoingRecord(ConsumerRecord<String, String> record) {
+        try {
+            // Извлекаем chatId и сообщение из JSON
+            String chatId = extractChatIdFromJson(record.value());
+            String message = extractMessageFromJson(record.value());
+
+            if (chatId != null && message != null) {
+                // Декодируем сообщение
+                String decodedMessage = message.replace("\\n", "\n")
+                                             .replace("\\r", "\r")
+                                             .replace("\\t", "\t")
+                                             .replace("\\\"", "\"")
+                                             .replace("\\\\", "\\");
+
+                // Отправку в Telegram выполняет планировщик с учетом лимитов Bot API
+                String maskedChatId = ChatIdMasker.maskChatId(chatId);
+                TelegramDeliveryScheduler.Priority priority = extractPriorityFromJson(record.value());
+                logger.info("Queueing {} outgoing message to Telegram for chatId: {}", priority, maskedChatId);
+                return deliveryScheduler.submit(chatId, decodedMessage, priority);
+            } else {
+                logger.warn("Invalid outgoing message format: {}", record.value());
+            }
+        } catch (Exception e) {
+            logger.error("Error processing outgoing message: {}", record.value(), e);
+        }
+        return true;
+    }
+
     private void sendResponseToUser(String messageJson, String response) {
         try {
             String chatId = extractChatIdFromJson(messageJson);
@@ -250,6 +302,22 @@ public class KafkaConsumerService implements Runnable {
         }
     }
     
+    private TelegramDeliveryScheduler.Priority extractPriorityFromJson(String messageJson) {
+        int start = messageJson.indexOf("\"priority\":\"");
+        if (start < 0) {
+            // Сообщения, записанные до появления приоритетов
+            return TelegramDeliveryScheduler.Priority.INFO;
+        }
+        start += 12;
+        int end = messageJson.indexOf("\"", start);
+        try {
+            return TelegramDeliveryScheduler.Priority.valueOf(messageJson.substring(start, end));
+        } catch (RuntimeException e) {
+            logger.warn("Unknown message priority in: {}", ChatIdMasker.maskChatIdInJson(messageJson));
+            return TelegramDeliveryScheduler.Priority.INFO;
+        }
+    }
+
     private String extractMessageFromJson(String messageJson) {
         try {
             int start = messageJson.indexOf("\"message\":\"") + 11;
@@ -74,21 +74,36 @@ public class KafkaProducerService {
         }
     }
 
+    /**
+     * Отправляет информационный ответ пользователю в Kafka
+     * @param chatId ID чата
+     * @param message Текст ответа
+     */
     public void sendOutgoingMessageAsync(String chatId, String message) {
+        sendOutgoingMessageAsync(chatId, message, TelegramDeliveryScheduler.Priority.INFO);
+    }
+
+    /**
+     * Отправляет исходящее сообщение в Kafka с приоритетом доставки
+     * @param chatId ID чата
+     * @param message Текст сообщения
+     * @param priority Приоритет доставки в Telegram
+     */
+    public void sendOutgoingMessageAsync(String chatId, String message, TelegramDeliveryScheduler.Priority priority) {
         try {
             String messageId = UUID.randomUUID().toString();
             String maskedChatId = ChatIdMasker.maskChatId(chatId);
             
             // Создаем JSON с замаскированным chat_id для логирования
             String logMessage = String.format(
-                "{\"messageId\":\"%s\",\"chatId\":\"%s\",\"message\":\"%s\"}",
-                messageId, maskedChatId, message
+                "{\"messageId\":\"%s\",\"chatId\":\"%s\",\"priority\":\"%s\",\"message\":\"%s\"}",
+                messageId, maskedChatId, priority, message
             );
             
             // Создаем JSON с реальным chat_id для отправки
             String kafkaMessage = String.format(
-                "{\"messageId\":\"%s\",\"chatId\":\"%s\",\"message\":\"%s\"}",
-                messageId, chatId, message
+                "{\"messageId\":\"%s\",\"chatId\":\"%s\",\"priority\":\"%s\",\"message\":\"%s\"}",
+                messageId, chatId, priority, message
             );
             
             log.info("Sending outgoing message to Kafka: {}", logMessage);
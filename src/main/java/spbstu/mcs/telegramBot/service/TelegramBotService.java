@@ -7,9 +7,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Lazy;
 import org.springframework.stereotype.Service;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
-import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
 import org.telegram.telegrambots.meta.api.objects.Update;
-import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import spbstu.mcs.telegramBot.DB.services.UserService;
 import spbstu.mcs.telegramBot.model.User;
 import org.springframework.beans.factory.annotation.Value;
@@ -125,15 +123,13 @@ public class TelegramBotService extends TelegramLongPollingBot {
                     // Для других команд проверяем активность
                     if (isCommand && !user.isHasStarted()) {
                         log.info("User {} not activated, rejecting command {}", maskedChatId, command);
-                        // Отправляем сообщение об ошибке напрямую, не через Kafka
-                        SendMessage message = new SendMessage(chatId, "❌ Пожалуйста, начните работу с ботом командой /start");
+                        // Ответ уходит через Kafka и планировщик отправки с учетом лимитов Bot API
                         try {
-                            execute(message);
-                            log.info("Sent direct error message to user {}", maskedChatId);
-                        } catch (TelegramApiException e) {
-                            log.error("Error sending direct message to user {}: {}", maskedChatId, e.getMessage());
-                            // Пробуем через Kafka как резервный вариант
-                            kafkaProducer.sendOutgoingMessageAsync(chatId, "❌ Пожалуйста, начните работу с ботом командой /start");
+                            kafkaProducer.sendOutgoingMessageAsync(chatId, "❌ Пожалуйста, начните работу с ботом командой /start",
+                                    TelegramDeliveryScheduler.Priority.INFO);
+                            log.info("Queued /start reminder for user {}", maskedChatId);
+                        } catch (Exception e) {
+                            log.error("Error queueing /start reminder for user {}: {}", maskedChatId, e.getMessage());
                         }
                         return Mono.just(false); // Запрещаем дальнейшую обработку
                     }
@@ -221,6 +217,8 @@ public class TelegramBotService extends TelegramLongPollingBot {
     /**
      * Отправляет ответ пользователю.
      * Форматирует сообщение и отправляет его через Telegram API.
+     * Приоритет доставки берется из контекста Reactor
+     * ({@link TelegramDeliveryScheduler#priority}), по умолчанию — информационный.
      *
      * @param chatId ID чата
      * @param text Текст сообщения
@@ -229,14 +227,14 @@ public class TelegramBotService extends TelegramLongPollingBot {
     public Mono<Void> sendResponseAsync(String chatId, String text) {
         String maskedChatId = ChatIdMasker.maskChatId(chatId);
         logger.info("[SEND] Sending response to user: {} | text: {}", maskedChatId, text);
-        return Mono.fromRunnable(() -> {
+        return Mono.deferContextual(context -> Mono.fromRunnable(() -> {
             try {
-                kafkaProducer.sendOutgoingMessageAsync(chatId, text);
+                kafkaProducer.sendOutgoingMessageAsync(chatId, text, TelegramDeliveryScheduler.priorityOf(context));
                 logger.info("[SEND] Message sent to Kafka successfully for user: {}", maskedChatId);
             } catch (Exception e) {
                 logger.error("[SEND] Error sending message to Kafka for user {}: {}", maskedChatId, e.getMessage(), e);
             }
-        });
+        }));
     }
 
     public Mono<String> processKafkaMessage(String jsonMessage) {
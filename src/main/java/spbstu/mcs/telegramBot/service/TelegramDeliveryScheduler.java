@@ -0,0 +1,550 @@
+package spbstu.mcs.telegramBot.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import reactor.core.Disposable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+import spbstu.mcs.telegramBot.util.ChatIdMasker;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Планировщик отправки исходящих сообщений в Telegram с учетом лимитов Bot API.
+ *
+ * <p>Общая частота отправки ограничена ведром токенов ({@code telegram.delivery.per-second},
+ * емкость {@code telegram.delivery.burst}), а в один чат уходит не больше одного
+ * сообщения за {@code telegram.delivery.per-chat-interval-ms}. Сообщения чата
+ * отправляются по одному: следующее ждет завершения предыдущего, поэтому порядок
+ * внутри приоритета сохраняется.</p>
+ *
+ * <p>Среди чатов, которым уже можно писать, первыми обслуживаются те, где ждет
+ * алерт ({@link Priority#ALERT}), затем информационные ответы; внутри приоритета —
+ * в порядке поступления. Ответ 429 откладывает чат на {@code retry_after} секунд,
+ * сообщение при этом не теряется. Прочие ошибки сети и сервера повторяются
+ * до {@code telegram.delivery.max-attempts} раз, ошибки запроса (чат не найден,
+ * бот заблокирован) не повторяются.</p>
+ *
+ * <p>Сообщения, накопившиеся в очереди чата к моменту отправки, объединяются в одно
+ * (через пустую строку, не длиннее {@code telegram.delivery.coalesce.max-length}):
+ * при всплеске алертов пользователь получает одно сообщение вместо нескольких,
+ * а бот тратит один вызов API и один интервал чата. Первое сообщение чата
+ * задерживается на {@code telegram.delivery.coalesce.window-ms}, чтобы остальные
+ * сообщения всплеска успели к нему присоединиться.</p>
+ *
+ * <p>Приоритет задается в контексте Reactor при вызове
+ * {@link TelegramBotService#sendResponseAsync} через {@link #priority(Priority)}
+ * и передается через Kafka вместе с сообщением.</p>
+ */
+@Component
+public class TelegramDeliveryScheduler {
+    private static final Logger log = LoggerFactory.getLogger(TelegramDeliveryScheduler.class);
+    private static final String PRIORITY_KEY = TelegramDeliveryScheduler.class.getName() + ".priority";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final String SEPARATOR = "\n\n";
+
+    /**
+     * Приоритет сообщения.
+     */
+    public enum Priority {
+        ALERT,
+        INFO
+    }
+
+    /**
+     * Отправка одного сообщения в Telegram.
+     */
+    @FunctionalInterface
+    public interface Sender {
+        void send(String chatId, String text) throws TelegramApiException;
+    }
+
+    private static final class Delivery {
+        final String text;
+        final Priority priority;
+        final long enqueuedAt;
+        final long seq;
+        int attempts;
+
+        Delivery(String text, Priority priority, long enqueuedAt, long seq) {
+            this.text = text;
+            this.priority = priority;
+            this.enqueuedAt = enqueuedAt;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Сообщения чата, отправляемые одним вызовом.
+     */
+    private record Batch(Chat chat, List<Delivery> parts, String text) {}
+
+    private enum ChatState { DETACHED, READY, WAITING, IN_FLIGHT }
+
+    private static final class Chat {
+        final String chatId;
+        final Map<Priority, ArrayDeque<Delivery>> queues = new EnumMap<>(Priority.class);
+        ChatState state = ChatState.DETACHED;
+        long notBefore;
+        // Ключ в очереди готовых чатов, фиксируется при постановке в нее
+        int readyPriority;
+        long readySeq;
+
+        Chat(String chatId) {
+            this.chatId = chatId;
+            for (Priority priority : Priority.values()) {
+                queues.put(priority, new ArrayDeque<>());
+            }
+        }
+
+        Delivery head() {
+            for (ArrayDeque<Delivery> queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    return queue.peekFirst();
+                }
+            }
+            return null;
+        }
+
+        Delivery poll() {
+            for (ArrayDeque<Delivery> queue : queues.values()) {
+                if (!queue.isEmpty()) {
+                    return queue.pollFirst();
+                }
+            }
+            return null;
+        }
+
+        void rekey() {
+            Delivery head = head();
+            readyPriority = head.priority.ordinal();
+            readySeq = head.seq;
+        }
+    }
+
+    private final Sender sender;
+    private final double permitsPerSecond;
+    private final double burst;
+    private final long perChatIntervalMillis;
+    private final int maxAttempts;
+    private final int maxQueue;
+    private final boolean coalesce;
+    private final long coalesceWindowMillis;
+    private final int maxMessageLength;
+    private final ExecutorService sendPool;
+    private final Scheduler timer = Schedulers.parallel();
+
+    private final Map<String, Chat> chats = new HashMap<>();
+    private final TreeSet<Chat> ready = new TreeSet<>(Comparator
+            .comparingInt((Chat chat) -> chat.readyPriority)
+            .thenComparingLong(chat -> chat.readySeq));
+    private final PriorityQueue<Chat> waiting = new PriorityQueue<>(Comparator.comparingLong(chat -> chat.notBefore));
+    private final Map<Priority, Integer> queued = new EnumMap<>(Priority.class);
+    private int inFlight;
+    private long seq;
+    private double tokens;
+    private long refilledAt;
+    private Disposable pendingDrain;
+    private long drainDueAt;
+
+    private final Map<Priority, AtomicLong> sent = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> failed = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> rejected = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> lagMillis = new EnumMap<>(Priority.class);
+    private final Map<Priority, AtomicLong> maxLagMillis = new EnumMap<>(Priority.class);
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    @Autowired
+    public TelegramDeliveryScheduler(TelegramBotService botService,
+                                     @Value("${telegram.delivery.per-second:30}") double permitsPerSecond,
+                                     @Value("${telegram.delivery.burst:30}") int burst,
+                                     @Value("${telegram.delivery.per-chat-interval-ms:1000}") long perChatIntervalMillis,
+                                     @Value("${telegram.delivery.max-attempts:3}") int maxAttempts,
+                                     @Value("${telegram.delivery.max-queue:50000}") int maxQueue,
+                                     @Value("${telegram.delivery.senders:4}") int senders,
+                                     @Value("${telegram.delivery.coalesce.enabled:true}") boolean coalesce,
+                                     @Value("${telegram.delivery.coalesce.window-ms:500}") long coalesceWindowMillis,
+                                     @Value("${telegram.delivery.coalesce.max-length:4096}") int maxMessageLength) {
+        this((chatId, text) -> {
+            SendMessage message = new SendMessage();
+            message.setChatId(chatId);
+            message.setText(text);
+            botService.execute(message);
+        }, permitsPerSecond, burst, perChatIntervalMillis, maxAttempts, maxQueue, senders,
+                coalesce, coalesceWindowMillis, maxMessageLength);
+    }
+
+    /**
+     * Планировщик без объединения сообщений: каждое уходит отдельным вызовом.
+     */
+    public TelegramDeliveryScheduler(Sender sender, double permitsPerSecond, int burst, long perChatIntervalMillis,
+                                     int maxAttempts, int maxQueue, int senders) {
+        this(sender, permitsPerSecond, burst, perChatIntervalMillis, maxAttempts, maxQueue, senders, false, 0, 0);
+    }
+
+    public TelegramDeliveryScheduler(Sender sender, double permitsPerSecond, int burst, long perChatIntervalMillis,
+                                     int maxAttempts, int maxQueue, int senders,
+                                     boolean coalesce, long coalesceWindowMillis, int maxMessageLength) {
+        this.sender = sender;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.perChatIntervalMillis = perChatIntervalMillis;
+        this.maxAttempts = maxAttempts;
+        this.maxQueue = maxQueue;
+        this.coalesce = coalesce;
+        this.coalesceWindowMillis = coalesce ? coalesceWindowMillis : 0;
+        this.maxMessageLength = maxMessageLength;
+        this.sendPool = Executors.newFixedThreadPool(senders);
+        this.tokens = burst;
+        this.refilledAt = now();
+        for (Priority priority : Priority.values()) {
+            queued.put(priority, 0);
+            sent.put(priority, new AtomicLong());
+            failed.put(priority, new AtomicLong());
+            rejected.put(priority, new AtomicLong());
+            lagMillis.put(priority, new AtomicLong());
+            maxLagMillis.put(priority, new AtomicLong());
+        }
+    }
+
+    /**
+     * Возвращает модификатор контекста, задающий приоритет исходящих сообщений
+     * внутри цепочки: {@code .contextWrite(TelegramDeliveryScheduler.priority(Priority.ALERT))}.
+     *
+     * @param priority приоритет
+     * @return функция модификации контекста Reactor
+     */
+    public static Function<Context, Context> priority(Priority priority) {
+        return context -> context.put(PRIORITY_KEY, priority);
+    }
+
+    /**
+     * Читает приоритет из контекста; без него сообщение информационное.
+     *
+     * @param context контекст подписчика
+     * @return приоритет
+     */
+    public static Priority priorityOf(ContextView context) {
+        return context.getOrDefault(PRIORITY_KEY, Priority.INFO);
+    }
+
+    /**
+     * Ставит сообщение в очередь отправки.
+     *
+     * @param chatId ID чата
+     * @param text текст сообщения
+     * @param priority приоритет
+     * @return false, если очередь переполнена и сообщение отброшено
+     */
+    public boolean submit(String chatId, String text, Priority priority) {
+        synchronized (this) {
+            if (queuedTotal() >= maxQueue) {
+                rejected.get(priority).incrementAndGet();
+                log.warn("Delivery queue is full, dropping {} message for chatId: {}", priority, ChatIdMasker.maskChatId(chatId));
+                return false;
+            }
+            Chat chat = chats.computeIfAbsent(chatId, Chat::new);
+            long now = now();
+            Delivery delivery = new Delivery(text, priority, now, seq++);
+            if (chat.state == ChatState.READY) {
+                // Ключ чата в упорядоченном множестве меняется только через удаление
+                ready.remove(chat);
+                chat.queues.get(priority).addLast(delivery);
+                chat.rekey();
+                ready.add(chat);
+            } else {
+                chat.queues.get(priority).addLast(delivery);
+                if (chat.state == ChatState.DETACHED && coalesceWindowMillis > 0) {
+                    // Первое сообщение ждет остальные сообщения всплеска
+                    chat.notBefore = now + coalesceWindowMillis;
+                    chat.state = ChatState.WAITING;
+                    waiting.add(chat);
+                } else if (chat.state == ChatState.DETACHED) {
+                    chat.rekey();
+                    chat.state = ChatState.READY;
+                    ready.add(chat);
+                }
+            }
+            queued.merge(priority, 1, Integer::sum);
+            scheduleDrain();
+        }
+        return true;
+    }
+
+    /**
+     * @return true, если очередь отправки может принять еще одно сообщение
+     */
+    public synchronized boolean hasCapacity() {
+        return queuedTotal() < maxQueue;
+    }
+
+    /**
+     * Отправляет сообщения, для которых есть общий токен и истек интервал чата.
+     */
+    private void drain() {
+        List<Batch> dispatched = new ArrayList<>();
+        synchronized (this) {
+            pendingDrain = null;
+            long now = now();
+            refill(now);
+            promote(now);
+            while (tokens >= 1 && !ready.isEmpty()) {
+                Chat chat = ready.pollFirst();
+                Batch batch = takeBatch(chat);
+                chat.state = ChatState.IN_FLIGHT;
+                chat.notBefore = now + perChatIntervalMillis;
+                for (Delivery delivery : batch.parts()) {
+                    queued.merge(delivery.priority, -1, Integer::sum);
+                    delivery.attempts++;
+                }
+                inFlight++;
+                tokens -= 1;
+                dispatched.add(batch);
+            }
+            scheduleDrain();
+        }
+        // Запросы к Telegram выполняются вне блокировки
+        dispatched.forEach(batch -> sendPool.execute(() -> send(batch)));
+    }
+
+    /**
+     * Забирает из очереди чата первое сообщение и, если включено объединение,
+     * следующие за ним, пока общий текст помещается в одно сообщение Telegram.
+     */
+    private Batch takeBatch(Chat chat) {
+        Delivery first = chat.poll();
+        List<Delivery> parts = new ArrayList<>();
+        parts.add(first);
+        if (!coalesce) {
+            return new Batch(chat, parts, first.text);
+        }
+        StringBuilder text = new StringBuilder(first.text);
+        Delivery next;
+        while ((next = chat.head()) != null
+                && text.length() + SEPARATOR.length() + next.text.length() <= maxMessageLength) {
+            chat.poll();
+            parts.add(next);
+            text.append(SEPARATOR).append(next.text);
+        }
+        return new Batch(chat, parts, text.toString());
+    }
+
+    private void send(Batch batch) {
+        TelegramApiException error = null;
+        try {
+            sender.send(batch.chat().chatId, batch.text());
+        } catch (TelegramApiException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new TelegramApiException(e);
+        }
+        complete(batch, error);
+    }
+
+    private synchronized void complete(Batch batch, TelegramApiException error) {
+        inFlight--;
+        calls.incrementAndGet();
+        long now = now();
+        Chat chat = batch.chat();
+        String maskedChatId = ChatIdMasker.maskChatId(chat.chatId);
+        int attempts = batch.parts().stream().mapToInt(delivery -> delivery.attempts).max().orElse(0);
+        if (error == null) {
+            coalesced.addAndGet(batch.parts().size() - 1);
+            for (Delivery delivery : batch.parts()) {
+                long lag = now - delivery.enqueuedAt;
+                sent.get(delivery.priority).incrementAndGet();
+                lagMillis.get(delivery.priority).addAndGet(lag);
+                maxLagMillis.get(delivery.priority).accumulateAndGet(lag, Math::max);
+            }
+        } else if (retryAfterMillis(error) >= 0) {
+            rateLimited.incrementAndGet();
+            chat.notBefore = Math.max(chat.notBefore, now + retryAfterMillis(error));
+            requeue(batch);
+            log.warn("Telegram rate limit for chatId: {}, retrying in {} ms", maskedChatId, chat.notBefore - now);
+        } else if (isRetryable(error) && attempts < maxAttempts) {
+            retried.incrementAndGet();
+            chat.notBefore = Math.max(chat.notBefore, now + perChatIntervalMillis * attempts);
+            requeue(batch);
+            log.warn("Failed to deliver message to chatId: {} (attempt {}): {}", maskedChatId, attempts, error.getMessage());
+        } else {
+            batch.parts().forEach(delivery -> failed.get(delivery.priority).incrementAndGet());
+            log.error("Dropping {} message(s) to chatId: {} after {} attempts: {}",
+                    batch.parts().size(), maskedChatId, attempts, error.getMessage());
+        }
+        // Чат ждет в очереди и после опустошения: так соблюдается интервал до следующего сообщения
+        chat.state = ChatState.WAITING;
+        waiting.add(chat);
+        scheduleDrain();
+    }
+
+    /**
+     * Возвращает сообщения в начало очереди чата в исходном порядке.
+     */
+    private void requeue(Batch batch) {
+        List<Delivery> parts = batch.parts();
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            Delivery delivery = parts.get(i);
+            batch.chat().queues.get(delivery.priority).addFirst(delivery);
+            queued.merge(delivery.priority, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Переводит чаты с истекшим интервалом в очередь готовых, пустые забывает.
+     */
+    private void promote(long now) {
+        while (!waiting.isEmpty() && waiting.peek().notBefore <= now) {
+            Chat chat = waiting.poll();
+            if (chat.head() == null) {
+                chat.state = ChatState.DETACHED;
+                chats.remove(chat.chatId);
+            } else {
+                chat.rekey();
+                chat.state = ChatState.READY;
+                ready.add(chat);
+            }
+        }
+    }
+
+    /**
+     * Планирует следующий проход к ближайшему моменту, когда можно что-то отправить.
+     */
+    private void scheduleDrain() {
+        long now = now();
+        long dueAt;
+        if (!ready.isEmpty()) {
+            dueAt = now + (tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / permitsPerSecond * 1000));
+        } else if (!waiting.isEmpty()) {
+            dueAt = waiting.peek().notBefore;
+        } else {
+            return;
+        }
+        if (pendingDrain != null) {
+            if (drainDueAt <= dueAt) {
+                return;
+            }
+            pendingDrain.dispose();
+        }
+        drainDueAt = dueAt;
+        pendingDrain = timer.schedule(this::drain, Math.max(0, dueAt - now), TimeUnit.MILLISECONDS);
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - refilledAt) / 1000.0 * permitsPerSecond);
+        refilledAt = now;
+    }
+
+    private static long retryAfterMillis(TelegramApiException error) {
+        if (error instanceof TelegramApiRequestException request
+                && request.getErrorCode() != null && request.getErrorCode() == TOO_MANY_REQUESTS) {
+            Integer retryAfter = request.getParameters() != null ? request.getParameters().getRetryAfter() : null;
+            return TimeUnit.SECONDS.toMillis(retryAfter != null ? retryAfter : 1);
+        }
+        return -1;
+    }
+
+    /**
+     * Ошибки запроса (4xx) не исправятся повтором, ошибки сети и сервера — могут.
+     */
+    private static boolean isRetryable(TelegramApiException error) {
+        if (error instanceof TelegramApiRequestException request && request.getErrorCode() != null) {
+            return request.getErrorCode() >= 500;
+        }
+        return true;
+    }
+
+    private int queuedTotal() {
+        int total = 0;
+        for (int count : queued.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        synchronized (this) {
+            if (pendingDrain != null) {
+                pendingDrain.dispose();
+                pendingDrain = null;
+            }
+        }
+        sendPool.shutdown();
+    }
+
+    /**
+     * Возвращает глубину очередей и задержку доставки по приоритетам.
+     *
+     * @return Map со статистикой
+     */
+    public synchronized Map<String, Object> getStats() {
+        long now = now();
+        refill(now);
+        Map<Priority, Long> oldest = new EnumMap<>(Priority.class);
+        for (Chat chat : chats.values()) {
+            chat.queues.forEach((priority, queue) -> {
+                if (!queue.isEmpty()) {
+                    oldest.merge(priority, queue.peekFirst().enqueuedAt, Math::min);
+                }
+            });
+        }
+        Map<String, Object> priorities = new LinkedHashMap<>();
+        for (Priority priority : Priority.values()) {
+            long sentCount = sent.get(priority).get();
+            Map<String, Object> priorityStats = new LinkedHashMap<>();
+            priorityStats.put("queued", queued.get(priority));
+            priorityStats.put("oldestQueuedMs", oldest.containsKey(priority) ? now - oldest.get(priority) : 0);
+            priorityStats.put("sent", sentCount);
+            priorityStats.put("failed", failed.get(priority).get());
+            priorityStats.put("rejected", rejected.get(priority).get());
+            priorityStats.put("avgLagMs", sentCount == 0 ? 0 : lagMillis.get(priority).get() / sentCount);
+            priorityStats.put("maxLagMs", maxLagMillis.get(priority).get());
+            priorities.put(priority.name().toLowerCase(), priorityStats);
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("permitsPerSecond", permitsPerSecond);
+        stats.put("perChatIntervalMs", perChatIntervalMillis);
+        stats.put("tokens", Math.floor(tokens * 100) / 100);
+        stats.put("queueDepth", queuedTotal());
+        stats.put("inFlight", inFlight);
+        stats.put("chats", chats.size());
+        stats.put("rateLimited", rateLimited.get());
+        stats.put("retried", retried.get());
+        stats.put("coalescing", coalesce);
+        stats.put("calls", calls.get());
+        stats.put("coalesced", coalesced.get());
+        stats.put("priorities", priorities);
+        return stats;
+    }
+}
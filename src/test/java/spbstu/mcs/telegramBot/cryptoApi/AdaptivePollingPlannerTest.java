@@ -0,0 +1,108 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Тесты плана опроса биржи по криптовалютам
+ */
+@RunWith(JUnit4.class)
+public class AdaptivePollingPlannerTest {
+    private static final List<Crypto> ALL = Arrays.asList(Crypto.values());
+
+    @SuppressWarnings("unchecked")
+    private static long intervalOf(AdaptivePollingPlanner planner, Crypto crypto) {
+        Map<String, Object> symbols = (Map<String, Object>) planner.getStats().get("symbols");
+        return (Long) ((Map<String, Object>) symbols.get(crypto.getCode())).get("intervalMs");
+    }
+
+    /**
+     * Криптовалюта с близкой границей при высокой волатильности опрашивается часто,
+     * криптовалюты без алертов — с максимальным интервалом
+     */
+    @Test
+    public void testCloseThresholdIsPolledMoreOftenThanQuietSymbols() {
+        AdaptivePollingPlanner planner = new AdaptivePollingPlanner(true, 10000, 2000, 300000);
+        // Колебания около 1% за 10 секунд
+        planner.onQuote(Crypto.BTC, new BigDecimal("50000"), 0);
+        planner.onQuote(Crypto.BTC, new BigDecimal("50500"), 10000);
+        planner.reportThresholdGap(Crypto.BTC, 0.02);
+
+        List<Crypto> due = planner.due(ALL, 20000);
+
+        assertEquals(ALL, due);
+        long btcInterval = intervalOf(planner, Crypto.BTC);
+        assertTrue(btcInterval >= 2000 && btcInterval < 10000);
+        assertEquals(300000, intervalOf(planner, Crypto.ETH));
+        assertEquals(0L, planner.getStats().get("budgetThrottles"));
+        // По истечении интервала снова опрашивается только BTC
+        assertEquals(List.of(Crypto.BTC), planner.due(ALL, 20000 + btcInterval));
+    }
+
+    /**
+     * Если желаемые интервалы требуют больше запросов, чем равномерный опрос,
+     * все интервалы растягиваются до бюджета
+     */
+    @Test
+    public void testIntervalsAreStretchedToRequestBudget() {
+        AdaptivePollingPlanner planner = new AdaptivePollingPlanner(true, 10000, 1000, 300000);
+        for (Crypto crypto : ALL) {
+            planner.onQuote(crypto, new BigDecimal("100"), 0);
+            planner.onQuote(crypto, new BigDecimal("110"), 1000);
+            planner.reportThresholdGap(crypto, 0.001);
+        }
+
+        planner.due(ALL, 2000);
+
+        double pollsPerMinute = (Double) planner.getStats().get("pollsPerMinute");
+        double budgetPerMinute = (Double) planner.getStats().get("budgetPerMinute");
+        assertTrue(pollsPerMinute <= budgetPerMinute + 0.1);
+        assertEquals(1L, planner.getStats().get("budgetThrottles"));
+    }
+
+    /**
+     * Новая граница уменьшает известное расстояние, но не увеличивает его
+     */
+    @Test
+    public void testNarrowThresholdGapKeepsCloserThreshold() {
+        AdaptivePollingPlanner planner = new AdaptivePollingPlanner(true, 10000, 2000, 300000);
+        planner.onQuote(Crypto.BTC, new BigDecimal("50000"), 0);
+        planner.onQuote(Crypto.BTC, new BigDecimal("50500"), 10000);
+        planner.due(ALL, 20000);
+        assertEquals(300000, intervalOf(planner, Crypto.BTC));
+
+        planner.narrowThresholdGap(Crypto.BTC, 0.02);
+        planner.due(ALL, 20000);
+        long narrowed = intervalOf(planner, Crypto.BTC);
+        assertTrue(narrowed < 10000);
+
+        planner.narrowThresholdGap(Crypto.BTC, 0.5);
+        planner.due(ALL, 20000);
+        assertEquals(narrowed, intervalOf(planner, Crypto.BTC));
+    }
+
+    /**
+     * Без адаптивного режима все криптовалюты опрашиваются с базовым интервалом
+     */
+    @Test
+    public void testFixedIntervalWhenAdaptiveDisabled() {
+        AdaptivePollingPlanner planner = new AdaptivePollingPlanner();
+        planner.reportThresholdGap(Crypto.BTC, 0.0001);
+
+        assertEquals(ALL, planner.due(ALL, 10000));
+        assertTrue(planner.due(ALL, 15000).isEmpty());
+        assertEquals(ALL, planner.due(ALL, 20000));
+        assertEquals(10000, intervalOf(planner, Crypto.BTC));
+    }
+}
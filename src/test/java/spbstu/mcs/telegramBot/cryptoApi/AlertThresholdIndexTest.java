@@ -0,0 +1,162 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.DB.services.AlertThresholdIndex;
+import spbstu.mcs.telegramBot.model.Currency;
+import spbstu.mcs.telegramBot.model.FixedPoint;
+import spbstu.mcs.telegramBot.model.Notification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Тесты индекса порогов алертов
+ */
+@RunWith(JUnit4.class)
+public class AlertThresholdIndexTest {
+    private static final AlertThresholdIndex.Key BTC_USD =
+        new AlertThresholdIndex.Key(Currency.Crypto.BTC, Currency.Fiat.USD);
+
+    private static Notification valueAlert(String id, String chatId, double upper, double lower) {
+        return new Notification(id, Currency.Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, chatId, upper, lower, (upper + lower) / 2);
+    }
+
+    private static long minor(double price) {
+        return FixedPoint.toMinor(price);
+    }
+
+    private static List<String> ids(List<Notification> notifications) {
+        return notifications.stream().map(Notification::getId).sorted().toList();
+    }
+
+    /**
+     * Для цены возвращаются только алерты с пересеченной границей и EMA-алерты
+     */
+    @Test
+    public void testCandidatesContainOnlyCrossedThresholds() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        List<Notification> alerts = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            alerts.add(valueAlert("v" + i, "1", 50000 + i * 100, 40000 - i * 100));
+        }
+        Notification ema = new Notification("ema", Currency.Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.EMA, false, "1", null, null, 45000.0);
+        alerts.add(ema);
+        index.reload(alerts);
+
+        assertEquals(List.of("ema"), ids(index.candidates(BTC_USD, minor(45000))));
+        // Верхние границы 50000, 50100, 50200 не выше цены
+        assertEquals(List.of("ema", "v0", "v1", "v2"), ids(index.candidates(BTC_USD, minor(50200))));
+        // Нижняя граница 40000 не ниже цены
+        assertEquals(List.of("ema", "v0"), ids(index.candidates(BTC_USD, minor(40000))));
+        assertTrue(index.candidates(new AlertThresholdIndex.Key(Currency.Crypto.ETH, Currency.Fiat.USD), minor(1)).isEmpty());
+    }
+
+    /**
+     * Сработавшие и удаленные алерты исключаются из индекса, обновленные границы применяются
+     */
+    @Test
+    public void testIndexFollowsUpdatesAndDeletes() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        index.reload(List.of(valueAlert("a", "1", 100, 50), valueAlert("b", "1", 100, 50), valueAlert("c", "2", 100, 50)));
+
+        Notification triggered = valueAlert("a", "1", 100, 50);
+        triggered.setIsActive(false);
+        index.put(triggered);
+        assertEquals(List.of("b", "c"), ids(index.candidates(BTC_USD, minor(120))));
+
+        index.put(valueAlert("b", "1", 200, 50));
+        assertEquals(List.of("c"), ids(index.candidates(BTC_USD, minor(120))));
+
+        index.removeIf(notification -> "2".equals(notification.getChatId()));
+        assertTrue(index.candidates(BTC_USD, minor(120)).isEmpty());
+        assertEquals(1, index.size());
+
+        index.remove("b");
+        assertEquals(0, index.size());
+        assertTrue(index.keys().isEmpty());
+    }
+
+    /**
+     * Изменения во время загрузки из базы не теряются при замене содержимого индекса
+     */
+    @Test
+    public void testChangesDuringReloadAreKept() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        index.reload(List.of(valueAlert("old", "1", 100, 50)));
+
+        AlertThresholdIndex.Reload reload = index.beginReload();
+        reload.add(valueAlert("a", "1", 100, 50));
+        // Пока курсор читается, пользователь удаляет "b" и создает "c"
+        index.remove("b");
+        index.put(valueAlert("c", "1", 100, 50));
+        reload.add(valueAlert("b", "1", 100, 50));
+        // До завершения загрузки проверка идет по прежнему содержимому
+        assertEquals(List.of("c", "old"), ids(index.candidates(BTC_USD, minor(120))));
+
+        reload.commit();
+        assertEquals(List.of("a", "c"), ids(index.candidates(BTC_USD, minor(120))));
+        assertEquals(false, index.getStats().get("reloading"));
+    }
+
+    /**
+     * Удаление по условию во время загрузки не возвращает алерты после завершения загрузки
+     */
+    @Test
+    public void testRemoveIfDuringReloadIsKept() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        index.reload(List.of(valueAlert("old", "2", 100, 50)));
+
+        AlertThresholdIndex.Reload reload = index.beginReload();
+        // Границы добавляются не по порядку, массивы загрузки еще не отсортированы
+        reload.add(valueAlert("a", "2", 300, 50));
+        reload.add(valueAlert("b", "2", 100, 50));
+        reload.add(valueAlert("c", "2", 200, 50));
+        index.removeIf(notification -> "2".equals(notification.getChatId()));
+        // Документ, прочитанный курсором до удаления, не возвращается
+        reload.add(valueAlert("b", "2", 100, 50));
+        reload.commit();
+
+        assertTrue(index.crossed(BTC_USD, minor(400)).isEmpty());
+        assertEquals(0, index.size());
+    }
+
+    /**
+     * Пороги хранятся в сотых долях без потерь, в том числе для значений, неточных в double
+     */
+    @Test
+    public void testThresholdsAreExactMinorUnits() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        Notification alert = valueAlert("a", "1", 0.3, 0.1);
+        index.reload(List.of(alert));
+
+        AlertThresholdIndex.Thresholds thresholds = index.thresholdsOf(alert);
+        assertEquals(30, thresholds.upper());
+        assertEquals(10, thresholds.lower());
+        // Цена ровно на границе считается пересечением, как при сравнении BigDecimal
+        assertEquals(List.of("a"), ids(index.candidates(BTC_USD, minor(0.3))));
+        assertTrue(index.candidates(BTC_USD, minor(0.29)).isEmpty());
+    }
+
+    /**
+     * Расстояние до ближайшей непересеченной границы считается по обеим сторонам цены
+     */
+    @Test
+    public void testDistanceToNearestThreshold() {
+        AlertThresholdIndex index = new AlertThresholdIndex();
+        index.reload(List.of(valueAlert("a", "1", 110, 50), valueAlert("b", "1", 200, 95)));
+
+        assertEquals(minor(5), index.distanceToNearest(BTC_USD, minor(100)));
+        // Нижняя граница 95 уже пересечена, ближайшая — верхняя 110
+        assertEquals(minor(20), index.distanceToNearest(BTC_USD, minor(90)));
+        assertEquals(Long.MAX_VALUE,
+            index.distanceToNearest(new AlertThresholdIndex.Key(Currency.Crypto.ETH, Currency.Fiat.USD), minor(100)));
+    }
+}
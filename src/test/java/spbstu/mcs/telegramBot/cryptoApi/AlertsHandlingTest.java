@@ -12,8 +12,17 @@ import org.junit.runners.JUnit4;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import spbstu.mcs.telegramBot.DB.repositories.NotificationRepository;
+import spbstu.mcs.telegramBot.DB.repositories.UserRepository;
+import spbstu.mcs.telegramBot.DB.services.AlertThresholdIndex;
+import spbstu.mcs.telegramBot.DB.services.AlertShardLeases;
+import spbstu.mcs.telegramBot.DB.services.EmaEngine;
 import spbstu.mcs.telegramBot.DB.services.NotificationService;
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
 import spbstu.mcs.telegramBot.DB.services.UserService;
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
 import spbstu.mcs.telegramBot.model.Notification;
@@ -21,11 +30,17 @@ import spbstu.mcs.telegramBot.model.User;
 import spbstu.mcs.telegramBot.service.AlertsHandling;
 import spbstu.mcs.telegramBot.service.TelegramBotService;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.*;
@@ -42,10 +57,19 @@ public class AlertsHandlingTest {
     private ObjectMapper objectMapper;
     private CurrencyConverter currencyConverter;
     private PriceFetcher priceFetcher;
+    private MarketDataService marketDataService;
     private ObjectNode objectNode;
     private ArrayNode arrayNode;
     private JsonNode jsonNode;
     
+    private AlertThresholdIndex alertIndex;
+    private AlertShardLeases shardLeases;
+    private SchedulerLeases schedulerLeases;
+    private EmaEngine emaEngine;
+    private CandleRangeTracker rangeTracker;
+    private long sweepBudgetMillis;
+    private long sweepIntervalMillis;
+
     private AlertsHandling alertsHandling;
     
     private static final String TEST_CHAT_ID = "123456789";
@@ -61,19 +85,42 @@ public class AlertsHandlingTest {
         objectNode = mock(ObjectNode.class);
         arrayNode = mock(ArrayNode.class);
         jsonNode = mock(JsonNode.class);
+        marketDataService = new MarketDataService(priceFetcher, 30000, 3, new AdaptivePollingPlanner());
+        alertIndex = new AlertThresholdIndex();
+        shardLeases = new AlertShardLeases(null, false, 1, 30000);
+        schedulerLeases = new SchedulerLeases(null, false, 30000);
+        emaEngine = new EmaEngine();
+        rangeTracker = new CandleRangeTracker(priceFetcher, false, 0);
+        sweepBudgetMillis = 240000;
+        sweepIntervalMillis = 300000;
         
         // Настройка ObjectMapper
         when(objectMapper.createObjectNode()).thenReturn(objectNode);
         when(objectNode.putArray(anyString())).thenReturn(arrayNode);
         when(objectNode.put(anyString(), anyString())).thenReturn(objectNode);
         
-        alertsHandling = new AlertsHandling(
+        alertsHandling = newAlertsHandling();
+    }
+
+    /**
+     * Создает сервис на текущих заглушках теста
+     */
+    private AlertsHandling newAlertsHandling() {
+        return new AlertsHandling(
             objectMapper,
             currencyConverter,
             priceFetcher,
+            marketDataService,
             telegramBotService,
             notificationService,
-            userService
+            userService,
+            alertIndex,
+            shardLeases,
+            schedulerLeases,
+            emaEngine,
+            rangeTracker,
+            sweepBudgetMillis,
+            sweepIntervalMillis
         );
     }
     
@@ -89,23 +136,17 @@ public class AlertsHandlingTest {
         BigDecimal maxPrice = new BigDecimal("55000");
         BigDecimal minPrice = new BigDecimal("45000");
         
-        // Имитация JSON ответа от getCurrentPrice
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"49000\",\"timestamp\":1234567890}";
+        // Котировка, возвращаемая getCurrentQuote
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("49000"), 1234567890L);
         
-        // Настройка мока для getCurrentPrice
-        when(priceFetcher.getCurrentPrice(crypto))
-            .thenReturn(Mono.just(priceJson));
+        // Настройка мока для getCurrentQuote
+        when(priceFetcher.getCurrentQuote(crypto))
+            .thenReturn(Mono.just(priceQuote));
         
         // Настройка мока для getUsdToFiatRate
         when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class)))
             .thenReturn(Mono.just(BigDecimal.ONE)); // Коэффициент 1.0 для USD
         
-        // Настройка мока для чтения JSON
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.get("timestamp")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("49000");
-        when(jsonNode.asLong()).thenReturn(1234567890L);
         
         // Настройка мока для getAllUserAlerts
         when(notificationService.getAllUserAlerts(chatId))
@@ -143,11 +184,43 @@ public class AlertsHandlingTest {
             .verifyComplete();
         
         // Проверка вызовов
-        verify(priceFetcher).getCurrentPrice(crypto);
+        verify(priceFetcher).getCurrentQuote(crypto);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
         verify(notificationService).createUserNotification(any(Notification.class));
     }
 
+    /**
+     * Тест метода setAlertVal: новая граница сразу передается в план опроса
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSetAlertReportsThresholdGapToPollingPlanner() {
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("49000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class))).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.getAllUserAlerts(TEST_CHAT_ID)).thenReturn(Flux.empty());
+        User testUser = new User();
+        testUser.setChatId(TEST_CHAT_ID);
+        testUser.setCurrentFiat(Currency.Fiat.USD.getCode());
+        when(userService.getUserByChatId(TEST_CHAT_ID)).thenReturn(Mono.just(testUser));
+        // Сохранение добавляет алерт в индекс, как NotificationService
+        when(notificationService.createUserNotification(any(Notification.class))).thenAnswer(invocation -> {
+            Notification saved = invocation.getArgument(0);
+            saved.setId("new");
+            alertIndex.put(saved);
+            return Mono.just(saved);
+        });
+
+        StepVerifier.create(alertsHandling.setAlertVal(Crypto.BTC, new BigDecimal("55000"), new BigDecimal("48000"), TEST_CHAT_ID))
+            .expectNextMatches(response -> response.contains("Алерт установлен"))
+            .verifyComplete();
+
+        Map<String, Object> polling = (Map<String, Object>) marketDataService.getStats().get("polling");
+        Map<String, Object> btc = (Map<String, Object>) ((Map<String, Object>) polling.get("symbols")).get(Crypto.BTC.getCode());
+        // Ближайшая граница — нижняя, в 1000 от цены
+        assertEquals(1000.0 / 49000, (Double) btc.get("thresholdGap"), 1e-9);
+    }
+
     /**
      * Тест метода setAlertPerc
      */
@@ -159,23 +232,17 @@ public class AlertsHandlingTest {
         BigDecimal upPercent = new BigDecimal("5.0");
         BigDecimal downPercent = new BigDecimal("3.0");
         
-        // Имитация JSON ответа от getCurrentPrice
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
+        // Котировка, возвращаемая getCurrentQuote
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
         
-        // Настройка мока для getCurrentPrice
-        when(priceFetcher.getCurrentPrice(crypto))
-            .thenReturn(Mono.just(priceJson));
+        // Настройка мока для getCurrentQuote
+        when(priceFetcher.getCurrentQuote(crypto))
+            .thenReturn(Mono.just(priceQuote));
         
         // Настройка мока для getUsdToFiatRate
         when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class)))
             .thenReturn(Mono.just(BigDecimal.ONE)); // Коэффициент 1.0 для USD
         
-        // Настройка мока для чтения JSON
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.get("timestamp")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("50000");
-        when(jsonNode.asLong()).thenReturn(1234567890L);
         
         // Настройка мока для getAllUserAlerts
         when(notificationService.getAllUserAlerts(chatId))
@@ -216,7 +283,7 @@ public class AlertsHandlingTest {
             .verifyComplete();
         
         // Проверка вызовов
-        verify(priceFetcher).getCurrentPrice(crypto);
+        verify(priceFetcher).getCurrentQuote(crypto);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
         verify(notificationService).createUserNotification(any(Notification.class));
     }
@@ -230,20 +297,25 @@ public class AlertsHandlingTest {
         String chatId = TEST_CHAT_ID;
         Crypto crypto = Crypto.BTC;
         
-        // Имитация JSON ответа от getCurrentPrice
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
+        // Котировка, возвращаемая getCurrentQuote
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
         List<Mono<BigDecimal>> priceMonos = new ArrayList<>();
         for (int i = 0; i < 20; i++) {
             priceMonos.add(Mono.just(new BigDecimal("50000")));
         }
         
-        // Настройка мока для getCurrentPrice
-        when(priceFetcher.getCurrentPrice(crypto))
-            .thenReturn(Mono.just(priceJson));
+        // Настройка мока для getCurrentQuote
+        when(priceFetcher.getCurrentQuote(crypto))
+            .thenReturn(Mono.just(priceQuote));
         
-        // Настройка мока для getSymbolPriceByTime
-        when(priceFetcher.getSymbolPriceByTime(eq(crypto), anyLong()))
-            .thenReturn(Mono.just("{\"price\":\"50000\"}"));
+        // Настройка мока для getKlines - 20 дневных свечей
+        List<Candle> dailyCandles = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            BigDecimal price = new BigDecimal("50000");
+            dailyCandles.add(new Candle(crypto, Candle.INTERVAL_1D, i * 86400000L, price, price, price, price, BigDecimal.ONE));
+        }
+        when(priceFetcher.getKlines(eq(crypto), eq(Candle.INTERVAL_1D), anyLong(), anyLong()))
+            .thenReturn(Flux.fromIterable(dailyCandles));
         
         // Настройка мока для parsePrice
         when(priceFetcher.getCryptoPrice(any(Crypto.class)))
@@ -299,7 +371,7 @@ public class AlertsHandlingTest {
             .verifyComplete();
         
         // Проверка вызовов
-        verify(priceFetcher).getCurrentPrice(crypto);
+        verify(priceFetcher).getCurrentQuote(crypto);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
         verify(notificationService).createUserNotification(any(Notification.class));
     }
@@ -500,26 +572,20 @@ public class AlertsHandlingTest {
         when(notificationService.getAllActiveAlerts())
             .thenReturn(Flux.fromIterable(Arrays.asList(valueAlert, percentAlert, emaAlert)));
         
-        // Мокируем ответы JSON для getCurrentPrice вместо getCryptoPrice
-        // Создаем JSON с ценами выше порогов для срабатывания
-        String btcPriceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"51000\",\"timestamp\":1234567890}";
-        String ethPriceJson = "{\"symbol\":\"ETH-USDT\",\"price\":\"3200\",\"timestamp\":1234567890}";
-        String xrpPriceJson = "{\"symbol\":\"XRP-USDT\",\"price\":\"0.6\",\"timestamp\":1234567890}";
+        // Мокируем котировки getCurrentQuote вместо getCryptoPrice
+        // Цены выше порогов для срабатывания
+        PriceQuote btcQuote = new PriceQuote("BTC-USDT", new BigDecimal("51000"), 1234567890L);
+        PriceQuote ethQuote = new PriceQuote("ETH-USDT", new BigDecimal("3200"), 1234567890L);
+        PriceQuote xrpQuote = new PriceQuote("XRP-USDT", new BigDecimal("0.6"), 1234567890L);
             
-        // Настройка мока для getCurrentPrice
-        when(priceFetcher.getCurrentPrice(Crypto.BTC))
-            .thenReturn(Mono.just(btcPriceJson));
-        when(priceFetcher.getCurrentPrice(Crypto.ETH))
-            .thenReturn(Mono.just(ethPriceJson));
-        when(priceFetcher.getCurrentPrice(Crypto.XRP))
-            .thenReturn(Mono.just(xrpPriceJson));
+        // Настройка мока для getCurrentQuote
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(btcQuote));
+        when(priceFetcher.getCurrentQuote(Crypto.ETH))
+            .thenReturn(Mono.just(ethQuote));
+        when(priceFetcher.getCurrentQuote(Crypto.XRP))
+            .thenReturn(Mono.just(xrpQuote));
             
-        // Мокируем чтение JSON
-        when(objectMapper.readTree(btcPriceJson)).thenReturn(jsonNode);
-        when(objectMapper.readTree(ethPriceJson)).thenReturn(jsonNode);
-        when(objectMapper.readTree(xrpPriceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("51000", "3200", "0.6");
 
         // Мокируем получение пользователя
         User testUser = new User();
@@ -542,6 +608,474 @@ public class AlertsHandlingTest {
         verify(notificationService).getAllActiveAlerts();
         
         // Проверка вызовов - получение текущих цен
-        verify(priceFetcher, atLeastOnce()).getCurrentPrice(any(Crypto.class));
+        verify(priceFetcher, atLeastOnce()).getCurrentQuote(any(Crypto.class));
+    }
+
+    /**
+     * Тест группировки алертов: цена и курс запрашиваются один раз на пару (криптовалюта, фиат)
+     */
+    @Test
+    public void testCheckAlertsResolvesPriceOncePerGroup() {
+        List<Notification> alerts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            alerts.add(new Notification("usd" + i, Crypto.BTC, Currency.Fiat.USD,
+                Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 60000.0 + i, 40000.0, 50000.0));
+        }
+        alerts.add(new Notification("eur", Crypto.BTC, Currency.Fiat.EUR,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 40000.0, 30000.0, 45000.0));
+        alerts.add(new Notification("eth", Crypto.ETH, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 4000.0, 2000.0, 3000.0));
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.fromIterable(alerts));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L)));
+        when(priceFetcher.getCurrentQuote(Crypto.ETH))
+            .thenReturn(Mono.just(new PriceQuote("ETH-USDT", new BigDecimal("3000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.EUR)).thenReturn(Mono.just(new BigDecimal("0.9")));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(eq(TEST_CHAT_ID), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        // 7 алертов в 3 группах: 2 котировки и 2 курса вместо 14 запросов
+        verify(priceFetcher, times(1)).getCurrentQuote(Crypto.BTC);
+        verify(priceFetcher, times(1)).getCurrentQuote(Crypto.ETH);
+        verify(currencyConverter, times(1)).getUsdToFiatRate(Currency.Fiat.USD);
+        verify(currencyConverter, times(1)).getUsdToFiatRate(Currency.Fiat.EUR);
+
+        // Сработал только алерт в EUR: 50000 * 0.9 = 45000 выше верхней границы 40000
+        verify(telegramBotService, times(1)).sendResponseAsync(eq(TEST_CHAT_ID), contains("BTC"));
+
+        Map<String, Object> stats = alertsHandling.getStats();
+        assertEquals(1L, stats.get("cycles"));
+        assertEquals(7L, stats.get("lastCycleAlerts"));
+        assertEquals(3L, stats.get("lastCycleGroups"));
+        assertEquals(4L, stats.get("lastCycleExternalCalls"));
+        // Из индекса порогов проверяется только пересеченный алерт
+        assertEquals(1L, stats.get("lastCycleCandidates"));
+        assertEquals(1L, stats.get("alertsTriggered"));
+    }
+
+    /**
+     * Тест проверки по котировкам: алерт срабатывает по новой цене без плановой проверки
+     */
+    @Test
+    public void testPriceTickTriggersAlert() {
+        Notification alert = new Notification("tick", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(alert));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(eq(TEST_CHAT_ID), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.startTickEvaluation();
+        try {
+            marketDataService.applyStreamQuote(Crypto.BTC, new PriceQuote("BTC-USDT", new BigDecimal("45000"), 1L));
+            marketDataService.applyStreamQuote(Crypto.ETH, new PriceQuote("ETH-USDT", new BigDecimal("60000"), 1L));
+            marketDataService.applyStreamQuote(Crypto.BTC, new PriceQuote("BTC-USDT", new BigDecimal("50500"), 2L));
+
+            verify(telegramBotService, timeout(2000).times(1))
+                .sendResponseAsync(eq(TEST_CHAT_ID), contains("превысила верхнюю границу"));
+            verify(priceFetcher, never()).getCurrentQuote(any(Crypto.class));
+            assertEquals(Long.valueOf(2L), alert.getTriggerTimestamp());
+        } finally {
+            alertsHandling.stopTickEvaluation();
+        }
+    }
+
+    /**
+     * Тест пакетной записи: изменения цикла записываются одним вызовом,
+     * алерт с ошибкой записи не уведомляется и снова становится активным
+     */
+    @Test
+    public void testCheckAlertsPersistsChangesInOneBulkWrite() {
+        Notification saved = new Notification("saved", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        Notification failed = new Notification("failed", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, "987654321", 50000.0, 40000.0, 45000.0);
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(saved, failed));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("51000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenReturn(Mono.just(
+            new NotificationService.BulkSaveResult(List.of(saved), Map.of("failed", "write concern error"))));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        verify(notificationService, times(1)).saveAlertStates(argThat(notifications -> notifications.size() == 2));
+        verify(notificationService, never()).save(any(Notification.class));
+        verify(telegramBotService, times(1)).sendResponseAsync(eq(TEST_CHAT_ID), anyString());
+        verify(telegramBotService, never()).sendResponseAsync(eq("987654321"), anyString());
+
+        assertEquals(false, saved.isActive());
+        assertEquals(true, failed.isActive());
+        Map<String, Object> stats = alertsHandling.getStats();
+        assertEquals(1L, stats.get("alertsTriggered"));
+        assertEquals(1L, stats.get("stateWriteFailures"));
+    }
+
+    /**
+     * Тест шардирования: экземпляр проверяет только алерты арендованных им шардов
+     */
+    @Test
+    public void testCheckAlertsSkipsAlertsOfOtherShards() {
+        Notification own = new Notification("own", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        Notification foreign = new Notification("foreign", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, "987654321", 50000.0, 40000.0, 45000.0);
+        shardLeases = mock(AlertShardLeases.class);
+        when(shardLeases.owns(any(Notification.class)))
+            .thenAnswer(invocation -> "own".equals(((Notification) invocation.getArgument(0)).getId()));
+        // Чужой алерт мог попасть в индекс при создании через этот экземпляр
+        when(shardLeases.holds(any(Notification.class))).thenReturn(true);
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(own, foreign));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("51000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        verify(notificationService, times(1)).saveAlertStates(argThat(notifications -> notifications.size() == 1));
+        verify(telegramBotService, times(1)).sendResponseAsync(eq(TEST_CHAT_ID), anyString());
+        verify(telegramBotService, never()).sendResponseAsync(eq("987654321"), anyString());
+        assertEquals(false, own.isActive());
+        assertEquals(true, foreign.isActive());
+    }
+
+    /**
+     * Тест шардирования: в индекс загружаются только алерты своих шардов, а для групп
+     * без своих алертов цены, курсы и свечи не запрашиваются
+     */
+    @Test
+    public void testCheckAlertsSkipsGroupsWithoutOwnedAlerts() {
+        Notification own = new Notification("own", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 60000.0, 40000.0, 45000.0);
+        Notification foreignLoaded = new Notification("foreign-loaded", Crypto.ETH, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, "987654321", 4000.0, 2000.0, 3000.0);
+        Notification foreignIndexed = new Notification("foreign-indexed", Crypto.SOL, Currency.Fiat.EUR,
+            Notification.ThresholdType.VALUE, true, "987654321", 400.0, 100.0, 200.0);
+        shardLeases = mock(AlertShardLeases.class);
+        when(shardLeases.owns(any(Notification.class)))
+            .thenAnswer(invocation -> "own".equals(((Notification) invocation.getArgument(0)).getId()));
+        when(shardLeases.holds(any(Notification.class)))
+            .thenAnswer(invocation -> "own".equals(((Notification) invocation.getArgument(0)).getId()));
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(own, foreignLoaded));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+
+        alertsHandling.checkAlerts();
+        assertEquals(1, alertIndex.size());
+
+        // Алерт чужого шарда, созданный через этот экземпляр, попадает в индекс
+        alertIndex.put(foreignIndexed);
+        alertsHandling.checkAlerts();
+
+        assertEquals(2, alertIndex.size());
+        assertEquals(1L, alertsHandling.getStats().get("lastCycleGroups"));
+        verify(priceFetcher, never()).getCurrentQuote(Crypto.ETH);
+        verify(priceFetcher, never()).getCurrentQuote(Crypto.SOL);
+        verify(currencyConverter, never()).getUsdToFiatRate(Currency.Fiat.EUR);
+    }
+
+    /**
+     * Тест шардирования: если шард потерян до записи результатов, срабатывание
+     * не записывается и не отправляется, алерт остается активным
+     */
+    @Test
+    public void testCheckAlertsDiscardsChangesOfLostShards() throws InterruptedException {
+        Notification alert = new Notification("lost", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        shardLeases = mock(AlertShardLeases.class);
+        when(shardLeases.isEnabled()).thenReturn(true);
+        when(shardLeases.owns(any(Notification.class))).thenReturn(true);
+        when(shardLeases.holds(any(Notification.class))).thenReturn(true);
+        when(shardLeases.confirmOwnership()).thenReturn(_ -> false);
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(alert));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("51000"), 1234567890L)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        // Владение подтверждается в отдельном потоке, поэтому ждем завершения цикла
+        for (int i = 0; i < 100 && !Long.valueOf(1L).equals(alertsHandling.getStats().get("cycles")); i++) {
+            Thread.sleep(20);
+        }
+        verify(notificationService, never()).saveAlertStates(argThat(notifications -> !notifications.isEmpty()));
+        verify(telegramBotService, never()).sendResponseAsync(anyString(), anyString());
+        assertEquals(true, alert.isActive());
+        assertEquals(1L, alertsHandling.getStats().get("fencedShardChanges"));
+    }
+
+    /**
+     * Без координации экземпляр владеет всеми алертами, номер шарда детерминирован
+     */
+    @Test
+    public void testStandaloneShardLeasesOwnEverything() {
+        AlertShardLeases standalone = new AlertShardLeases(null, false, 1, 30000);
+        Notification alert = new Notification("any", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        assertEquals(true, standalone.owns(alert));
+        assertEquals(false, standalone.isClustered());
+
+        AlertShardLeases sharded = new AlertShardLeases(null, true, 64, 30000);
+        assertEquals(sharded.shardOf("any"), sharded.shardOf("any"));
+        assertEquals(Math.floorMod("any".hashCode(), 64), sharded.shardOf("any"));
+    }
+
+    /**
+     * Без шардирования плановую проверку выполняет только лидер задания
+     */
+    @Test
+    public void testSweepRunsOnlyOnLeaderWithoutShards() {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        SchedulerLeases leader = new SchedulerLeases(store, true, 30000);
+        assertEquals(true, leader.acquire("alerts.sweep").isPresent());
+        schedulerLeases = new SchedulerLeases(store, true, 30000);
+        alertsHandling = newAlertsHandling();
+
+        alertsHandling.checkAlerts();
+
+        verify(notificationService, never()).getAllActiveAlerts();
+        assertEquals(0L, alertsHandling.getStats().get("cycles"));
+    }
+
+    /**
+     * Тест проверки по свечам: всплеск между проверками срабатывает,
+     * хотя текущая цена уже вернулась в коридор
+     */
+    @Test
+    public void testCheckAlertsDetectsCrossingInsideCandleWindow() {
+        Notification alert = new Notification("spike", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        alert.setStartTimestamp(1L);
+        long now = System.currentTimeMillis() / 60000 * 60000;
+        rangeTracker = new CandleRangeTracker(priceFetcher, true, 3600000);
+        rangeTracker.coverUntil(Crypto.BTC, now - 3 * 60000);
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(alert));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("45000"), 1234567890L)));
+        when(priceFetcher.getKlines(eq(Crypto.BTC), eq(Candle.INTERVAL_1M), eq(now - 3 * 60000), anyLong())).thenReturn(Flux.just(
+            candle(now - 3 * 60000, "45000", "44900"),
+            candle(now - 2 * 60000, "50500", "45000"),
+            candle(now - 60000, "45100", "44800")));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        verify(telegramBotService, times(1)).sendResponseAsync(eq(TEST_CHAT_ID), contains("50500.00"));
+        assertEquals(false, alert.isActive());
+        assertEquals(Long.valueOf((now - 2 * 60000) / 1000), alert.getTriggerTimestamp());
+        assertEquals(1L, alertsHandling.getStats().get("rangeTriggered"));
+
+        // Окно уже просмотрено: повторная проверка не запрашивает те же свечи
+        alertsHandling.checkAlerts();
+        verify(priceFetcher, times(1)).getKlines(any(Crypto.class), anyString(), anyLong(), anyLong());
+    }
+
+    /**
+     * Тест проверки по свечам: если бюджет цикла истек до проверки группы,
+     * окно свечей не считается просмотренным и отдается следующему циклу
+     */
+    @Test
+    public void testCandleWindowIsRetriedAfterTruncatedCycle() throws InterruptedException {
+        Notification alert = new Notification("spike", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        alert.setStartTimestamp(1L);
+        long now = System.currentTimeMillis() / 60000 * 60000;
+        rangeTracker = new CandleRangeTracker(priceFetcher, true, 3600000);
+        rangeTracker.coverUntil(Crypto.BTC, now - 3 * 60000);
+        sweepBudgetMillis = 300;
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(alert));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("45000"), 1234567890L)));
+        when(priceFetcher.getKlines(eq(Crypto.BTC), eq(Candle.INTERVAL_1M), eq(now - 3 * 60000), anyLong()))
+            .thenAnswer(_ -> Flux.just(
+                candle(now - 3 * 60000, "45000", "44900"),
+                candle(now - 2 * 60000, "50500", "45000"),
+                candle(now - 60000, "45100", "44800")));
+        // В первом цикле курс не приходит до истечения бюджета
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.never(), Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+        for (int i = 0; i < 100 && !Long.valueOf(1L).equals(alertsHandling.getStats().get("cycles")); i++) {
+            Thread.sleep(20);
+        }
+        verify(telegramBotService, never()).sendResponseAsync(anyString(), anyString());
+        assertEquals(true, alert.isActive());
+
+        alertsHandling.checkAlerts();
+
+        verify(priceFetcher, times(2)).getKlines(eq(Crypto.BTC), eq(Candle.INTERVAL_1M), eq(now - 3 * 60000), anyLong());
+        verify(telegramBotService, times(1)).sendResponseAsync(eq(TEST_CHAT_ID), contains("50500.00"));
+        assertEquals(false, alert.isActive());
+    }
+
+    /**
+     * Тест бюджета цикла: зависшая группа не задерживает запись остальных,
+     * переносится в следующий цикл, а новый цикл не запускается поверх текущего
+     */
+    @Test
+    public void testCycleBudgetTruncatesAndCarriesOverSlowGroups() throws InterruptedException {
+        Notification btc = new Notification("btc", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        Notification eth = new Notification("eth", Crypto.ETH, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 4000.0, 2000.0, 3000.0);
+        sweepBudgetMillis = 300;
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(btc, eth));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("51000"), 1234567890L)));
+        when(priceFetcher.getCurrentQuote(Crypto.ETH)).thenReturn(Mono.never());
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+        alertsHandling.checkAlerts();
+
+        verify(notificationService, timeout(2000).times(1))
+            .saveAlertStates(argThat(notifications -> notifications.size() == 1));
+        for (int i = 0; i < 100 && !Long.valueOf(1L).equals(alertsHandling.getStats().get("cycles")); i++) {
+            Thread.sleep(20);
+        }
+        Map<String, Object> stats = alertsHandling.getStats();
+        assertEquals(1L, stats.get("cycles"));
+        assertEquals(1L, stats.get("skippedCycles"));
+        assertEquals(1L, stats.get("truncatedCycles"));
+        // Прерванный по бюджету цикл уложился в интервал проверки
+        assertEquals(0L, stats.get("overrunCycles"));
+        assertEquals(1, stats.get("carriedOverGroups"));
+        assertEquals(false, btc.isActive());
+        assertEquals(true, eth.isActive());
+    }
+
+    /**
+     * Тест превышения интервала: цикл дольше интервала, но в пределах бюджета,
+     * учитывается как вытеснивший следующий запуск, но не как прерванный
+     */
+    @Test
+    public void testCycleLongerThanIntervalCountsAsOverrun() throws InterruptedException {
+        Notification btc = new Notification("btc", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        sweepBudgetMillis = 5000;
+        sweepIntervalMillis = 100;
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenReturn(Flux.just(btc));
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("45000"), 1234567890L))
+                .delayElement(Duration.ofMillis(300)));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+
+        alertsHandling.checkAlerts();
+
+        for (int i = 0; i < 100 && !Long.valueOf(1L).equals(alertsHandling.getStats().get("cycles")); i++) {
+            Thread.sleep(20);
+        }
+        Map<String, Object> stats = alertsHandling.getStats();
+        assertEquals(1L, stats.get("cycles"));
+        assertEquals(1L, stats.get("overrunCycles"));
+        assertEquals(0L, stats.get("truncatedCycles"));
+        assertEquals(true, btc.isActive());
+    }
+
+    /**
+     * Тест проекции запроса активных алертов: после перезагрузки индекса из базы
+     * у алерта сохраняется время создания, и всплеск до создания его не срабатывает
+     */
+    @Test
+    public void testReloadedAlertIgnoresSpikeBeforeCreation() {
+        long now = System.currentTimeMillis() / 60000 * 60000;
+        Notification stored = new Notification("fresh", Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.VALUE, true, TEST_CHAT_ID, 50000.0, 40000.0, 45000.0);
+        // Алерт создан после свечи со всплеском
+        stored.setStartTimestamp((now - 60000) / 1000);
+        NotificationService projected = new NotificationService(mock(NotificationRepository.class),
+            projectingTemplate(List.of(stored)), mock(UserRepository.class), new AlertThresholdIndex());
+        rangeTracker = new CandleRangeTracker(priceFetcher, true, 3600000);
+        rangeTracker.coverUntil(Crypto.BTC, now - 3 * 60000);
+        alertsHandling = newAlertsHandling();
+
+        when(notificationService.getAllActiveAlerts()).thenAnswer(_ -> projected.getAllActiveAlerts());
+        when(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .thenReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("45000"), 1234567890L)));
+        when(priceFetcher.getKlines(eq(Crypto.BTC), eq(Candle.INTERVAL_1M), eq(now - 3 * 60000), anyLong())).thenReturn(Flux.just(
+            candle(now - 3 * 60000, "45000", "44900"),
+            candle(now - 2 * 60000, "50500", "45000"),
+            candle(now - 60000, "45100", "44800")));
+        when(currencyConverter.getUsdToFiatRate(Currency.Fiat.USD)).thenReturn(Mono.just(BigDecimal.ONE));
+        when(notificationService.saveAlertStates(anyList())).thenAnswer(invocation ->
+            Mono.just(new NotificationService.BulkSaveResult(invocation.getArgument(0), Map.of())));
+        when(telegramBotService.sendResponseAsync(anyString(), anyString())).thenReturn(Mono.empty());
+
+        alertsHandling.checkAlerts();
+
+        verify(telegramBotService, never()).sendResponseAsync(anyString(), anyString());
+        assertEquals(1L, alertsHandling.getStats().get("rangeCandidates"));
+        assertEquals(0L, alertsHandling.getStats().get("rangeTriggered"));
+    }
+
+    /**
+     * MongoTemplate, возвращающий документы только с полями из проекции запроса
+     */
+    private static MongoTemplate projectingTemplate(List<Notification> stored) {
+        MongoTemplate template = mock(MongoTemplate.class);
+        when(template.stream(any(Query.class), eq(Notification.class))).thenAnswer(invocation -> {
+            Set<String> included = invocation.<Query>getArgument(0).getFieldsObject().keySet();
+            return stored.stream().map(notification -> project(notification, included));
+        });
+        return template;
+    }
+
+    private static Notification project(Notification source, Set<String> included) {
+        Notification copy = new Notification();
+        try {
+            for (Field field : Notification.class.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())
+                        || !(field.getName().equals("id") || included.contains(field.getName()))) {
+                    continue;
+                }
+                field.setAccessible(true);
+                field.set(copy, field.get(source));
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+        return copy;
+    }
+
+    private static Candle candle(long openTime, String high, String low) {
+        return new Candle(Crypto.BTC, Candle.INTERVAL_1M, openTime,
+            new BigDecimal(low), new BigDecimal(high), new BigDecimal(low), new BigDecimal(low), BigDecimal.ONE);
     }
-} 
\ No newline at end of file
+}
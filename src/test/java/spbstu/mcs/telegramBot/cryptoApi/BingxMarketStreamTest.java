@@ -0,0 +1,175 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Тесты потокового получения котировок на локальной заглушке WebSocket-сервера
+ */
+@RunWith(JUnit4.class)
+public class BingxMarketStreamTest {
+
+    private BingxStreamStub stub;
+    private PriceFetcher priceFetcher;
+    private MarketDataService marketDataService;
+    private BingxMarketStream marketStream;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new BingxStreamStub();
+        priceFetcher = mock(PriceFetcher.class);
+        when(priceFetcher.getCurrentQuote(any(Crypto.class)))
+            .thenAnswer(invocation -> {
+                Crypto crypto = invocation.getArgument(0);
+                return Mono.just(new PriceQuote(crypto.getCode() + "-USDT", new BigDecimal("100"), 1234567890L));
+            });
+        marketDataService = new MarketDataService(priceFetcher, 60000, 3, new AdaptivePollingPlanner());
+        marketStream = new BingxMarketStream(marketDataService, new ObjectMapper(), true, stub.getUrl(), 50, 200);
+        marketStream.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marketStream.stop();
+        stub.close();
+    }
+
+    /**
+     * Поток подписывается на все криптовалюты и применяет сделки к снимку
+     */
+    @Test
+    public void testAppliesTradesToSnapshot() throws Exception {
+        Set<String> subscriptions = new HashSet<>();
+        for (int i = 0; i < Crypto.values().length; i++) {
+            String message = stub.getReceived().poll(5, TimeUnit.SECONDS);
+            assertNotNull("Subscription was not received", message);
+            assertTrue(message.contains("\"reqType\":\"sub\""));
+            subscriptions.add(message.substring(message.indexOf("\"dataType\":\"") + 12, message.lastIndexOf('"')));
+        }
+        assertTrue(subscriptions.contains("BTC-USDT@trade"));
+        assertEquals(Crypto.values().length, subscriptions.size());
+
+        stub.publishTrade("BTC-USDT", "65000.5", 1700000000123L);
+        awaitTrue(() -> marketDataService.getSnapshot().getQuote(Crypto.BTC).isPresent());
+
+        StepVerifier.create(marketDataService.getCurrentQuote(Crypto.BTC))
+            .assertNext(quote -> {
+                assertEquals(new BigDecimal("65000.5"), quote.price());
+                assertEquals(1700000000L, quote.timestamp());
+            })
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+        verify(priceFetcher, never()).getCurrentQuote(Crypto.BTC);
+        assertEquals(1L, marketStream.getStats().get("quotes"));
+
+        stub.sendPing();
+        assertEquals("Pong", stub.getReceived().poll(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Символы, обновляемые потоком, не опрашиваются по REST
+     */
+    @Test
+    public void testRefreshSkipsStreamCoveredSymbols() throws Exception {
+        awaitTrue(() -> stub.getConnectedClients() == 1);
+        stub.publishTrade("ETH-USDT", "3500", 1700000000000L);
+        awaitTrue(() -> marketDataService.getSnapshot().getQuote(Crypto.ETH).isPresent());
+
+        StepVerifier.create(marketDataService.refresh())
+            .assertNext(snapshot -> {
+                assertEquals(Crypto.values().length, snapshot.size());
+                assertEquals(new BigDecimal("3500"), snapshot.getQuote(Crypto.ETH).get().price());
+            })
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        verify(priceFetcher, never()).getCurrentQuote(Crypto.ETH);
+        verify(priceFetcher).getCurrentQuote(Crypto.BTC);
+        assertEquals(1L, marketDataService.getStats().get("streamCoveredSkips"));
+    }
+
+    /**
+     * После обрыва соединения поток переподключается и подписывается заново
+     */
+    @Test
+    public void testReconnectsAfterConnectionLoss() throws Exception {
+        awaitTrue(() -> stub.getConnectedClients() == 1);
+        stub.dropConnections();
+
+        awaitTrue(() -> (Long) marketStream.getStats().get("connects") == 2L && stub.getConnectedClients() == 1);
+        assertEquals(1L, marketStream.getStats().get("disconnects"));
+
+        stub.publishTrade("SOL-USDT", "150", 1700000000000L);
+        awaitTrue(() -> marketDataService.getSnapshot().getQuote(Crypto.SOL).isPresent());
+    }
+
+    /**
+     * Соединение, закрытое сервером сразу после открытия, не остается опубликованным:
+     * поток переподключается и без контроля простоя
+     */
+    @Test
+    public void testReconnectsWhenClosedRightAfterOpen() throws Exception {
+        awaitTrue(() -> stub.getConnectedClients() == 1);
+        stub.closeAfterHandshake(3);
+        BingxMarketStream flakyStream = new BingxMarketStream(marketDataService, new ObjectMapper(), true,
+            stub.getUrl(), 50, 200, 0);
+        flakyStream.start();
+        try {
+            awaitTrue(() -> (Long) flakyStream.getStats().get("connects") >= 4L && stub.getConnectedClients() == 2);
+            assertTrue(flakyStream.isConnected());
+            assertTrue((Long) flakyStream.getStats().get("disconnects") >= 3L);
+        } finally {
+            flakyStream.stop();
+        }
+    }
+
+    /**
+     * Если биржа перестала присылать сообщения, а соединение не закрыто,
+     * поток разрывает его и переподключается
+     */
+    @Test
+    public void testReconnectsWhenConnectionGoesIdle() throws Exception {
+        BingxMarketStream idleStream = new BingxMarketStream(marketDataService, new ObjectMapper(), true,
+            stub.getUrl(), 50, 200, 300);
+        idleStream.start();
+        try {
+            awaitTrue(() -> (Long) idleStream.getStats().get("connects") >= 2L);
+            assertTrue((Long) idleStream.getStats().get("idleReconnects") >= 1L);
+        } finally {
+            idleStream.stop();
+        }
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition was not met within 5 seconds");
+            }
+            Thread.sleep(20);
+        }
+    }
+}
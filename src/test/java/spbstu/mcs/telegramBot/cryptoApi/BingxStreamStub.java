@@ -0,0 +1,209 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Локальная заглушка WebSocket-сервера BingX для офлайн-тестов {@link BingxMarketStream}.
+ *
+ * <p>Реализует минимальное подмножество RFC 6455: рукопожатие, прием текстовых
+ * кадров клиента и отправку сообщений в GZIP бинарными кадрами, как это делает биржа.
+ * Принятые от клиента сообщения (подписки, {@code Pong}) складываются в очередь.</p>
+ */
+class BingxStreamStub implements AutoCloseable {
+    private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final ServerSocket serverSocket;
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+    private final AtomicInteger closeAfterHandshake = new AtomicInteger();
+    private final Thread acceptor;
+
+    BingxStreamStub() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        acceptor = new Thread(this::acceptLoop, "bingx-stream-stub");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String getUrl() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/market";
+    }
+
+    BlockingQueue<String> getReceived() {
+        return received;
+    }
+
+    int getConnectedClients() {
+        return clients.size();
+    }
+
+    /**
+     * Отправляет всем клиентам событие сделки в формате потока {@code <symbol>@trade}.
+     */
+    void publishTrade(String symbol, String price, long tradeTimeMillis) throws IOException {
+        broadcast("{\"code\":0,\"dataType\":\"" + symbol + "@trade\",\"data\":{\"e\":\"trade\",\"E\":"
+                + tradeTimeMillis + ",\"s\":\"" + symbol + "\",\"t\":\"1\",\"p\":\"" + price
+                + "\",\"q\":\"0.1\",\"T\":" + tradeTimeMillis + ",\"m\":false}}");
+    }
+
+    void sendPing() throws IOException {
+        broadcast("Ping");
+    }
+
+    /**
+     * Закрывает следующие {@code connections} соединений сразу после рукопожатия,
+     * до того как клиент успеет что-либо отправить.
+     */
+    void closeAfterHandshake(int connections) {
+        closeAfterHandshake.set(connections);
+    }
+
+    /**
+     * Обрывает все соединения без закрывающего рукопожатия.
+     */
+    void dropConnections() throws IOException {
+        for (Socket client : clients) {
+            client.close();
+        }
+        clients.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        dropConnections();
+    }
+
+    private void broadcast(String message) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(message.getBytes(StandardCharsets.UTF_8));
+        }
+        for (Socket client : clients) {
+            writeFrame(client.getOutputStream(), 0x2, compressed.toByteArray());
+        }
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Thread reader = new Thread(() -> serve(client), "bingx-stream-stub-client");
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            InputStream in = client.getInputStream();
+            handshake(in, client.getOutputStream());
+            if (closeAfterHandshake.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+                writeFrame(client.getOutputStream(), 0x8, new byte[] {0x03, (byte) 0xE9});
+                client.close();
+                return;
+            }
+            clients.add(client);
+            DataInputStream data = new DataInputStream(in);
+            while (true) {
+                int opcode = data.readUnsignedByte() & 0x0F;
+                int second = data.readUnsignedByte();
+                long length = second & 0x7F;
+                if (length == 126) {
+                    length = data.readUnsignedShort();
+                } else if (length == 127) {
+                    length = data.readLong();
+                }
+                byte[] mask = new byte[4];
+                if ((second & 0x80) != 0) {
+                    data.readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                data.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i % 4];
+                }
+                if (opcode == 0x8) {
+                    writeFrame(client.getOutputStream(), 0x8, new byte[0]);
+                    break;
+                }
+                if (opcode == 0x1) {
+                    received.add(new String(payload, StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            // Клиент отключился или соединение оборвано тестом
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private void handshake(InputStream in, OutputStream out) throws IOException {
+        String key = null;
+        StringBuilder line = new StringBuilder();
+        int previous = -1;
+        int current;
+        while ((current = in.read()) != -1) {
+            if (previous == '\r' && current == '\n') {
+                String header = line.substring(0, line.length() - 1);
+                if (header.isEmpty()) {
+                    break;
+                }
+                if (header.toLowerCase().startsWith("sec-websocket-key:")) {
+                    key = header.substring(header.indexOf(':') + 1).trim();
+                }
+                line.setLength(0);
+            } else {
+                line.append((char) current);
+            }
+            previous = current;
+        }
+        if (key == null) {
+            throw new IOException("Not a WebSocket upgrade request");
+        }
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                    .digest((key + WS_GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static synchronized void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else {
+            out.write(126);
+            out.write((payload.length >>> 8) & 0xFF);
+            out.write(payload.length & 0xFF);
+        }
+        out.write(payload);
+        out.flush();
+    }
+}
@@ -12,9 +12,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
 import spbstu.mcs.telegramBot.model.Currency.Fiat;
@@ -61,7 +63,8 @@ public class CryptoInformationTest {
         when(userService.getUserByChatId(TEST_CHAT_ID)).thenReturn(Mono.just(testUser));
         
         // Создаем CryptoInformation с основными моками
-        cryptoInformation = new CryptoInformation(objectMapper, currencyConverter, priceFetcher, userService);
+        cryptoInformation = new CryptoInformation(objectMapper, currencyConverter, priceFetcher,
+                new MarketDataService(priceFetcher, 30000, 3, new AdaptivePollingPlanner()), userService);
         spyCryptoInformation = spy(cryptoInformation);
     }
 
@@ -77,10 +80,10 @@ public class CryptoInformationTest {
         doReturn(Mono.just(BigDecimal.valueOf(1.0)))
             .when(currencyConverter).getUsdToFiatRate(any(Fiat.class));
         
-        // Подготавливаем ответы для getCurrentPrice
-        String currentPriceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1684253467}";
-        doReturn(Mono.just(currentPriceJson))
-            .when(priceFetcher).getCurrentPrice(any(Crypto.class));
+        // Подготавливаем котировки для getCurrentQuote
+        PriceQuote currentQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1684253467L);
+        doReturn(Mono.just(currentQuote))
+            .when(priceFetcher).getCurrentQuote(any(Crypto.class));
             
         // Мокируем getSymbolPriceByTime, который вызывается несколько раз
         doReturn(Mono.just("{\"price\":\"47000\",\"timestamp\":1683648667}"))
@@ -134,6 +137,64 @@ public class CryptoInformationTest {
             .verify(Duration.ofSeconds(5));
     }
     
+    /**
+     * Создает сервис с настоящим ObjectMapper для проверки итогового JSON
+     */
+    private CryptoInformation newCryptoInformationWithRealMapper() {
+        return new CryptoInformation(new ObjectMapper(), currencyConverter, priceFetcher,
+                new MarketDataService(priceFetcher, 30000, 3, new AdaptivePollingPlanner()), userService);
+    }
+
+    private static Candle dailyCandle(long openTimeSeconds, String open) {
+        BigDecimal price = new BigDecimal(open);
+        return new Candle(Crypto.BTC, Candle.INTERVAL_1D, openTimeSeconds * 1000,
+                price, price, price, price, BigDecimal.ONE);
+    }
+
+    /**
+     * Тест метода showPriceHistory - последней точкой ряда служит текущая цена,
+     * а не цена открытия незакрытой свечи
+     */
+    @Test
+    public void testShowPriceHistoryEndsWithCurrentPrice() throws Exception {
+        doReturn(Mono.just(BigDecimal.ONE))
+            .when(currencyConverter).getUsdToFiatRate(any(Fiat.class));
+        doReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1684253467L)))
+            .when(priceFetcher).getCurrentQuote(any(Crypto.class));
+        doReturn(Flux.just(dailyCandle(1684080000L, "48000"), dailyCandle(1684166400L, "49000")))
+            .when(priceFetcher).getKlines(eq(Crypto.BTC), eq(Candle.INTERVAL_1D), anyLong(), anyLong());
+
+        String json = newCryptoInformationWithRealMapper().showPriceHistory("2d", TEST_CHAT_ID)
+            .block(Duration.ofSeconds(5));
+
+        JsonNode result = new ObjectMapper().readTree(json);
+        JsonNode history = result.get("history");
+        assertEquals(3, history.size());
+        assertEquals("50000.00", history.get(2).get("price").asText());
+        assertEquals(1684253467L, history.get(2).get("timestamp").asLong());
+        assertEquals("48000.00", result.get("firstPrice").asText());
+        assertEquals("50000.00", result.get("lastPrice").asText());
+        assertEquals("50000.00", result.get("maxPrice").asText());
+        assertEquals("4.17", result.get("percentChange").asText());
+    }
+
+    /**
+     * Тест метода showPriceHistory - без свечей за период возвращается ошибка
+     */
+    @Test
+    public void testShowPriceHistoryWithoutCandles() {
+        doReturn(Mono.just(BigDecimal.ONE))
+            .when(currencyConverter).getUsdToFiatRate(any(Fiat.class));
+        doReturn(Mono.just(new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1684253467L)))
+            .when(priceFetcher).getCurrentQuote(any(Crypto.class));
+        doReturn(Flux.empty())
+            .when(priceFetcher).getKlines(any(Crypto.class), anyString(), anyLong(), anyLong());
+
+        StepVerifier.create(newCryptoInformationWithRealMapper().showPriceHistory("7d", TEST_CHAT_ID))
+            .expectError(IllegalStateException.class)
+            .verify(Duration.ofSeconds(5));
+    }
+
     /**
      * Тест метода showCurrentPrice - получение текущей цены
      */
@@ -143,23 +204,10 @@ public class CryptoInformationTest {
         doReturn(Mono.just(BigDecimal.valueOf(1.0)))
             .when(currencyConverter).getUsdToFiatRate(any(Fiat.class));
         
-        // Подготавливаем ответы для getCurrentPrice
-        String currentPriceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1684253467}";
-        doReturn(Mono.just(currentPriceJson))
-            .when(priceFetcher).getCurrentPrice(any(Crypto.class));
-        
-        // Создаем JsonNode для текущей цены (нужно для парсинга)
-        JsonNode priceNode = mock(JsonNode.class);
-        JsonNode symbolNode = mock(JsonNode.class);
-        JsonNode timestampNode = mock(JsonNode.class);
-        
-        doReturn(jsonNode).when(objectMapper).readTree(eq(currentPriceJson));
-        doReturn(symbolNode).when(jsonNode).get("symbol");
-        doReturn(priceNode).when(jsonNode).get("price");
-        doReturn(timestampNode).when(jsonNode).get("timestamp");
-        doReturn("BTC-USDT").when(symbolNode).asText();
-        doReturn("50000").when(priceNode).asText();
-        doReturn(1684253467L).when(timestampNode).asLong();
+        // Подготавливаем котировки для getCurrentQuote
+        PriceQuote currentQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1684253467L);
+        doReturn(Mono.just(currentQuote))
+            .when(priceFetcher).getCurrentQuote(any(Crypto.class));
         
         // Мокируем создание ObjectNode
         ObjectNode objectNode = mock(ObjectNode.class);
@@ -196,8 +244,7 @@ public class CryptoInformationTest {
             
         // Проверяем вызовы методов
         verify(currencyConverter).getUsdToFiatRate(any(Fiat.class));
-        verify(priceFetcher).getCurrentPrice(any(Crypto.class));
-        verify(objectMapper).readTree(anyString());
+        verify(priceFetcher).getCurrentQuote(any(Crypto.class));
         verify(objectMapper).writeValueAsString(any());
     }
 
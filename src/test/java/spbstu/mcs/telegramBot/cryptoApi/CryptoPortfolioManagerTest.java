@@ -63,7 +63,7 @@ public class CryptoPortfolioManagerTest {
         portfolioManager = new CryptoPortfolioManager(
             objectMapper,
             currencyConverter,
-            priceFetcher,
+            new MarketDataService(priceFetcher, 30000, 3, new AdaptivePollingPlanner()),
             portfolioService,
             userService
         );
@@ -84,14 +84,10 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(List.of(portfolio));
             
         // Настройка мока для получения цены
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(priceJson));
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(priceQuote));
             
-        // Настройка мока для чтения JSON
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("50000");
         
         // Настройка мока для конвертации валют
         when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class)))
@@ -119,7 +115,7 @@ public class CryptoPortfolioManagerTest {
             
         // Проверка вызовов
         verify(portfolioService).getPortfoliosByChatId(TEST_CHAT_ID);
-        verify(priceFetcher).getCurrentPrice(Currency.Crypto.BTC);
+        verify(priceFetcher).getCurrentQuote(Currency.Crypto.BTC);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
     }
     
@@ -138,19 +134,15 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(portfolio);
             
         // Настройка мока для получения цены
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(priceJson));
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(priceQuote));
             
         // Настройка мока для чтения JSON
         JsonNode priceNode = mock(JsonNode.class);
         JsonNode timestampNode = mock(JsonNode.class);
         JsonNode symbolNode = mock(JsonNode.class);
         
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(priceNode);
-        when(jsonNode.get("timestamp")).thenReturn(timestampNode);
-        when(jsonNode.get("symbol")).thenReturn(symbolNode);
         
         when(priceNode.asText()).thenReturn("50000");
         when(timestampNode.asLong()).thenReturn(1234567890L);
@@ -191,7 +183,7 @@ public class CryptoPortfolioManagerTest {
             
         // Проверка вызовов
         verify(portfolioService).addCryptoToPortfolio(any(), any(), any());
-        verify(priceFetcher).getCurrentPrice(Currency.Crypto.BTC);
+        verify(priceFetcher).getCurrentQuote(Currency.Crypto.BTC);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
     }
     
@@ -210,19 +202,15 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(portfolio);
             
         // Настройка мока для получения цены
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(priceJson));
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(priceQuote));
             
         // Настройка мока для чтения JSON
         JsonNode priceNode = mock(JsonNode.class);
         JsonNode timestampNode = mock(JsonNode.class);
         JsonNode symbolNode = mock(JsonNode.class);
         
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(priceNode);
-        when(jsonNode.get("timestamp")).thenReturn(timestampNode);
-        when(jsonNode.get("symbol")).thenReturn(symbolNode);
         
         when(priceNode.asText()).thenReturn("50000");
         when(timestampNode.asLong()).thenReturn(1234567890L);
@@ -264,7 +252,7 @@ public class CryptoPortfolioManagerTest {
             
         // Проверка вызовов
         verify(portfolioService).removeCryptoFromPortfolio(any(), any(), any());
-        verify(priceFetcher).getCurrentPrice(Currency.Crypto.BTC);
+        verify(priceFetcher).getCurrentQuote(Currency.Crypto.BTC);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
     }
     
@@ -283,14 +271,10 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(List.of(portfolio));
             
         // Настройка мока для получения цены
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(priceJson));
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(priceQuote));
             
-        // Настройка мока для чтения JSON
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("50000");
         
         // Настройка мока для конвертации валют
         when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class)))
@@ -338,19 +322,14 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(portfolios);
             
         // Настройка мока для получения цен
-        String btcPriceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        String ethPriceJson = "{\"symbol\":\"ETH-USDT\",\"price\":\"3000\",\"timestamp\":1234567890}";
+        PriceQuote btcQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        PriceQuote ethQuote = new PriceQuote("ETH-USDT", new BigDecimal("3000"), 1234567890L);
         
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(btcPriceJson));
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.ETH))
-            .thenReturn(Mono.just(ethPriceJson));
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(btcQuote));
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.ETH))
+            .thenReturn(Mono.just(ethQuote));
             
-        // Настройка мока для чтения JSON
-        when(objectMapper.readTree(btcPriceJson)).thenReturn(jsonNode);
-        when(objectMapper.readTree(ethPriceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(jsonNode);
-        when(jsonNode.asText()).thenReturn("50000", "3000");
         
         // Настройка мока для конвертации валют
         when(currencyConverter.getUsdToFiatRate(any(Currency.Fiat.class)))
@@ -395,19 +374,15 @@ public class CryptoPortfolioManagerTest {
             .thenReturn(List.of(portfolio));
             
         // Настройка мока для получения цены
-        String priceJson = "{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}";
-        when(priceFetcher.getCurrentPrice(Currency.Crypto.BTC))
-            .thenReturn(Mono.just(priceJson));
+        PriceQuote priceQuote = new PriceQuote("BTC-USDT", new BigDecimal("50000"), 1234567890L);
+        when(priceFetcher.getCurrentQuote(Currency.Crypto.BTC))
+            .thenReturn(Mono.just(priceQuote));
             
         // Настройка мока для чтения JSON
         JsonNode priceNode = mock(JsonNode.class);
         JsonNode timestampNode = mock(JsonNode.class);
         JsonNode symbolNode = mock(JsonNode.class);
         
-        when(objectMapper.readTree(priceJson)).thenReturn(jsonNode);
-        when(jsonNode.get("price")).thenReturn(priceNode);
-        when(jsonNode.get("timestamp")).thenReturn(timestampNode);
-        when(jsonNode.get("symbol")).thenReturn(symbolNode);
         
         when(priceNode.asText()).thenReturn("50000");
         when(timestampNode.asLong()).thenReturn(1234567890L);
@@ -439,7 +414,7 @@ public class CryptoPortfolioManagerTest {
             
         // Проверка вызовов
         verify(portfolioService).getPortfoliosByChatId(TEST_CHAT_ID);
-        verify(priceFetcher).getCurrentPrice(Currency.Crypto.BTC);
+        verify(priceFetcher).getCurrentQuote(Currency.Crypto.BTC);
         verify(currencyConverter).getUsdToFiatRate(any(Currency.Fiat.class));
     }
     
@@ -69,7 +69,8 @@ public class CurrencyConverterTest {
         String apiUrl = "https://test-currency-api.com";
         
         // Create CurrencyConverter with mocked dependencies
-        currencyConverter = new CurrencyConverter(webClientBuilder, objectMapper, apiUrl);
+        currencyConverter = new CurrencyConverter(webClientBuilder, objectMapper, apiUrl, 600000,
+                new ExchangeCallGuard());
     }
     
     /**
@@ -111,4 +112,55 @@ public class CurrencyConverterTest {
             fail("Тест завершился с ошибкой: " + e.getMessage());
         }
     }
+
+    /**
+     * Тест таблицы курсов - повторные запросы обслуживаются из памяти
+     */
+    @Test
+    public void testRatesAreServedFromTable() {
+        String responseJson = "{\"usd\":{\"eur\":\"0.92\",\"rub\":\"90.5\",\"jpy\":\"150\"}}";
+        doReturn(Mono.just(responseJson)).when(responseSpec).bodyToMono(String.class);
+
+        CurrencyConverter converter = new CurrencyConverter(webClientBuilder, new ObjectMapper(),
+                "https://test-currency-api.com", 60000, new ExchangeCallGuard());
+
+        StepVerifier.create(converter.getUsdToFiatRate(Fiat.EUR))
+            .expectNext(new BigDecimal("0.9200"))
+            .verifyComplete();
+        StepVerifier.create(converter.getUsdToFiatRate(Fiat.RUB))
+            .expectNext(new BigDecimal("90.5000"))
+            .verifyComplete();
+
+        verify(responseSpec, times(1)).bodyToMono(String.class);
+        assertEquals(3, converter.getStats().get("currencies"));
+        assertTrue(converter.getRatesAgeMillis() >= 0);
+    }
+
+    /**
+     * Тест stale-while-revalidate - устаревший курс отдается сразу, обновление идет в фоне
+     */
+    @Test
+    public void testStaleRatesAreRevalidatedInBackground() {
+        doReturn(Mono.just("{\"usd\":{\"eur\":\"0.92\"}}"))
+            .doReturn(Mono.just("{\"usd\":{\"eur\":\"0.95\"}}"))
+            .when(responseSpec).bodyToMono(String.class);
+
+        CurrencyConverter converter = new CurrencyConverter(webClientBuilder, new ObjectMapper(),
+                "https://test-currency-api.com", 0, new ExchangeCallGuard());
+
+        StepVerifier.create(converter.getUsdToFiatRate(Fiat.EUR))
+            .expectNext(new BigDecimal("0.9200"))
+            .verifyComplete();
+
+        // Таблица устарела: возвращается прежний курс, а в фоне загружается новый
+        StepVerifier.create(converter.getUsdToFiatRate(Fiat.EUR).delaySubscription(java.time.Duration.ofMillis(5)))
+            .expectNext(new BigDecimal("0.9200"))
+            .verifyComplete();
+
+        verify(responseSpec, timeout(1000).times(2)).bodyToMono(String.class);
+        assertEquals(1L, converter.getStats().get("staleReads"));
+        StepVerifier.create(Mono.delay(java.time.Duration.ofMillis(50)).then(Mono.fromSupplier(() -> converter.getStats().get("refreshes"))))
+            .expectNext(2L)
+            .verifyComplete();
+    }
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.DB.services.EmaEngine;
+import spbstu.mcs.telegramBot.model.Currency;
+import spbstu.mcs.telegramBot.model.Notification;
+
+/**
+ * Тесты общих рядов EMA
+ */
+@RunWith(JUnit4.class)
+public class EmaEngineTest {
+
+    private static Notification emaAlert(String id, double startEma) {
+        Notification alert = new Notification(id, Currency.Crypto.BTC, Currency.Fiat.USD,
+            Notification.ThresholdType.EMA, false, "123456789", null, null, startEma);
+        alert.setCurrentEMA(startEma);
+        return alert;
+    }
+
+    /**
+     * EMA алерта по общему ряду совпадает с EMA, обновляемой отдельно для каждого
+     * алерта, в том числе для алерта, присоединившегося позже
+     */
+    @Test
+    public void testSharedSeriesMatchesPerAlertEma() {
+        EmaEngine engine = new EmaEngine();
+        Notification early = emaAlert("early", 50000.0);
+        Notification late = emaAlert("late", 42000.0);
+        double[] prices = {51000, 49500, 52000, 53000, 48000, 47000, 50500};
+        double alpha = EmaEngine.DEFAULT_ALPHA;
+
+        assertTrue(engine.join(early));
+        double earlyEma = 50000.0;
+        double lateEma = 42000.0;
+        for (int i = 0; i < prices.length; i++) {
+            if (i == 3) {
+                assertTrue(engine.join(late));
+            }
+            engine.advance(Currency.Crypto.BTC, Currency.Fiat.USD, prices[i]);
+            earlyEma = (1 - alpha) * earlyEma + alpha * prices[i];
+            if (i >= 3) {
+                lateEma = (1 - alpha) * lateEma + alpha * prices[i];
+            }
+        }
+
+        assertEquals(earlyEma, engine.emaOf(early), 1e-6);
+        assertEquals(lateEma, engine.emaOf(late), 1e-6);
+        // Повторная привязка не нужна: состояние алерта не меняется
+        assertFalse(engine.join(early));
+        assertEquals(1, engine.getStats().get("series"));
+        assertEquals((long) prices.length, engine.getStats().get("advances"));
+    }
+}
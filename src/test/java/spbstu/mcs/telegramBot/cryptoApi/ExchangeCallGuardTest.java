@@ -0,0 +1,97 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тесты выключателей и бюджета повторов ExchangeCallGuard
+ */
+@RunWith(JUnit4.class)
+public class ExchangeCallGuardTest {
+
+    private static Mono<String> failing(AtomicInteger attempts) {
+        return Mono.defer(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(new RuntimeException("exchange is down"));
+        });
+    }
+
+    /**
+     * После порога ошибок выключатель открывается и вызовы не доходят до сети
+     */
+    @Test
+    public void testBreakerOpensAndRejectsWithoutCalling() {
+        ExchangeCallGuard guard = new ExchangeCallGuard(2, 60000, 0, 1, 0.1, 10);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(guard.call("bingx.ticker", failing(attempts)))
+                .expectErrorMessage("exchange is down")
+                .verify(Duration.ofSeconds(2));
+        }
+        assertEquals(CircuitBreaker.State.OPEN, guard.breaker("bingx.ticker").getState());
+
+        StepVerifier.create(guard.call("bingx.ticker", failing(attempts)))
+            .expectError(CircuitBreaker.OpenException.class)
+            .verify(Duration.ofSeconds(2));
+        assertEquals(2, attempts.get());
+
+        // Выключатель другой конечной точки не затронут
+        StepVerifier.create(guard.call("bingx.kline", Mono.just("ok")))
+            .expectNext("ok")
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+    }
+
+    /**
+     * После паузы пробный вызов закрывает выключатель
+     */
+    @Test
+    public void testHalfOpenProbeClosesBreaker() throws Exception {
+        ExchangeCallGuard guard = new ExchangeCallGuard(1, 50, 0, 1, 0.1, 10);
+
+        StepVerifier.create(guard.call("currency.rates", failing(new AtomicInteger())))
+            .expectError()
+            .verify(Duration.ofSeconds(2));
+        assertEquals(CircuitBreaker.State.OPEN, guard.breaker("currency.rates").getState());
+
+        Thread.sleep(80);
+        StepVerifier.create(guard.call("currency.rates", Mono.just("ok")))
+            .expectNext("ok")
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+        assertEquals(CircuitBreaker.State.CLOSED, guard.breaker("currency.rates").getState());
+    }
+
+    /**
+     * Повторы ограничены общим бюджетом, а не умножают каждый вызов
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testRetryBudgetLimitsRetries() {
+        ExchangeCallGuard guard = new ExchangeCallGuard(100, 60000, 3, 1, 0.0, 2);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            StepVerifier.create(guard.call("bingx.ticker", failing(attempts)))
+                .expectErrorMessage("exchange is down")
+                .verify(Duration.ofSeconds(2));
+        }
+
+        // 3 первичных вызова + 2 повтора из бюджета вместо 3 * 4 попыток
+        assertEquals(5, attempts.get());
+        Map<String, Object> budget = (Map<String, Object>) guard.getStats().get("retryBudget");
+        assertEquals(2L, budget.get("retries"));
+        assertEquals(3L, budget.get("retriesDenied"));
+    }
+}
@@ -0,0 +1,82 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import spbstu.mcs.telegramBot.cryptoApi.ExchangeRateLimiter.Lane;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Тесты ограничителя частоты запросов с полосами приоритета
+ */
+@RunWith(JUnit4.class)
+public class ExchangeRateLimiterTest {
+
+    /**
+     * Ожидающие запросы распределяются по весам полос, а не в порядке поступления
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testInteractiveLaneIsServedBeforeQueuedBackground() {
+        ExchangeRateLimiter limiter = new ExchangeRateLimiter(50, 1, 100);
+        List<Lane> order = new CopyOnWriteArrayList<>();
+
+        // Единственный токен уходит первому запросу, остальные встают в очереди
+        Flux<Lane> requests = Flux.merge(
+                Flux.range(0, 4).flatMap(_ -> limiter.acquire(Lane.BACKGROUND).thenReturn(Lane.BACKGROUND)),
+                Flux.range(0, 5).flatMap(_ -> limiter.acquire(Lane.INTERACTIVE).thenReturn(Lane.INTERACTIVE)))
+            .doOnNext(order::add);
+
+        StepVerifier.create(requests)
+            .expectNextCount(9)
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        // После первого (немедленного) запроса 5 интерактивных обслуживаются
+        // раньше, чем фоновые, несмотря на то что фоновые пришли первыми
+        List<Lane> queued = order.subList(1, order.size());
+        assertTrue(queued.subList(0, 5).stream().filter(lane -> lane == Lane.INTERACTIVE).count() >= 4);
+        assertEquals(Lane.BACKGROUND, queued.get(queued.size() - 1));
+
+        Map<String, Object> lanes = (Map<String, Object>) limiter.getStats().get("lanes");
+        assertEquals(5L, ((Map<String, Object>) lanes.get("interactive")).get("granted"));
+        assertEquals(4L, ((Map<String, Object>) lanes.get("background")).get("granted"));
+    }
+
+    /**
+     * Полоса берется из контекста подписчика, переполненная очередь отклоняет запрос
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testLaneFromContextAndQueueLimit() {
+        ExchangeRateLimiter limiter = new ExchangeRateLimiter(1, 1, 1);
+
+        StepVerifier.create(limiter.limit(Mono.just("ok"))
+                    .contextWrite(ExchangeRateLimiter.lane(Lane.ALERTS)))
+            .expectNext("ok")
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        // Токенов нет: первый запрос ждет в очереди, второй не помещается
+        Mono<Void> queued = limiter.acquire(Lane.ALERTS);
+        StepVerifier.create(Mono.when(queued, limiter.acquire(Lane.ALERTS)))
+            .expectError(ExchangeRateLimiter.QueueFullException.class)
+            .verify(Duration.ofSeconds(2));
+
+        Map<String, Object> alerts = (Map<String, Object>) ((Map<String, Object>) limiter.getStats().get("lanes")).get("alerts");
+        assertEquals(1L, alerts.get("granted"));
+        assertEquals(1L, alerts.get("rejected"));
+        assertEquals(0, alerts.get("queued"));
+    }
+}
@@ -0,0 +1,50 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.model.FixedPoint;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+/**
+ * Тесты арифметики в фиксированной точке
+ */
+@RunWith(JUnit4.class)
+public class FixedPointTest {
+
+    /**
+     * Суммы из документов переводятся в сотые доли по десятичной записи числа
+     */
+    @Test
+    public void testToMinorUsesDecimalRepresentation() {
+        assertEquals(10, FixedPoint.toMinor(0.1));
+        assertEquals(30, FixedPoint.toMinor(0.1 + 0.2));
+        assertEquals(6543211, FixedPoint.toMinor(65432.105));
+        assertEquals(6543211, FixedPoint.toMinor(new BigDecimal("65432.105")));
+        assertEquals(-6543211, FixedPoint.toMinor(new BigDecimal("-65432.105")));
+        assertEquals(new BigDecimal("65432.11"), FixedPoint.toDecimal(6543211));
+    }
+
+    /**
+     * Процентное изменение округляется так же, как прежнее вычисление в BigDecimal
+     */
+    @Test
+    public void testPercentChangeMatchesBigDecimal() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long start = 1 + random.nextInt(10_000_000);
+            long price = random.nextInt(20_000_000);
+            BigDecimal startPrice = BigDecimal.valueOf(start, 2);
+            BigDecimal expected = BigDecimal.valueOf(price, 2).subtract(startPrice)
+                    .divide(startPrice, 4, RoundingMode.HALF_UP)
+                    .multiply(new BigDecimal("100"));
+            assertEquals(price + "/" + start, expected.compareTo(FixedPoint.toDecimal(FixedPoint.percentChange(price, start))), 0);
+        }
+    }
+}
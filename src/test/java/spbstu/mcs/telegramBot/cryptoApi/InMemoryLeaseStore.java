@@ -0,0 +1,62 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Заглушка коллекции аренд заданий для офлайн-тестов {@link SchedulerLeases}.
+ *
+ * <p>Повторяет условия {@code MongoLeaseStore}: захват только истекшей аренды
+ * с увеличением токена, продление и освобождение только при совпадении токена.
+ * Операции атомарны за счет общей блокировки, как у {@code findAndModify}.</p>
+ */
+class InMemoryLeaseStore implements SchedulerLeases.LeaseStore {
+    private final Map<String, SchedulerLeases.Lease> leases = new HashMap<>();
+
+    @Override
+    public synchronized SchedulerLeases.Lease tryAcquire(String job, String owner, long now, long expiresAt) {
+        SchedulerLeases.Lease current = leases.get(job);
+        if (current != null && current.expiresAt() >= now) {
+            return null;
+        }
+        SchedulerLeases.Lease lease = current == null
+                ? new SchedulerLeases.Lease(job, owner, 1, expiresAt)
+                : new SchedulerLeases.Lease(job, owner, current.token() + 1, expiresAt, current.owner());
+        leases.put(job, lease);
+        return lease;
+    }
+
+    @Override
+    public synchronized boolean renew(String job, String owner, long token, long expiresAt) {
+        SchedulerLeases.Lease current = leases.get(job);
+        if (current == null || !current.owner().equals(owner) || current.token() != token) {
+            return false;
+        }
+        leases.put(job, new SchedulerLeases.Lease(job, owner, token, expiresAt));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean holds(String job, String owner, long token, long now) {
+        SchedulerLeases.Lease current = leases.get(job);
+        return current != null && current.owner().equals(owner) && current.token() == token
+                && current.expiresAt() > now;
+    }
+
+    @Override
+    public synchronized void release(String job, String owner, long token) {
+        if (holds(job, owner, token, Long.MIN_VALUE)) {
+            leases.put(job, new SchedulerLeases.Lease(job, owner, token, 0));
+        }
+    }
+
+    /**
+     * Передает аренду другому владельцу, как после истечения срока у текущего.
+     */
+    synchronized void expire(String job) {
+        SchedulerLeases.Lease current = leases.get(job);
+        leases.put(job, new SchedulerLeases.Lease(job, current.owner(), current.token(), 0));
+    }
+}
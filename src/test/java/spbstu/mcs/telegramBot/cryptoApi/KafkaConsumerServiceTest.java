@@ -0,0 +1,70 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.service.KafkaConsumerService;
+import spbstu.mcs.telegramBot.service.TelegramBotService;
+import spbstu.mcs.telegramBot.service.TelegramDeliveryScheduler;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Тесты чтения исходящих сообщений из Kafka
+ */
+@RunWith(JUnit4.class)
+public class KafkaConsumerServiceTest {
+    private static final String OUTGOING_TOPIC = "outgoing";
+    private static final TopicPartition PARTITION = new TopicPartition(OUTGOING_TOPIC, 0);
+
+    private static ConsumerRecord<String, String> outgoing(long offset, String text) {
+        return new ConsumerRecord<>(OUTGOING_TOPIC, 0, offset, "key",
+            "{\"messageId\":\"m" + offset + "\",\"chatId\":\"1\",\"priority\":\"ALERT\",\"message\":\"" + text + "\"}");
+    }
+
+    /**
+     * При переполненной очереди отправки сообщение не теряется: смещение подтверждается
+     * только до него, партиция перематывается на него и приостанавливается
+     */
+    @Test
+    public void testFullDeliveryQueuePausesWithoutCommittingRejectedRecord() {
+        MockConsumer<String, String> outgoingConsumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        outgoingConsumer.assign(List.of(PARTITION));
+        outgoingConsumer.updateBeginningOffsets(Map.of(PARTITION, 0L));
+        outgoingConsumer.addRecord(outgoing(0, "first"));
+        outgoingConsumer.addRecord(outgoing(1, "second"));
+        outgoingConsumer.addRecord(outgoing(2, "third"));
+
+        List<String> sent = new CopyOnWriteArrayList<>();
+        // Без токенов отправки очередь на одно сообщение не освобождается
+        TelegramDeliveryScheduler scheduler = new TelegramDeliveryScheduler(
+            (chatId, text) -> sent.add(text), 0.000001, 0, 0, 1, 1, 1);
+        KafkaConsumerService service = new KafkaConsumerService(mock(TelegramBotService.class), scheduler,
+            "incoming", OUTGOING_TOPIC, new MockConsumer<>(OffsetResetStrategy.EARLIEST), outgoingConsumer);
+
+        service.pollOutgoing();
+
+        assertEquals(1L, outgoingConsumer.committed(Set.of(PARTITION)).get(PARTITION).offset());
+        assertEquals(1L, outgoingConsumer.position(PARTITION));
+        assertTrue(outgoingConsumer.paused().contains(PARTITION));
+        assertEquals(1, scheduler.getStats().get("queueDepth"));
+
+        // Пока очередь заполнена, партиция остается приостановленной
+        service.pollOutgoing();
+        assertTrue(outgoingConsumer.paused().contains(PARTITION));
+        assertEquals(1L, outgoingConsumer.committed(Set.of(PARTITION)).get(PARTITION).offset());
+        assertTrue(sent.isEmpty());
+    }
+}
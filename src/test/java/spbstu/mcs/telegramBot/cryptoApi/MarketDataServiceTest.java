@@ -0,0 +1,105 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Тесты для MarketDataService
+ */
+@RunWith(JUnit4.class)
+public class MarketDataServiceTest {
+
+    private PriceFetcher priceFetcher;
+    private MarketDataService marketDataService;
+
+    @Before
+    public void setUp() {
+        priceFetcher = mock(PriceFetcher.class);
+        when(priceFetcher.getCurrentQuote(any(Crypto.class)))
+            .thenAnswer(invocation -> {
+                Crypto crypto = invocation.getArgument(0);
+                return Mono.just(new PriceQuote(crypto.getCode() + "-USDT", new BigDecimal("100"), 1234567890L));
+            });
+        marketDataService = new MarketDataService(priceFetcher, 60000, 3, new AdaptivePollingPlanner());
+    }
+
+    /**
+     * Без снимка цена запрашивается напрямую у PriceFetcher
+     */
+    @Test
+    public void testFallsBackToPriceFetcherWithoutSnapshot() {
+        StepVerifier.create(marketDataService.getCurrentPrice(Crypto.BTC))
+            .expectNextMatches(json -> json.contains("BTC-USDT"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        verify(priceFetcher, times(1)).getCurrentQuote(Crypto.BTC);
+        assertEquals(1L, marketDataService.getStats().get("fallbackReads"));
+    }
+
+    /**
+     * После обновления снимка чтения обслуживаются из памяти
+     */
+    @Test
+    public void testServesQuotesFromSnapshot() {
+        StepVerifier.create(marketDataService.refresh())
+            .assertNext(snapshot -> assertEquals(Crypto.values().length, snapshot.size()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        StepVerifier.create(marketDataService.getCurrentPrice(Crypto.ETH))
+            .expectNextMatches(json -> json.contains("ETH-USDT"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        verify(priceFetcher, times(1)).getCurrentQuote(Crypto.ETH);
+        assertEquals(1L, marketDataService.getStats().get("snapshotReads"));
+        assertTrue(marketDataService.getSnapshot().getQuote(Crypto.LTC).isPresent());
+    }
+
+    /**
+     * Устаревание проверяется по времени получения каждой котировки:
+     * свежий снимок не продлевает жизнь старой котировки
+     */
+    @Test
+    public void testStalenessIsTrackedPerQuote() throws InterruptedException {
+        MarketDataService service = new MarketDataService(priceFetcher, 100, 3, new AdaptivePollingPlanner());
+        StepVerifier.create(service.refresh(List.of(Crypto.BTC)))
+            .expectNextCount(1)
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+        Thread.sleep(150);
+        StepVerifier.create(service.refresh(List.of(Crypto.ETH)))
+            .assertNext(snapshot -> assertTrue(snapshot.getAgeMillis() < 100))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        StepVerifier.create(service.getCurrentQuote(Crypto.ETH)).expectNextCount(1).verifyComplete();
+        StepVerifier.create(service.getCurrentQuote(Crypto.BTC)).expectNextCount(1).verifyComplete();
+
+        verify(priceFetcher, times(2)).getCurrentQuote(Crypto.BTC);
+        verify(priceFetcher, times(1)).getCurrentQuote(Crypto.ETH);
+        assertEquals(1L, service.getStats().get("snapshotReads"));
+        assertEquals(1L, service.getStats().get("fallbackReads"));
+        assertTrue((Long) service.getStats().get("oldestQuoteAgeMs") >= 150);
+    }
+}
@@ -0,0 +1,77 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import spbstu.mcs.telegramBot.DB.services.MongoIndexReconciler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Тесты сверки индексов MongoDB при запуске
+ */
+@RunWith(JUnit4.class)
+public class MongoIndexReconcilerTest {
+
+    private static IndexInfo index(String name, boolean unique, String... fields) {
+        List<IndexField> indexFields = java.util.Arrays.stream(fields)
+            .map(field -> IndexField.create(field, Sort.Direction.ASC))
+            .toList();
+        return new IndexInfo(indexFields, name, unique, false, null);
+    }
+
+    /**
+     * Создаются только отсутствующие индексы; существующие с теми же полями
+     * (под любым именем) не пересоздаются, ошибка одного индекса не мешает остальным
+     */
+    @Test
+    public void testCreatesOnlyMissingIndexes() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        IndexOperations usersOps = mock(IndexOperations.class);
+        IndexOperations adminsOps = mock(IndexOperations.class);
+        IndexOperations otherOps = mock(IndexOperations.class);
+        when(mongoTemplate.indexOps(anyString())).thenReturn(otherOps);
+        when(mongoTemplate.indexOps("users")).thenReturn(usersOps);
+        when(mongoTemplate.indexOps("admins")).thenReturn(adminsOps);
+
+        // Индекс admins из mongo-init.js создан под именем по умолчанию
+        when(adminsOps.getIndexInfo()).thenReturn(List.of(
+            index("_id_", false, "_id"), index("username_1", true, "username")));
+        when(usersOps.getIndexInfo()).thenReturn(List.of(index("_id_", false, "_id")));
+        when(otherOps.getIndexInfo()).thenReturn(List.of(index("_id_", false, "_id")));
+        when(otherOps.ensureIndex(any())).thenReturn("ok");
+        when(usersOps.ensureIndex(any())).thenThrow(new RuntimeException("duplicate key"));
+
+        new MongoIndexReconciler(mongoTemplate).reconcile();
+
+        verify(adminsOps, never()).ensureIndex(any());
+        verify(usersOps, times(1)).ensureIndex(any());
+        // portfolios (2), notifications (3), candles (1)
+        ArgumentCaptor<IndexDefinition> created = ArgumentCaptor.forClass(IndexDefinition.class);
+        verify(otherOps, times(6)).ensureIndex(created.capture());
+
+        IndexDefinition candles = created.getAllValues().get(5);
+        assertEquals("candles_pair_interval_open", candles.getIndexOptions().get("name"));
+        assertEquals(Boolean.TRUE, candles.getIndexOptions().get("unique"));
+        assertEquals(List.of("cryptoCurrency", "interval", "openTime"),
+            List.copyOf(((Map<String, Object>) candles.getIndexKeys()).keySet()));
+    }
+}
@@ -9,6 +9,7 @@ import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -16,6 +17,7 @@ import static org.mockito.Mockito.when;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -26,9 +28,12 @@ import org.springframework.web.reactive.function.client.WebClient.RequestHeaders
 import org.springframework.web.reactive.function.client.WebClient.RequestHeadersUriSpec;
 import org.springframework.web.reactive.function.client.WebClient.ResponseSpec;
 
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import spbstu.mcs.telegramBot.DB.services.CandleService;
+import spbstu.mcs.telegramBot.model.Candle;
 import spbstu.mcs.telegramBot.model.Currency;
 import spbstu.mcs.telegramBot.model.Currency.Crypto;
 import spbstu.mcs.telegramBot.model.Currency.Fiat;
@@ -36,6 +41,8 @@ import spbstu.mcs.telegramBot.config.VaultConfig;
 
 import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Function;
 
 /**
@@ -53,6 +60,10 @@ public class PriceFetcherTest {
     private ArrayNode arrayNode;
     private JsonNode jsonNode;
     private VaultConfig vaultConfig;
+    private CandleService candleService;
+    private ExchangeCallGuard callGuard;
+    private ExchangeRateLimiter rateLimiter;
+    private PriceSourceHedger hedger;
     
     private PriceFetcher priceFetcher;
     
@@ -70,6 +81,8 @@ public class PriceFetcherTest {
         arrayNode = mock(ArrayNode.class);
         jsonNode = mock(JsonNode.class);
         vaultConfig = mock(VaultConfig.class);
+        // Ответы биржи разбираются потоковым декодером на реальной JsonFactory
+        doReturn(new JsonFactory()).when(objectMapper).getFactory();
         
         // Создаем WebClient напрямую
         webClient = mock(WebClient.class);
@@ -86,13 +99,22 @@ public class PriceFetcherTest {
         when(requestHeadersSpec.header(anyString(), anyString())).thenReturn(requestHeadersSpec);
         when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
         
+        // Создаем PriceFetcher с моками, без хранилища свечей
+        callGuard = new ExchangeCallGuard();
+        rateLimiter = new ExchangeRateLimiter();
+        // Без вторичного источника котировки запрашиваются только у BingX
+        hedger = new PriceSourceHedger(true, 1000, 50, null);
+        priceFetcher = newPriceFetcher(5000);
+    }
+
+    /**
+     * Создает PriceFetcher на моках WebClient с текущими зависимостями теста
+     */
+    private PriceFetcher newPriceFetcher(long quoteMaxAgeMillis) {
         // Используем фиксированные значения вместо Vault для тестов
-        String apiKey = "test-api-key";
-        String apiSecret = "test-api-secret";
-        String apiUrl = "https://test-api.com";
-        
-        // Создаем PriceFetcher с моками
-        priceFetcher = new PriceFetcher(webClientBuilder, objectMapper, apiKey, apiSecret, apiUrl);
+        return new PriceFetcher(webClientBuilder, objectMapper, "test-api-key", "test-api-secret",
+                "https://test-api.com", quoteMaxAgeMillis, candleService, callGuard, rateLimiter,
+                hedger);
     }
 
     /**
@@ -109,27 +131,6 @@ public class PriceFetcherTest {
             // Настройка ответа API - используем doReturn для предотвращения реальных вызовов
             doReturn(Mono.just(jsonResponse)).when(responseSpec).bodyToMono(String.class);
             
-            // Настройка мока для обработки JSON с doReturn для большей стабильности
-            doReturn(jsonNode).when(objectMapper).readTree(jsonResponse);
-            doReturn(true).when(jsonNode).has("data");
-            doReturn(arrayNode).when(jsonNode).get("data");
-            doReturn(true).when(arrayNode).isArray();
-            doReturn(1).when(arrayNode).size();
-            doReturn(jsonNode).when(arrayNode).get(0);
-            doReturn(true).when(jsonNode).has("trades");
-            doReturn(arrayNode).when(jsonNode).get("trades");
-            doReturn(jsonNode).when(arrayNode).get(0);
-            doReturn(jsonNode).when(jsonNode).get("price");
-            doReturn(jsonNode).when(jsonNode).get("timestamp");
-            doReturn("50000").when(jsonNode).asText();
-            doReturn(1234567890000L).when(jsonNode).asLong();
-            
-            // Настройка результирующего JSON
-            doReturn(objectNode).when(objectMapper).createObjectNode();
-            doReturn(objectNode).when(objectNode).put(anyString(), anyString());
-            doReturn(objectNode).when(objectNode).put(anyString(), anyLong());
-            doReturn("{\"symbol\":\"BTC-USDT\",\"price\":\"50000\",\"timestamp\":1234567890}").when(objectMapper).writeValueAsString(objectNode);
-            
             // Выполнение тестируемого метода с таймаутом
             Mono<String> result = priceFetcher.getCurrentPrice(crypto)
                 .timeout(java.time.Duration.ofSeconds(3));
@@ -152,6 +153,102 @@ public class PriceFetcherTest {
         }
     }
     
+    /**
+     * Тест метода getCurrentQuote - возвращает типизированную котировку без промежуточного JSON
+     */
+    @Test
+    public void testGetCurrentQuote() {
+        String jsonResponse = "{\"code\":0,\"data\":[{\"symbol\":\"BTC_USDT\",\"trades\":[{\"timestamp\":1234567890000,\"tradeId\":\"1\",\"price\":\"50000.5\",\"amount\":\"1\",\"type\":1,\"volume\":\"1\"}]}]}";
+        doReturn(Mono.just(jsonResponse)).when(responseSpec).bodyToMono(String.class);
+
+        StepVerifier.create(priceFetcher.getCurrentQuote(Crypto.BTC))
+            .assertNext(quote -> {
+                assertEquals("BTC-USDT", quote.symbol());
+                assertEquals(new BigDecimal("50000.5"), quote.price());
+                assertEquals(1234567890L, quote.timestamp());
+                assertEquals("{\"symbol\":\"BTC-USDT\",\"price\":\"50000.5\",\"timestamp\":1234567890}", quote.toJson());
+            })
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+    }
+    
+    /**
+     * При недоступной бирже возвращается последняя известная котировка с признаком stale
+     */
+    @Test
+    public void testServesLastKnownQuoteWhenExchangeFails() {
+        String jsonResponse = "{\"data\":[{\"trades\":[{\"price\":\"50000\",\"timestamp\":1234567890000}]}]}";
+        doReturn(Mono.just(jsonResponse), Mono.error(new RuntimeException("503 Service Unavailable")))
+            .when(responseSpec).bodyToMono(String.class);
+
+        callGuard = new ExchangeCallGuard(5, 60000, 0, 1, 0.1, 10);
+        PriceFetcher degradedFetcher = newPriceFetcher(0);
+
+        StepVerifier.create(degradedFetcher.getCurrentQuote(Crypto.BTC))
+            .assertNext(quote -> assertEquals(false, quote.stale()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        StepVerifier.create(degradedFetcher.getCurrentPrice(Crypto.BTC))
+            .expectNextMatches(json -> json.contains("\"price\":\"50000\"") && json.contains("\"stale\":true"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        assertEquals(1L, degradedFetcher.getResilienceStats().get("staleQuotesServed"));
+    }
+    
+    /**
+     * У каждой конечной точки свой выключатель: открытый выключатель котировок
+     * не блокирует запросы цены криптовалюты
+     */
+    @Test
+    public void testEndpointsHaveSeparateBreakers() {
+        String jsonResponse = "{\"code\":0,\"data\":[{\"symbol\":\"BTC_USDT\",\"price\":\"50000\"}]}";
+        doReturn(Mono.just(jsonResponse)).when(responseSpec).bodyToMono(String.class);
+        ExchangeCallGuard guard = new ExchangeCallGuard(1, 60000, 0, 1, 0.1, 10);
+        callGuard = guard;
+        priceFetcher = newPriceFetcher(5000);
+
+        StepVerifier.create(guard.call("bingx.ticker", Mono.error(new RuntimeException("exchange is down"))))
+            .expectErrorMessage("exchange is down")
+            .verify(Duration.ofSeconds(2));
+        assertEquals(CircuitBreaker.State.OPEN, guard.breaker("bingx.ticker").getState());
+
+        StepVerifier.create(priceFetcher.getCryptoPrice(Crypto.BTC))
+            .expectNext(new BigDecimal("50000"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+        assertEquals(CircuitBreaker.State.CLOSED, guard.breaker("bingx.crypto-price").getState());
+    }
+
+    /**
+     * Тест кэша котировок - повторные и одновременные запросы не обращаются к бирже
+     */
+    @Test
+    public void testGetCurrentPriceIsCachedAndCoalesced() throws Exception {
+        String jsonResponse = "{\"data\":[{\"trades\":[{\"price\":\"50000\",\"timestamp\":1234567890000}]}]}";
+        doReturn(Mono.just(jsonResponse).delayElement(Duration.ofMillis(100))).when(responseSpec).bodyToMono(String.class);
+
+        PriceFetcher cachingFetcher = newPriceFetcher(60000);
+
+        StepVerifier.create(Mono.zip(
+                    cachingFetcher.getCurrentPrice(Crypto.BTC),
+                    cachingFetcher.getCurrentPrice(Crypto.BTC)))
+            .assertNext(tuple -> assertEquals(tuple.getT1(), tuple.getT2()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        StepVerifier.create(cachingFetcher.getCurrentPrice(Crypto.BTC))
+            .expectNextMatches(json -> json.contains("50000"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        verify(responseSpec, times(1)).bodyToMono(String.class);
+        assertEquals(1L, cachingFetcher.getQuoteCacheStats().get("misses"));
+        assertEquals(1L, cachingFetcher.getQuoteCacheStats().get("coalesced"));
+        assertEquals(1L, cachingFetcher.getQuoteCacheStats().get("hits"));
+    }
+    
     /**
      * Тест метода getSymbolPriceByTime - проверяет получение исторической цены криптовалюты
      */
@@ -215,6 +312,96 @@ public class PriceFetcherTest {
     
 
     
+    /**
+     * Тест хранилища свечей - сохраненная свеча отдается без запроса к бирже,
+     * отсутствующая загружается и сохраняется
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetSymbolPriceByTimeUsesCandleStore() {
+        final long storedTime = 1699999980000L;
+        final long missingTime = 1700000040000L;
+        candleService = mock(CandleService.class);
+        when(candleService.findCandle(Crypto.BTC, Candle.INTERVAL_1M, storedTime))
+            .thenReturn(Mono.just(new Candle(Crypto.BTC, Candle.INTERVAL_1M, storedTime,
+                new BigDecimal("42000.5"), new BigDecimal("42100"), new BigDecimal("41900"),
+                new BigDecimal("42050"), new BigDecimal("12.3"))));
+        when(candleService.findCandle(Crypto.BTC, Candle.INTERVAL_1M, missingTime)).thenReturn(Mono.empty());
+        when(candleService.saveCandles(any(List.class))).thenReturn(Mono.just(1));
+        doReturn(Mono.just("{\"data\":[[1700000040000,\"42050\",\"42080\",\"42010\",\"42070\",\"3.1\"]]}"))
+            .when(responseSpec).bodyToMono(String.class);
+
+        PriceFetcher storeFetcher = newPriceFetcher(5000);
+
+        StepVerifier.create(storeFetcher.getSymbolPriceByTime(Crypto.BTC, storedTime / 1000))
+            .expectNextMatches(json -> json.contains("42000.5") && json.contains("1699999980"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+        verify(responseSpec, never()).bodyToMono(String.class);
+
+        StepVerifier.create(storeFetcher.getSymbolPriceByTime(Crypto.BTC, missingTime))
+            .expectNextMatches(json -> json.contains("42050") && json.contains("1700000040"))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+        verify(responseSpec, times(1)).bodyToMono(String.class);
+        verify(candleService, org.mockito.Mockito.timeout(1000)).saveCandles(any(List.class));
+
+        assertEquals(1L, storeFetcher.getCandleStoreStats().get("hits"));
+        assertEquals(1L, storeFetcher.getCandleStoreStats().get("misses"));
+    }
+
+    /**
+     * Тест метода getKlines - недостающие участки диапазона загружаются
+     * частями по 500 свечей, сохраненные берутся из хранилища
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGetKlinesFetchesOnlyMissingChunks() {
+        final long minute = 60000L;
+        final long start = 1699999980000L;
+        final long end = start + 1200 * minute;
+
+        List<Candle> stored = new ArrayList<>();
+        for (int i = 500; i < 600; i++) {
+            stored.add(new Candle(Crypto.BTC, Candle.INTERVAL_1M, start + i * minute,
+                BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE, BigDecimal.ONE));
+        }
+        candleService = mock(CandleService.class);
+        when(candleService.findCandles(Crypto.BTC, Candle.INTERVAL_1M, start, end))
+            .thenReturn(Flux.fromIterable(stored));
+        when(candleService.saveCandles(any(List.class))).thenReturn(Mono.just(1100));
+
+        StringBuilder response = new StringBuilder("{\"data\":[");
+        for (int i = 0; i < 1200; i++) {
+            if (i > 0) {
+                response.append(',');
+            }
+            response.append("[").append(start + i * minute).append(",\"2\",\"3\",\"1\",\"2\",\"5\"]");
+        }
+        response.append("]}");
+        doReturn(Mono.just(response.toString())).when(responseSpec).bodyToMono(String.class);
+
+        PriceFetcher rangeFetcher = newPriceFetcher(5000);
+
+        StepVerifier.create(rangeFetcher.getKlines(Crypto.BTC, Candle.INTERVAL_1M, start, end).collectList())
+            .assertNext(candles -> {
+                assertEquals(1200, candles.size());
+                for (int i = 0; i < candles.size(); i++) {
+                    assertEquals(Long.valueOf(start + i * minute), candles.get(i).getOpenTime());
+                }
+                assertEquals(BigDecimal.ONE, candles.get(550).getOpen());
+                assertEquals(new BigDecimal("2"), candles.get(0).getOpen());
+            })
+            .expectComplete()
+            .verify(Duration.ofSeconds(5));
+
+        // [0, 500) одним запросом, [600, 1200) двумя
+        verify(responseSpec, times(3)).bodyToMono(String.class);
+        verify(candleService, org.mockito.Mockito.timeout(1000)).saveCandles(any(List.class));
+        assertEquals(100L, rangeFetcher.getCandleStoreStats().get("hits"));
+        assertEquals(1100L, rangeFetcher.getCandleStoreStats().get("misses"));
+    }
+
     /**
      * Тест метода getFiatRate - возвращает курс фиатной валюты
      */
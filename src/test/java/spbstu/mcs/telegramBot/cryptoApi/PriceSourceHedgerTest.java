@@ -0,0 +1,104 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import spbstu.mcs.telegramBot.model.Currency.Crypto;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тесты хеджирования запросов котировок между источниками
+ */
+@RunWith(JUnit4.class)
+public class PriceSourceHedgerTest {
+
+    private static PriceSource source(String name, String price, Duration latency, AtomicInteger calls) {
+        return new PriceSource() {
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public Mono<PriceQuote> fetchCurrentQuote(Crypto crypto) {
+                return Mono.defer(() -> {
+                    calls.incrementAndGet();
+                    return Mono.delay(latency)
+                        .thenReturn(new PriceQuote(crypto.getCode() + "-USDT", new BigDecimal(price), 1700000000L));
+                });
+            }
+        };
+    }
+
+    /**
+     * Медленный основной источник хеджируется во вторичный
+     */
+    @Test
+    public void testSlowPrimaryIsHedged() {
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        PriceSourceHedger hedger = new PriceSourceHedger(true, 100, 10,
+            source("secondary", "50001", Duration.ofMillis(10), secondaryCalls));
+
+        StepVerifier.create(hedger.fetch(source("primary", "50000", Duration.ofSeconds(5), new AtomicInteger()), Crypto.BTC))
+            .assertNext(quote -> assertEquals(new BigDecimal("50001"), quote.price()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        assertEquals(1, secondaryCalls.get());
+        assertEquals(1L, hedger.getStats().get("hedgesFired"));
+    }
+
+    /**
+     * Быстрый основной источник отвечает без обращения ко вторичному
+     */
+    @Test
+    public void testFastPrimaryIsNotHedged() {
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        PriceSourceHedger hedger = new PriceSourceHedger(true, 500, 10,
+            source("secondary", "50001", Duration.ofMillis(10), secondaryCalls));
+
+        StepVerifier.create(hedger.fetch(source("primary", "50000", Duration.ofMillis(5), new AtomicInteger()), Crypto.BTC))
+            .assertNext(quote -> assertEquals(new BigDecimal("50000"), quote.price()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        assertEquals(0, secondaryCalls.get());
+        assertEquals(0L, hedger.getStats().get("hedgesFired"));
+    }
+
+    /**
+     * Ошибка основного источника сразу переводит запрос во вторичный
+     */
+    @Test
+    public void testPrimaryErrorHedgesImmediately() {
+        AtomicInteger secondaryCalls = new AtomicInteger();
+        PriceSourceHedger hedger = new PriceSourceHedger(true, 10000, 10,
+            source("secondary", "50001", Duration.ofMillis(10), secondaryCalls));
+        PriceSource failing = new PriceSource() {
+            @Override
+            public String getName() {
+                return "primary";
+            }
+
+            @Override
+            public Mono<PriceQuote> fetchCurrentQuote(Crypto crypto) {
+                return Mono.error(new RuntimeException("503 Service Unavailable"));
+            }
+        };
+
+        StepVerifier.create(hedger.fetch(failing, Crypto.ETH))
+            .assertNext(quote -> assertEquals("ETH-USDT", quote.symbol()))
+            .expectComplete()
+            .verify(Duration.ofSeconds(2));
+
+        assertEquals(1, secondaryCalls.get());
+    }
+}
@@ -0,0 +1,93 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import spbstu.mcs.telegramBot.DB.services.SchedulerLeases;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Тесты выбора лидера для заданий с одним исполнителем на кластер
+ */
+@RunWith(JUnit4.class)
+public class SchedulerLeasesTest {
+    private static final String JOB = "test.job";
+
+    /**
+     * Задание выполняет только лидер; после истечения его аренды задание
+     * переходит к другому экземпляру с большим токеном, а старый токен
+     * больше не проходит проверку ограждения
+     */
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSingleLeaderAndFencedHandoff() {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        SchedulerLeases first = new SchedulerLeases(store, true, 30000);
+        SchedulerLeases second = new SchedulerLeases(store, true, 30000);
+        List<String> runs = new ArrayList<>();
+
+        assertTrue(first.runIfLeader(JOB, token -> runs.add("first:" + token)));
+        assertFalse(second.runIfLeader(JOB, token -> runs.add("second:" + token)));
+        // Лидер продлевает аренду и сохраняет токен
+        assertTrue(first.runIfLeader(JOB, token -> runs.add("first:" + token)));
+        assertEquals(List.of("first:1", "first:1"), runs);
+
+        // Первый экземпляр завис, его аренда истекла
+        store.expire(JOB);
+        assertTrue(second.runIfLeader(JOB, token -> runs.add("second:" + token)));
+        assertEquals("second:2", runs.get(runs.size() - 1));
+
+        // Запись со старым токеном отклоняется, со свежим — проходит
+        assertFalse(first.isCurrent(JOB, 1));
+        assertTrue(second.isCurrent(JOB, 2));
+        assertFalse(first.runIfLeader(JOB, token -> runs.add("first:" + token)));
+
+        Map<String, Object> firstStats = first.getStats();
+        Map<String, Object> secondStats = second.getStats();
+        assertEquals(1L, firstStats.get("lost"));
+        assertEquals(1L, firstStats.get("fencedWrites"));
+        assertEquals(1L, secondStats.get("handoffs"));
+        assertEquals(2L, ((Map<String, Object>) secondStats.get("leading")).get(JOB));
+    }
+
+    /**
+     * Освобожденная при остановке аренда сразу доступна другому экземпляру
+     */
+    @Test
+    public void testReleasedLeaseIsTakenOverImmediately() {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        SchedulerLeases first = new SchedulerLeases(store, true, 30000);
+        SchedulerLeases second = new SchedulerLeases(store, true, 30000);
+
+        assertTrue(first.acquire(JOB).isPresent());
+        assertTrue(second.acquire(JOB).isEmpty());
+        first.releaseAll();
+        assertEquals(2L, second.acquire(JOB).getAsLong());
+        assertTrue(second.isLeader(JOB));
+        assertFalse(first.isLeader(JOB));
+    }
+
+    /**
+     * Повторный захват своей же аренды увеличивает токен, но не считается сменой лидера
+     */
+    @Test
+    public void testReacquiringOwnLeaseIsNotHandoff() {
+        InMemoryLeaseStore store = new InMemoryLeaseStore();
+        SchedulerLeases leases = new SchedulerLeases(store, true, 30000);
+
+        assertEquals(1L, leases.acquire(JOB).getAsLong());
+        leases.releaseAll();
+        assertEquals(2L, leases.acquire(JOB).getAsLong());
+
+        assertEquals(2L, leases.getStats().get("acquisitions"));
+        assertEquals(0L, leases.getStats().get("handoffs"));
+    }
+}
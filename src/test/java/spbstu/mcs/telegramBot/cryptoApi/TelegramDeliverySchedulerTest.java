@@ -0,0 +1,201 @@
+package spbstu.mcs.telegramBot.cryptoApi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import org.telegram.telegrambots.meta.api.objects.ResponseParameters;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import spbstu.mcs.telegramBot.service.TelegramDeliveryScheduler;
+import spbstu.mcs.telegramBot.service.TelegramDeliveryScheduler.Priority;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Тесты планировщика отправки сообщений в Telegram
+ */
+@RunWith(JUnit4.class)
+public class TelegramDeliverySchedulerTest {
+
+    private record Sent(String chatId, String text, long atNanos) {}
+
+    private static TelegramApiRequestException apiError(int code, Integer retryAfter) {
+        TelegramApiRequestException error = mock(TelegramApiRequestException.class);
+        when(error.getErrorCode()).thenReturn(code);
+        when(error.getParameters()).thenReturn(new ResponseParameters(null, retryAfter));
+        when(error.getMessage()).thenReturn("Error " + code);
+        return error;
+    }
+
+    /**
+     * Ждет, пока завершатся все отправки: счетчики обновляются после возврата из отправки
+     */
+    private static void awaitIdle(TelegramDeliveryScheduler scheduler) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!scheduler.getStats().get("inFlight").equals(0) || !scheduler.getStats().get("queueDepth").equals(0)) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static List<String> textsTo(List<Sent> sent, String chatId) {
+        return sent.stream().filter(message -> message.chatId().equals(chatId)).map(Sent::text).toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> priorityStats(TelegramDeliveryScheduler scheduler, Priority priority) {
+        Map<String, Object> priorities = (Map<String, Object>) scheduler.getStats().get("priorities");
+        return (Map<String, Object>) priorities.get(priority.name().toLowerCase());
+    }
+
+    /**
+     * Когда общих токенов не хватает, алерты уходят раньше информационных ответов,
+     * поставленных в очередь до них
+     */
+    @Test
+    public void testAlertsAreDeliveredBeforeQueuedReplies() throws Exception {
+        List<Sent> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(5);
+        TelegramDeliveryScheduler scheduler = new TelegramDeliveryScheduler(
+            (chatId, text) -> {
+                sent.add(new Sent(chatId, text, System.nanoTime()));
+                done.countDown();
+            }, 20, 1, 1000, 3, 100, 1);
+
+        // Проход планировщика ждет блокировку, поэтому все сообщения попадают в очередь до отправки
+        synchronized (scheduler) {
+            scheduler.submit("1", "reply-1", Priority.INFO);
+            scheduler.submit("2", "reply-2", Priority.INFO);
+            scheduler.submit("3", "reply-3", Priority.INFO);
+            scheduler.submit("4", "alert-4", Priority.ALERT);
+            scheduler.submit("5", "alert-5", Priority.ALERT);
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("alert-4", "alert-5", "reply-1", "reply-2", "reply-3"),
+            sent.stream().map(Sent::text).toList());
+        // Один токен в ведре и 20 токенов в секунду: 5 сообщений не быстрее чем за 200 мс
+        assertTrue(sent.get(4).atNanos() - sent.get(0).atNanos() >= TimeUnit.MILLISECONDS.toNanos(150));
+
+        awaitIdle(scheduler);
+        assertEquals(2L, priorityStats(scheduler, Priority.ALERT).get("sent"));
+        assertEquals(3L, priorityStats(scheduler, Priority.INFO).get("sent"));
+        scheduler.shutdown();
+    }
+
+    /**
+     * В один чат сообщения уходят по одному за интервал и в порядке поступления
+     */
+    @Test
+    public void testPerChatIntervalIsRespected() throws Exception {
+        List<Sent> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        TelegramDeliveryScheduler scheduler = new TelegramDeliveryScheduler(
+            (chatId, text) -> {
+                sent.add(new Sent(chatId, text, System.nanoTime()));
+                done.countDown();
+            }, 1000, 100, 200, 3, 100, 2);
+
+        scheduler.submit("1", "first", Priority.INFO);
+        scheduler.submit("1", "second", Priority.INFO);
+        scheduler.submit("1", "third", Priority.INFO);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("first", "second", "third"), sent.stream().map(Sent::text).toList());
+        for (int i = 1; i < sent.size(); i++) {
+            assertTrue(sent.get(i).atNanos() - sent.get(i - 1).atNanos() >= TimeUnit.MILLISECONDS.toNanos(190));
+        }
+        scheduler.shutdown();
+    }
+
+    /**
+     * Ответ 429 откладывает чат на retry_after без потери сообщения,
+     * ошибка запроса (бот заблокирован) не повторяется
+     */
+    @Test
+    public void testRetryAfterIsHonouredAndClientErrorsAreNotRetried() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        List<Sent> sent = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        TelegramDeliveryScheduler scheduler = new TelegramDeliveryScheduler(
+            (chatId, text) -> {
+                if (chatId.equals("blocked")) {
+                    throw apiError(403, null);
+                }
+                if (attempts.incrementAndGet() == 1) {
+                    throw apiError(429, 1);
+                }
+                sent.add(new Sent(chatId, text, System.nanoTime()));
+                done.countDown();
+            }, 100, 10, 50, 3, 100, 1);
+
+        long start = System.nanoTime();
+        scheduler.submit("blocked", "lost", Priority.INFO);
+        scheduler.submit("1", "alert", Priority.ALERT);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        awaitIdle(scheduler);
+        assertEquals(2, attempts.get());
+        assertTrue(sent.get(0).atNanos() - start >= TimeUnit.MILLISECONDS.toNanos(1000));
+        assertEquals(1L, scheduler.getStats().get("rateLimited"));
+        assertEquals(0L, scheduler.getStats().get("retried"));
+        assertEquals(1L, priorityStats(scheduler, Priority.ALERT).get("sent"));
+        assertTrue((Long) priorityStats(scheduler, Priority.ALERT).get("maxLagMs") >= 1000);
+        assertEquals(1L, priorityStats(scheduler, Priority.INFO).get("failed"));
+        scheduler.shutdown();
+    }
+
+    /**
+     * Сообщения всплеска в один чат объединяются в одно, пока текст помещается
+     * в предельную длину; остаток уходит следующим сообщением
+     */
+    @Test
+    public void testBurstToSameChatIsCoalesced() throws Exception {
+        List<Sent> sent = new CopyOnWriteArrayList<>();
+        TelegramDeliveryScheduler scheduler = new TelegramDeliveryScheduler(
+            (chatId, text) -> sent.add(new Sent(chatId, text, System.nanoTime())),
+            1000, 100, 100, 3, 100, 1, true, 100, 30);
+
+        scheduler.submit("1", "alert-1", Priority.ALERT);
+        scheduler.submit("1", "alert-2", Priority.ALERT);
+        scheduler.submit("2", "alert-x", Priority.ALERT);
+        scheduler.submit("1", "alert-3", Priority.ALERT);
+        scheduler.submit("1", "alert-4", Priority.ALERT);
+
+        awaitIdle(scheduler);
+        // 3 части по 7 символов и 2 разделителя — 25 символов, четвертая уже не помещается в 30
+        assertEquals(List.of("alert-1\n\nalert-2\n\nalert-3", "alert-4"), textsTo(sent, "1"));
+        assertEquals(List.of("alert-x"), textsTo(sent, "2"));
+        assertEquals(3L, scheduler.getStats().get("calls"));
+        assertEquals(2L, scheduler.getStats().get("coalesced"));
+        assertEquals(5L, priorityStats(scheduler, Priority.ALERT).get("sent"));
+        scheduler.shutdown();
+    }
+
+    /**
+     * Приоритет задается в контексте Reactor, без него сообщение информационное
+     */
+    @Test
+    public void testPriorityIsReadFromReactorContext() {
+        Mono<Priority> priority = Mono.deferContextual(context -> Mono.just(TelegramDeliveryScheduler.priorityOf(context)));
+
+        StepVerifier.create(priority.contextWrite(TelegramDeliveryScheduler.priority(Priority.ALERT)))
+            .expectNext(Priority.ALERT)
+            .verifyComplete();
+        StepVerifier.create(priority)
+            .expectNext(Priority.INFO)
+            .verifyComplete();
+    }
+}